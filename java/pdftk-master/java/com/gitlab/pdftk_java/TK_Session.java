@@ -22,14 +22,17 @@
 
 package com.gitlab.pdftk_java;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,6 +41,11 @@ import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.UnknownFormatConversionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import pdftk.com.lowagie.text.Document;
@@ -61,6 +69,7 @@ import pdftk.com.lowagie.text.pdf.PdfNumber;
 import pdftk.com.lowagie.text.pdf.PdfObject;
 import pdftk.com.lowagie.text.pdf.PdfReader;
 import pdftk.com.lowagie.text.pdf.PdfStamperImp;
+import pdftk.com.lowagie.text.pdf.RandomAccessFileOrArray;
 import pdftk.com.lowagie.text.pdf.PdfWriter;
 import pdftk.com.lowagie.text.pdf.XfdfReader;
 
@@ -72,6 +81,10 @@ class TK_Session {
   boolean m_verbose_reporting_b = false;
   boolean m_ask_about_warnings_b = pdftk.ASK_ABOUT_WARNINGS; // set default at compile-time
 
+  // read input objects on demand instead of loading whole documents
+  boolean m_input_lazy_b = false;
+  long m_input_cache_limit_mb = 16; // megabytes of released objects kept per reader
+
   // typedef unsigned long PageNumber;
   enum PageRotate {
     NORTH(0),
@@ -93,6 +106,7 @@ class TK_Session {
 
     // keep track of which pages get output under which readers,
     // because one reader mayn't output the same page twice;
+    // the reader is null while it isn't open, see defer_readers()
     static class PagesReader {
       HashSet<Integer> first = new HashSet<Integer>();
       PdfReader second;
@@ -113,10 +127,67 @@ class TK_Session {
   // store input PDF handles here
   HashMap<String, Integer> m_input_pdf_index = new HashMap<String, Integer>();
 
+  // in lazy mode, cat and shuffle only check each input up front, for its
+  // password, xref and page count; it is opened again when its first page
+  // is added to the output, and closed once its last page is added
+  boolean defer_readers() {
+    return m_input_lazy_b && (m_operation == keyword.cat_k || m_operation == keyword.shuffle_k);
+  }
+
+  // stdin can't be read again, so its reader is kept open
+  boolean defer_reader(InputPdf input_pdf_p) {
+    return defer_readers() && !input_pdf_p.m_filename.equals("-");
+  }
+
+  // generally useful operations
+  void prepare_reader(PdfReader reader) {
+    reader.consolidateNamedDestinations();
+    if (!m_input_lazy_b) { // would read every object
+      reader.removeUnusedObjects();
+    }
+    // reader->shuffleSubsetNames(); // changes the PDF subset names, but not the PostScript
+    // font names
+  }
+
+  // open the reader of pr again, if it is deferred; on error, report
+  // it and return null
+  PdfReader get_reader(InputPdf input_pdf_p, InputPdf.PagesReader pr) {
+    if (pr.second == null) {
+      try {
+        byte[] password =
+            input_pdf_p.m_password.isEmpty()
+                ? null
+                : passwords.utf8_password_to_pdfdoc(input_pdf_p.m_password, false);
+        PdfReader reader = open_reader(input_pdf_p.m_filename, password);
+        prepare_reader(reader);
+        pr.second = reader;
+      } catch (IOException ioe_p) {
+        System.err.println("Error: Failed to open PDF file: ");
+        System.err.println("   " + input_pdf_p.m_filename);
+      }
+    }
+    return pr.second;
+  }
+
+  // close the reader of pr, if it is deferred, to be opened again if need be
+  void put_reader(InputPdf input_pdf_p, InputPdf.PagesReader pr) {
+    if (defer_reader(input_pdf_p) && pr.second != null) {
+      pr.second.close();
+      pr.second = null;
+    }
+  }
+
   InputPdf.PagesReader add_reader(InputPdf input_pdf_p, boolean keep_artifacts_b) {
     boolean open_success_b = true;
     InputPdf.PagesReader pr = null;
 
+    // the input has been checked already
+    if (defer_reader(input_pdf_p) && !input_pdf_p.m_readers.isEmpty()) {
+      pr = new InputPdf.PagesReader(null);
+      input_pdf_p.m_readers.add(pr);
+      return pr;
+    }
+
     try {
       PdfReader reader = null;
       if (input_pdf_p.m_filename.equals("PROMPT")) {
@@ -124,7 +195,7 @@ class TK_Session {
             pdftk.prompt_for_filename("Please enter a filename for an input PDF:");
       }
       if (input_pdf_p.m_password.isEmpty()) {
-        reader = new PdfReader(input_pdf_p.m_filename);
+        reader = open_reader(input_pdf_p.m_filename, null);
       } else {
         if (input_pdf_p.m_password.equals("PROMPT")) {
           input_pdf_p.m_password =
@@ -136,7 +207,7 @@ class TK_Session {
                 input_pdf_p.m_password, false); // allow user to enter greatest selection of chars
 
         if (password != null) {
-          reader = new PdfReader(input_pdf_p.m_filename, password);
+          reader = open_reader(input_pdf_p.m_filename, password);
           if (reader == null) {
             System.err.println("Error: Unexpected null from open_reader()");
             return null; // <--- return
@@ -149,16 +220,18 @@ class TK_Session {
         }
       }
 
-      if (!keep_artifacts_b) {
-        // generally useful operations
-        reader.consolidateNamedDestinations();
-        reader.removeUnusedObjects();
-        // reader->shuffleSubsetNames(); // changes the PDF subset names, but not the PostScript
-        // font names
+      if (!keep_artifacts_b && !defer_reader(input_pdf_p)) {
+        prepare_reader(reader);
       }
 
       input_pdf_p.m_num_pages = reader.getNumberOfPages();
 
+      // the output of cat and shuffle has the greatest version of its inputs
+      if ((m_operation == keyword.cat_k || m_operation == keyword.shuffle_k)
+          && input_pdf_p.m_readers.isEmpty()) {
+        add_pdf_version(reader);
+      }
+
       // keep tally of which pages have been laid claim to in this reader;
       // when creating the final PDF, this tally will be decremented
       pr = new InputPdf.PagesReader(reader);
@@ -178,6 +251,8 @@ class TK_Session {
       if (!input_pdf_p.m_authorized_b) {
         open_success_b = false;
       }
+
+      put_reader(input_pdf_p, pr);
     } catch (IOException ioe_p) { // file open error
       if (ioe_p.getMessage().equals("Bad password")) {
         input_pdf_p.m_authorized_b = false;
@@ -230,6 +305,52 @@ class TK_Session {
     return add_reader(input_pdf_p, false);
   }
 
+  // in lazy mode only the xref is read up front; objects are read as
+  // they are used and, once released, kept in a bounded cache
+  PdfReader open_reader(String filename, byte[] password) throws IOException {
+    boolean previous_b = (m_input_previous != null && filename.equals(PREVIOUS_INPUT));
+    if (!m_input_lazy_b) {
+      return previous_b
+          ? new PdfReader(m_input_previous, password)
+          : new PdfReader(filename, password);
+    }
+    RandomAccessFileOrArray file =
+        previous_b
+            ? new RandomAccessFileOrArray(m_input_previous)
+            : new RandomAccessFileOrArray(filename);
+    PdfReader reader = new PdfReader(file, password);
+    reader.setPartialCacheLimit(m_input_cache_limit_mb * 1024 * 1024);
+    return reader;
+  }
+
+  // the PDF output of cat, shuffle and filter
+  OutputStream get_output_stream() {
+    if (m_output_memory != null) {
+      return m_output_memory;
+    }
+    return pdftk.get_output_stream(m_output_filename, m_ask_about_warnings_b);
+  }
+
+  // close the output of cat or shuffle without writing it, and remove
+  // the file it was going to
+  void abandon_output(OutputStream ofs_p) {
+    System.err.println("   No output created.");
+    if (ofs_p instanceof FileOutputStream) {
+      try {
+        ofs_p.close();
+      } catch (IOException e) {
+      }
+      if (!m_output_filename.isEmpty() && !m_output_filename.equals("PROMPT")) {
+        new File(m_output_filename).delete();
+      }
+    }
+  }
+
+  // the output of this stage of a pipeline, once it has been created
+  byte[] get_output_memory() {
+    return m_output_memory == null ? null : m_output_memory.toByteArray();
+  }
+
   boolean open_input_pdf_readers() {
     // try opening the input files and init m_input_pdf readers
     boolean open_success_b = true;
@@ -306,6 +427,7 @@ class TK_Session {
     // output arg.s, only
     encrypt_40bit_k,
     encrypt_128bit_k,
+    encrypt_aes256_k,
 
     // user permissions
     perm_printing_k,
@@ -321,6 +443,9 @@ class TK_Session {
     // filters
     filt_uncompress_k,
     filt_compress_k,
+    compress_objects_k,
+    objects_per_stream_k,
+    dedup_objects_k,
 
     // forms
     flatten_k,
@@ -330,6 +455,13 @@ class TK_Session {
     keep_first_id_k,
     keep_final_id_k,
 
+    // input loading
+    lazy_load_k,
+    cache_limit_k,
+
+    // pipelines
+    then_k,
+
     // pdftk options
     verbose_k,
     dont_ask_k,
@@ -450,6 +582,12 @@ class TK_Session {
         || ss.equals("encrypt_128_bit")
         || ss.equals("encrypt_128_bits")) {
       return keyword.encrypt_128bit_k;
+    } else if (ss.equals("encrypt_aes256")
+        || ss.equals("encrypt_aes_256")
+        || ss.equals("encryptaes256")
+        || ss.equals("encrypt_aes256bit")
+        || ss.equals("encrypt_aes256bits")) {
+      return keyword.encrypt_aes256_k;
     }
 
     // user permissions; must follow user_perms_k;
@@ -475,6 +613,12 @@ class TK_Session {
       return keyword.filt_uncompress_k;
     } else if (ss.equals("compress")) {
       return keyword.filt_compress_k;
+    } else if (ss.equals("compress_objects") || ss.equals("compressobjects")) {
+      return keyword.compress_objects_k;
+    } else if (ss.equals("objects_per_stream") || ss.equals("objectsperstream")) {
+      return keyword.objects_per_stream_k;
+    } else if (ss.equals("dedup_objects") || ss.equals("dedupobjects")) {
+      return keyword.dedup_objects_k;
     } else if (ss.equals("flatten")) {
       return keyword.flatten_k;
     } else if (ss.equals("need_appearances")) {
@@ -487,6 +631,12 @@ class TK_Session {
       return keyword.keep_first_id_k;
     } else if (ss.equals("keep_final_id")) {
       return keyword.keep_final_id_k;
+    } else if (ss.equals("lazy_load") || ss.equals("lazyload")) {
+      return keyword.lazy_load_k;
+    } else if (ss.equals("cache_limit") || ss.equals("cachelimit")) {
+      return keyword.cache_limit_k;
+    } else if (ss.equals("then")) {
+      return keyword.then_k;
     } else if (ss.equals("verbose")) {
       return keyword.verbose_k;
     } else if (ss.equals("dont_ask") || ss.equals("dontask")) {
@@ -515,6 +665,11 @@ class TK_Session {
     return keyword.none_k;
   }
 
+  // the keywords from cat_k to rotate_k name operations
+  static boolean is_operation(keyword kw) {
+    return keyword.cat_k.compareTo(kw) <= 0 && kw.compareTo(keyword.rotate_k) <= 0;
+  }
+
   static keyword consume_keyword(StringBuilder ssb) {
     String ss = new String(ssb).toLowerCase();
     // cat range keywords
@@ -568,6 +723,11 @@ class TK_Session {
   boolean m_multibackground_b = false; // use all pages of input background PDF, not just the first
   boolean m_output_uncompress_b = false;
   boolean m_output_compress_b = false;
+  // pack objects into object streams and write an xref stream
+  boolean m_output_compress_objects_b = false;
+  int m_output_objects_per_stream = 200;
+  // write objects that the input PDFs have in common only once
+  boolean m_output_dedup_objects_b = false;
   boolean m_output_flatten_b = false;
   boolean m_output_need_appearances_b = false;
   boolean m_output_drop_xfa_b = false;
@@ -579,12 +739,40 @@ class TK_Session {
   enum encryption_strength {
     none_enc,
     bits40_enc,
-    bits128_enc
+    bits128_enc,
+    aes256_enc
   };
 
   encryption_strength m_output_encryption_strength = encryption_strength.none_enc;
 
+  // in a pipeline, the output of the previous stage, read as the input
+  // named PREVIOUS, and the buffer that takes the output of this stage,
+  // unless it is the last one
+  static final String PREVIOUS_INPUT = "PREVIOUS";
+  byte[] m_input_previous = null;
+  ByteArrayOutputStream m_output_memory = null;
+
   TK_Session(String[] args) {
+    this(args, null, false);
+  }
+
+  TK_Session(String[] args, byte[] input_previous, boolean output_memory_b) {
+    m_input_previous = input_previous;
+    boolean output_given_b = false;
+    if (output_memory_b) {
+      m_output_memory = new ByteArrayOutputStream();
+      for (String argv : args) {
+        output_given_b = output_given_b || (is_keyword(argv) == keyword.output_k);
+      }
+      if (!output_given_b) {
+        // parse the stage as if it wrote to stdout, for the defaults that
+        // come with "output"; get_output_stream() knows better
+        args = Arrays.copyOf(args, args.length + 2);
+        args[args.length - 2] = "output";
+        args[args.length - 1] = "-";
+      }
+    }
+
     ArgState arg_state = ArgState.input_files_e;
 
     // set one and only one to true when p/w used; use to
@@ -597,13 +785,23 @@ class TK_Session {
     boolean fail_b = false;
 
     // first, look for our "dont_ask" or "do_ask" keywords, since this
-    // setting must be known before we begin opening documents, etc.
-    for (String argv : args) {
-      keyword kw = is_keyword(argv);
+    // setting must be known before we begin opening documents, etc.;
+    // likewise for "lazy_load" and "cache_limit"
+    for (int ii = 0; ii < args.length; ++ii) {
+      keyword kw = is_keyword(args[ii]);
       if (kw == keyword.dont_ask_k) {
         m_ask_about_warnings_b = false;
       } else if (kw == keyword.do_ask_k) {
         m_ask_about_warnings_b = true;
+      } else if (kw == keyword.lazy_load_k) {
+        m_input_lazy_b = true;
+      } else if (kw == keyword.cache_limit_k && ii + 1 < args.length) {
+        m_input_lazy_b = true;
+        try {
+          m_input_cache_limit_mb = Long.parseLong(args[ii + 1]);
+        } catch (NumberFormatException e) {
+          // reported when the output section is parsed
+        }
       }
     }
 
@@ -1422,6 +1620,51 @@ class TK_Session {
           }
           break;
 
+        case output_cache_limit_e:
+          {
+            // the value itself was picked up before opening the input PDFs
+            boolean valid_b = true;
+            try {
+              valid_b = (0 <= Long.parseLong(argv));
+            } catch (NumberFormatException e) {
+              valid_b = false;
+            }
+            if (!valid_b) {
+              System.err.println("Error: expecting a size in megabytes after cache_limit,");
+              System.err.println("   instead I got: " + argv);
+              System.err.println("Exiting.");
+              fail_b = true;
+              break;
+            }
+
+            // revert state
+            arg_state = ArgState.output_args_e;
+          }
+          break;
+
+        case output_objects_per_stream_e:
+          {
+            boolean valid_b = true;
+            try {
+              m_output_objects_per_stream = Integer.parseInt(argv);
+              valid_b = (1 <= m_output_objects_per_stream && m_output_objects_per_stream <= 65535);
+            } catch (NumberFormatException e) {
+              valid_b = false;
+            }
+            if (!valid_b) {
+              System.err.println(
+                  "Error: expecting a number from 1 to 65535 after objects_per_stream,");
+              System.err.println("   instead I got: " + argv);
+              System.err.println("Exiting.");
+              fail_b = true;
+              break;
+            }
+
+            // revert state
+            arg_state = ArgState.output_args_e;
+          }
+          break;
+
         case background_filename_e:
           {
             if (arg_keyword == keyword.none_k) {
@@ -1485,6 +1728,20 @@ class TK_Session {
       } // end: switch(arg_state)
     } // end: iterate over command-line arguments
 
+    if (!fail_b && m_output_memory != null) {
+      if (output_given_b) {
+        System.err.println("Error: Only the last stage of a pipeline may be given an output:");
+        System.err.println("   " + m_output_filename);
+        fail_b = true;
+      } else if (!(m_operation == keyword.cat_k
+          || m_operation == keyword.shuffle_k
+          || m_operation == keyword.filter_k)) {
+        System.err.println("Error: Only the last stage of a pipeline may run an operation");
+        System.err.println("   that does not write one PDF.");
+        fail_b = true;
+      }
+    }
+
     if (fail_b) {
       System.err.println("Errors encountered.  No output created.");
       m_valid_b = false;
@@ -1535,7 +1792,8 @@ class TK_Session {
             || m_operation == keyword.dump_data_annots_k
             || m_operation == keyword.generate_fdf_k
             || m_operation == keyword.unpack_files_k
-            || !m_output_filename.isEmpty()));
+            || !m_output_filename.isEmpty()
+            || m_output_memory != null));
   }
 
   void dump_session_data() {
@@ -1668,6 +1926,9 @@ class TK_Session {
         case bits128_enc:
           System.out.println("   Given output encryption strength: 128 bits");
           break;
+        case aes256_enc:
+          System.out.println("   Given output encryption strength: AES 256 bits");
+          break;
       }
 
       System.out.println();
@@ -1723,6 +1984,153 @@ class TK_Session {
     }
   }
 
+  void set_compress_objects(PdfWriter writer_p) {
+    writer_p.setFullCompression();
+    writer_p.setObjectsPerStream(m_output_objects_per_stream);
+  }
+
+  // writes the pages of a burst, each to its own file; what the pages
+  // share is prepared once, so that pages may be written on several
+  // threads at a time, see can_burst_in_parallel(). The encryption keys
+  // are not shared: each page gets its own document ID, and so its own
+  // file key.
+  class BurstPage {
+    final PdfReader m_input_reader_p;
+    final PdfDictionary m_input_info_p; // may be null
+    final byte[] m_input_xmp_p; // may be null
+    final byte[] m_output_user_pw_p; // null if not encrypting
+    final byte[] m_output_owner_pw_p;
+    final String m_creator;
+
+    BurstPage(
+        PdfReader input_reader_p,
+        PdfDictionary input_info_p,
+        byte[] input_xmp_p,
+        byte[] output_user_pw_p,
+        byte[] output_owner_pw_p,
+        String creator) {
+      m_input_reader_p = input_reader_p;
+      m_input_info_p = input_info_p;
+      m_input_xmp_p = input_xmp_p;
+      m_output_user_pw_p = output_user_pw_p;
+      m_output_owner_pw_p = output_owner_pw_p;
+      m_creator = creator;
+    }
+
+    // write page ii + 1
+    void write(int ii) throws IOException, DocumentException {
+      // the filename
+      String jv_output_filename_p = String.format(m_output_filename, ii + 1);
+
+      Document output_doc_p = new Document();
+      FileOutputStream ofs_p = new FileOutputStream(jv_output_filename_p);
+      PdfCopy writer_p = new PdfCopy(output_doc_p, ofs_p);
+
+      output_doc_p.addCreator(m_creator);
+
+      // un/compress output streams?
+      if (m_output_uncompress_b) {
+        writer_p.filterStreams = true;
+        writer_p.compressStreams = false;
+      } else if (m_output_compress_b) {
+        writer_p.filterStreams = false;
+        writer_p.compressStreams = true;
+      }
+
+      // encrypt output?
+      if (m_output_user_pw_p != null) {
+        writer_p.setEncryption(
+            m_output_user_pw_p, m_output_owner_pw_p, m_output_user_perms, output_encryption_type());
+      }
+
+      // object streams set PDF 1.5, so AES-256 raises the version after them
+      if (m_output_compress_objects_b) {
+        set_compress_objects(writer_p);
+      }
+      boolean aes256_b = (m_output_encryption_strength == encryption_strength.aes256_enc);
+      if (aes256_b) {
+        writer_p.setPdfVersion(PdfWriter.VERSION_1_7);
+      }
+
+      output_doc_p.open(); // must open writer before copying (possibly) indirect object
+      if (aes256_b) {
+        HashMap<PdfName, PdfName> ext_base_versions = new HashMap<PdfName, PdfName>();
+        HashMap<PdfName, Integer> ext_levels = new HashMap<PdfName, Integer>();
+        add_aes256_extension(ext_base_versions, ext_levels);
+        set_extensions(writer_p, ext_base_versions, ext_levels);
+      }
+      // Call setFromReader() after open(),
+      // otherwise topPageParent is not properly set.
+      // See https://gitlab.com/pdftk-java/pdftk/issues/18
+      writer_p.setFromReader(m_input_reader_p);
+
+      { // copy the Info dictionary metadata
+        if (m_input_info_p != null) {
+          PdfDictionary writer_info_p = writer_p.getInfo();
+          if (writer_info_p != null) {
+            PdfDictionary info_copy_p = writer_p.copyDictionary(m_input_info_p);
+            if (info_copy_p != null) {
+              writer_info_p.putAll(info_copy_p);
+            }
+          }
+        }
+        if (m_input_xmp_p != null) {
+          writer_p.setXmpMetadata(m_input_xmp_p);
+        }
+      }
+
+      PdfImportedPage page_p = writer_p.getImportedPage(m_input_reader_p, ii + 1);
+      writer_p.addPage(page_p);
+
+      output_doc_p.close();
+      writer_p.close();
+    }
+  }
+
+  // copying a page only reads the input when all its objects are loaded
+  // and it has no form fields, which PdfCopy renames in the input as it
+  // copies them; otherwise, pages must be copied one after another
+  boolean can_burst_in_parallel(PdfReader input_reader_p) {
+    return !m_input_lazy_b && !input_reader_p.getCatalog().contains(PdfName.ACROFORM);
+  }
+
+  // write the pages of a burst on a pool of threads; the error of the
+  // first page that fails is thrown, as when writing them in order
+  void burst_in_parallel(final BurstPage burst_page, int num_pages, int threads)
+      throws IOException, DocumentException {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      ArrayList<Future<Void>> pages = new ArrayList<Future<Void>>();
+      for (int ii = 0; ii < num_pages; ++ii) {
+        final int page = ii;
+        pages.add(
+            pool.submit(
+                new Callable<Void>() {
+                  public Void call() throws IOException, DocumentException {
+                    burst_page.write(page);
+                    return null;
+                  }
+                }));
+      }
+      for (Future<Void> page : pages) {
+        try {
+          page.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+          Throwable t = e.getCause();
+          if (t instanceof IOException) throw (IOException) t;
+          if (t instanceof DocumentException) throw (DocumentException) t;
+          if (t instanceof RuntimeException) throw (RuntimeException) t;
+          throw (Error) t;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
   void attach_files(PdfReader input_reader_p, PdfWriter writer_p) throws IOException {
     if (!m_input_attach_file_filename.isEmpty()) {
 
@@ -2017,6 +2425,7 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
     PdfDictionary page_p = reader_p.getPageN(page_index);
     if (page_p != null && page_p.isDictionary()) {
       page_p.put(page_marker_p, new PdfNumber(page_num));
+      reader_p.resetReleasePage(); // keep our change when reading on demand
     }
   }
 
@@ -2032,6 +2441,7 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
     PdfDictionary page_p = reader_p.getPageN(page_num);
     if (page_p != null && page_p.isDictionary()) {
       page_p.remove(page_marker_p);
+      reader_p.resetReleasePage(); // keep our change when reading on demand
     }
   }
 
@@ -2047,13 +2457,46 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
     // DF rotate
     PdfDictionary page_p = reader_p.getPageN(page_num);
     if (!absolute) {
-      rotation = reader_p.getPageRotation(page_num) + rotation;
+      rotation = reader_p.getPageRotation(page_p) + rotation;
     }
     rotation = rotation % 360;
     page_p.remove(PdfName.ROTATE);
     if (rotation != PageRotate.NORTH.value) { // default rotation
       page_p.put(PdfName.ROTATE, new PdfNumber(rotation));
     }
+    reader_p.resetReleasePage(); // keep our change when reading on demand
+  }
+
+  // in lazy mode, the number of pages each reader has yet to give to
+  // the output, so that it can be freed once its last page is added
+  HashMap<InputPdf.PagesReader, Integer> m_reader_pages_left = null;
+
+  // follow create_output_page() in taking, for each page, the first
+  // reader that hasn't given it yet; which readers give a page doesn't
+  // depend on the order in which pages are added
+  HashMap<InputPdf.PagesReader, Integer> count_reader_pages() {
+    HashMap<InputPdf.PagesReader, Integer> pages_left =
+        new HashMap<InputPdf.PagesReader, Integer>();
+    HashMap<InputPdf.PagesReader, HashSet<Integer>> taken =
+        new HashMap<InputPdf.PagesReader, HashSet<Integer>>();
+    for (ArrayList<PageRef> jt : m_page_seq) {
+      for (PageRef it : jt) {
+        if (it.m_input_pdf_index >= m_input_pdf.size()) continue;
+        for (InputPdf.PagesReader mt : m_input_pdf.get(it.m_input_pdf_index).m_readers) {
+          HashSet<Integer> pages = taken.get(mt);
+          if (pages == null) {
+            pages = new HashSet<Integer>();
+            taken.put(mt, pages);
+          }
+          if (mt.first.contains(it.m_page_num) && pages.add(it.m_page_num)) {
+            Integer count = pages_left.get(mt);
+            pages_left.put(mt, (count == null) ? 1 : count + 1);
+            break;
+          }
+        }
+      }
+    }
+    return pages_left;
   }
 
   ErrorCode create_output_page(PdfCopy writer_p, PageRef page_ref, int output_page_count) {
@@ -2074,16 +2517,21 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
       }
 
       // take the first, associated reader and then disassociate
-      PdfReader input_reader_p = null;
+      InputPdf.PagesReader input_pr = null;
       for (InputPdf.PagesReader mt : page_pdf.m_readers) {
         if (mt.first.contains(page_ref.m_page_num)) { // assoc. found
-          input_reader_p = mt.second;
+          input_pr = mt;
           mt.first.remove(page_ref.m_page_num); // remove this assoc.
           break;
         }
       }
 
-      if (input_reader_p != null) {
+      if (input_pr != null) {
+        PdfReader input_reader_p = get_reader(page_pdf, input_pr);
+        if (input_reader_p == null) {
+          return ErrorCode.ERROR; // <--- return
+        }
+
 
         //
         if (m_output_uncompress_b) {
@@ -2101,6 +2549,16 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
           PdfImportedPage page_p = writer_p.getImportedPage(input_reader_p, page_ref.m_page_num);
           try {
             writer_p.addPage(page_p);
+
+            // free the reader once it has nothing more to give
+            if (m_reader_pages_left != null) {
+              int pages_left = m_reader_pages_left.get(input_pr) - 1;
+              m_reader_pages_left.put(input_pr, pages_left);
+              if (pages_left == 0) {
+                writer_p.freeReader(input_reader_p);
+                put_reader(page_pdf, input_pr);
+              }
+            }
           } catch (DocumentException e) {
             System.err.print("Internal Error: addPage() failed for: ");
             System.err.println(page_ref.m_page_num + " in file: " + page_pdf.m_filename);
@@ -2124,6 +2582,77 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
     return ret_val;
   }
 
+  // the greatest PDF version of the input PDFs, and their greatest extension
+  // levels -- these can only be added to the output /after/ opening it;
+  // gathered as inputs are opened, so that they needn't stay open;
+  // uses PdfName::hashCode() for key
+  char m_input_version_cc = PdfWriter.VERSION_1_2;
+  HashMap<PdfName, PdfName> m_input_ext_base_versions = new HashMap<PdfName, PdfName>();
+  HashMap<PdfName, Integer> m_input_ext_levels = new HashMap<PdfName, Integer>();
+
+  void add_pdf_version(PdfReader reader_p) {
+    ////
+    // PDF version number
+
+    // version in header
+    if (m_input_version_cc < reader_p.getPdfVersion())
+      m_input_version_cc = reader_p.getPdfVersion();
+
+    // version override in catalog; used only if greater than header version, per PDF
+    // spec;
+    PdfDictionary catalog_p = reader_p.getCatalog();
+    if (catalog_p.contains(PdfName.VERSION)) {
+
+      PdfName version_p = (PdfName) reader_p.getPdfObject(catalog_p.get(PdfName.VERSION));
+      char version_cc = GetPdfVersionChar(version_p);
+
+      if (m_input_version_cc < version_cc) m_input_version_cc = version_cc;
+    }
+
+    ////
+    // PDF extensions
+
+    if (catalog_p.contains(PdfName.EXTENSIONS)) {
+      PdfObject extensions_po = reader_p.getPdfObject(catalog_p.get(PdfName.EXTENSIONS));
+      if (extensions_po != null && extensions_po.isDictionary()) {
+        PdfDictionary extensions_p = (PdfDictionary) extensions_po;
+
+        // iterate over developers
+        Set<PdfObject> keys_p = extensions_p.getKeys();
+        for (PdfObject kit : keys_p) {
+          PdfName developer_p = (PdfName) reader_p.getPdfObject(kit);
+
+          PdfObject dev_exts_po = reader_p.getPdfObject(extensions_p.get(developer_p));
+          if (dev_exts_po != null && dev_exts_po.isDictionary()) {
+            PdfDictionary dev_exts_p = (PdfDictionary) dev_exts_po;
+
+            if (dev_exts_p.contains(PdfName.BASEVERSION)
+                && dev_exts_p.contains(PdfName.EXTENSIONLEVEL)) {
+              // use the greater base version or the greater extension level
+
+              PdfName base_version_p =
+                  (PdfName) reader_p.getPdfObject(dev_exts_p.get(PdfName.BASEVERSION));
+              PdfNumber ext_level_p =
+                  (PdfNumber) reader_p.getPdfObject(dev_exts_p.get(PdfName.EXTENSIONLEVEL));
+
+              if (!m_input_ext_base_versions.containsKey(developer_p)
+                  || GetPdfVersionChar(m_input_ext_base_versions.get(developer_p))
+                      < GetPdfVersionChar(base_version_p)) { // new developer or newer base version
+                m_input_ext_base_versions.put(developer_p, base_version_p);
+                m_input_ext_levels.put(developer_p, ext_level_p.intValue());
+              } else if (GetPdfVersionChar(m_input_ext_base_versions.get(developer_p))
+                      == GetPdfVersionChar(base_version_p)
+                  && m_input_ext_levels.get(developer_p)
+                      < ext_level_p.intValue()) { // greater extension level, same base version
+                m_input_ext_levels.put(developer_p, ext_level_p.intValue());
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
   static char GetPdfVersionChar(PdfName version_p) {
     char version_cc = PdfWriter.VERSION_1_4; // default
 
@@ -2140,6 +2669,91 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
     return version_cc;
   }
 
+  // the PdfWriter encryption type of the output; if no strength is
+  // given, default to 128 bit
+  int output_encryption_type() {
+    switch (m_output_encryption_strength) {
+      case bits40_enc:
+        return PdfWriter.STANDARD_ENCRYPTION_40;
+      case aes256_enc:
+        return PdfWriter.ENCRYPTION_AES_256;
+      default:
+        return PdfWriter.STANDARD_ENCRYPTION_128;
+    }
+  }
+
+  // AES-256 encryption comes from PDF 2.0; a PDF 1.7 file that uses it
+  // declares Adobe extension level 8
+  static final int AES256_EXTENSION_LEVEL = 8;
+
+  // raise the ADBE extension in ext_base_versions and ext_levels to
+  // the one that AES-256 needs, if it is lower
+  static void add_aes256_extension(
+      HashMap<PdfName, PdfName> ext_base_versions, HashMap<PdfName, Integer> ext_levels) {
+    PdfName base_version_p = ext_base_versions.get(PdfName.ADBE);
+    if (base_version_p == null
+        || GetPdfVersionChar(base_version_p) < PdfWriter.VERSION_1_7
+        || (GetPdfVersionChar(base_version_p) == PdfWriter.VERSION_1_7
+            && ext_levels.get(PdfName.ADBE) < AES256_EXTENSION_LEVEL)) {
+      ext_base_versions.put(PdfName.ADBE, PdfName.VERSION_1_7);
+      ext_levels.put(PdfName.ADBE, AES256_EXTENSION_LEVEL);
+    }
+  }
+
+  // write the extensions in ext_base_versions and ext_levels to the
+  // catalog of writer_p, which must be open
+  static void set_extensions(
+      PdfCopy writer_p,
+      HashMap<PdfName, PdfName> ext_base_versions,
+      HashMap<PdfName, Integer> ext_levels)
+      throws IOException {
+    PdfDictionary extensions_dict_p = new PdfDictionary();
+    PdfIndirectReference extensions_ref_p = writer_p.getPdfIndirectReference();
+    for (Map.Entry<PdfName, PdfName> it : ext_base_versions.entrySet()) {
+      PdfDictionary ext_dict_p = new PdfDictionary();
+      ext_dict_p.put(PdfName.BASEVERSION, it.getValue());
+      ext_dict_p.put(PdfName.EXTENSIONLEVEL, new PdfNumber(ext_levels.get(it.getKey())));
+
+      extensions_dict_p.put(it.getKey(), ext_dict_p);
+    }
+
+    writer_p.addToBody(extensions_dict_p, extensions_ref_p);
+    writer_p.setExtensions(extensions_ref_p);
+  }
+
+  // declare the extension that AES-256 needs in the catalog of
+  // reader_p, keeping any others it has
+  static void add_aes256_extension(PdfReader reader_p) {
+    PdfDictionary catalog_p = reader_p.getCatalog();
+    HashMap<PdfName, PdfName> ext_base_versions = new HashMap<PdfName, PdfName>();
+    HashMap<PdfName, Integer> ext_levels = new HashMap<PdfName, Integer>();
+    PdfDictionary extensions_p = new PdfDictionary();
+    PdfObject extensions_po = PdfReader.getPdfObject(catalog_p.get(PdfName.EXTENSIONS));
+    if (extensions_po != null && extensions_po.isDictionary()) {
+      extensions_p.putAll((PdfDictionary) extensions_po);
+      PdfObject adbe_po = PdfReader.getPdfObject(extensions_p.get(PdfName.ADBE));
+      if (adbe_po != null && adbe_po.isDictionary()) {
+        PdfObject base_version_po =
+            PdfReader.getPdfObject(((PdfDictionary) adbe_po).get(PdfName.BASEVERSION));
+        PdfObject ext_level_po =
+            PdfReader.getPdfObject(((PdfDictionary) adbe_po).get(PdfName.EXTENSIONLEVEL));
+        if (base_version_po != null
+            && base_version_po.isName()
+            && ext_level_po != null
+            && ext_level_po.isNumber()) {
+          ext_base_versions.put(PdfName.ADBE, (PdfName) base_version_po);
+          ext_levels.put(PdfName.ADBE, ((PdfNumber) ext_level_po).intValue());
+        }
+      }
+    }
+    add_aes256_extension(ext_base_versions, ext_levels);
+    PdfDictionary adbe_p = new PdfDictionary();
+    adbe_p.put(PdfName.BASEVERSION, ext_base_versions.get(PdfName.ADBE));
+    adbe_p.put(PdfName.EXTENSIONLEVEL, new PdfNumber(ext_levels.get(PdfName.ADBE)));
+    extensions_p.put(PdfName.ADBE, adbe_p);
+    catalog_p.put(PdfName.EXTENSIONS, extensions_p);
+  }
+
   ErrorCode create_output() {
     ErrorCode ret_val = ErrorCode.NO_ERROR; // default: no error
 
@@ -2206,14 +2820,14 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
             { // catenate pages or shuffle pages
               Document output_doc_p = new Document();
 
-              OutputStream ofs_p =
-                  pdftk.get_output_stream(m_output_filename, m_ask_about_warnings_b);
+              OutputStream ofs_p = get_output_stream();
 
               if (ofs_p == null) { // file open error
                 ret_val = ErrorCode.ERROR;
                 break;
               }
               PdfCopy writer_p = new PdfCopy(output_doc_p, ofs_p);
+              writer_p.setDeduplicate(m_output_dedup_objects_b);
 
               // update to suit any features that we add, e.g. encryption;
               char max_version_cc = PdfWriter.VERSION_1_2;
@@ -2234,23 +2848,31 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
               if (m_output_encryption_strength != encryption_strength.none_enc
                   || !m_output_owner_pw.isEmpty()
                   || !m_output_user_pw.isEmpty()) {
-                // if no stregth is given, default to 128 bit,
-                boolean bit128_b = (m_output_encryption_strength != encryption_strength.bits40_enc);
+                int encryption_type = output_encryption_type();
 
                 writer_p.setEncryption(
-                    output_user_pw_p, output_owner_pw_p, m_output_user_perms, bit128_b);
+                    output_user_pw_p, output_owner_pw_p, m_output_user_perms, encryption_type);
 
-                if (bit128_b) max_version_cc = PdfWriter.VERSION_1_4;
+                if (encryption_type == PdfWriter.ENCRYPTION_AES_256)
+                  max_version_cc = PdfWriter.VERSION_1_7;
+                else if (encryption_type == PdfWriter.STANDARD_ENCRYPTION_128)
+                  max_version_cc = PdfWriter.VERSION_1_4;
                 else // 1.1 probably okay, here
                 max_version_cc = PdfWriter.VERSION_1_3;
               }
 
               // copy file ID?
               if (m_output_keep_first_id_b || m_output_keep_final_id_b) {
-                PdfReader input_reader_p =
+                InputPdf input_pdf =
                     m_output_keep_first_id_b
-                        ? m_input_pdf.get(0).m_readers.get(0).second
-                        : m_input_pdf.get(m_input_pdf.size() - 1).m_readers.get(0).second;
+                        ? m_input_pdf.get(0)
+                        : m_input_pdf.get(m_input_pdf.size() - 1);
+                PdfReader input_reader_p = get_reader(input_pdf, input_pdf.m_readers.get(0));
+                if (input_reader_p == null) {
+                  abandon_output(ofs_p);
+                  ret_val = ErrorCode.ERROR;
+                  break;
+                }
 
                 PdfDictionary trailer_p = input_reader_p.getTrailer();
 
@@ -2262,81 +2884,22 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
               }
 
               // set output PDF version to the max PDF ver of all the input PDFs;
-              // also find the maximum extension levels, if present -- this can
-              // only be added /after/ opening the document;
-              //
-              // collected extensions information; uses PdfName::hashCode() for key
-              HashMap<PdfName, PdfName> ext_base_versions = new HashMap<PdfName, PdfName>();
-              HashMap<PdfName, Integer> ext_levels = new HashMap<PdfName, Integer>();
-              for (InputPdf it : m_input_pdf) {
-                PdfReader reader_p = it.m_readers.get(0).second;
-
-                ////
-                // PDF version number
-
-                // version in header
-                if (max_version_cc < reader_p.getPdfVersion())
-                  max_version_cc = reader_p.getPdfVersion();
-
-                // version override in catalog; used only if greater than header version, per PDF
-                // spec;
-                PdfDictionary catalog_p = reader_p.getCatalog();
-                if (catalog_p.contains(PdfName.VERSION)) {
-
-                  PdfName version_p =
-                      (PdfName) reader_p.getPdfObject(catalog_p.get(PdfName.VERSION));
-                  char version_cc = GetPdfVersionChar(version_p);
-
-                  if (max_version_cc < version_cc) max_version_cc = version_cc;
-                }
+              // also use the maximum extension levels, if present
+              if (max_version_cc < m_input_version_cc) max_version_cc = m_input_version_cc;
+              HashMap<PdfName, PdfName> ext_base_versions = m_input_ext_base_versions;
+              HashMap<PdfName, Integer> ext_levels = m_input_ext_levels;
+              if (m_output_encryption_strength == encryption_strength.aes256_enc) {
+                ext_base_versions = new HashMap<PdfName, PdfName>(ext_base_versions);
+                ext_levels = new HashMap<PdfName, Integer>(ext_levels);
+                add_aes256_extension(ext_base_versions, ext_levels);
+              }
 
-                ////
-                // PDF extensions
-
-                if (catalog_p.contains(PdfName.EXTENSIONS)) {
-                  PdfObject extensions_po = reader_p.getPdfObject(catalog_p.get(PdfName.EXTENSIONS));
-                  if (extensions_po != null && extensions_po.isDictionary()) {
-                    PdfDictionary extensions_p = (PdfDictionary) extensions_po;
-
-                    // iterate over developers
-                    Set<PdfObject> keys_p = extensions_p.getKeys();
-                    for (PdfObject kit : keys_p) {
-                      PdfName developer_p = (PdfName) reader_p.getPdfObject(kit);
-
-                      PdfObject dev_exts_po = reader_p.getPdfObject(extensions_p.get(developer_p));
-                      if (dev_exts_po != null && dev_exts_po.isDictionary()) {
-                        PdfDictionary dev_exts_p = (PdfDictionary) dev_exts_po;
-
-                        if (dev_exts_p.contains(PdfName.BASEVERSION)
-                            && dev_exts_p.contains(PdfName.EXTENSIONLEVEL)) {
-                          // use the greater base version or the greater extension level
-
-                          PdfName base_version_p =
-                              (PdfName) reader_p.getPdfObject(dev_exts_p.get(PdfName.BASEVERSION));
-                          PdfNumber ext_level_p =
-                              (PdfNumber)
-                                  reader_p.getPdfObject(dev_exts_p.get(PdfName.EXTENSIONLEVEL));
-
-                          if (!ext_base_versions.containsKey(developer_p)
-                              || GetPdfVersionChar(ext_base_versions.get(developer_p))
-                                  < GetPdfVersionChar(
-                                      base_version_p)) { // new developer or greater base version
-                            ext_base_versions.put(developer_p, base_version_p);
-                            ext_levels.put(developer_p, ext_level_p.intValue());
-                          } else if (GetPdfVersionChar(ext_base_versions.get(developer_p))
-                                  == GetPdfVersionChar(base_version_p)
-                              && ext_levels.get(developer_p)
-                                  < ext_level_p
-                                      .intValue()) { // greater extension level for current base
-                            // version
-                            ext_levels.put(developer_p, ext_level_p.intValue());
-                          }
-                        }
-                      }
-                    }
-                  }
-                }
+              // object streams need PDF 1.5
+              if (m_output_compress_objects_b) {
+                set_compress_objects(writer_p);
+                if (max_version_cc < PdfWriter.VERSION_1_5) max_version_cc = PdfWriter.VERSION_1_5;
               }
+
               // set the pdf version
               writer_p.setPdfVersion(max_version_cc);
 
@@ -2345,19 +2908,13 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
 
               // set any pdf version extensions we might have found
               if (!ext_base_versions.isEmpty()) {
-                PdfDictionary extensions_dict_p = new PdfDictionary();
-                PdfIndirectReference extensions_ref_p = writer_p.getPdfIndirectReference();
-                for (Map.Entry<PdfName, PdfName> it : ext_base_versions.entrySet()) {
-                  PdfDictionary ext_dict_p = new PdfDictionary();
-                  ext_dict_p.put(PdfName.BASEVERSION, it.getValue());
-                  ext_dict_p.put(
-                      PdfName.EXTENSIONLEVEL, new PdfNumber(ext_levels.get(it.getKey())));
-
-                  extensions_dict_p.put(it.getKey(), ext_dict_p);
-                }
+                set_extensions(writer_p, ext_base_versions, ext_levels);
+              }
 
-                writer_p.addToBody(extensions_dict_p, extensions_ref_p);
-                writer_p.setExtensions(extensions_ref_p);
+              // stream the merge: free each input once its pages are added,
+              // so that memory follows the largest input rather than all of them
+              if (m_input_lazy_b) {
+                m_reader_pages_left = count_reader_pages();
               }
 
               if (m_operation == keyword.shuffle_k) {
@@ -2399,7 +2956,7 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
                 // input PDFs, esp if they don't have bookmarks -- TODO
                 // but then, it would be nice to allow the user to specify
                 // a label -- using the PDF filename is unattractive;
-                if (m_cat_full_pdfs_b) { // add bookmark info
+                if (m_cat_full_pdfs_b && ret_val == ErrorCode.NO_ERROR) { // add bookmark info
                   // cerr << "cat full pdfs!" << endl; // debug
 
                   PdfDictionary output_outlines_p = new PdfDictionary(PdfName.OUTLINES);
@@ -2417,10 +2974,13 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
                   // iterate over page ranges; each full PDF has one page seq in m_page_seq;
                   // using m_page_seq instead of m_input_pdf, so the doc order is right
                   for (ArrayList<PageRef> jt : m_page_seq) {
-                    PdfReader reader_p =
-                        m_input_pdf.get(jt.get(0).m_input_pdf_index).m_readers.get(0).second;
-                    long reader_page_count =
-                        m_input_pdf.get(jt.get(0).m_input_pdf_index).m_num_pages;
+                    InputPdf input_pdf = m_input_pdf.get(jt.get(0).m_input_pdf_index);
+                    PdfReader reader_p = get_reader(input_pdf, input_pdf.m_readers.get(0));
+                    if (reader_p == null) {
+                      ret_val = ErrorCode.ERROR;
+                      break;
+                    }
+                    long reader_page_count = input_pdf.m_num_pages;
 
                     /* used for adding doc bookmarks
                     itext::PdfDictionary* item_p= new itext::PdfDictionary();
@@ -2509,6 +3069,7 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
                     prev_ref_p= item_ref_p;
                     */
 
+                    put_reader(input_pdf, input_pdf.m_readers.get(0));
                     page_count += reader_page_count;
                   }
                   /* used for adding doc bookmarks
@@ -2533,8 +3094,24 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
                 }
               }
 
+              if (ret_val == ErrorCode.ERROR) {
+                // an input couldn't be opened again; don't write a
+                // document short of its pages
+                abandon_output(ofs_p);
+                break;
+              }
+
               output_doc_p.close();
               writer_p.close();
+
+              if (m_output_dedup_objects_b && m_verbose_reporting_b) {
+                System.out.println(
+                    "Shared "
+                        + writer_p.getDeduplicatedObjects()
+                        + " duplicate objects, saving about "
+                        + writer_p.getDeduplicatedBytes()
+                        + " bytes.");
+              }
             }
             break;
 
@@ -2586,65 +3163,28 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
                 }
               }
 
-              for (int ii = 0; ii < input_num_pages; ++ii) {
-
-                // the filename
-                String jv_output_filename_p = String.format(m_output_filename, ii + 1);
-
-                Document output_doc_p = new Document();
-                FileOutputStream ofs_p = new FileOutputStream(jv_output_filename_p);
-                PdfCopy writer_p = new PdfCopy(output_doc_p, ofs_p);
-
-                output_doc_p.addCreator(creator);
-
-                // un/compress output streams?
-                if (m_output_uncompress_b) {
-                  writer_p.filterStreams = true;
-                  writer_p.compressStreams = false;
-                } else if (m_output_compress_b) {
-                  writer_p.filterStreams = false;
-                  writer_p.compressStreams = true;
-                }
-
-                // encrypt output?
-                if (m_output_encryption_strength != encryption_strength.none_enc
-                    || !m_output_owner_pw.isEmpty()
-                    || !m_output_user_pw.isEmpty()) {
-                  // if no stregth is given, default to 128 bit,
-                  boolean bit128_b =
-                      (m_output_encryption_strength != encryption_strength.bits40_enc);
-
-                  writer_p.setEncryption(
-                      output_user_pw_p, output_owner_pw_p, m_output_user_perms, bit128_b);
-                }
-
-                output_doc_p.open(); // must open writer before copying (possibly) indirect object
-                // Call setFromReader() after open(),
-                // otherwise topPageParent is not properly set.
-                // See https://gitlab.com/pdftk-java/pdftk/issues/18
-                writer_p.setFromReader(input_reader_p);
-
-                { // copy the Info dictionary metadata
-                  if (input_info_p != null) {
-                    PdfDictionary writer_info_p = writer_p.getInfo();
-                    if (writer_info_p != null) {
-                      PdfDictionary info_copy_p = writer_p.copyDictionary(input_info_p);
-                      if (info_copy_p != null) {
-                        writer_info_p.putAll(info_copy_p);
-                      }
-                    }
-                  }
-                  byte[] input_reader_xmp_p = input_reader_p.getMetadata();
-                  if (input_reader_xmp_p != null) {
-                    writer_p.setXmpMetadata(input_reader_xmp_p);
-                  }
+              // prepare what the pages share once: the XMP metadata
+              byte[] input_reader_xmp_p = input_reader_p.getMetadata();
+              boolean encrypt_b =
+                  m_output_encryption_strength != encryption_strength.none_enc
+                      || !m_output_owner_pw.isEmpty()
+                      || !m_output_user_pw.isEmpty();
+
+              BurstPage burst_page =
+                  new BurstPage(
+                      input_reader_p,
+                      input_info_p,
+                      input_reader_xmp_p,
+                      encrypt_b ? output_user_pw_p : null,
+                      output_owner_pw_p,
+                      creator);
+              int threads = Math.min(PdfReader.getThreads(), input_num_pages);
+              if (threads > 1 && can_burst_in_parallel(input_reader_p)) {
+                burst_in_parallel(burst_page, input_num_pages, threads);
+              } else {
+                for (int ii = 0; ii < input_num_pages; ++ii) {
+                  burst_page.write(ii);
                 }
-
-                PdfImportedPage page_p = writer_p.getImportedPage(input_reader_p, ii + 1);
-                writer_p.addPage(page_p);
-
-                output_doc_p.close();
-                writer_p.close();
               }
 
               ////
@@ -2779,8 +3319,7 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
               }
 
               //
-              OutputStream ofs_p =
-                  pdftk.get_output_stream(m_output_filename, m_ask_about_warnings_b);
+              OutputStream ofs_p = get_output_stream();
               if (ofs_p == null) { // file open error
                 System.err.println("Error: unable to open file for output: " + m_output_filename);
                 ret_val = ErrorCode.ERROR;
@@ -2814,8 +3353,25 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
               }
 
               //
+              // the header is written here, so ask for PDF 1.5 now if
+              // the output will have object streams
+              char pdf_version_cc = '\0';
+              if (m_output_compress_objects_b
+                  && input_reader_p.getPdfVersion() < PdfWriter.VERSION_1_5) {
+                pdf_version_cc = PdfWriter.VERSION_1_5;
+              }
+              // likewise for AES-256 encryption, which needs PDF 1.7
+              if (m_output_encryption_strength == encryption_strength.aes256_enc) {
+                if (input_reader_p.getPdfVersion() < PdfWriter.VERSION_1_7) {
+                  pdf_version_cc = PdfWriter.VERSION_1_7;
+                }
+                add_aes256_extension(input_reader_p);
+              }
               PdfStamperImp writer_p =
-                  new PdfStamperImp(input_reader_p, ofs_p, '\0', false /* append mode */);
+                  new PdfStamperImp(input_reader_p, ofs_p, pdf_version_cc, false /* append mode */);
+              if (m_output_compress_objects_b) {
+                set_compress_objects(writer_p);
+              }
 
               // update the info?
               if (m_update_info_filename.equals("PROMPT")) {
@@ -2892,10 +3448,11 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
 
                 // if no stregth is given, default to 128 bit,
                 // (which is incompatible w/ Acrobat 4)
-                boolean bit128_b = (m_output_encryption_strength != encryption_strength.bits40_enc);
-
                 writer_p.setEncryption(
-                    output_user_pw_p, output_owner_pw_p, m_output_user_perms, bit128_b);
+                    output_user_pw_p,
+                    output_owner_pw_p,
+                    m_output_user_perms,
+                    output_encryption_type());
               }
 
               // fill form fields?
@@ -3174,6 +3731,8 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
     output_owner_pw_e,
     output_user_pw_e,
     output_user_perms_e,
+    output_cache_limit_e,
+    output_objects_per_stream_e,
 
     background_filename_e,
     stamp_filename_e,
@@ -3217,12 +3776,26 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
       case encrypt_128bit_k:
         m_output_encryption_strength = encryption_strength.bits128_enc;
         break;
+      case encrypt_aes256_k:
+        m_output_encryption_strength = encryption_strength.aes256_enc;
+        break;
       case filt_uncompress_k:
         m_output_uncompress_b = true;
         break;
       case filt_compress_k:
         m_output_compress_b = true;
         break;
+      case compress_objects_k:
+        m_output_compress_objects_b = true;
+        break;
+      case objects_per_stream_k:
+        m_output_compress_objects_b = true;
+        // change state
+        arg_state_p.value = ArgState.output_objects_per_stream_e;
+        break;
+      case dedup_objects_k:
+        m_output_dedup_objects_b = true;
+        break;
       case flatten_k:
         m_output_flatten_b = true;
         break;
@@ -3241,6 +3814,13 @@ input_reader_p.getPdfObject(annot_p.get(PdfName.SUBTYPE));
       case keep_final_id_k:
         m_output_keep_final_id_b = true;
         break;
+      case lazy_load_k:
+        // already handled before opening the input PDFs
+        break;
+      case cache_limit_k:
+        // change state
+        arg_state_p.value = ArgState.output_cache_limit_e;
+        break;
       case verbose_k:
         m_verbose_reporting_b = true;
         break;
@@ -25,6 +25,7 @@ package com.gitlab.pdftk_java;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import pdftk.com.lowagie.text.pdf.PRStream;
 import pdftk.com.lowagie.text.pdf.PdfDictionary;
 import pdftk.com.lowagie.text.pdf.PdfName;
@@ -89,9 +90,7 @@ class attachments {
           PdfObject f_p = input_reader_p.getPdfObject(((PdfDictionary) ef_p).get(PdfName.F));
           if (f_p != null && f_p.isStream()) {
 
-            try {
-              byte[] bytes_p = input_reader_p.getStreamBytes((PRStream) f_p);
-
+            try (InputStream in_p = input_reader_p.getStreamInputStream((PRStream) f_p)) {
               if (ask_about_warnings_b) {
                 // test for existing file by this name
                 if (pdftk.file_exists(fn)) {
@@ -101,9 +100,21 @@ class attachments {
                   }
                 }
               }
-              FileOutputStream ofs = new FileOutputStream(fn);
-              ofs.write(bytes_p);
-              ofs.close();
+              // the file is decoded as it is written, so it never has to fit in memory;
+              // if decoding fails part way, don't leave a truncated file behind
+              boolean done_b = false;
+              try (FileOutputStream ofs = new FileOutputStream(fn)) {
+                byte[] buf = new byte[65536];
+                int n;
+                while ((n = in_p.read(buf)) >= 0) {
+                  ofs.write(buf, 0, n);
+                }
+                done_b = true;
+              } finally {
+                if (!done_b) {
+                  new File(fn).delete();
+                }
+              }
             } catch (IOException e) { // error
               System.err.println("Error: unable to create the file:");
               System.err.println("   " + fn);
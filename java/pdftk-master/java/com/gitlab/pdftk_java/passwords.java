@@ -313,8 +313,8 @@ class passwords {
   /*
     Older PDF security passwords use PDFDocEncoding, which is a modified iso-8859-1.
     Newer PDF security (version 5) passwords use unicode.
-    This function is just for older PDF security passwords, since pdftk doesn't yet
-    handle version 5 security.
+    This function is just for older PDF security passwords; for version 5,
+    PdfEncryption converts its PDFDocEncoding result to UTF-8.
     In practice, Acrobat/Reader accepts password characters outside of PDFDocEncoding.
 
     Returns -1 if input ss uses invalid characters
@@ -30,6 +30,8 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
 
 public class pdftk {
@@ -125,6 +127,9 @@ public class pdftk {
   }
 
   public static void main(String[] args) {
+    if (args.length > 0 && args[0].equals("--server")) {
+      System.exit(server.main_noexit(args));
+    }
     System.exit(main_noexit(args));
   }
 
@@ -147,17 +152,7 @@ public class pdftk {
       describe_synopsis();
     } else {
       try {
-        TK_Session tk_session = new TK_Session(args);
-
-        tk_session.dump_session_data();
-
-        if (tk_session.is_valid()) {
-          // create_output() prints necessary error messages
-          ret_val = tk_session.create_output();
-        } else { // error
-          System.err.println("Done.  Input errors, so no output created.");
-          ret_val = ErrorCode.ERROR;
-        }
+        ret_val = run_stages(args);
       }
       // per https://bugs.launchpad.net/ubuntu/+source/pdftk/+bug/544636
       catch (java.lang.ClassCastException c_p) {
@@ -185,6 +180,67 @@ public class pdftk {
     return ret_val.code;
   }
 
+  // Run the stages of a pipeline, separated by "then", one after the other.
+  // Each stage but the last writes its PDF to memory, where the next stage
+  // reads it as the input named PREVIOUS; a stage that starts with its
+  // operation reads only that input.
+  static ErrorCode run_stages(String[] args) {
+    ArrayList<String[]> stages = new ArrayList<String[]>();
+    int begin = 0;
+    boolean operation_b = false;
+    for (int ii = 0; ii <= args.length; ++ii) {
+      if (ii == args.length || (operation_b && is_stage_end(args, ii))) {
+        stages.add(Arrays.copyOfRange(args, begin, ii));
+        begin = ii + 1;
+        operation_b = false;
+      } else if (TK_Session.is_operation(TK_Session.is_keyword(args[ii]))) {
+        operation_b = true;
+      }
+    }
+
+    ErrorCode ret_val = ErrorCode.NO_ERROR;
+    byte[] previous = null;
+    for (int ii = 0; ii < stages.size(); ++ii) {
+      String[] stage = stages.get(ii);
+      if (previous != null
+          && (stage.length == 0
+              || TK_Session.is_keyword(stage[0]) != TK_Session.keyword.none_k)) {
+        String[] with_previous = new String[stage.length + 1];
+        with_previous[0] = TK_Session.PREVIOUS_INPUT;
+        System.arraycopy(stage, 0, with_previous, 1, stage.length);
+        stage = with_previous;
+      }
+
+      TK_Session tk_session = new TK_Session(stage, previous, ii + 1 < stages.size());
+
+      tk_session.dump_session_data();
+
+      if (tk_session.is_valid()) {
+        // create_output() prints necessary error messages
+        ret_val = tk_session.create_output();
+      } else { // error
+        System.err.println("Done.  Input errors, so no output created.");
+        ret_val = ErrorCode.ERROR;
+      }
+      if (ret_val == ErrorCode.ERROR || ret_val == ErrorCode.BUG) {
+        break;
+      }
+      previous = tk_session.get_output_memory();
+    }
+    return ret_val;
+  }
+
+  // "then" ends a stage once the stage has its operation, unless it is the
+  // output filename or a password; before the operation it may be an input
+  // filename or an input password.
+  static boolean is_stage_end(String[] args, int ii) {
+    if (TK_Session.is_keyword(args[ii]) != TK_Session.keyword.then_k) return false;
+    TK_Session.keyword before = TK_Session.is_keyword(args[ii - 1]);
+    return before != TK_Session.keyword.output_k
+        && before != TK_Session.keyword.owner_pw_k
+        && before != TK_Session.keyword.user_pw_k;
+  }
+
   static void describe_header() {
     System.out.println(
         "pdftk port to java " + PDFTK_VER + " a Handy Tool for Manipulating PDF Documents");
@@ -206,14 +262,18 @@ public class pdftk {
             + "      [ input_pw <input PDF owner passwords | PROMPT> ]\n"
             + "      [ <operation> <operation arguments> ]\n"
             + "      [ output <output filename | - | PROMPT> ]\n"
-            + "      [ encrypt_40bit | encrypt_128bit ]\n"
+            + "      [ encrypt_40bit | encrypt_128bit | encrypt_aes256 ]\n"
             + "      [ allow <permissions> ]\n"
             + "      [ owner_pw <owner password | PROMPT> ]\n"
             + "      [ user_pw <user password | PROMPT> ]\n"
             + "      [ flatten ] [ need_appearances ]\n"
             + "      [ compress | uncompress ]\n"
+            + "      [ compress_objects ] [ objects_per_stream <count> ]\n"
+            + "      [ dedup_objects ]\n"
             + "      [ keep_first_id | keep_final_id ] [ drop_xfa ] [ drop_xmp ]\n"
+            + "      [ lazy_load ] [ cache_limit <megabytes> ]\n"
             + "      [ verbose ] [ dont_ask | do_ask ]\n"
+            + "      [ then <next stage> ]\n"
             + "       Where:\n"
             + "      <operation> may be empty, or:\n"
             + "      [ cat | shuffle | burst | rotate |\n"
@@ -572,10 +632,12 @@ public class pdftk {
             + "        you can use output to control the resulting PDF page filenames\n"
             + "        (described above).\n"
             + "\n"
-            + "       [encrypt_40bit | encrypt_128bit]\n"
+            + "       [encrypt_40bit | encrypt_128bit | encrypt_aes256]\n"
             + "        If an output PDF user or owner password is given, output PDF\n"
             + "        encryption strength defaults to 128 bits.  This can be overrid-\n"
-            + "        den by specifying encrypt_40bit.\n"
+            + "        den by specifying encrypt_40bit, or by encrypt_aes256 for AES\n"
+            + "        with a 256 bit key, which makes the output PDF 1.7 with Adobe\n"
+            + "        extension level 8.  Older PDF readers cannot open such files.\n"
             + "\n"
             + "       [allow <permissions>]\n"
             + "        Permissions are applied to the output PDF only if an encryption\n"
@@ -625,6 +687,26 @@ public class pdftk {
             + "        applying the uncompress filter. Use the compress filter to\n"
             + "        restore compression.\n"
             + "\n"
+            + "       [compress_objects]\n"
+            + "        Pack the objects that are not streams, such as page and font\n"
+            + "        dictionaries, into compressed object streams, and write the\n"
+            + "        cross-reference table as a compressed stream too.  This makes\n"
+            + "        PDFs with many such objects smaller.  The output is PDF 1.5 or\n"
+            + "        later, which some old readers cannot open.  Works with cat,\n"
+            + "        shuffle, burst, and when no operation is given.\n"
+            + "\n"
+            + "       [objects_per_stream <count>]\n"
+            + "        Implies compress_objects.  Sets the most objects packed into\n"
+            + "        one object stream, from 1 to 65535.  The default is 200.\n"
+            + "\n"
+            + "       [dedup_objects]\n"
+            + "        When combining PDFs with cat or shuffle, write objects that the\n"
+            + "        input PDFs have in common, such as fonts, color profiles and\n"
+            + "        logos, only once.  Objects are compared by content, so this\n"
+            + "        takes longer, but the output can be much smaller when the\n"
+            + "        inputs come from the same source.  Pages, annotations and form\n"
+            + "        fields are never shared.  With verbose, reports the savings.\n"
+            + "\n"
             + "       [flatten]\n"
             + "        Use this option to merge an input PDF's interactive form fields\n"
             + "        (and their data) with the PDF's pages. Only one input PDF may be\n"
@@ -674,6 +756,22 @@ public class pdftk {
             + "        data streams, and that drop_xmp does not remove those.  It only\n"
             + "        removes the PDF's document-level XMP stream.\n"
             + "\n"
+            + "       [lazy_load]\n"
+            + "        Read the objects of the input PDFs as they are needed, instead\n"
+            + "        of loading every object when the input is opened.  Use this to\n"
+            + "        pick a few pages out of a very large PDF: time and memory then\n"
+            + "        depend on the pages you use rather than on the size of the\n"
+            + "        input.  With cat and shuffle, each input PDF is opened when its\n"
+            + "        first page is added and freed once its last page is added, so\n"
+            + "        merging many files takes about as much memory as the largest\n"
+            + "        of them.\n"
+            + "\n"
+            + "       [cache_limit <megabytes>]\n"
+            + "        Implies lazy_load.  Sets how much memory each input PDF may use\n"
+            + "        to keep objects around once pdftk is done with them, in case\n"
+            + "        they are needed again.  The default is 16.  Use 0 to keep mem-\n"
+            + "        ory use to a minimum.\n"
+            + "\n"
             + "       [verbose]\n"
             + "        By default, pdftk runs quietly. Append verbose to the end and it\n"
             + "        will speak up.\n"
@@ -688,6 +786,22 @@ public class pdftk {
             + "        When running in dont_ask mode, pdftk will over-write files with\n"
             + "        its output without notice.\n"
             + "\n"
+            + "       [then <next stage>]\n"
+            + "        Chain operations in one run of pdftk.  Each stage but the last\n"
+            + "        writes its PDF to memory instead of to an output file, and the\n"
+            + "        next stage reads it as the input named PREVIOUS.  A stage that\n"
+            + "        starts with its operation reads only PREVIOUS; otherwise list\n"
+            + "        PREVIOUS among its inputs, with a handle if you like.  Only the\n"
+            + "        last stage takes output and output options, and only the last\n"
+            + "        stage may run an operation that does not write one PDF, such as\n"
+            + "        burst or dump_data.  Before the operation of a stage, then may\n"
+            + "        be an input filename or password; after it, then ends the stage,\n"
+            + "        unless it follows output, owner_pw or user_pw.  Give a stamp,\n"
+            + "        background or other file named then as ./then.  For example:\n"
+            + "\n"
+            + "        pdftk A=in1.pdf B=in2.pdf cat A B then rotate 1east\n"
+            + "           then stamp logo.pdf then output out.pdf owner_pw foo\n"
+            + "\n"
             + "EXAMPLES\n"
             + "       Collate scanned pages\n"
             + "   pdftk A=even.pdf B=odd.pdf shuffle A B output collated.pdf\n"
@@ -752,6 +866,26 @@ public class pdftk {
             + "       Rotate an entire PDF document to 180 degrees\n"
             + "   pdftk in.pdf cat 1-endsouth output out.pdf\n"
             + "\n"
+            + "SERVER\n"
+            + "       pdftk --server [<port> <secret file>]\n"
+            + "        Run many pdftk jobs in one process, several at a time (see\n"
+            + "        pdftk.threads), so as to start Java only once.  Each request is\n"
+            + "        one line: a job id and the arguments of pdftk, separated by\n"
+            + "        tabs.  Each reply is one line: the job id, the exit code, and\n"
+            + "        what the job wrote to stdout and to stderr, separated by tabs.\n"
+            + "        Tabs, newlines, carriage returns and backslashes within a field\n"
+            + "        are written as \\t, \\n, \\r and \\\\.  Replies come in the order\n"
+            + "        jobs finish.  Jobs read an empty stdin, so they cannot prompt.\n"
+            + "\n"
+            + "        Without a port, requests are read from stdin and replies written\n"
+            + "        to stdout.  With a port, pdftk prints the port and then listens\n"
+            + "        on it on the loopback interface; port 0 picks a free port.\n"
+            + "        Other users can connect to that interface too, so pdftk first\n"
+            + "        writes a random secret to <secret file>, which must not exist,\n"
+            + "        and which only you may read.  Each connection must send the\n"
+            + "        secret as its first line, or it is closed.  The file is removed\n"
+            + "        when the server exits.\n"
+            + "\n"
             + "NOTES\n"
             + "       This is a port of pdftk to java. See https://gitlab.com/pdftk-java/pdftk\n"
             + "       The original program can be found at www.pdftk.com\n"
@@ -0,0 +1,407 @@
+/*
+ *   This file is part of the pdftk port to java
+ *
+ *   Copyright (c) Marc Vinyals 2017-2018
+ *
+ *   The program is a java port of PDFtk, the PDF Toolkit
+ *   Copyright (c) 2003-2013 Steward and Lee, LLC
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 2 of the License, or
+ *   (at your option) any later version.
+ *
+ *   The program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.gitlab.pdftk_java;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Runs many pdftk command lines in one JVM, several at a time.
+//
+// pdftk talks to the user through System.out, System.err and System.in,
+// all over the code. Rather than threading streams through every call,
+// the server replaces them with streams that forward to those of the job
+// running on the current thread. Threads started by a job inherit its
+// streams; threads that run no job use the streams the process started with.
+public class server {
+
+  public static class Job {
+    final String[] m_args;
+    final InputStream m_in;
+    final ByteArrayOutputStream m_out = new ByteArrayOutputStream();
+    final ByteArrayOutputStream m_err = new ByteArrayOutputStream();
+    int m_exit_code = -1;
+
+    public Job(String[] args, byte[] in) {
+      m_args = args;
+      m_in = new ByteArrayInputStream(in);
+    }
+
+    public int exit_code() {
+      return m_exit_code;
+    }
+
+    public byte[] stdout() {
+      return m_out.toByteArray();
+    }
+
+    public byte[] stderr() {
+      return m_err.toByteArray();
+    }
+  }
+
+  static final InheritableThreadLocal<Job> current_job = new InheritableThreadLocal<Job>();
+
+  static volatile PrintStream system_out = null;
+  static volatile PrintStream system_err = null;
+  static volatile InputStream system_in = null;
+
+  static class JobOutputStream extends OutputStream {
+    final boolean m_err_b;
+
+    JobOutputStream(boolean err_b) {
+      m_err_b = err_b;
+    }
+
+    OutputStream target() {
+      Job job = current_job.get();
+      if (job == null) {
+        return m_err_b ? system_err : system_out;
+      }
+      return m_err_b ? job.m_err : job.m_out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      target().write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      target().write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      target().flush();
+    }
+  }
+
+  static class JobInputStream extends InputStream {
+    InputStream target() {
+      Job job = current_job.get();
+      return job == null ? system_in : job.m_in;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return target().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return target().read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return target().available();
+    }
+  }
+
+  static final PrintStream job_out = new PrintStream(new JobOutputStream(false), true);
+  static final PrintStream job_err = new PrintStream(new JobOutputStream(true), true);
+  static final InputStream job_in = new JobInputStream();
+
+  // Route the standard streams to the job of the calling thread from now on.
+  // Whoever replaced them since the last call, such as a test harness, had
+  // the last word: their streams become those of threads that run no job.
+  static synchronized void install() {
+    if (System.out != job_out) {
+      system_out = System.out;
+      System.setOut(job_out);
+    }
+    if (System.err != job_err) {
+      system_err = System.err;
+      System.setErr(job_err);
+    }
+    if (System.in != job_in) {
+      system_in = System.in;
+      System.setIn(job_in);
+    }
+  }
+
+  // Run a pdftk command line on the calling thread, capturing its output.
+  public static Job run(Job job) {
+    install();
+    Job outer = current_job.get();
+    current_job.set(job);
+    try {
+      job.m_exit_code = pdftk.main_noexit(job.m_args);
+    } catch (Throwable t_p) {
+      t_p.printStackTrace();
+      job.m_exit_code = ErrorCode.BUG.code;
+    } finally {
+      System.out.flush();
+      System.err.flush();
+      current_job.set(outer);
+    }
+    return job;
+  }
+
+  public static Job run(String... args) {
+    return run(new Job(args, new byte[0]));
+  }
+
+  // The protocol is one line per job, both ways. A request is a job id
+  // followed by the arguments of pdftk, separated by tabs. The reply is
+  // the job id, the exit code, and what the job wrote to stdout and
+  // stderr, also separated by tabs. Tabs, newlines, carriage returns and
+  // backslashes in fields are escaped as \t, \n, \r and \\. Requests are
+  // UTF-8; replies carry the bytes of the output as they are. Jobs read
+  // nothing from stdin. Replies come in the order jobs finish.
+
+  static byte[] read_line(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int c = in.read();
+    if (c < 0) return null;
+    while (c >= 0 && c != '\n') {
+      line.write(c);
+      c = in.read();
+    }
+    return line.toByteArray();
+  }
+
+  static ArrayList<String> split_fields(byte[] line) {
+    ArrayList<String> fields = new ArrayList<String>();
+    ByteArrayOutputStream field = new ByteArrayOutputStream();
+    int end = line.length;
+    if (end > 0 && line[end - 1] == '\r') --end;
+    for (int ii = 0; ii < end; ++ii) {
+      byte c = line[ii];
+      if (c == '\t') {
+        fields.add(new String(field.toByteArray(), StandardCharsets.UTF_8));
+        field.reset();
+      } else if (c == '\\' && ii + 1 < end) {
+        c = line[++ii];
+        field.write(c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+      } else {
+        field.write(c);
+      }
+    }
+    fields.add(new String(field.toByteArray(), StandardCharsets.UTF_8));
+    return fields;
+  }
+
+  static void write_field(ByteArrayOutputStream line, byte[] field) {
+    for (byte c : field) {
+      if (c == '\t' || c == '\n' || c == '\r' || c == '\\') {
+        line.write('\\');
+        line.write(c == '\t' ? 't' : c == '\n' ? 'n' : c == '\r' ? 'r' : '\\');
+      } else {
+        line.write(c);
+      }
+    }
+  }
+
+  static byte[] reply_line(String id, Job job) {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    write_field(line, id.getBytes(StandardCharsets.UTF_8));
+    line.write('\t');
+    write_field(line, Integer.toString(job.m_exit_code).getBytes(StandardCharsets.US_ASCII));
+    line.write('\t');
+    write_field(line, job.stdout());
+    line.write('\t');
+    write_field(line, job.stderr());
+    line.write('\n');
+    return line.toByteArray();
+  }
+
+  // Serve the requests read from in on the pool until the end of in,
+  // and wait for their replies to be written to out.
+  public static void serve(InputStream in, OutputStream out, ExecutorService pool)
+      throws IOException {
+    install();
+    final InputStream requests = new BufferedInputStream(in);
+    final OutputStream replies = new BufferedOutputStream(out);
+    ArrayList<Future<?>> jobs = new ArrayList<Future<?>>();
+    byte[] line;
+    while ((line = read_line(requests)) != null) {
+      ArrayList<String> fields = split_fields(line);
+      if (fields.size() == 1 && fields.get(0).isEmpty()) continue;
+      final String id = fields.get(0);
+      final String[] args = fields.subList(1, fields.size()).toArray(new String[0]);
+      jobs.add(
+          pool.submit(
+              new Runnable() {
+                public void run() {
+                  byte[] reply = reply_line(id, server.run(args));
+                  synchronized (replies) {
+                    try {
+                      replies.write(reply);
+                      replies.flush();
+                    } catch (IOException e) {
+                      // the client is gone; nobody to tell
+                    }
+                  }
+                }
+              }));
+    }
+    for (Future<?> job : jobs) {
+      try {
+        job.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        e.getCause().printStackTrace();
+      }
+    }
+    synchronized (replies) {
+      replies.flush();
+    }
+  }
+
+  // Make a new secret and write it to a new file that only the user may
+  // read, so that only clients of the same user can connect.
+  static byte[] make_secret(File file) throws IOException {
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    StringBuilder hex = new StringBuilder();
+    for (byte b : random) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    byte[] secret = hex.toString().getBytes(StandardCharsets.US_ASCII);
+    Path path = file.toPath();
+    if (file.exists()) {
+      throw new IOException("Secret file already exists: " + file);
+    }
+    try {
+      Files.createFile(
+          path,
+          PosixFilePermissions.asFileAttribute(
+              EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)));
+    } catch (UnsupportedOperationException e) {
+      Files.createFile(path);
+      file.setReadable(false, false);
+      file.setReadable(true, true);
+      file.setWritable(false, false);
+      file.setWritable(true, true);
+    }
+    file.deleteOnExit();
+    Files.write(path, secret);
+    return secret;
+  }
+
+  // Read the first line of a connection, which must be the secret. Reads
+  // no more than a secret's length, whatever the client sends.
+  static boolean check_secret(InputStream in, byte[] secret) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int c = in.read();
+    while (c >= 0 && c != '\n' && line.size() <= secret.length) {
+      line.write(c);
+      c = in.read();
+    }
+    byte[] got = line.toByteArray();
+    int end = got.length;
+    if (end > 0 && got[end - 1] == '\r') --end;
+    return c == '\n' && MessageDigest.isEqual(secret, Arrays.copyOf(got, end));
+  }
+
+  // pdftk --server [<port> <secret file>]
+  //
+  // Without a port, serve the requests read from stdin and exit at its end.
+  // With a port, listen on that port of the loopback interface, serving
+  // each connection until it is closed, and print the port on stdout
+  // (which is useful with port 0, meaning any free port). Other users can
+  // connect to the loopback interface too, so the server writes a secret
+  // to the secret file, which must not exist yet, and each connection has
+  // to send it as its first line; connections that don't are closed.
+  public static int main_noexit(String[] args) {
+    if (args.length != 1 && args.length != 3) {
+      System.err.println("Usage: pdftk --server [<port> <secret file>]");
+      return ErrorCode.ERROR.code;
+    }
+    install();
+    final ExecutorService pool = Executors.newFixedThreadPool(PdfReader.getThreads());
+    try {
+      if (args.length == 1) {
+        serve(system_in, system_out, pool);
+      } else {
+        int port = Integer.parseInt(args[1]);
+        final byte[] secret = make_secret(new File(args[2]));
+        ServerSocket listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        system_out.println(listener.getLocalPort());
+        system_out.flush();
+        while (true) {
+          final Socket socket = listener.accept();
+          Thread connection =
+              new Thread(
+                  new Runnable() {
+                    public void run() {
+                      try {
+                        InputStream in = new BufferedInputStream(socket.getInputStream());
+                        if (check_secret(in, secret)) {
+                          serve(in, socket.getOutputStream(), pool);
+                        }
+                      } catch (IOException e) {
+                        // the client is gone
+                      } finally {
+                        try {
+                          socket.close();
+                        } catch (IOException e) {
+                        }
+                      }
+                    }
+                  },
+                  "pdftk-connection");
+          connection.setDaemon(true);
+          connection.start();
+        }
+      }
+    } catch (NumberFormatException e) {
+      system_err.println("Error: Invalid port: " + args[1]);
+      return ErrorCode.ERROR.code;
+    } catch (IOException e) {
+      system_err.println("Error: " + e.getMessage());
+      return ErrorCode.ERROR.code;
+    } finally {
+      pool.shutdown();
+    }
+    return ErrorCode.NO_ERROR.code;
+  }
+};
@@ -57,6 +57,7 @@
 package pdftk.com.lowagie.text;
 
 import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.OutputStream;
 import java.io.IOException;
 import java.util.Iterator;
@@ -140,7 +141,10 @@ public abstract class DocWriter implements DocListener {
 
     protected DocWriter( /* ssteward omit: Document document,*/ OutputStream os)  {
         // ssteward omit: this.document = document;
-        this.os = new OutputStreamCounter(new BufferedOutputStream(os));
+        if (os instanceof FileOutputStream)
+            this.os = new OutputStreamCounter(new BufferedOutputStream(os), ((FileOutputStream)os).getChannel());
+        else
+            this.os = new OutputStreamCounter(new BufferedOutputStream(os));
     }
 
     // implementation of the DocListener methods
@@ -0,0 +1,149 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package pdftk.com.lowagie.text.pdf;
+
+import java.util.ArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Inflaters and deflaters to use again, so that the native state of zlib
+ * isn't set up for every stream and left for the collector to free.
+ * Each thread keeps those it gave back, reset, for its next streams.
+ * A reset inflater or deflater works as a new one.
+ */
+final class FlatePool {
+    /** The output buffer of the deflater streams. */
+    static final int BUFFER_SIZE = 8192;
+
+    /** The inflaters a thread keeps; streams with filters in filters need several. */
+    private static final int MAX_IDLE_INFLATERS = 4;
+
+    private static final ThreadLocal idleInflaters = new ThreadLocal() {
+        protected Object initialValue() {
+            return new ArrayList();
+        }
+    };
+
+    /** One deflater for each compression level, from -1 to 9. */
+    private static final ThreadLocal idleDeflaters = new ThreadLocal() {
+        protected Object initialValue() {
+            return new Deflater[11];
+        }
+    };
+
+    private FlatePool() {
+    }
+
+    /**
+     * Gets an inflater, which has to be given back with <CODE>release()</CODE>.
+     * @return an inflater with no input
+     */
+    static Inflater getInflater() {
+        ArrayList inflaters = (ArrayList)idleInflaters.get();
+        if (inflaters.isEmpty())
+            return new Inflater();
+        return (Inflater)inflaters.remove(inflaters.size() - 1);
+    }
+
+    /**
+     * Gives an inflater back; it must not be used any more.
+     * @param inflater the inflater
+     */
+    static void release(Inflater inflater) {
+        ArrayList inflaters = (ArrayList)idleInflaters.get();
+        if (inflaters.size() < MAX_IDLE_INFLATERS) {
+            inflater.reset();
+            inflaters.add(inflater);
+        }
+        else
+            inflater.end();
+    }
+
+    /**
+     * Gets a deflater, which has to be given back with <CODE>release()</CODE>.
+     * @param level the compression level
+     * @return a deflater with no input
+     */
+    static Deflater getDeflater(int level) {
+        Deflater deflaters[] = (Deflater[])idleDeflaters.get();
+        int k = level + 1;
+        if (k < 0 || k >= deflaters.length || deflaters[k] == null)
+            return new Deflater(level);
+        Deflater deflater = deflaters[k];
+        deflaters[k] = null;
+        return deflater;
+    }
+
+    /**
+     * Gives a deflater back; it must not be used any more.
+     * @param deflater the deflater
+     * @param level the compression level it was got for
+     */
+    static void release(Deflater deflater, int level) {
+        Deflater deflaters[] = (Deflater[])idleDeflaters.get();
+        int k = level + 1;
+        if (k >= 0 && k < deflaters.length && deflaters[k] == null) {
+            deflater.reset();
+            deflaters[k] = deflater;
+        }
+        else
+            deflater.end();
+    }
+
+    /**
+     * Compresses data into a single array, with the same result as a
+     * <CODE>DeflaterOutputStream</CODE> with a new deflater of that level:
+     * the deflater is called the same way, with all the data and then to finish.
+     * @param data the data
+     * @param level the compression level
+     * @return the compressed data
+     */
+    static byte[] deflate(byte data[], int level) {
+        Deflater deflater = getDeflater(level);
+        try {
+            // most of the streams of a PDF compress to less than a quarter
+            byte out[] = new byte[data.length / 4 + 64];
+            int n = 0;
+            deflater.setInput(data);
+            while (!deflater.needsInput()) {
+                if (n == out.length)
+                    out = grow(out);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (n == out.length)
+                    out = grow(out);
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            byte b[] = new byte[n];
+            System.arraycopy(out, 0, b, 0, n);
+            return b;
+        }
+        finally {
+            release(deflater, level);
+        }
+    }
+
+    private static byte[] grow(byte b[]) {
+        byte b2[] = new byte[b.length * 2];
+        System.arraycopy(b, 0, b2, 0, b.length);
+        return b2;
+    }
+}
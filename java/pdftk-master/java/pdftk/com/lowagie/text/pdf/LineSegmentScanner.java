@@ -0,0 +1,180 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package pdftk.com.lowagie.text.pdf;
+
+import java.io.IOException;
+
+/**
+ * Reads a file as the line segments that <CODE>PRTokeniser.readLineSegment()</CODE>
+ * returns, a block at a time instead of a byte at a time. This is how a
+ * reader looks for the objects, the trailers and the ends of streams of a
+ * file that has to be repaired.
+ * <P>
+ * A segment is some whitespace, which may span blank lines, then the rest of
+ * the line. Its first bytes are copied into <CODE>line</CODE> just as
+ * <CODE>readLineSegment()</CODE> copies them, with the " X" after a short
+ * line and what longer lines left behind it, so callers see the very bytes
+ * they saw when reading line by line.
+ */
+class LineSegmentScanner {
+
+    static final int BLOCK_SIZE = 1 << 16;
+
+    private RandomAccessFileOrArray file;
+    private byte block[] = new byte[BLOCK_SIZE];
+    /** The offset in the file of <CODE>block[0]</CODE>. */
+    private long blockStart = 0;
+    private int blockLength = 0;
+    private int ptr = 0;
+
+    /** The first bytes of the last segment. */
+    byte line[];
+    /** How many bytes of the last segment were copied to <CODE>line</CODE>. */
+    int count;
+    /** Where the last segment starts, leading whitespace included. */
+    long pos;
+    /** Where the first byte of <CODE>line</CODE> is in the file. */
+    long lineStart;
+
+    /**
+     * Creates a scanner at the start of a file.
+     * @param file the file; the scanner moves its file pointer
+     * @param lineLength how many bytes of each segment to keep
+     */
+    LineSegmentScanner(RandomAccessFileOrArray file, int lineLength) {
+        this.file = file;
+        line = new byte[lineLength];
+    }
+
+    long getFilePointer() {
+        return blockStart + ptr;
+    }
+
+    void seek(long pos) {
+        if (pos >= blockStart && pos <= blockStart + blockLength) {
+            ptr = (int)(pos - blockStart);
+        }
+        else {
+            blockStart = pos;
+            blockLength = 0;
+            ptr = 0;
+        }
+    }
+
+    /** Reads the block that follows the current one. */
+    private boolean fill() throws IOException {
+        blockStart += blockLength;
+        blockLength = 0;
+        ptr = 0;
+        file.seek(blockStart);
+        while (blockLength < block.length) {
+            int n = file.read(block, blockLength, block.length - blockLength);
+            if (n <= 0)
+                break;
+            blockLength += n;
+        }
+        return blockLength > 0;
+    }
+
+    /**
+     * Reads the next segment.
+     * @return <CODE>false</CODE> at the end of the file
+     */
+    boolean next() throws IOException {
+        pos = getFilePointer();
+        while (true) {
+            if (ptr == blockLength && !fill())
+                return false;
+            if (!PRTokeniser.isWhitespace(block[ptr] & 0xff))
+                break;
+            ++ptr;
+        }
+        lineStart = getFilePointer();
+        int len = line.length;
+        int n = 0;
+        while (ptr < blockLength || fill()) {
+            byte b[] = block;
+            int end = blockLength;
+            int k = ptr;
+            while (k < end && n < len) {
+                byte c = b[k];
+                if (c == '\n' || c == '\r')
+                    break;
+                line[n++] = c;
+                ++k;
+            }
+            // the rest of a long line is skipped
+            while (k < end) {
+                byte c = b[k];
+                if (c == '\n' || c == '\r')
+                    break;
+                ++k;
+            }
+            ptr = k;
+            if (k < end)
+                break;
+        }
+        if (ptr < blockLength || fill()) {
+            if (block[ptr++] == '\r' && (ptr < blockLength || fill()) && block[ptr] == '\n')
+                ++ptr;
+        }
+        count = n;
+        if (n + 2 <= len) {
+            line[n] = (byte)' ';
+            line[n + 1] = (byte)'X';
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether <CODE>line</CODE> starts with the given bytes.
+     * @param b the bytes
+     * @return <CODE>true</CODE> if it does
+     */
+    boolean startsWith(byte b[]) {
+        if (b.length > line.length)
+            return false;
+        for (int k = 0; k < b.length; ++k) {
+            if (line[k] != b[k])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the position that follows the first end of line at or after the
+     * given position, which a scan may start from.
+     * @param pos the position
+     * @return the start of the next line, or the length of the file
+     */
+    long nextLineStart(long pos) throws IOException {
+        seek(pos);
+        while (ptr < blockLength || fill()) {
+            byte b[] = block;
+            int end = blockLength;
+            for (int k = ptr; k < end; ++k) {
+                if (b[k] == '\n') {
+                    ptr = k + 1;
+                    return getFilePointer();
+                }
+            }
+            ptr = end;
+        }
+        return getFilePointer();
+    }
+}
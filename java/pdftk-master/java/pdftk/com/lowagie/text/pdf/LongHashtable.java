@@ -0,0 +1,157 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package pdftk.com.lowagie.text.pdf;
+
+import java.util.Arrays;
+
+/**
+ * A hash map from primitive ints to primitive longs, such as file offsets,
+ * kept in flat arrays rather than in an object per entry. Like
+ * <CODE>IntHashtable</CODE>, it gives 0 for keys that it doesn't hold.
+ */
+public class LongHashtable {
+
+    /** The keys, at the slots that <CODE>used</CODE> marks. */
+    private int keys[];
+    /** The value of the key at the same slot. */
+    private long values[];
+    private boolean used[];
+    private int count;
+
+    /**
+     * Constructs an empty table.
+     */
+    public LongHashtable() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty table that holds the given number of keys
+     * before it has to grow.
+     * @param capacity the number of keys
+     */
+    public LongHashtable(int capacity) {
+        int slots = 16;
+        while (slots < capacity + capacity / 2)
+            slots <<= 1;
+        keys = new int[slots];
+        values = new long[slots];
+        used = new boolean[slots];
+    }
+
+    /**
+     * Gets the number of keys in the table.
+     * @return the number of keys
+     */
+    public int size() {
+        return count;
+    }
+
+    /** The slot of key, or the free slot where it would go. */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int h = key * 0x9E3779B9;
+        int k = (h ^ (h >>> 16)) & mask;
+        while (used[k] && keys[k] != key)
+            k = (k + 1) & mask;
+        return k;
+    }
+
+    /**
+     * Tests if the table holds a key.
+     * @param key the key
+     * @return <CODE>true</CODE> if the table holds it
+     */
+    public boolean containsKey(int key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * Gets the value of a key.
+     * @param key the key
+     * @return its value, or 0 if the table doesn't hold it
+     */
+    public long get(int key) {
+        int k = slot(key);
+        return used[k] ? values[k] : 0;
+    }
+
+    /**
+     * Sets the value of a key.
+     * @param key the key
+     * @param value the value
+     * @return the previous value of the key, or 0 if it had none
+     */
+    public long put(int key, long value) {
+        int k = slot(key);
+        if (used[k]) {
+            long old = values[k];
+            values[k] = value;
+            return old;
+        }
+        if ((count + 1) * 4 > keys.length * 3) {
+            rehash();
+            k = slot(key);
+        }
+        keys[k] = key;
+        values[k] = value;
+        used[k] = true;
+        ++count;
+        return 0;
+    }
+
+    /** Doubles the number of slots. */
+    private void rehash() {
+        int oldKeys[] = keys;
+        long oldValues[] = values;
+        boolean oldUsed[] = used;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        for (int k = 0; k < oldKeys.length; ++k) {
+            if (oldUsed[k]) {
+                int s = slot(oldKeys[k]);
+                keys[s] = oldKeys[k];
+                values[s] = oldValues[k];
+                used[s] = true;
+            }
+        }
+    }
+
+    /**
+     * Gets the keys of the table, in no particular order.
+     * @return the keys
+     */
+    public int[] getKeys() {
+        int res[] = new int[count];
+        int ptr = 0;
+        for (int k = 0; k < keys.length; ++k) {
+            if (used[k])
+                res[ptr++] = keys[k];
+        }
+        return res;
+    }
+
+    /**
+     * Removes every key.
+     */
+    public void clear() {
+        Arrays.fill(used, false);
+        count = 0;
+    }
+}
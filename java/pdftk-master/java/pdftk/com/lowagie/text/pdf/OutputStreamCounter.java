@@ -51,8 +51,10 @@
  * http://www.lowagie.com/iText/
  */
 package pdftk.com.lowagie.text.pdf;
+import java.io.EOFException;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 
 /**
  *
@@ -61,13 +63,25 @@ import java.io.IOException;
 public class OutputStreamCounter extends OutputStream {
     
     protected OutputStream out;
-    protected int counter = 0;
+    protected long counter = 0;
+    /** The file that <CODE>out</CODE> ends up in, if known. */
+    protected FileChannel channel = null;
     
     /** Creates a new instance of OutputStreamCounter */
     public OutputStreamCounter(OutputStream out) {
         this.out = out;
     }
     
+    /** Creates a new instance of OutputStreamCounter that can copy other
+     * files into the file it writes to without reading them into memory.
+     * @param out the stream, which may buffer what is written to <CODE>channel</CODE>
+     * @param channel the file that <CODE>out</CODE> writes to
+     */
+    public OutputStreamCounter(OutputStream out, FileChannel channel) {
+        this.out = out;
+        this.channel = channel;
+    }
+    
     /** Closes this output stream and releases any system resources
      * associated with this stream. The general contract of <code>close</code>
      * is that it closes the output stream. A closed stream cannot perform
@@ -166,7 +180,31 @@ public class OutputStreamCounter extends OutputStream {
         out.write(b, off, len);
     }
     
-    public int getCounter() {
+    /** Copies bytes of a file to this stream. If this stream writes to a
+     * file, the bytes go from file to file without being read into memory.
+     * @param src the file to copy from
+     * @param position where the bytes are in <CODE>src</CODE>
+     * @param count how many bytes to copy
+     * @return <CODE>false</CODE> if nothing was copied because this stream
+     * doesn't write to a file
+     * @throws IOException on error, or if <CODE>src</CODE> is too short
+     */
+    public boolean transferFrom(FileChannel src, long position, long count) throws IOException {
+        if (channel == null)
+            return false;
+        out.flush();
+        long done = 0;
+        while (done < count) {
+            long n = src.transferTo(position + done, count - done, channel);
+            if (n <= 0)
+                throw new EOFException();
+            done += n;
+        }
+        counter += count;
+        return true;
+    }
+    
+    public long getCounter() {
         return counter;
     }
     
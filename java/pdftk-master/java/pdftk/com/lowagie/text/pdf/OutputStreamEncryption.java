@@ -67,6 +67,7 @@ public class OutputStreamEncryption extends OutputStream {
     protected AESCipher cipher;
     private byte[] sb = new byte[1];
     private static final int AES_128 = 4;
+    private static final int AES_256 = 5;
     private boolean aes;
     private boolean finished;
     
@@ -74,7 +75,7 @@ public class OutputStreamEncryption extends OutputStream {
     public OutputStreamEncryption(OutputStream out, byte key[], int off, int len, int revision) {
         try {
             this.out = out;
-            aes = revision == AES_128;
+            aes = revision == AES_128 || revision == AES_256;
             if (aes) {
                 byte[] iv = IVGenerator.getIV();
                 byte[] nkey = new byte[len];
@@ -56,7 +56,6 @@
 
 package pdftk.com.lowagie.text.pdf;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
@@ -64,13 +63,15 @@ import java.util.zip.DeflaterOutputStream;
 import java.util.ArrayList; // ssteward
 
 import pdftk.com.lowagie.text.Document;
-import pdftk.com.lowagie.text.ExceptionConverter;
 
 public class PRStream extends PdfStream {
     
     protected PdfReader reader = null;
-    protected int offset = 0;
+    protected long offset = 0;
     protected int length = 0;
+
+    /** Streams this long are written a block at a time; see <CODE>isWrittenInBlocks</CODE>. */
+    static final int MIN_BLOCKS_LENGTH = 1 << 20;
     
     //added by ujihara for decryption
     protected int objNum = 0;
@@ -97,7 +98,7 @@ public class PRStream extends PdfStream {
         this.reader = reader;
     }
 
-    public PRStream(PdfReader reader, int offset) {
+    public PRStream(PdfReader reader, long offset) {
         this.reader = reader;
         this.offset = offset;
     }
@@ -118,18 +119,7 @@ public class PRStream extends PdfStream {
         this.reader = reader;
         this.offset = -1;
         if (Document.compress) {
-            try {
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                Deflater deflater = new Deflater(compressionLevel);
-                DeflaterOutputStream zip = new DeflaterOutputStream(stream, deflater);
-                zip.write(conts);
-                zip.close();
-                deflater.end();
-                bytes = stream.toByteArray();
-            }
-            catch (IOException ioe) {
-                throw new ExceptionConverter(ioe);
-            }
+            bytes = FlatePool.deflate(conts, compressionLevel);
             put(PdfName.FILTER, PdfName.FLATEDECODE);
         }
         else
@@ -165,19 +155,8 @@ public class PRStream extends PdfStream {
 	remove(PdfName.DECODEPARMS); // ssteward, pdftk 1.46
         this.offset = -1;
         if (Document.compress && compress) {
-            try {
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                Deflater deflater = new Deflater(compressionLevel);
-                DeflaterOutputStream zip = new DeflaterOutputStream(stream, deflater);
-                zip.write(data);
-                zip.close();
-                deflater.end();
-                bytes = stream.toByteArray();
-                this.compressionLevel = compressionLevel;
-            }
-            catch (IOException ioe) {
-                throw new ExceptionConverter(ioe);
-            }
+            bytes = FlatePool.deflate(data, compressionLevel);
+            this.compressionLevel = compressionLevel;
             put(PdfName.FILTER, PdfName.FLATEDECODE);
         }
         else
@@ -197,7 +176,7 @@ public class PRStream extends PdfStream {
         put(PdfName.LENGTH, new PdfNumber(length));
     }
     
-    public int getOffset() {
+    public long getOffset() {
         return offset;
     }
     
@@ -229,21 +208,35 @@ public class PRStream extends PdfStream {
     // ssteward: added code to perform uncompression (filtering) or compression of streams
     public void toPdf(PdfWriter writer, OutputStream os) throws IOException {
 
+        PdfEncryption crypto = null;
+        if (writer != null)
+            crypto = writer.getEncryption();
+        boolean encrypt = crypto != null && !crypto.isEmbeddedFilesOnly();
+
 	// 4.2.0
-	byte[] b= new byte[0];
-	if( ( writer.filterStreams || writer.compressStreams ) && filtersAreKnown() ) { // ssteward
-	    setData( PdfReader.getStreamBytes( this ), // apply filters to yield clear text
+	byte[] b= null;
+	int nn;
+	boolean filter= ( writer.filterStreams || writer.compressStreams ) && filtersAreKnown(); // ssteward
+	if( isWrittenInBlocks() && ( filter || reader.getDecrypt() != null || encrypt ) &&
+	    toPdfInBlocks( writer, os, filter, encrypt ) ) {
+	    return;
+	}
+	if( filter ) {
+	    setData( reader.readStreamBytes( this, false ), // apply filters to yield clear text
 		     writer.compressStreams, DEFAULT_COMPRESSION );
 	    b= bytes;
+	    nn= b.length;
+	}
+	else if( offset >= 0 && length >= 0 && reader.getDecrypt() == null && !encrypt ) {
+	    // the bytes are written as they are in the file, so copy
+	    // them straight to the output below, without reading them in
+	    nn= length;
 	}
 	else { // use temp
-	    b= PdfReader.getStreamBytesRaw( this );
+	    b= reader.readStreamBytes( this, true );
+	    nn= b.length;
 	}
-        PdfEncryption crypto = null;
-        if (writer != null)
-            crypto = writer.getEncryption();
         PdfObject objLen = get(PdfName.LENGTH);
-        int nn = b.length;
         if (crypto != null)
             nn = crypto.calculateStreamSize(nn);
         put(PdfName.LENGTH, new PdfNumber(nn));
@@ -251,13 +244,109 @@ public class PRStream extends PdfStream {
         put(PdfName.LENGTH, objLen);
         os.write(STARTSTREAM);
         if (length > 0) {
-            if (crypto != null && !crypto.isEmbeddedFilesOnly())
-                b = crypto.encryptByteArray(b);
-            os.write(b);
+            if (b == null)
+                reader.copyStreamBytesRaw(this, os);
+            else {
+                if (encrypt)
+                    b = writer.getObjectKey().encryptByteArray(b);
+                os.write(b);
+            }
         }
         os.write(ENDSTREAM);
     }
 
+    /**
+     * Checks whether <CODE>toPdf</CODE> writes this stream a block at a time
+     * rather than reading it into memory, which it does for long streams
+     * in the file that have to be decrypted, encrypted or filtered.
+     * @return <CODE>true</CODE> if the stream is long enough
+     */
+    boolean isWrittenInBlocks() {
+        return reader != null && offset >= 0 && length >= MIN_BLOCKS_LENGTH;
+    }
+
+    /**
+     * Writes the stream as the rest of <CODE>toPdf</CODE> does, but a block at
+     * a time. The length goes before the data, so it is found first: that of
+     * the decrypted data from its last blocks, that of the filtered data by
+     * filtering it once without writing it.
+     * @return <CODE>false</CODE> if nothing was written because the length
+     * can only be found by reading the whole stream
+     */
+    private boolean toPdfInBlocks(PdfWriter writer, OutputStream os, boolean filter, boolean encrypt) throws IOException {
+        boolean compress = filter && Document.compress && writer.compressStreams;
+        long n;
+        if (filter) {
+            OutputStreamCounter counter = new OutputStreamCounter(new OutputStream() {
+                public void write(int b) {
+                }
+                public void write(byte b[], int off, int len) {
+                }
+            });
+            writeFiltered(counter, compress);
+            n = counter.getCounter();
+        }
+        else
+            n = reader.getStreamLengthDecrypted(this);
+        if (n < 0 || n > Integer.MAX_VALUE - 32)
+            return false;
+        int nn = (int)n;
+        PdfEncryption crypto = writer.getEncryption();
+        if (crypto != null)
+            nn = crypto.calculateStreamSize(nn);
+        // the dictionary of the stream as setData leaves it, for a while
+        PdfObject objFilter = get(PdfName.FILTER);
+        PdfObject objDecodeParms = get(PdfName.DECODEPARMS);
+        PdfObject objLen = get(PdfName.LENGTH);
+        if (filter) {
+            remove(PdfName.FILTER);
+            remove(PdfName.DECODEPARMS);
+            if (compress)
+                put(PdfName.FILTER, PdfName.FLATEDECODE);
+        }
+        put(PdfName.LENGTH, new PdfNumber(nn));
+        try {
+            superToPdf(writer, os);
+        }
+        finally {
+            put(PdfName.FILTER, objFilter);
+            put(PdfName.DECODEPARMS, objDecodeParms);
+            put(PdfName.LENGTH, objLen);
+        }
+        os.write(STARTSTREAM);
+        OutputStreamEncryption ose = null;
+        if (encrypt)
+            ose = writer.getObjectKey().getEncryptionStream(os);
+        OutputStream out = ose == null ? os : ose;
+        if (filter)
+            writeFiltered(out, compress);
+        else
+            reader.copyStreamBytes(this, true, out);
+        if (ose != null)
+            ose.finish();
+        os.write(ENDSTREAM);
+        return true;
+    }
+
+    /** Writes the data of the stream with its filters applied, and compressed
+     * as setData would compress it.
+     */
+    private void writeFiltered(OutputStream os, boolean compress) throws IOException {
+        if (!compress) {
+            reader.copyStreamBytes(this, false, os);
+            return;
+        }
+        Deflater deflater = FlatePool.getDeflater(DEFAULT_COMPRESSION);
+        try {
+            DeflaterOutputStream zip = new DeflaterOutputStream(os, deflater, FlatePool.BUFFER_SIZE);
+            reader.copyStreamBytes(this, false, zip);
+            zip.finish();
+        }
+        finally {
+            FlatePool.release(deflater, DEFAULT_COMPRESSION);
+        }
+    }
+
     // ssteward
     // do we know how to apply all of the stream filters?
     public boolean filtersAreKnown() {
@@ -58,6 +58,7 @@
 package pdftk.com.lowagie.text.pdf;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import pdftk.com.lowagie.text.exceptions.InvalidPdfException;
 /**
  *
@@ -107,12 +108,30 @@ public class PRTokeniser {
     static final String EMPTY = "";
 
     
+    /** Powers of ten that a double holds exactly. */
+    private static final double POWERS_OF_TEN[] = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
     protected RandomAccessFileOrArray file = null;
     protected int type = 0;
-    protected String stringValue = "";
+    /** The value of the current token as a string, made from <CODE>value</CODE> when asked for. */
+    protected String stringValue = EMPTY;
     protected int reference = 0;
     protected int generation = 0;
     protected boolean hexString = false;
+    /**
+     * The bytes of the current token. Names, strings, numbers and other
+     * tokens are read into this buffer, which is reused from token to
+     * token, so that reading them makes no garbage.
+     */
+    private byte value[] = new byte[64];
+    private int valueLength = 0;
+    /** The numbers nextValidToken() reads ahead, as they may start a reference. */
+    private byte number1[] = new byte[16];
+    private int number1Length = 0;
+    private byte number2[] = new byte[16];
+    private int number2Length = 0;
        
     public PRTokeniser(String filename) throws IOException {
         file = new RandomAccessFileOrArray(filename);
@@ -126,11 +145,11 @@ public class PRTokeniser {
         this.file = file;
     }
     
-    public void seek(int pos) throws IOException {
+    public void seek(long pos) throws IOException {
         file.seek(pos);
     }
     
-    public int getFilePointer() throws IOException {
+    public long getFilePointer() throws IOException {
         return file.getFilePointer();
     }
 
@@ -138,7 +157,7 @@ public class PRTokeniser {
         file.close();
     }
     
-    public int length() throws IOException {
+    public long length() throws IOException {
         return file.length();
     }
 
@@ -183,8 +202,55 @@ public class PRTokeniser {
     }
     
     public String getStringValue() {
+        if (stringValue == null)
+            stringValue = valueLength == 0 ? EMPTY : new String(value, 0, valueLength, StandardCharsets.ISO_8859_1);
         return stringValue;
     }
+
+    /**
+     * Compares the value of the current token with a string, without making
+     * a string of the token.
+     * @param s the string, with no characters above 255
+     * @return <CODE>true</CODE> if they are the same
+     */
+    public boolean tokenEquals(String s) {
+        int len = s.length();
+        if (len != valueLength)
+            return false;
+        for (int k = 0; k < len; ++k) {
+            if ((value[k] & 0xff) != s.charAt(k))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets a copy of the bytes of the current token.
+     * @return the bytes
+     */
+    public byte[] getTokenBytes() {
+        byte b[] = new byte[valueLength];
+        System.arraycopy(value, 0, b, 0, valueLength);
+        return b;
+    }
+
+    /** Gets the buffer of the current token, valid until the next token is read. */
+    byte[] getTokenBuffer() {
+        return value;
+    }
+
+    int getTokenLength() {
+        return valueLength;
+    }
+
+    private void append(int ch) {
+        if (valueLength == value.length) {
+            byte b[] = new byte[value.length * 2];
+            System.arraycopy(value, 0, b, 0, valueLength);
+            value = b;
+        }
+        value[valueLength++] = (byte)ch;
+    }
     
     public int getReference() {
         return reference;
@@ -222,9 +288,9 @@ public class PRTokeniser {
         file.setStartOffset(idx);
     }
 
-    public int getStartxref() throws IOException {
-        int size = Math.min(1024, file.length());
-        int pos = file.length() - size;
+    public long getStartxref() throws IOException {
+        long size = Math.min(1024, file.length());
+        long pos = file.length() - size;
         file.seek(pos);
         String str = readString(1024);
         int idx = str.lastIndexOf("startxref");
@@ -245,9 +311,7 @@ public class PRTokeniser {
     
     public void nextValidToken() throws IOException {
         int level = 0;
-        String n1 = null;
-        String n2 = null;
-        int ptr = 0;
+        long ptr = 0;
         while (nextToken()) {
             if (type == TK_COMMENT)
                 continue;
@@ -257,7 +321,10 @@ public class PRTokeniser {
                     if (type != TK_NUMBER)
                         return;
                     ptr = file.getFilePointer();
-                    n1 = stringValue;
+                    if (number1.length < valueLength)
+                        number1 = new byte[valueLength];
+                    System.arraycopy(value, 0, number1, 0, valueLength);
+                    number1Length = valueLength;
                     ++level;
                     break;
                 }
@@ -265,38 +332,48 @@ public class PRTokeniser {
                 {
                     if (type != TK_NUMBER) {
                         file.seek(ptr);
-                        type = TK_NUMBER;
-                        stringValue = n1;
+                        backToFirstNumber();
                         return;
                     }
-                    n2 = stringValue;
+                    if (number2.length < valueLength)
+                        number2 = new byte[valueLength];
+                    System.arraycopy(value, 0, number2, 0, valueLength);
+                    number2Length = valueLength;
                     ++level;
                     break;
                 }
                 default:
                 {
-                    if (type != TK_OTHER || !stringValue.equals("R")) {
+                    if (type != TK_OTHER || !tokenEquals("R")) {
                         file.seek(ptr);
-                        type = TK_NUMBER;
-                        stringValue = n1;
+                        backToFirstNumber();
                         return;
                     }
                     type = TK_REF;
-                    reference = Integer.parseInt(n1);
-                    generation = Integer.parseInt(n2);
+                    reference = parseInt(number1, number1Length);
+                    generation = parseInt(number2, number2Length);
                     return;
                 }
             }
         }
 		// http://bugs.debian.org/cgi-bin/bugreport.cgi?bug=687669#20
         if (level > 0) {
-            type = TK_NUMBER;
             file.seek(ptr);
-            stringValue = n1;
+            backToFirstNumber();
             return;
         }
         throwError("Unexpected end of file");
     }
+
+    /** Makes the first number read ahead by nextValidToken() the current token again. */
+    private void backToFirstNumber() {
+        type = TK_NUMBER;
+        if (value.length < number1Length)
+            value = new byte[number1Length];
+        System.arraycopy(number1, 0, value, 0, number1Length);
+        valueLength = number1Length;
+        stringValue = null;
+    }
     
     public boolean nextToken() throws IOException {
         int ch = 0;
@@ -308,11 +385,11 @@ public class PRTokeniser {
             return false;
         }
 
-        // Note:  We have to initialize stringValue here, after we've looked for the end of the stream,
+        // Note:  We have to initialize the value here, after we've looked for the end of the stream,
         // to ensure that we don't lose the value of a token that might end exactly at the end
         // of the stream
-        StringBuffer outBuf = null;
-        stringValue = EMPTY;
+        valueLength = 0;
+        stringValue = null;
 
         switch (ch) {
             case '[':
@@ -323,7 +400,6 @@ public class PRTokeniser {
                 break;
             case '/':
             {
-                outBuf = new StringBuffer();
                 type = TK_NAME;
                 while (true) {
                     ch = file.read();
@@ -332,7 +408,7 @@ public class PRTokeniser {
                     if (ch == '#') {
                         ch = (getHex(file.read()) << 4) + getHex(file.read());
                     }
-                    outBuf.append((char)ch);
+                    append(ch);
                 }
                 backOnePosition(ch);
                 break;
@@ -350,7 +426,6 @@ public class PRTokeniser {
                     type = TK_START_DIC;
                     break;
                 }
-                outBuf = new StringBuffer();
                 type = TK_STRING;
                 hexString = true;
                 int v2 = 0;
@@ -367,14 +442,14 @@ public class PRTokeniser {
                         v2 = file.read();
                     if (v2 == '>') {
                         ch = v1 << 4;
-                        outBuf.append((char)ch);
+                        append(ch);
                         break;
                     }
                     v2 = getHex(v2);
                     if (v2 < 0)
                         break;
                     ch = (v1 << 4) + v2;
-                    outBuf.append((char)ch);
+                    append(ch);
                     v1 = file.read();
                 }
                 if (v1 < 0 || v2 < 0)
@@ -389,7 +464,6 @@ public class PRTokeniser {
                 break;
             case '(':
             {
-                outBuf = new StringBuffer();
                 type = TK_STRING;
                 hexString = false;
                 int nesting = 0;
@@ -475,7 +549,7 @@ public class PRTokeniser {
                     }
                     if (nesting == -1)
                         break;
-                    outBuf.append((char)ch);
+                    append(ch);
                 }
                 if (ch == -1)
                     throwError("Error reading string");
@@ -483,18 +557,17 @@ public class PRTokeniser {
             }
             default:
             {
-                outBuf = new StringBuffer();
                 if (ch == '-' || ch == '+' || ch == '.' || (ch >= '0' && ch <= '9')) {
                     type = TK_NUMBER;
                     do {
-                        outBuf.append((char)ch);
+                        append(ch);
                         ch = file.read();
                     } while (ch != -1 && ((ch >= '0' && ch <= '9') || ch == '.'));
                 }
                 else {
                     type = TK_OTHER;
                     do {
-                        outBuf.append((char)ch);
+                        append(ch);
                         ch = file.read();
                     } while (!delims[ch + 1]);
                 }
@@ -502,13 +575,88 @@ public class PRTokeniser {
                 break;
             }
         }
-        if (outBuf != null)
-            stringValue = outBuf.toString();
         return true;
     }
     
     public int intValue() {
-        return Integer.parseInt(stringValue);
+        return parseInt(value, valueLength);
+    }
+    
+    // file offsets may exceed the range of an int
+    public long longValue() {
+        long n = parseDigits(value, valueLength, 18);
+        if (n == Long.MIN_VALUE)
+            return Long.parseLong(getStringValue());
+        return n;
+    }
+
+    /**
+     * Gets the value of the current number token, like
+     * <CODE>Double.parseDouble()</CODE> would.
+     * @return the value
+     * @throws NumberFormatException if the token isn't a number
+     */
+    public double doubleValue() {
+        // simple decimals with few digits are read exactly as a whole
+        // number divided by a power of ten, as Double.parseDouble() does
+        int k = 0;
+        boolean negative = false;
+        if (valueLength > 0 && (value[0] == '-' || value[0] == '+')) {
+            negative = value[0] == '-';
+            ++k;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for (; k < valueLength; ++k) {
+            int ch = value[k];
+            if (ch >= '0' && ch <= '9') {
+                mantissa = mantissa * 10 + (ch - '0');
+                ++digits;
+                if (decimals >= 0)
+                    ++decimals;
+            }
+            else if (ch == '.' && decimals < 0)
+                decimals = 0;
+            else
+                break;
+        }
+        if (k < valueLength || digits == 0 || digits > 15)
+            return Double.parseDouble(getStringValue());
+        double d = mantissa;
+        if (decimals > 0)
+            d /= POWERS_OF_TEN[decimals];
+        return negative ? -d : d;
+    }
+
+    private int parseInt(byte b[], int len) {
+        long n = parseDigits(b, len, 9);
+        if (n == Long.MIN_VALUE)
+            return Integer.parseInt(new String(b, 0, len, StandardCharsets.ISO_8859_1));
+        return (int)n;
+    }
+
+    /**
+     * Parses an optionally signed whole number of up to maxDigits digits.
+     * @return the number, or <CODE>Long.MIN_VALUE</CODE> if the bytes are something else
+     */
+    private static long parseDigits(byte b[], int len, int maxDigits) {
+        int k = 0;
+        boolean negative = false;
+        if (len > 0 && (b[0] == '-' || b[0] == '+')) {
+            negative = b[0] == '-';
+            ++k;
+        }
+        if (k == len || len - k > maxDigits)
+            return Long.MIN_VALUE;
+        long n = 0;
+        for (; k < len; ++k) {
+            int ch = b[k];
+            if (ch < '0' || ch > '9')
+                return Long.MIN_VALUE;
+            n = n * 10 + (ch - '0');
+        }
+        return negative ? -n : n;
     }
     
     public boolean readLineSegment(byte input[]) throws IOException {
@@ -531,7 +679,7 @@ public class PRTokeniser {
 			break;
 			case '\r':
 				eol = true;
-				int cur = getFilePointer();
+				long cur = getFilePointer();
 				if ((read()) != '\n') {
 					seek(cur);
 				}
@@ -560,7 +708,7 @@ public class PRTokeniser {
 				break;
 				case '\r':
 					eol = true;
-					int cur = getFilePointer();
+					long cur = getFilePointer();
 					if ((read()) != '\n') {
 						seek(cur);
 					}
@@ -592,7 +740,7 @@ public class PRTokeniser {
             gen = tk.intValue();
             if (!tk.nextToken())
                 return null;
-            if (!tk.getStringValue().equals("obj"))
+            if (!tk.tokenEquals("obj"))
                 return null;
             return new int[]{num, gen};
         }
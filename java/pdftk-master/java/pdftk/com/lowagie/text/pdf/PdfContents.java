@@ -61,6 +61,7 @@ import pdftk.com.lowagie.text.Document;
 import pdftk.com.lowagie.text.Rectangle;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 /**
@@ -89,13 +90,15 @@ class PdfContents extends PdfStream {
     
     PdfContents(PdfContentByte under, PdfContentByte content, PdfContentByte text, PdfContentByte secondContent, Rectangle page) throws BadPdfFormatException {
         super();
+        Deflater deflater = null;
         try {
             OutputStream out = null;
             streamBytes = new ByteArrayOutputStream();
             if (Document.compress)
             {
                 compressed = true;
-                out = new DeflaterOutputStream(streamBytes);
+                deflater = FlatePool.getDeflater(Deflater.DEFAULT_COMPRESSION);
+                out = new DeflaterOutputStream(streamBytes, deflater, FlatePool.BUFFER_SIZE);
             }
             else
                 out = streamBytes;
@@ -146,6 +149,10 @@ class PdfContents extends PdfStream {
         catch (Exception e) {
             throw new BadPdfFormatException(e.getMessage());
         }
+        finally {
+            if (deflater != null)
+                FlatePool.release(deflater, Deflater.DEFAULT_COMPRESSION);
+        }
         put(PdfName.LENGTH, new PdfNumber(streamBytes.size()));
         if (compressed)
             put(PdfName.FILTER, PdfName.FLATEDECODE);
@@ -62,12 +62,16 @@ package pdftk.com.lowagie.text.pdf;
 
 import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 // ssteward omit: import java.util.List;
 import java.util.Iterator;
 import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 // ssteward omit: import pdftk.com.lowagie.text.ExceptionConverter;
 import pdftk.com.lowagie.text.Document;
 import pdftk.com.lowagie.text.DocumentException;
+import pdftk.com.lowagie.text.ExceptionConverter;
 
 import java.util.HashSet;
 
@@ -120,6 +124,67 @@ public class PdfCopy extends PdfWriter {
 	};
 	protected HashMap topFormFieldReadersData = null;
 
+    /**
+     * The digest of an object and of everything it refers to, and the
+     * size of the object itself.
+     */
+    static class Fingerprint {
+        byte digest[];
+        long size;
+        Fingerprint(byte digest[], long size) {
+            this.digest = digest;
+            this.size = size;
+        }
+        public int hashCode() {
+            return (digest[0] & 0xff) | (digest[1] & 0xff) << 8 | (digest[2] & 0xff) << 16 | digest[3] << 24;
+        }
+        public boolean equals(Object o) {
+            return o instanceof Fingerprint && Arrays.equals(digest, ((Fingerprint)o).digest);
+        }
+    }
+    
+    /** Digests what is written to it, and counts it. */
+    static class FingerprintOutputStream extends OutputStream {
+        MessageDigest digest;
+        long count = 0;
+        FingerprintOutputStream() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new ExceptionConverter(e);
+            }
+        }
+        public void write(int b) {
+            digest.update((byte)b);
+            ++count;
+        }
+        public void write(byte b[], int off, int len) {
+            digest.update(b, off, len);
+            count += len;
+        }
+        void writeLength(int len) {
+            digest.update((byte)(len >> 24));
+            digest.update((byte)(len >> 16));
+            digest.update((byte)(len >> 8));
+            digest.update((byte)len);
+        }
+    }
+    
+    /** Marks an object that has no fingerprint, or whose fingerprint is being made. */
+    static final Fingerprint NO_FINGERPRINT = new Fingerprint(new byte[4], 0);
+    
+    /** Whether objects are shared between readers; see <CODE>setDeduplicate()</CODE>. */
+    protected boolean deduplicate = false;
+    /** The fingerprints of the objects of each reader, by <CODE>RefKey</CODE>. */
+    protected HashMap fingerprintMap = new HashMap();
+    /** The fingerprints of the objects of the current reader. */
+    protected HashMap fingerprints = null;
+    /** The output reference of each fingerprint, the first object written with it. */
+    protected HashMap fingerprintRefs = new HashMap();
+    protected int deduplicatedObjects = 0;
+    protected long deduplicatedBytes = 0;
+
     /**
      * A key to allow us to hash indirect references
      */
@@ -213,6 +278,7 @@ public class PdfCopy extends PdfWriter {
 		boolean recurse_b= true; // ssteward
 
         PdfIndirectReference retVal;
+        Fingerprint fp = null;
         if (iRef != null) {
             retVal = iRef.getRef();
             if (iRef.getCopied()) { // we've already copied this
@@ -220,6 +286,11 @@ public class PdfCopy extends PdfWriter {
             }
         }
         else {
+            if (deduplicate) {
+                fp = getFingerprint(in);
+                if (fp != null && fingerprintRefs.containsKey(fp))
+                    return shareObject(in, fp);
+            }
             retVal = body.getPdfIndirectReference();
             iRef = new IndirectReferences(retVal);
             indirects.put(key, iRef);
@@ -240,7 +311,9 @@ public class PdfCopy extends PdfWriter {
 		//
 		// simplify this by not recursing into /any/ type==page via indirect ref?
 
-		PdfObject in_obj= (PdfObject)PdfReader.getPdfObject( in );
+		// release it right away; a reader in partial mode
+		// will read it again (or fetch it from its cache) if need be
+		PdfObject in_obj= (PdfObject)PdfReader.getPdfObjectRelease( in );
 		if( in_obj!= null && in_obj.isDictionary() ) {
 			PdfDictionary in_dict= (PdfDictionary)in_obj;
 
@@ -265,13 +338,191 @@ public class PdfCopy extends PdfWriter {
 
 		if( recurse_b ) {
 			iRef.setCopied();
-			PdfObject obj = copyObject((PdfObject)PdfReader.getPdfObjectRelease(in));
+			if (fp != null)
+				fingerprintRefs.put(fp, retVal);
+			PdfObject obj = copyObject(in_obj);
 			addToBody(obj, retVal);
 		}
 
         return retVal;
     }
     
+    /**
+     * Sets whether an object is written only once when readers have the same
+     * object, such as the same font or image. Objects are compared by their
+     * content and by the content of the objects they refer to. Objects that
+     * belong to a page, such as pages, annotations and form fields, are not
+     * shared.
+     * @param deduplicate <CODE>true</CODE> to share objects
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+    
+    /**
+     * Gets the number of objects that were not written because an object
+     * with the same content was; see <CODE>setDeduplicate()</CODE>.
+     * @return the number of objects
+     */
+    public int getDeduplicatedObjects() {
+        return deduplicatedObjects;
+    }
+    
+    /**
+     * Gets about how many bytes the objects that were not written would have
+     * taken; see <CODE>setDeduplicate()</CODE>.
+     * @return the number of bytes
+     */
+    public long getDeduplicatedBytes() {
+        return deduplicatedBytes;
+    }
+    
+    /**
+     * Maps an object of the current reader to the object written with the same
+     * fingerprint, and does the same for the objects it refers to, which have
+     * the same content as those that object refers to.
+     * @return the reference to the object written
+     */
+    protected PdfIndirectReference shareObject(PRIndirectReference in, Fingerprint fp) throws IOException {
+        PdfIndirectReference ref = (PdfIndirectReference)fingerprintRefs.get(fp);
+        RefKey key = new RefKey(in);
+        if (indirects.containsKey(key))
+            return ref;
+        IndirectReferences iRef = new IndirectReferences(ref);
+        iRef.setCopied();
+        indirects.put(key, iRef);
+        ++deduplicatedObjects;
+        deduplicatedBytes += fp.size;
+        shareReferences(PdfReader.getPdfObjectRelease(in));
+        return ref;
+    }
+    
+    private void shareReferences(PdfObject obj) throws IOException {
+        if (obj == null)
+            return;
+        if (obj.isIndirect()) {
+            PRIndirectReference ref = (PRIndirectReference)obj;
+            Fingerprint fp = getFingerprint(ref);
+            if (fp != null && fingerprintRefs.containsKey(fp))
+                shareObject(ref, fp);
+        }
+        else if (obj.isDictionary() || obj.isStream()) {
+            PdfDictionary dic = (PdfDictionary)obj;
+            for (Iterator it = dic.getKeys().iterator(); it.hasNext(); )
+                shareReferences(dic.get((PdfName)it.next()));
+        }
+        else if (obj.isArray()) {
+            ArrayList list = ((PdfArray)obj).getArrayList();
+            for (int k = 0; k < list.size(); ++k)
+                shareReferences((PdfObject)list.get(k));
+        }
+    }
+    
+    /**
+     * Gets the fingerprint of an object of the current reader: a digest of
+     * its content, with the fingerprints of the objects it refers to in
+     * place of the references. Objects that belong to a page, and objects
+     * that refer to them, have none, and so do objects in a cycle of
+     * references.
+     * @param ref the reference to the object
+     * @return the fingerprint, or <CODE>null</CODE> if the object can't be shared
+     */
+    protected Fingerprint getFingerprint(PRIndirectReference ref) {
+        RefKey key = new RefKey(ref);
+        Fingerprint fp = (Fingerprint)fingerprints.get(key);
+        if (fp != null)
+            return fp == NO_FINGERPRINT ? null : fp;
+        fingerprints.put(key, NO_FINGERPRINT);
+        FingerprintOutputStream out = new FingerprintOutputStream();
+        try {
+            if (!digestObject(PdfReader.getPdfObjectRelease(ref), out))
+                return null;
+        }
+        catch (IOException e) {
+            // not shared, then; copying the object reports the error
+            return null;
+        }
+        fp = new Fingerprint(out.digest.digest(), out.count);
+        fingerprints.put(key, fp);
+        return fp;
+    }
+    
+    /**
+     * Can a dictionary be shared? Pages, annotations and form fields
+     * belong to one page, or to one document, and so do outlines.
+     */
+    protected boolean canShare(PdfDictionary dic) {
+        PdfObject type = dic.get(PdfName.TYPE);
+        if (PdfName.PAGE.equals(type) || PdfName.PAGES.equals(type) || PdfName.ANNOT.equals(type) || PdfName.OUTLINES.equals(type))
+            return false;
+        return !(dic.contains(PdfName.PARENT) || dic.contains(PdfName.KIDS) || dic.contains(PdfName.FT)
+            || dic.contains(PdfName.RECT) || dic.contains(PdfName.P));
+    }
+    
+    /**
+     * Writes an object to a fingerprint, with the fingerprints of the objects
+     * it refers to in place of the references. Dictionary keys are taken in
+     * order, and the data of streams is taken as it is in the file.
+     * @return <CODE>false</CODE> if the object can't be shared
+     */
+    private boolean digestObject(PdfObject obj, FingerprintOutputStream out) throws IOException {
+        if (obj == null) {
+            out.write(PdfObject.m_NULL);
+            return true;
+        }
+        switch (obj.type()) {
+            case PdfObject.INDIRECT: {
+                Fingerprint fp = getFingerprint((PRIndirectReference)obj);
+                if (fp == null)
+                    return false;
+                out.write(PdfObject.INDIRECT);
+                out.digest.update(fp.digest);
+                return true;
+            }
+            case PdfObject.DICTIONARY:
+            case PdfObject.STREAM: {
+                PdfDictionary dic = (PdfDictionary)obj;
+                if (!canShare(dic))
+                    return false;
+                Object keys[] = dic.getKeys().toArray();
+                Arrays.sort(keys);
+                out.write(obj.type());
+                out.writeLength(keys.length);
+                for (int k = 0; k < keys.length; ++k) {
+                    PdfName key = (PdfName)keys[k];
+                    if (obj.isStream() && key.equals(PdfName.LENGTH))
+                        continue;
+                    if (!digestObject(key, out) || !digestObject(dic.get(key), out))
+                        return false;
+                }
+                if (obj.isStream()) {
+                    PRStream stream = (PRStream)obj;
+                    stream.getReader().copyStreamBytesDecrypted(stream, out);
+                }
+                return true;
+            }
+            case PdfObject.ARRAY: {
+                ArrayList list = ((PdfArray)obj).getArrayList();
+                out.write(obj.type());
+                out.writeLength(list.size());
+                for (int k = 0; k < list.size(); ++k) {
+                    if (!digestObject((PdfObject)list.get(k), out))
+                        return false;
+                }
+                return true;
+            }
+            default: {
+                byte b[] = obj.getBytes();
+                if (b == null)
+                    b = getISOBytes(obj.toString());
+                out.write(obj.type());
+                out.writeLength(b.length);
+                out.write(b);
+                return true;
+            }
+        }
+    }
+    
     /**
      * Translate a PRDictionary to a PdfDictionary. Also translate all of the
      * objects contained in it.
@@ -372,12 +623,44 @@ public class PdfCopy extends PdfWriter {
         return pageNum;
     }
     
+    /**
+     * Frees what is kept for a reader once all the pages wanted from it are
+     * added: the map from its objects to the objects written, its fingerprints
+     * and form field data, and the objects it has read, if it is in partial
+     * mode. The reader is closed. Copying from it again later works, but
+     * writes again the objects it shares with the pages already added.
+     * @param reader the reader to free
+     * @throws IOException on error
+     */
+    public void freeReader(PdfReader reader) throws IOException {
+        indirectMap.remove(reader);
+        fingerprintMap.remove(reader);
+        topFormFieldReadersData.remove(reader);
+        if (this.reader == reader) {
+            this.reader = null;
+            indirects = null;
+            fingerprints = null;
+        }
+        if (currentPdfReaderInstance != null && currentPdfReaderInstance.getReader() == reader) {
+            RandomAccessFileOrArray file = currentPdfReaderInstance.getReaderFile();
+            currentPdfReaderInstance = null;
+            reader.close();
+            file.close();
+        }
+        reader.releaseObjects();
+    }
+
     /**
      * convenience method. Given a reader, set our "globals"
      */
     public void setFromReader(PdfReader reader) {
         this.reader = reader;
         indirects = (HashMap)indirectMap.get(reader);
+        fingerprints = (HashMap)fingerprintMap.get(reader);
+        if (fingerprints == null) {
+            fingerprints = new HashMap();
+            fingerprintMap.put(reader, fingerprints);
+        }
         if (indirects == null) {
             indirects = new HashMap();
             indirectMap.put(reader,indirects);
@@ -59,6 +59,12 @@ package pdftk.com.lowagie.text.pdf;
 import pdftk.com.lowagie.text.pdf.crypto.ARCFOUREncryption;
 
 import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.text.Normalizer;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.ByteArrayOutputStream;
@@ -78,6 +84,8 @@ public class PdfEncryption {
 
 	public static final int AES_128 = 4;
 
+	public static final int AES_256 = 5;
+
 	private static final byte[] pad = { (byte) 0x28, (byte) 0xBF, (byte) 0x4E,
 			(byte) 0x5E, (byte) 0x4E, (byte) 0x75, (byte) 0x8A, (byte) 0x41,
 			(byte) 0x64, (byte) 0x00, (byte) 0x4E, (byte) 0x56, (byte) 0xFF,
@@ -101,9 +109,6 @@ public class PdfEncryption {
 	/** The global encryption key */
 	byte mkey[] = null;
 
-	/** Work area to prepare the object/generation bytes */
-	byte extra[] = new byte[5];
-
 	/** The message digest algorithm MD5 */
 	MessageDigest md5 = null;
 
@@ -113,6 +118,20 @@ public class PdfEncryption {
 	/** The encryption key for the user */
 	byte userKey[] = new byte[32];
 
+	/** The global key encrypted with the owner password (AES-256 only) */
+	byte ownerEncryptedKey[] = null;
+
+	/** The global key encrypted with the user password (AES-256 only) */
+	byte userEncryptedKey[] = null;
+
+	/** The permissions encrypted with the global key (AES-256 only) */
+	byte perms[] = null;
+
+	/** The revision of the password hash: 5 is a plain SHA-256, 6 the hardened hash */
+	private int hashRevision = 6;
+
+	private static final SecureRandom random = new SecureRandom();
+
 	/** The public key security handler for certificate encryption */
 	// 4.2.0: protected PdfPublicKeySecurityHandler publicKeyHandler = null;
 
@@ -120,7 +139,8 @@ public class PdfEncryption {
 
 	byte documentID[] = null;
 
-	static long seq = System.currentTimeMillis();
+	/** Numbers the document IDs made, on any thread. */
+	static final AtomicLong seq = new AtomicLong(System.currentTimeMillis());
 
 	private int revision = 0;
 
@@ -147,16 +167,24 @@ public class PdfEncryption {
 
 	public PdfEncryption(PdfEncryption enc) {
 		this();
-		mkey = (byte[]) enc.mkey.clone();
-		ownerKey = (byte[]) enc.ownerKey.clone();
-		userKey = (byte[]) enc.userKey.clone();
+		mkey = enc.mkey.clone();
+		ownerKey = enc.ownerKey.clone();
+		userKey = enc.userKey.clone();
+		if (enc.ownerEncryptedKey != null)
+			ownerEncryptedKey = enc.ownerEncryptedKey.clone();
+		if (enc.userEncryptedKey != null)
+			userEncryptedKey = enc.userEncryptedKey.clone();
+		if (enc.perms != null)
+			perms = enc.perms.clone();
+		hashRevision = enc.hashRevision;
 		permissions = enc.permissions;
 		if (enc.documentID != null)
-			documentID = (byte[]) enc.documentID.clone();
+			documentID = enc.documentID.clone();
 		revision = enc.revision;
 		keyLength = enc.keyLength;
 		encryptMetadata = enc.encryptMetadata;
 		embeddedFilesOnly = enc.embeddedFilesOnly;
+		cryptoMode = enc.cryptoMode;
 		// 4.2.0: publicKeyHandler = enc.publicKeyHandler;
 	}
 
@@ -184,6 +212,10 @@ public class PdfEncryption {
 			keyLength = 128;
 			revision = AES_128;
 			break;
+		case PdfWriter.ENCRYPTION_AES_256:
+			keyLength = 256;
+			revision = AES_256;
+			break;
 		default:
 		  throw new IllegalArgumentException("no.valid.encryption.mode");
 		}
@@ -324,8 +356,12 @@ public class PdfEncryption {
 	    System.arraycopy( userPassword, 0, ownerPassword, 0, userPassword.length );
 	}
 	// PDF 1.3 ref. (40 bit enc.) says to set unused, upper bits to 1
-	permissions |= (revision == STANDARD_ENCRYPTION_128 || revision == AES_128) ? 0xfffff0c0 : 0xffffffc0;
+	permissions |= (revision == STANDARD_ENCRYPTION_128 || revision == AES_128 || revision == AES_256) ? 0xfffff0c0 : 0xffffffc0;
         permissions &= 0xfffffffc;
+        if (revision == AES_256) {
+            setupAllKeys256(userPassword, ownerPassword, permissions);
+            return;
+        }
         //PDF reference 3.5.2 Standard Security Handler, Algorithm 3.3-1
         //If there is no owner password, use the user password instead.
         byte userPad[] = padPassword(userPassword);
@@ -336,6 +372,190 @@ public class PdfEncryption {
         setupByUserPad(this.documentID, userPad, this.ownerKey, permissions);
     }
 
+    /**
+     * Sets up the keys of revision 6: a random global key, and the
+     * entries that let either password recover it (ISO 32000-2,
+     * algorithms 8 to 10).
+     */
+    private void setupAllKeys256(byte userPassword[], byte ownerPassword[], int permissions) {
+        this.permissions = permissions;
+        documentID = createDocumentId();
+        mkey = randomBytes(32);
+        byte user[] = passwordBytes256(userPassword);
+        byte owner[] = passwordBytes256(ownerPassword);
+
+        byte salts[] = randomBytes(16);
+        userKey = new byte[48];
+        System.arraycopy(hash256(user, salts, 0, null), 0, userKey, 0, 32);
+        System.arraycopy(salts, 0, userKey, 32, 16);
+        userEncryptedKey = crypt256(true, "AES/CBC/NoPadding", hash256(user, salts, 8, null), mkey);
+
+        salts = randomBytes(16);
+        ownerKey = new byte[48];
+        System.arraycopy(hash256(owner, salts, 0, userKey), 0, ownerKey, 0, 32);
+        System.arraycopy(salts, 0, ownerKey, 32, 16);
+        ownerEncryptedKey = crypt256(true, "AES/CBC/NoPadding", hash256(owner, salts, 8, userKey), mkey);
+
+        byte p[] = randomBytes(16);
+        for (int k = 0; k < 4; ++k)
+            p[k] = (byte) (permissions >> (8 * k));
+        for (int k = 4; k < 8; ++k)
+            p[k] = (byte) 0xff;
+        p[8] = (byte) (encryptMetadata ? 'T' : 'F');
+        p[9] = (byte) 'a';
+        p[10] = (byte) 'd';
+        p[11] = (byte) 'b';
+        perms = crypt256(true, "AES/ECB/NoPadding", mkey, p);
+    }
+
+    /**
+     * Takes the entries of an encryption dictionary of revision 5 or 6,
+     * to be checked against a password with <CODE>setupByOwnerPassword256()</CODE>
+     * or <CODE>setupByUserPassword256()</CODE>.
+     */
+    public void setupKeys256(int rValue, byte userKey[], byte ownerKey[], byte userEncryptedKey[], byte ownerEncryptedKey[], byte perms[], int permissions) {
+        hashRevision = rValue;
+        this.userKey = new byte[48];
+        System.arraycopy(userKey, 0, this.userKey, 0, 48);
+        this.ownerKey = new byte[48];
+        System.arraycopy(ownerKey, 0, this.ownerKey, 0, 48);
+        this.userEncryptedKey = new byte[32];
+        System.arraycopy(userEncryptedKey, 0, this.userEncryptedKey, 0, 32);
+        this.ownerEncryptedKey = new byte[32];
+        System.arraycopy(ownerEncryptedKey, 0, this.ownerEncryptedKey, 0, 32);
+        this.perms = perms;
+        this.permissions = permissions;
+    }
+
+    /**
+     * Recovers the global key of revision 5 or 6 with the owner password.
+     * @return <CODE>false</CODE> if the password is not the owner password
+     */
+    public boolean setupByOwnerPassword256(byte ownerPassword[]) {
+        byte owner[] = passwordBytes256(ownerPassword);
+        if (!equalsPrefix(hash256(owner, ownerKey, 32, userKey), ownerKey, 32))
+            return false;
+        mkey = crypt256(false, "AES/CBC/NoPadding", hash256(owner, ownerKey, 40, userKey), ownerEncryptedKey);
+        return true;
+    }
+
+    /**
+     * Recovers the global key of revision 5 or 6 with the user password.
+     * @return <CODE>false</CODE> if the password is not the user password
+     */
+    public boolean setupByUserPassword256(byte userPassword[]) {
+        byte user[] = passwordBytes256(userPassword);
+        if (!equalsPrefix(hash256(user, userKey, 32, null), userKey, 32))
+            return false;
+        mkey = crypt256(false, "AES/CBC/NoPadding", hash256(user, userKey, 40, null), userEncryptedKey);
+        return true;
+    }
+
+    private static boolean equalsPrefix(byte a[], byte b[], int len) {
+        for (int k = 0; k < len; ++k) {
+            if (a[k] != b[k])
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte b[] = new byte[len];
+        random.nextBytes(b);
+        return b;
+    }
+
+    /**
+     * Revision 6 passwords are UTF-8 after SASLprep; ours come in
+     * PDFDocEncoding, as for the other revisions. NFKC is the part of
+     * SASLprep that changes printable passwords.
+     */
+    private static byte[] passwordBytes256(byte password[]) {
+        if (password == null)
+            return new byte[0];
+        String s = PdfEncodings.convertToString(password, PdfObject.TEXT_PDFDOCENCODING);
+        byte b[] = PdfEncodings.convertToBytes(Normalizer.normalize(s, Normalizer.Form.NFKC), "UTF-8");
+        if (b.length > 127) {
+            byte b2[] = new byte[127];
+            System.arraycopy(b, 0, b2, 0, 127);
+            b = b2;
+        }
+        return b;
+    }
+
+    /** AES-256 without padding, with a zero initialization vector for CBC */
+    private static byte[] crypt256(boolean encrypt, String transformation, byte key[], byte data[]) {
+        try {
+            Cipher cipher = Cipher.getInstance(transformation);
+            SecretKeySpec spec = new SecretKeySpec(key, 0, 32, "AES");
+            int mode = encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+            if (transformation.startsWith("AES/CBC"))
+                cipher.init(mode, spec, new IvParameterSpec(new byte[16]));
+            else
+                cipher.init(mode, spec);
+            return cipher.doFinal(data);
+        }
+        catch (Exception e) {
+            throw new ExceptionConverter(e);
+        }
+    }
+
+    /**
+     * Hashes a password with 8 bytes of salt and, for the owner, the user
+     * key (ISO 32000-2, algorithm 2.B). Revision 5 stops at the first SHA-256.
+     */
+    private byte[] hash256(byte password[], byte salt[], int saltOffset, byte userKey[]) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(password);
+            sha256.update(salt, saltOffset, 8);
+            if (userKey != null)
+                sha256.update(userKey, 0, 48);
+            byte k[] = sha256.digest();
+            if (hashRevision == 5)
+                return k;
+            MessageDigest sha384 = MessageDigest.getInstance("SHA-384");
+            MessageDigest sha512 = MessageDigest.getInstance("SHA-512");
+            Cipher aes = Cipher.getInstance("AES/CBC/NoPadding");
+            int userLength = userKey == null ? 0 : 48;
+            for (int round = 0; ; ++round) {
+                int length = password.length + k.length + userLength;
+                byte k1[] = new byte[64 * length];
+                for (int j = 0; j < 64; ++j) {
+                    int off = j * length;
+                    System.arraycopy(password, 0, k1, off, password.length);
+                    System.arraycopy(k, 0, k1, off + password.length, k.length);
+                    if (userKey != null)
+                        System.arraycopy(userKey, 0, k1, off + password.length + k.length, 48);
+                }
+                aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(k, 0, 16, "AES"), new IvParameterSpec(k, 16, 16));
+                byte e[] = aes.doFinal(k1);
+                // the first 16 bytes as a number modulo 3; 256 is 1 modulo 3
+                int sum = 0;
+                for (int j = 0; j < 16; ++j)
+                    sum += e[j] & 0xff;
+                switch (sum % 3) {
+                case 0:
+                    k = sha256.digest(e);
+                    break;
+                case 1:
+                    k = sha384.digest(e);
+                    break;
+                default:
+                    k = sha512.digest(e);
+                }
+                if (round >= 63 && (e[e.length - 1] & 0xff) <= round - 31)
+                    break;
+            }
+            byte hash[] = new byte[32];
+            System.arraycopy(k, 0, hash, 0, 32);
+            return hash;
+        }
+        catch (Exception e) {
+            throw new ExceptionConverter(e);
+        }
+    }
+
     public static byte[] createDocumentId() {
         MessageDigest md5 = null;
         try {
@@ -346,8 +566,12 @@ public class PdfEncryption {
        }
         long time = System.currentTimeMillis();
         long mem = Runtime.getRuntime().freeMemory();
-        String s = time + "+" + mem + "+" + (seq++);
-        return md5.digest(s.getBytes());
+        String s = time + "+" + mem + "+" + seq.getAndIncrement();
+        md5.update(s.getBytes());
+        // documents made at the same time must not share an ID, nor the key made from it
+        byte salt[] = new byte[16];
+        random.nextBytes(salt);
+        return md5.digest(salt);
     }
 
     /**
@@ -381,20 +605,120 @@ public class PdfEncryption {
 	}
 
 	public void setHashKey(int number, int generation) {
-		md5.reset(); // added by ujihara
+		objectKey = getObjectKey(number, generation);
+		key = objectKey.key;
+		keySize = objectKey.keySize;
+	}
+
+	/**
+	 * The key of one object, derived from the global key. It never changes,
+	 * so several threads may encrypt or decrypt with it at once, and with
+	 * the keys of other objects of the same document.
+	 */
+	public static final class ObjectKey {
+		final byte key[];
+		final int keySize;
+		final int revision;
+
+		ObjectKey(byte key[], int keySize, int revision) {
+			this.key = key;
+			this.keySize = keySize;
+			this.revision = revision;
+		}
+
+		public OutputStreamEncryption getEncryptionStream(OutputStream os) {
+			return new OutputStreamEncryption(os, key, 0, keySize, revision);
+		}
+
+		public byte[] encryptByteArray(byte[] b) {
+			try {
+				ByteArrayOutputStream ba = new ByteArrayOutputStream();
+				OutputStreamEncryption os2 = getEncryptionStream(ba);
+				os2.write(b);
+				os2.finish();
+				return ba.toByteArray();
+			} catch (IOException ex) {
+				throw new ExceptionConverter(ex);
+			}
+		}
+
+		public StandardDecryption getDecryptor() {
+			return new StandardDecryption(key, 0, keySize, revision);
+		}
+
+		public byte[] decryptByteArray(byte[] b) {
+			try {
+				ByteArrayOutputStream ba = new ByteArrayOutputStream();
+				StandardDecryption dec = getDecryptor();
+				byte[] b2 = dec.update(b, 0, b.length);
+				if (b2 != null)
+					ba.write(b2);
+				b2 = dec.finish();
+				if (b2 != null)
+					ba.write(b2);
+				return ba.toByteArray();
+			} catch (IOException ex) {
+				throw new ExceptionConverter(ex);
+			}
+		}
+	}
+
+	/** The key set by the last <CODE>setHashKey()</CODE> */
+	private ObjectKey objectKey = null;
+
+	/** The digest of the global key, ready to take an object and generation */
+	private MessageDigest keyDigest = null;
+
+	/** The global key that <CODE>keyDigest</CODE> was made for */
+	private byte keyDigestKey[] = null;
+
+	private synchronized MessageDigest newKeyDigest() {
+		try {
+			if (keyDigestKey != mkey) {
+				keyDigest = MessageDigest.getInstance("MD5");
+				keyDigest.update(mkey);
+				keyDigestKey = mkey;
+			}
+			return (MessageDigest)keyDigest.clone();
+		} catch (Exception e) {
+			throw new ExceptionConverter(e);
+		}
+	}
+
+	/**
+	 * Gets the key of an object. Unlike <CODE>setHashKey()</CODE>, this
+	 * leaves the encryption as it is, so it may be called on several
+	 * threads at once.
+	 * @param number the object number
+	 * @param generation the generation number
+	 * @return the key to encrypt and decrypt the strings and streams of the object
+	 */
+	public ObjectKey getObjectKey(int number, int generation) {
+		// revision 6 uses the global key as it is
+		if (revision == AES_256)
+			return new ObjectKey(mkey, mkey.length, revision);
+		MessageDigest md = newKeyDigest();
+		byte extra[] = new byte[5];
 		extra[0] = (byte) number;
 		extra[1] = (byte) (number >> 8);
 		extra[2] = (byte) (number >> 16);
 		extra[3] = (byte) generation;
 		extra[4] = (byte) (generation >> 8);
-		md5.update(mkey);
-		md5.update(extra);
+		md.update(extra);
 		if (revision == AES_128)
-			md5.update(salt);
-		key = md5.digest();
-		keySize = mkey.length + 5;
-		if (keySize > 16)
-			keySize = 16;
+			md.update(salt);
+		int size = mkey.length + 5;
+		if (size > 16)
+			size = 16;
+		return new ObjectKey(md.digest(), size, revision);
+	}
+
+	/**
+	 * Gets the key set by the last <CODE>setHashKey()</CODE>.
+	 * @return the key of the object last set up for
+	 */
+	public ObjectKey getObjectKey() {
+		return objectKey;
 	}
 
 	public static PdfObject createInfoId(byte id[]) {
@@ -488,7 +812,7 @@ public class PdfEncryption {
       dic.put(PdfName.O, new PdfLiteral(PdfContentByte.escapeString(ownerKey)));
       dic.put(PdfName.U, new PdfLiteral(PdfContentByte.escapeString(userKey)));
       dic.put(PdfName.P, new PdfNumber(permissions));
-      dic.put(PdfName.R, new PdfNumber(revision));
+      dic.put(PdfName.R, new PdfNumber(revision == AES_256 ? 6 : revision));
 
       if (revision == STANDARD_ENCRYPTION_40) {
 	dic.put(PdfName.V, new PdfNumber(1));
@@ -501,11 +825,21 @@ public class PdfEncryption {
       else {
 	if (!encryptMetadata)
 	  dic.put(PdfName.ENCRYPTMETADATA, PdfBoolean.PDFFALSE);
-	dic.put(PdfName.R, new PdfNumber(AES_128));
-	dic.put(PdfName.V, new PdfNumber(4));
-	dic.put(PdfName.LENGTH, new PdfNumber(128));
 	PdfDictionary stdcf = new PdfDictionary();
-	stdcf.put(PdfName.LENGTH, new PdfNumber(16));
+	if (revision == AES_256) {
+	  dic.put(PdfName.V, new PdfNumber(5));
+	  dic.put(PdfName.LENGTH, new PdfNumber(256));
+	  dic.put(PdfName.OE, new PdfLiteral(PdfContentByte.escapeString(ownerEncryptedKey)));
+	  dic.put(PdfName.UE, new PdfLiteral(PdfContentByte.escapeString(userEncryptedKey)));
+	  dic.put(PdfName.PERMS, new PdfLiteral(PdfContentByte.escapeString(perms)));
+	  stdcf.put(PdfName.LENGTH, new PdfNumber(32));
+	}
+	else {
+	  dic.put(PdfName.R, new PdfNumber(AES_128));
+	  dic.put(PdfName.V, new PdfNumber(4));
+	  dic.put(PdfName.LENGTH, new PdfNumber(128));
+	  stdcf.put(PdfName.LENGTH, new PdfNumber(16));
+	}
 	if (embeddedFilesOnly) {
 	  stdcf.put(PdfName.AUTHEVENT, PdfName.EFOPEN);
 	  dic.put(PdfName.EFF, PdfName.STDCF);
@@ -517,7 +851,9 @@ public class PdfEncryption {
 	  dic.put(PdfName.STRF, PdfName.STDCF);
 	  dic.put(PdfName.STMF, PdfName.STDCF);
 	}
-	if (revision == AES_128)
+	if (revision == AES_256)
+	  stdcf.put(PdfName.CFM, PdfName.AESV3);
+	else if (revision == AES_128)
 	  stdcf.put(PdfName.CFM, PdfName.AESV2);
 	else
 	  stdcf.put(PdfName.CFM, PdfName.V2);
@@ -535,46 +871,26 @@ public class PdfEncryption {
 	}
 
 	public OutputStreamEncryption getEncryptionStream(OutputStream os) {
-		return new OutputStreamEncryption(os, key, 0, keySize, revision);
+		return objectKey.getEncryptionStream(os);
 	}
 
 	public int calculateStreamSize(int n) {
-		if (revision == AES_128)
+		if (revision == AES_128 || revision == AES_256)
 			return (n & 0x7ffffff0) + 32;
 		else
 			return n;
 	}
 
 	public byte[] encryptByteArray(byte[] b) {
-		try {
-			ByteArrayOutputStream ba = new ByteArrayOutputStream();
-			OutputStreamEncryption os2 = getEncryptionStream(ba);
-			os2.write(b);
-			os2.finish();
-			return ba.toByteArray();
-		} catch (IOException ex) {
-			throw new ExceptionConverter(ex);
-		}
+		return objectKey.encryptByteArray(b);
 	}
 
 	public StandardDecryption getDecryptor() {
-		return new StandardDecryption(key, 0, keySize, revision);
+		return objectKey.getDecryptor();
 	}
 
 	public byte[] decryptByteArray(byte[] b) {
-		try {
-			ByteArrayOutputStream ba = new ByteArrayOutputStream();
-			StandardDecryption dec = getDecryptor();
-			byte[] b2 = dec.update(b, 0, b.length);
-			if (b2 != null)
-				ba.write(b2);
-			b2 = dec.finish();
-			if (b2 != null)
-				ba.write(b2);
-			return ba.toByteArray();
-		} catch (IOException ex) {
-			throw new ExceptionConverter(ex);
-		}
+		return objectKey.decryptByteArray(b);
 	}
 
 	/* 4.2.0
@@ -586,6 +902,9 @@ public class PdfEncryption {
 	*/
 
 	public byte[] computeUserPassword(byte[] ownerPassword) {
+		// revision 6 keeps no trace of the user password
+		if (revision == AES_256)
+			return null;
 		byte[] userPad = computeOwnerKey(ownerKey, padPassword(ownerPassword));
 		for (int i = 0; i < userPad.length; i++) {
 			boolean match = true;
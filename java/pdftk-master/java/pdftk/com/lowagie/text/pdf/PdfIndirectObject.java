@@ -91,6 +91,8 @@ public class PdfIndirectObject {
     static final int SIZEOBJ = STARTOBJ.length + ENDOBJ.length;
     PdfObject object;
     PdfWriter writer;
+    /** The key of this object, if the writer encrypts */
+    PdfEncryption.ObjectKey objectKey = null;
     
     // constructors
     
@@ -126,6 +128,7 @@ public class PdfIndirectObject {
             crypto = writer.getEncryption();
         if (crypto != null) {
             crypto.setHashKey(number, generation);
+            objectKey = crypto.getObjectKey();
         }
     }
     
@@ -172,7 +175,19 @@ public class PdfIndirectObject {
         //int type = object.type();
         //if (type != PdfObject.ARRAY && type != PdfObject.DICTIONARY && type != PdfObject.NAME && type != PdfObject.STRING)
         //    os.write(' ');
-        object.toPdf(writer, os);
+        if (objectKey != null) {
+            // the strings and streams of the object encrypt with its key,
+            // whichever thread writes it and whatever was added since
+            writer.threadObjectKey.set(objectKey);
+            try {
+                object.toPdf(writer, os);
+            }
+            finally {
+                writer.threadObjectKey.remove();
+            }
+        }
+        else
+            object.toPdf(writer, os);
         os.write(ENDOBJ);
     }
 }
@@ -91,7 +91,7 @@ public class PdfLiteral extends PdfObject {
     
     public void toPdf(PdfWriter writer, java.io.OutputStream os) throws java.io.IOException {
         if (os instanceof OutputStreamCounter)
-            position = ((OutputStreamCounter)os).getCounter();
+            position = (int)((OutputStreamCounter)os).getCounter();
         super.toPdf(writer, os);
     }
     
@@ -59,7 +59,9 @@ package pdftk.com.lowagie.text.pdf;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <CODE>PdfName</CODE> is an object that can be used as a name in a PDF-file.
@@ -134,6 +136,8 @@ public class PdfName extends PdfObject implements Comparable{
     /** A name */
     public static final PdfName AESV2 = new PdfName("AESV2");
     /** A name */
+    public static final PdfName AESV3 = new PdfName("AESV3");
+    /** A name */
     public static final PdfName AIS = new PdfName("AIS");
     /** A name */
     public static final PdfName ALLPAGES = new PdfName("AllPages");
@@ -1043,6 +1047,8 @@ public class PdfName extends PdfObject implements Comparable{
     /** A name */
     public static final PdfName OCPROPERTIES = new PdfName("OCProperties");
     /** A name */
+    public static final PdfName OE = new PdfName("OE");
+    /** A name */
     public static final PdfName Off = new PdfName("Off");
     /** A name */
     public static final PdfName OFF = new PdfName("OFF");
@@ -1590,6 +1596,8 @@ public class PdfName extends PdfObject implements Comparable{
     /** A name of an attribute. */
     public static final PdfName U = new PdfName("U");
     /** A name of an attribute. */
+    public static final PdfName UE = new PdfName("UE");
+    /** A name of an attribute. */
     public static final PdfName UF = new PdfName("UF");
     /** A name of an attribute. */
     public static final PdfName UHC = new PdfName("UHC");
@@ -1759,6 +1767,17 @@ public class PdfName extends PdfObject implements Comparable{
      */
     public static Map staticNames;
 
+    /** The longest name that is interned, not counting the '/'. */
+    static final int MAX_INTERNED_LENGTH = 127;
+    /** How many names can be interned, so that odd files can't fill the heap. */
+    static final int MAX_INTERNED = 1 << 16;
+
+    /**
+     * The names read so far, keyed by their unescaped bytes and seeded
+     * with the static names, so that readers share one instance per name.
+     */
+    private static final ConcurrentHashMap internedNames = new ConcurrentHashMap();
+
     /**
      * Use reflection to cache all the static public final names so
      * future <code>PdfName</code> additions don't have to be "added twice".
@@ -1777,7 +1796,10 @@ public class PdfName extends PdfObject implements Comparable{
                 if ((curFld.getModifiers() & flags) == flags &&
                     curFld.getType().equals( PdfName.class )) {
                     PdfName name = (PdfName)curFld.get( null );
-                    staticNames.put( decodeName( name.toString() ), name );
+                    String decoded = decodeName( name.toString() );
+                    staticNames.put( decoded, name );
+                    byte b[] = decoded.getBytes( StandardCharsets.ISO_8859_1 );
+                    internedNames.put( new NameKey( b, b.length ), name );
                 }
             }
         } catch (Exception e) {
@@ -1825,6 +1847,62 @@ public class PdfName extends PdfObject implements Comparable{
 
     // CLASS METHODS
 
+    /** The unescaped bytes of a name, as a key of <CODE>internedNames</CODE>. */
+    private static final class NameKey {
+        private final byte bytes[];
+        private final int length;
+        private final int hash;
+
+        NameKey(byte bytes[], int length) {
+            this.bytes = bytes;
+            this.length = length;
+            int h = 0;
+            for (int k = 0; k < length; ++k)
+                h = 31 * h + (bytes[k] & 0xff);
+            hash = h;
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof NameKey))
+                return false;
+            NameKey other = (NameKey)obj;
+            if (hash != other.hash || length != other.length)
+                return false;
+            for (int k = 0; k < length; ++k) {
+                if (bytes[k] != other.bytes[k])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Gets the shared instance of a name read from a file. Names that are too
+     * long, or that come after the pool is full, get a new instance.
+     * The returned name must not be changed, e.g. by <CODE>setIndRef()</CODE>.
+     * @param bytes the unescaped bytes of the name, without the '/'
+     * @param length how many of the bytes are used
+     * @return the name
+     */
+    static PdfName intern(byte bytes[], int length) {
+        if (length > MAX_INTERNED_LENGTH)
+            return new PdfName(new String(bytes, 0, length, StandardCharsets.ISO_8859_1), false);
+        PdfName name = (PdfName)internedNames.get(new NameKey(bytes, length));
+        if (name != null)
+            return name;
+        name = new PdfName(new String(bytes, 0, length, StandardCharsets.ISO_8859_1), false);
+        if (internedNames.size() >= MAX_INTERNED)
+            return name;
+        byte copy[] = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, length);
+        PdfName other = (PdfName)internedNames.putIfAbsent(new NameKey(copy, length), name);
+        return other == null ? name : other;
+    }
+
     /**
      * Compares this object with the specified object for order.
      * Returns a negative integer, zero, or a positive integer as this object
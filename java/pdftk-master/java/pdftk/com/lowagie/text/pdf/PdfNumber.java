@@ -104,6 +104,32 @@ public class PdfNumber extends PdfObject {
         setContent(String.valueOf(value));
     }
     
+/**
+ * Constructs a new INTEGER <CODE>PdfNumber</CODE>-object, such as
+ * a file offset that doesn't fit in an <CODE>int</CODE>.
+ *
+ * @param		value				value of the new <CODE>PdfNumber</CODE>-object
+ */
+    
+    public PdfNumber(long value) {
+        super(NUMBER);
+        this.value = value;
+        setContent(String.valueOf(value));
+    }
+    
+/**
+ * Constructs a <CODE>PdfNumber</CODE>-object as read from a file.
+ *
+ * @param		content			the bytes of the number, as they were read
+ * @param		value				value of the new <CODE>PdfNumber</CODE>-object
+ */
+    
+    PdfNumber(byte content[], double value) {
+        super(NUMBER);
+        this.value = value;
+        bytes = content;
+    }
+    
 /**
  * Constructs a new REAL <CODE>PdfNumber</CODE>-object.
  *
@@ -138,6 +164,16 @@ public class PdfNumber extends PdfObject {
         return (int) value;
     }
     
+/**
+ * Returns the primitive <CODE>long</CODE> value of this object.
+ *
+ * @return		a value
+ */
+    
+    public long longValue() {
+        return (long) value;
+    }
+    
 /**
  * Returns the primitive <CODE>double</CODE> value of this object.
  *
@@ -60,19 +60,30 @@ package pdftk.com.lowagie.text.pdf;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.InflaterInputStream;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import pdftk.com.lowagie.text.exceptions.BadPasswordException;
 import pdftk.com.lowagie.text.exceptions.InvalidPdfException;
@@ -102,14 +113,16 @@ public class PdfReader implements PdfViewerPreferences {
 
     static final byte endstream[] = PdfEncodings.convertToBytes("endstream", null);
     static final byte endobj[] = PdfEncodings.convertToBytes("endobj", null);
+    static final byte trailerKey[] = PdfEncodings.convertToBytes("trailer", null);
     protected PRTokeniser tokens = null;
     // Each xref pair is a position
     // type 0 -> -1, 0
     // type 1 -> offset, 0
     // type 2 -> index, obj num
-    protected int xref[] = null;
+    // ssteward, pdftk: longs, so offsets can reach past 2GB
+    protected long xref[] = null;
     protected HashMap objStmMark = null;
-    protected IntHashtable objStmToOffset = null;
+    protected LongHashtable objStmToOffset = null; // obj num -> offset
     protected boolean newXrefType = false;
     private ArrayList xrefObj = null;
     PdfDictionary rootPages = null;
@@ -122,8 +135,8 @@ public class PdfReader implements PdfViewerPreferences {
     protected boolean rebuilt = false;
     protected int freeXref = 0;
     protected boolean tampered = false;
-    protected int lastXref = 0;
-    protected int eofPos = 0;
+    protected long lastXref = 0;
+    protected long eofPos = 0;
     protected char pdfVersion = '4';
     protected PdfEncryption decrypt = null;
     protected byte password[] = null; //added by ujihara for decryption
@@ -136,10 +149,48 @@ public class PdfReader implements PdfViewerPreferences {
     protected int pValue = 0;
     private int objNum = 0;
     private int objGen = 0;
-    private int fileLength = 0;
+    private long fileLength = 0;
     private boolean hybridXref = false;
     private int lastXrefPartial = -1;
     private boolean partial = false;
+    private ObjectParser parser = new ObjectParser();
+    /** The file kept open to read the data of streams; see <CODE>getStreamFile()</CODE>. */
+    private RandomAccessFileOrArray streamFile = null;
+    private byte copyBuffer[] = null;
+
+    /** The most files that readers keep open to read the data of streams. */
+    static final int MAX_OPEN_STREAM_FILES = 64;
+    /** Streams shorter than this are copied through a buffer rather than from file to file. */
+    static final int MIN_TRANSFER_LENGTH = 1 << 16;
+    /** The files that readers keep open to read the data of streams, least recently used first.
+     * Only the files are kept, so that a reader that is dropped without being closed can still
+     * be collected; its file stays here until it is evicted and closed. */
+    private static final LinkedHashMap openStreamFiles = new LinkedHashMap(16, 0.75f, true);
+
+    /** The system property that sets how many threads readers may parse with. */
+    public static final String THREADS_PROPERTY = "pdftk.threads";
+    /** Documents with fewer objects per thread than this are parsed on fewer threads. */
+    static final int MIN_OBJECTS_PER_THREAD = 2048;
+    /** Documents with fewer object streams per thread than this decode them on fewer threads. */
+    static final int MIN_OBJSTMS_PER_THREAD = 16;
+    /** Documents with fewer encrypted strings per thread than this decrypt them on fewer threads. */
+    static final int MIN_STRINGS_PER_THREAD = 4096;
+    /** Files with fewer bytes per thread than this are scanned for objects on fewer threads. */
+    static final int MIN_BYTES_PER_THREAD = 1 << 22;
+    private static int threads = 0;
+    /** Objects released in partial mode, kept for reuse, least recently used first. */
+    private LinkedHashMap partialCache = new LinkedHashMap(16, 0.75f, true);
+    /** Estimated size of each object held in <CODE>partialCache</CODE>. */
+    private IntHashtable partialCacheCost = new IntHashtable();
+    private long partialCacheLimit = 0;
+    private long partialCacheSize = 0;
+    /** Indirect stream lengths resolved in partial mode, by stream object number. */
+    private IntHashtable partialStreamLengths = new IntHashtable();
+    /** The cache of resolved xrefs, and the key of this document in there. */
+    private XrefCache xrefCache = null;
+    private XrefCache.Key xrefCacheKey = null;
+    /** The xref as resolved, stored in the cache once the objects are read with it. */
+    private byte xrefState[] = null;
 
     private PRIndirectReference cryptoRef = null;
 	private PdfViewerPreferencesImp viewerPreferences = new PdfViewerPreferencesImp();
@@ -298,6 +349,142 @@ public class PdfReader implements PdfViewerPreferences {
         return tokens.getSafeFile();
     }
 
+    /** Gets a file instance of the original PDF document that stays open
+     * to read the data of stream after stream. Callers synchronize on it, and
+     * reopen it if it isn't open: only the most recently used of these files
+     * are kept open, and the others are closed.
+     * @return the file
+     */
+    RandomAccessFileOrArray getStreamFile() throws IOException {
+        RandomAccessFileOrArray closed = null;
+        synchronized (openStreamFiles) {
+            if (streamFile == null)
+                streamFile = getSafeFile();
+            openStreamFiles.put(streamFile, Boolean.TRUE);
+            if (openStreamFiles.size() > MAX_OPEN_STREAM_FILES) {
+                Iterator it = openStreamFiles.keySet().iterator();
+                closed = (RandomAccessFileOrArray)it.next();
+                it.remove();
+            }
+        }
+        if (closed != null) {
+            synchronized (closed) {
+                closed.close();
+            }
+        }
+        return streamFile;
+    }
+
+    /** Closes the file that <CODE>getStreamFile()</CODE> keeps open. */
+    private void closeStreamFile() throws IOException {
+        RandomAccessFileOrArray file;
+        synchronized (openStreamFiles) {
+            file = streamFile;
+            if (file == null)
+                return;
+            openStreamFiles.remove(file);
+        }
+        synchronized (file) {
+            file.close();
+        }
+    }
+
+    /** Gets the content of a stream of this reader, through the file that
+     * <CODE>getStreamFile()</CODE> keeps open.
+     * @param stream the stream
+     * @param raw <CODE>true</CODE> to get the content without applying any filter
+     * @throws IOException on error
+     * @return the stream content
+     */
+    byte[] readStreamBytes(PRStream stream, boolean raw) throws IOException {
+        RandomAccessFileOrArray file = getStreamFile();
+        synchronized (file) {
+            if (!file.isOpen())
+                file.reOpen();
+            return raw ? getStreamBytesRaw(stream, file) : getStreamBytes(stream, file);
+        }
+    }
+
+    /** Writes the content of a stream of this reader as it is in the file,
+     * but decrypted, a block at a time.
+     * @param stream the stream
+     * @param os the output
+     * @throws IOException on error
+     */
+    void copyStreamBytesDecrypted(PRStream stream, OutputStream os) throws IOException {
+        copyStreamBytes(stream, true, os);
+    }
+
+    /** Writes the content of a stream of this reader a block at a time,
+     * as <CODE>readStreamBytes</CODE> would return it.
+     * @param stream the stream
+     * @param raw <CODE>true</CODE> to write it without applying its filters
+     * @param os the output
+     * @throws IOException on error
+     */
+    void copyStreamBytes(PRStream stream, boolean raw, OutputStream os) throws IOException {
+        RandomAccessFileOrArray file = getStreamFile();
+        synchronized (file) {
+            if (!file.isOpen())
+                file.reOpen();
+            InputStream in = raw || !StreamDecoder.hasFilters(stream)
+                ? StreamDecoder.openRaw(stream, file) : StreamDecoder.open(stream, file);
+            if (copyBuffer == null)
+                copyBuffer = new byte[RandomAccessFileOrArray.BLOCK_SIZE];
+            int n;
+            while ((n = in.read(copyBuffer)) > 0)
+                os.write(copyBuffer, 0, n);
+        }
+    }
+
+    /** Gives the length of the content of a stream of this reader as it is
+     * in the file, decrypted, without decrypting all of it.
+     * @param stream the stream
+     * @return the length, or -1 if it can't be known without reading the whole stream
+     * @throws IOException on error
+     */
+    int getStreamLengthDecrypted(PRStream stream) throws IOException {
+        RandomAccessFileOrArray file = getStreamFile();
+        synchronized (file) {
+            if (!file.isOpen())
+                file.reOpen();
+            return StreamDecoder.rawLength(stream, file);
+        }
+    }
+
+    /** Copies the content of a stream of this reader as it is in the file,
+     * without decrypting it. If the output is a file, the bytes go from file
+     * to file without being read into memory.
+     * @param stream the stream, which must be in the file
+     * @param os the output
+     * @throws IOException on error
+     */
+    void copyStreamBytesRaw(PRStream stream, OutputStream os) throws IOException {
+        RandomAccessFileOrArray file = getStreamFile();
+        synchronized (file) {
+            if (!file.isOpen())
+                file.reOpen();
+            long offset = stream.getOffset();
+            long length = stream.getLength();
+            if (offset + length > file.length())
+                throw new EOFException();
+            if (length >= MIN_TRANSFER_LENGTH && os instanceof OutputStreamCounter) {
+                FileChannel channel = file.getChannel();
+                if (channel != null && ((OutputStreamCounter)os).transferFrom(channel, offset + file.getStartOffset(), length))
+                    return;
+            }
+            if (copyBuffer == null)
+                copyBuffer = new byte[RandomAccessFileOrArray.BLOCK_SIZE];
+            file.seek(offset);
+            while (length > 0) {
+                int n = (int)Math.min(length, copyBuffer.length);
+                file.readFully(copyBuffer, 0, n);
+                os.write(copyBuffer, 0, n);
+                length -= n;
+            }
+        }
+    }
+
     protected PdfReaderInstance getPdfReaderInstance(PdfWriter writer) throws IOException {
         return new PdfReaderInstance(this, writer);
     }
@@ -491,33 +678,25 @@ public class PdfReader implements PdfViewerPreferences {
         try {
             fileLength = tokens.getFile().length();
             pdfVersion = tokens.checkPdfHeader();
-            try {
-                readXref();
-            }
-            catch (Exception e) {
+            if (readCachedXref()) {
                 try {
-                    rebuilt = true;
-                    rebuildXref();
-                    lastXref = -1;
+                    readDocObj();
                 }
-                catch (Exception ne) {
-                    throw new InvalidPdfException("Rebuild failed: " + ne.getMessage() + "; Original message: " + e.getMessage());
+                catch (Exception e) {
+                    if (e instanceof BadPasswordException)
+                        throw new BadPasswordException(e.getMessage());
+                    // the file changed in a way its key doesn't show; read it as if it weren't cached
+                    dropCachedXref();
+                    clearXrefState();
+                    readXrefOrRebuild();
+                    readDocObjOrRebuild();
                 }
             }
-            try {
-                readDocObj();
-            }
-            catch (Exception e) {
-            	if (e instanceof BadPasswordException)
-            		throw new BadPasswordException(e.getMessage());
-                if (rebuilt || encryptionError)
-                    throw new InvalidPdfException(e.getMessage());
-                rebuilt = true;
-                encrypted = false;
-                rebuildXref();
-                lastXref = -1;
-                readDocObj();
+            else {
+                readXrefOrRebuild();
+                readDocObjOrRebuild();
             }
+            storeXrefState();
 
             strings.clear();
             readPages();
@@ -538,21 +717,29 @@ public class PdfReader implements PdfViewerPreferences {
         try {
             fileLength = tokens.getFile().length();
             pdfVersion = tokens.checkPdfHeader();
-            try {
-                readXref();
-            }
-            catch (Exception e) {
+            if (readCachedXref()) {
+                // only the objects read up to the pages show if the cached xref fits the file
                 try {
-                    rebuilt = true;
-                    rebuildXref();
-                    lastXref = -1;
+                    readDocObjPartial();
+                    readPages();
                 }
-                catch (Exception ne) {
-                    throw new InvalidPdfException("Rebuild failed: " + ne.getMessage() + "; Original message: " + e.getMessage());
+                catch (Exception e) {
+                    if (e instanceof BadPasswordException)
+                        throw new BadPasswordException(e.getMessage());
+                    // the file changed in a way its key doesn't show; read it as if it weren't cached
+                    dropCachedXref();
+                    clearXrefState();
+                    readXrefOrRebuild();
+                    readDocObjPartial();
+                    readPages();
                 }
             }
-            readDocObjPartial();
-            readPages();
+            else {
+                readXrefOrRebuild();
+                readDocObjPartial();
+                readPages();
+            }
+            storeXrefState();
         }
         catch (IOException e) {
             try{tokens.close();}catch(Exception ee){}
@@ -560,6 +747,170 @@ public class PdfReader implements PdfViewerPreferences {
         }
     }
 
+    /**
+     * Reads the xref of the file, or rebuilds it if it can't be read, and
+     * keeps it to be cached.
+     */
+    private void readXrefOrRebuild() throws IOException {
+        try {
+            readXref();
+        }
+        catch (Exception e) {
+            try {
+                rebuilt = true;
+                rebuildXref();
+                lastXref = -1;
+            }
+            catch (Exception ne) {
+                throw new InvalidPdfException("Rebuild failed: " + ne.getMessage() + "; Original message: " + e.getMessage());
+            }
+        }
+        saveXrefState();
+    }
+
+    /**
+     * Reads the objects of the file through the xref, and rebuilds the
+     * xref to read them again if that fails and the xref wasn't rebuilt
+     * already.
+     */
+    private void readDocObjOrRebuild() throws IOException {
+        try {
+            readDocObj();
+        }
+        catch (Exception e) {
+        	if (e instanceof BadPasswordException)
+        		throw new BadPasswordException(e.getMessage());
+            dropCachedXref();
+            if (rebuilt || encryptionError)
+                throw new InvalidPdfException(e.getMessage());
+            rebuilt = true;
+            encrypted = false;
+            rebuildXref();
+            lastXref = -1;
+            saveXrefState();
+            readDocObj();
+        }
+    }
+
+    /**
+     * Sets the xref up from the cache of resolved xrefs, if there is one
+     * and it has an entry for this document.
+     * @return <CODE>true</CODE> if the xref came from the cache
+     */
+    private boolean readCachedXref() {
+        xrefCache = XrefCache.getDefault();
+        if (xrefCache == null)
+            return false;
+        xrefCacheKey = xrefCache.keyFor(tokens.getFile());
+        if (xrefCacheKey == null)
+            return false;
+        byte data[] = xrefCache.get(xrefCacheKey);
+        if (data == null)
+            return false;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            newXrefType = in.readBoolean();
+            hybridXref = in.readBoolean();
+            rebuilt = in.readBoolean();
+            lastXref = in.readLong();
+            eofPos = in.readLong();
+            xref = new long[in.readInt()];
+            for (int k = 0; k < xref.length; ++k)
+                xref[k] = in.readLong();
+            byte b[] = new byte[in.readInt()];
+            in.readFully(b);
+            ObjectParser p = syncParser();
+            p.tokens = new PRTokeniser(b);
+            trailer = (PdfDictionary)p.readPRObject();
+            if (newXrefType) {
+                // the objects held in object streams, as readXRefStream() marks them
+                if (partial)
+                    objStmToOffset = new LongHashtable();
+                else
+                    objStmMark = new HashMap();
+                for (int k = 0; k < xref.length; k += 2) {
+                    if (xref[k + 1] <= 0)
+                        continue;
+                    if (partial) {
+                        objStmToOffset.put((int)xref[k + 1], 0);
+                    }
+                    else {
+                        Integer on = Integer.valueOf((int)xref[k + 1]);
+                        IntHashtable seq = (IntHashtable)objStmMark.get(on);
+                        if (seq == null) {
+                            seq = new IntHashtable();
+                            objStmMark.put(on, seq);
+                        }
+                        seq.put((int)xref[k], 1);
+                    }
+                }
+            }
+            return true;
+        }
+        catch (Exception e) {
+            xrefCache.remove(xrefCacheKey);
+            clearXrefState();
+            return false;
+        }
+    }
+
+    /** Forgets the xref and what was read through it, to read the file afresh. */
+    private void clearXrefState() {
+        newXrefType = false;
+        hybridXref = false;
+        rebuilt = false;
+        lastXref = -1;
+        xref = null;
+        xrefObj = null;
+        trailer = null;
+        objStmMark = null;
+        objStmToOffset = null;
+        strings.clear();
+        partialCache.clear();
+        partialCacheCost.clear();
+        partialCacheSize = 0;
+        lastXrefPartial = -1;
+        encrypted = false;
+        encryptionError = false;
+        decrypt = null;
+    }
+
+    /** Keeps the xref as resolved, if it is to be cached. */
+    private void saveXrefState() throws IOException {
+        if (xrefCacheKey == null)
+            return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(xref.length * 8 + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBoolean(newXrefType);
+        out.writeBoolean(hybridXref);
+        out.writeBoolean(rebuilt);
+        out.writeLong(lastXref);
+        out.writeLong(eofPos);
+        out.writeInt(xref.length);
+        for (int k = 0; k < xref.length; ++k)
+            out.writeLong(xref[k]);
+        ByteBuffer buf = new ByteBuffer();
+        XrefCache.writeObject(trailer, buf);
+        out.writeInt(buf.size());
+        buf.writeTo(out);
+        out.close();
+        xrefState = bytes.toByteArray();
+    }
+
+    /** Stores the xref kept by saveXrefState() in the cache. */
+    private void storeXrefState() {
+        if (xrefState != null)
+            xrefCache.put(xrefCacheKey, xrefState);
+        xrefState = null;
+    }
+
+    /** Forgets the cached xref of this document, which didn't read right. */
+    private void dropCachedXref() {
+        if (xrefCacheKey != null)
+            xrefCache.remove(xrefCacheKey);
+        xrefState = null;
+    }
+
     private boolean equalsArray(byte ar1[], byte ar2[], int size) {
         for (int k = 0; k < size; ++k) {
             if (ar1[k] != ar2[k])
@@ -571,6 +922,43 @@ public class PdfReader implements PdfViewerPreferences {
     /**
      * @throws IOException
      */
+    /**
+     * Decrypts the strings read so far. Each string is decrypted with the
+     * key of its own object, so large documents decrypt them on several
+     * threads.
+     */
+    private void decryptStrings() throws IOException {
+        int chunks = Math.min(getThreads(), strings.size() / MIN_STRINGS_PER_THREAD);
+        if (chunks <= 1) {
+            for (int k = 0; k < strings.size(); ++k) {
+                PdfString str = (PdfString)strings.get(k);
+                str.decrypt(this);
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(chunks);
+        try {
+            List tasks = new ArrayList();
+            for (int c = 0; c < chunks; ++c) {
+                final int from = (int)((long)strings.size() * c / chunks);
+                final int to = (int)((long)strings.size() * (c + 1) / chunks);
+                tasks.add(new Callable() {
+                    public Object call() {
+                        for (int k = from; k < to; ++k) {
+                            PdfString str = (PdfString)strings.get(k);
+                            str.decrypt(PdfReader.this);
+                        }
+                        return null;
+                    }
+                });
+            }
+            invokeInOrder(pool, tasks);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
     private void readDecryptedDocObj() throws IOException {
         if (encrypted)
             return;
@@ -634,6 +1022,9 @@ public class PdfReader implements PdfViewerPreferences {
 		// 4.2.0
         byte uValue[] = null;
         byte oValue[] = null;
+        byte ueValue[] = null;
+        byte oeValue[] = null;
+        byte permsValue[] = null;
 		// default: error; PdfWriter.STANDARD_ENCRYPTION_40;
         int cryptoMode = PdfWriter.INVALID_ENCRYPTION;
         int lengthValue = 0;
@@ -690,6 +1081,34 @@ public class PdfReader implements PdfViewerPreferences {
                     cryptoMode |= PdfWriter.DO_NOT_ENCRYPT_METADATA;
                 lengthValue = 128;
                 break;
+            case 5:
+            case 6:
+                PdfDictionary cf = (PdfDictionary)enc.get(PdfName.CF);
+                if (cf == null)
+                    throw new InvalidPdfException("cf.not.found.encryption");
+                cf = (PdfDictionary)cf.get(PdfName.STDCF);
+                if (cf == null)
+                    throw new InvalidPdfException("stdcf.not.found.encryption");
+                if (!PdfName.AESV3.equals(cf.get(PdfName.CFM)))
+                    throw new UnsupportedPdfException("no.compatible.encryption.found");
+                cryptoMode = PdfWriter.ENCRYPTION_AES_256;
+                PdfObject em256 = enc.get(PdfName.ENCRYPTMETADATA);
+                if (em256 != null && em256.toString().equals("false"))
+                    cryptoMode |= PdfWriter.DO_NOT_ENCRYPT_METADATA;
+                lengthValue = 256;
+                if (enc.get(PdfName.UE) == null || enc.get(PdfName.OE) == null)
+                    throw new InvalidPdfException("illegal.ue.or.oe.value");
+                ueValue = enc.get(PdfName.UE).getBytes();
+                strings.remove(enc.get(PdfName.UE));
+                oeValue = enc.get(PdfName.OE).getBytes();
+                strings.remove(enc.get(PdfName.OE));
+                if (enc.get(PdfName.PERMS) != null) {
+                    permsValue = enc.get(PdfName.PERMS).getBytes();
+                    strings.remove(enc.get(PdfName.PERMS));
+                }
+                if (uValue.length < 48 || oValue.length < 48 || ueValue.length < 32 || oeValue.length < 32)
+                    throw new InvalidPdfException("illegal.u.or.o.value");
+                break;
             default:
 				cryptoMode= PdfWriter.INVALID_ENCRYPTION;
             }
@@ -704,24 +1123,29 @@ public class PdfReader implements PdfViewerPreferences {
         decrypt = new PdfEncryption();
         decrypt.setCryptoMode(cryptoMode, lengthValue);
         
-		//check by owner password, first, to ensure greatest authorization
-		decrypt.setupByOwnerPassword(documentID, password, uValue, oValue, pValue);
-		if (equalsArray(uValue, decrypt.userKey, ((rValue == 3 || rValue == 4) ? 16 : 32))) {
-			ownerPasswordUsed= true;
-		}
-		else {
-			//check by user password
-			decrypt.setupByUserPassword(documentID, password, oValue, pValue);
-			if (!equalsArray(uValue, decrypt.userKey, ((rValue == 3 || rValue == 4) ? 16 : 32))) {
-				
+        if (rValue == 5 || rValue == 6) {
+            decrypt.setupKeys256(rValue, uValue, oValue, ueValue, oeValue, permsValue, pValue);
+            if (decrypt.setupByOwnerPassword256(password))
+                ownerPasswordUsed = true;
+            else if (!decrypt.setupByUserPassword256(password))
                 throw new IOException("Bad password");
+        }
+        else {
+            //check by owner password, first, to ensure greatest authorization
+            decrypt.setupByOwnerPassword(documentID, password, uValue, oValue, pValue);
+            if (equalsArray(uValue, decrypt.userKey, ((rValue == 3 || rValue == 4) ? 16 : 32))) {
+                ownerPasswordUsed= true;
+            }
+            else {
+                //check by user password
+                decrypt.setupByUserPassword(documentID, password, oValue, pValue);
+                if (!equalsArray(uValue, decrypt.userKey, ((rValue == 3 || rValue == 4) ? 16 : 32))) {
+                    throw new IOException("Bad password");
+                }
             }
         }
 
-        for (int k = 0; k < strings.size(); ++k) {
-            PdfString str = (PdfString)strings.get(k);
-            str.decrypt(this);
-        }
+        decryptStrings();
 
         if (encDic.isIndirect()) {
             cryptoRef = (PRIndirectReference)encDic;
@@ -856,7 +1280,11 @@ public class PdfReader implements PdfViewerPreferences {
                 return obj;
             if (idx * 2 >= xref.length)
                 return null;
-            obj = readSingleObject(idx);
+            obj = uncachePartialObject(idx);
+            if (obj != null)
+                xrefObj.set(idx, obj);
+            else
+                obj = readSingleObject(idx);
             lastXrefPartial = -1;
             if (obj != null)
                 lastXrefPartial = idx;
@@ -879,7 +1307,7 @@ public class PdfReader implements PdfViewerPreferences {
      */
     public void releaseLastXrefPartial() {
         if (partial && lastXrefPartial != -1) {
-            xrefObj.set(lastXrefPartial, null);
+            releasePartialObject(lastXrefPartial);
             lastXrefPartial = -1;
         }
     }
@@ -898,14 +1326,121 @@ public class PdfReader implements PdfViewerPreferences {
         PRIndirectReference ref = (PRIndirectReference)obj;
         PdfReader reader = ref.getReader();
         if (reader.partial && reader.lastXrefPartial != -1 && reader.lastXrefPartial == ref.getNumber()) {
-            reader.xrefObj.set(reader.lastXrefPartial, null);
+            reader.releasePartialObject(reader.lastXrefPartial);
         }
         reader.lastXrefPartial = -1;
     }
 
+    /**
+     * Drops every object read from the file so far, including those kept in
+     * the cache of released objects, in partial mode. They are read again if
+     * they are asked for later. Objects added with <CODE>addPdfObject()</CODE>
+     * are kept, since they can't be read again. Does nothing when the reader
+     * isn't in partial mode.
+     */
+    public void releaseObjects() {
+        if (!partial)
+            return;
+        int end = Math.min(xrefObj.size(), xref.length / 2);
+        for (int k = 0; k < end; ++k)
+            xrefObj.set(k, null);
+        partialCache.clear();
+        partialCacheCost.clear();
+        partialCacheSize = 0;
+        lastXrefPartial = -1;
+        acroForm = null;
+        acroFormParsed = false;
+    }
+
+    /**
+     * Sets how much memory, in bytes, a reader in partial mode may spend keeping
+     * released objects around so that reading them again doesn't mean going back
+     * to the file. Objects are evicted least recently used first. The default of
+     * zero drops released objects at once. Objects that were never released stay
+     * in memory regardless of this limit.
+     * @param limit the cache size in bytes, as estimated by <CODE>estimateSize()</CODE>
+     */
+    public void setPartialCacheLimit(long limit) {
+        partialCacheLimit = limit;
+        trimPartialCache();
+    }
+
+    /**
+     * @return the cache size set with <CODE>setPartialCacheLimit()</CODE>
+     */
+    public long getPartialCacheLimit() {
+        return partialCacheLimit;
+    }
+
+    /**
+     * @return the estimated size, in bytes, of the released objects currently cached
+     */
+    public long getPartialCacheSize() {
+        return partialCacheSize;
+    }
+
+    private void releasePartialObject(int idx) {
+        PdfObject obj = (PdfObject)xrefObj.get(idx);
+        xrefObj.set(idx, null);
+        uncachePartialObject(idx);
+        if (obj == null || partialCacheLimit <= 0)
+            return;
+        int cost = estimateSize(obj);
+        if (cost > partialCacheLimit)
+            return;
+        partialCache.put(new Integer(idx), obj);
+        partialCacheCost.put(idx, cost);
+        partialCacheSize += cost;
+        trimPartialCache();
+    }
+
+    private PdfObject uncachePartialObject(int idx) {
+        PdfObject obj = (PdfObject)partialCache.remove(new Integer(idx));
+        if (obj != null)
+            partialCacheSize -= partialCacheCost.remove(idx);
+        return obj;
+    }
+
+    private void trimPartialCache() {
+        Iterator it = partialCache.keySet().iterator();
+        while (partialCacheSize > partialCacheLimit && it.hasNext()) {
+            int idx = ((Integer)it.next()).intValue();
+            it.remove();
+            partialCacheSize -= partialCacheCost.remove(idx);
+        }
+    }
+
+    /**
+     * Gives a rough estimate of the memory held by a direct object, not
+     * counting the objects it refers to indirectly.
+     * @param obj the object
+     * @return the estimated size in bytes
+     */
+    public static int estimateSize(PdfObject obj) {
+        if (obj == null)
+            return 0;
+        int size = 32;
+        if (obj.bytes != null)
+            size += obj.bytes.length;
+        if (obj.isDictionary() || obj.isStream()) {
+            PdfDictionary dic = (PdfDictionary)obj;
+            for (Iterator it = dic.getKeys().iterator(); it.hasNext();) {
+                PdfObject key = (PdfObject)it.next();
+                size += 32 + estimateSize(key) + estimateSize(dic.get((PdfName)key));
+            }
+        }
+        else if (obj.isArray()) {
+            ArrayList list = ((PdfArray)obj).getArrayList();
+            for (int k = 0; k < list.size(); ++k)
+                size += 8 + estimateSize((PdfObject)list.get(k));
+        }
+        return size;
+    }
+
     private void setXrefPartialObject(int idx, PdfObject obj) {
         if (!partial || idx < 0)
             return;
+        uncachePartialObject(idx);
         xrefObj.set(idx, obj);
     }
 
@@ -983,11 +1518,11 @@ public class PdfReader implements PdfViewerPreferences {
     protected PdfObject readSingleObject(int k) throws IOException {
         strings.clear();
         int k2 = k * 2;
-        int pos = xref[k2];
+        long pos = xref[k2];
         if (pos < 0)
             return null;
         if (xref[k2 + 1] > 0)
-            pos = objStmToOffset.get(xref[k2 + 1]);
+            pos = objStmToOffset.get((int)xref[k2 + 1]);
         if (pos == 0)
             return null;
         tokens.seek(pos);
@@ -1000,7 +1535,7 @@ public class PdfReader implements PdfViewerPreferences {
             tokens.throwError("Invalid generation number.");
         objGen = tokens.intValue();
         tokens.nextValidToken();
-        if (!tokens.getStringValue().equals("obj"))
+        if (!tokens.tokenEquals("obj"))
             tokens.throwError("Token 'obj' expected.");
         PdfObject obj;
         try {
@@ -1017,7 +1552,7 @@ public class PdfReader implements PdfViewerPreferences {
             obj = null;
         }
         if (xref[k2 + 1] > 0) {
-            obj = readOneObjStm((PRStream)obj, xref[k2]);
+            obj = readOneObjStm((PRStream)obj, (int)xref[k2]);
         }
         xrefObj.set(k, obj);
         return obj;
@@ -1026,37 +1561,45 @@ public class PdfReader implements PdfViewerPreferences {
     protected PdfObject readOneObjStm(PRStream stream, int idx) throws IOException {
         int first = stream.getAsNumber(PdfName.FIRST).intValue();
         byte b[] = getStreamBytes(stream, tokens.getFile());
-        PRTokeniser saveTokens = tokens;
-        tokens = new PRTokeniser(b);
-        try {
-            int address = 0;
-            boolean ok = true;
-            ++idx;
-            for (int k = 0; k < idx; ++k) {
-                ok = tokens.nextToken();
-                if (!ok)
-                    break;
-                if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
-                    ok = false;
-                    break;
-                }
-                ok = tokens.nextToken();
-                if (!ok)
-                    break;
-                if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
-                    ok = false;
-                    break;
-                }
-                address = tokens.intValue() + first;
+        ObjectParser p = newObjStmParser(new PRTokeniser(b));
+        PRTokeniser tokens = p.tokens;
+        int address = 0;
+        boolean ok = true;
+        ++idx;
+        for (int k = 0; k < idx; ++k) {
+            ok = tokens.nextToken();
+            if (!ok)
+                break;
+            if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
+                ok = false;
+                break;
             }
+            ok = tokens.nextToken();
             if (!ok)
-                throw new InvalidPdfException("Error reading ObjStm");
-            tokens.seek(address);
-            return readPRObject();
-        }
-        finally {
-            tokens = saveTokens;
+                break;
+            if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
+                ok = false;
+                break;
+            }
+            address = tokens.intValue() + first;
         }
+        if (!ok)
+            throw new InvalidPdfException("Error reading ObjStm");
+        tokens.seek(address);
+        return p.readPRObject();
+    }
+
+    /**
+     * Gets a parser for the objects of an object stream. The strings in
+     * there aren't encrypted on their own, so they aren't collected.
+     */
+    private ObjectParser newObjStmParser(PRTokeniser tokens) {
+        ObjectParser p = new ObjectParser();
+        p.tokens = tokens;
+        p.strings = null;
+        p.objNum = objNum;
+        p.objGen = objGen;
+        return p;
     }
 
     /**
@@ -1072,28 +1615,160 @@ public class PdfReader implements PdfViewerPreferences {
     }
 
     protected void readDocObj() throws IOException {
-        ArrayList streams = new ArrayList();
         xrefObj = new ArrayList(xref.length / 2);
         xrefObj.addAll(Collections.nCopies(xref.length / 2, null));
-        for (int k = 2; k < xref.length; k += 2) {
-            int pos = xref[k];
+        int chunks = Math.min(getThreads(), xref.length / 2 / MIN_OBJECTS_PER_THREAD);
+        if (chunks > 1) {
+            readDocObjParallel(chunks);
+        }
+        else {
+            ArrayList streams = new ArrayList();
+            ObjectParser p = syncParser();
+            readDocObjRange(p, 2, xref.length, streams);
+            objNum = p.objNum;
+            objGen = p.objGen;
+            for (int k = 0; k < streams.size(); ++k) {
+                checkPRStreamLength((PRStream)streams.get(k));
+            }
+        }
+        readDecryptedDocObj();
+        if (objStmMark != null) {
+            ArrayList marked = new ArrayList(objStmMark.entrySet());
+            chunks = Math.min(getThreads(), marked.size() / MIN_OBJSTMS_PER_THREAD);
+            if (chunks > 1)
+                readObjStmsParallel(marked, chunks);
+            else
+                readObjStms(marked);
+            objStmMark = null;
+        }
+        xref = null;
+    }
+
+    /**
+     * Reads the objects held in the given object streams, which are
+     * <CODE>objStmMark</CODE> entries, and drops the streams themselves.
+     */
+    private void readObjStms(List marked) throws IOException {
+        for (int k = 0; k < marked.size(); ++k) {
+            Map.Entry entry = (Map.Entry)marked.get(k);
+            int n = ((Integer)entry.getKey()).intValue();
+            IntHashtable h = (IntHashtable)entry.getValue();
+            readObjStm((PRStream)xrefObj.get(n), h);
+            xrefObj.set(n, null);
+        }
+    }
+
+    /**
+     * Does the work of readObjStms() on several threads. The streams are
+     * cut in contiguous chunks, each read from a file handle of its own; every
+     * stream is decoded and parsed with a tokeniser over its own bytes. A
+     * stream whose filters aren't direct objects may need objects held in
+     * another stream to be decoded, so such streams are read at the end, in turn.
+     */
+    private void readObjStmsParallel(List marked, int chunks) throws IOException {
+        final ArrayList now = new ArrayList();
+        ArrayList later = new ArrayList();
+        for (int k = 0; k < marked.size(); ++k) {
+            Map.Entry entry = (Map.Entry)marked.get(k);
+            PdfObject obj = (PdfObject)xrefObj.get(((Integer)entry.getKey()).intValue());
+            if (obj != null && obj.isStream() && !(isDirectObject(((PRStream)obj).get(PdfName.FILTER))
+                    && isDirectObject(((PRStream)obj).get(PdfName.DECODEPARMS))
+                    && isDirectObject(((PRStream)obj).get(PdfName.DP))))
+                later.add(entry);
+            else
+                now.add(entry);
+        }
+        chunks = Math.min(chunks, now.size());
+        final RandomAccessFileOrArray files[] = new RandomAccessFileOrArray[chunks];
+        ExecutorService pool = Executors.newFixedThreadPool(chunks);
+        try {
+            List tasks = new ArrayList();
+            for (int c = 0; c < chunks; ++c) {
+                final int from = (int)((long)now.size() * c / chunks);
+                final int to = (int)((long)now.size() * (c + 1) / chunks);
+                final RandomAccessFileOrArray file = tokens.getSafeFile();
+                files[c] = file;
+                tasks.add(new Callable() {
+                    public Object call() throws IOException {
+                        for (int k = from; k < to; ++k) {
+                            Map.Entry entry = (Map.Entry)now.get(k);
+                            int n = ((Integer)entry.getKey()).intValue();
+                            readObjStm((PRStream)xrefObj.get(n), (IntHashtable)entry.getValue(), file);
+                            xrefObj.set(n, null);
+                        }
+                        return null;
+                    }
+                });
+            }
+            invokeInOrder(pool, tasks);
+        }
+        finally {
+            pool.shutdown();
+            for (int c = 0; c < chunks; ++c) {
+                if (files[c] != null) {
+                    try {
+                        files[c].close();
+                    }
+                    catch (IOException e) {
+                        // empty on purpose
+                    }
+                }
+            }
+        }
+        readObjStms(later);
+    }
+
+    /**
+     * Tells whether an object holds no indirect references, so that it can be
+     * read without looking any other object up.
+     */
+    private static boolean isDirectObject(PdfObject obj) {
+        if (obj == null)
+            return true;
+        if (obj.isIndirect())
+            return false;
+        if (obj.isArray()) {
+            ArrayList list = ((PdfArray)obj).getArrayList();
+            for (int k = 0; k < list.size(); ++k) {
+                if (!isDirectObject((PdfObject)list.get(k)))
+                    return false;
+            }
+        }
+        else if (obj.isDictionary()) {
+            PdfDictionary dic = (PdfDictionary)obj;
+            for (Iterator i = dic.getKeys().iterator(); i.hasNext();) {
+                if (!isDirectObject(dic.get((PdfName)i.next())))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the objects at xref entries <CODE>from</CODE> (inclusive) to
+     * <CODE>to</CODE> (exclusive) into <CODE>xrefObj</CODE>, collecting the streams.
+     */
+    private void readDocObjRange(ObjectParser p, int from, int to, ArrayList streams) throws IOException {
+        PRTokeniser tokens = p.tokens;
+        for (int k = from; k < to; k += 2) {
+            long pos = xref[k];
             if (pos <= 0 || xref[k + 1] > 0)
                 continue;
             tokens.seek(pos);
             tokens.nextValidToken();
             if (tokens.getTokenType() != PRTokeniser.TK_NUMBER)
                 tokens.throwError("Invalid object number.");
-            objNum = tokens.intValue();
+            p.objNum = tokens.intValue();
             tokens.nextValidToken();
             if (tokens.getTokenType() != PRTokeniser.TK_NUMBER)
                 tokens.throwError("Invalid generation number.");
-            objGen = tokens.intValue();
+            p.objGen = tokens.intValue();
             tokens.nextValidToken();
-            if (!tokens.getStringValue().equals("obj"))
+            if (!tokens.tokenEquals("obj"))
                 tokens.throwError("Token 'obj' expected.");
             PdfObject obj;
             try {
-                obj = readPRObject();
+                obj = p.readPRObject();
                 if (obj.isStream()) {
                     streams.add(obj);
                 }
@@ -1103,29 +1778,182 @@ public class PdfReader implements PdfViewerPreferences {
             }
             xrefObj.set(k / 2, obj);
         }
-        for (int k = 0; k < streams.size(); ++k) {
-            checkPRStreamLength((PRStream)streams.get(k));
+    }
+
+    /**
+     * Does the work of readDocObj() on several threads. The xref is cut in
+     * contiguous chunks, each parsed with its own tokeniser over the same
+     * file. The stream lengths are checked once every chunk is in, since they
+     * may refer to objects anywhere in the file. The result is the same as
+     * parsing on one thread, including which error is thrown first.
+     */
+    private void readDocObjParallel(int chunks) throws IOException {
+        final ObjectParser parsers[] = new ObjectParser[chunks];
+        final ArrayList streams[] = new ArrayList[chunks];
+        int objects = xref.length / 2 - 1;
+        ExecutorService pool = Executors.newFixedThreadPool(chunks);
+        try {
+            List tasks = new ArrayList();
+            for (int c = 0; c < chunks; ++c) {
+                final int from = 2 + 2 * (int)((long)objects * c / chunks);
+                final int to = 2 + 2 * (int)((long)objects * (c + 1) / chunks);
+                final ObjectParser p = new ObjectParser();
+                p.tokens = new PRTokeniser(tokens.getSafeFile());
+                p.strings = new ArrayList();
+                p.objNum = -1; // until it reads an object
+                parsers[c] = p;
+                streams[c] = new ArrayList();
+                final ArrayList s = streams[c];
+                tasks.add(new Callable() {
+                    public Object call() throws IOException {
+                        readDocObjRange(p, from, to, s);
+                        return null;
+                    }
+                });
+            }
+            invokeInOrder(pool, tasks);
+            for (int c = 0; c < chunks; ++c) {
+                strings.addAll(parsers[c].strings);
+                if (parsers[c].objNum != -1) {
+                    objNum = parsers[c].objNum;
+                    objGen = parsers[c].objGen;
+                }
+            }
+
+            tasks.clear();
+            for (int c = 0; c < chunks; ++c) {
+                final ObjectParser p = parsers[c];
+                final ArrayList s = streams[c];
+                tasks.add(new Callable() {
+                    public Object call() throws IOException {
+                        for (int k = 0; k < s.size(); ++k) {
+                            PRStream stream = (PRStream)s.get(k);
+                            // every object is in by now; look the length up
+                            // directly, as getPdfObject() isn't thread safe
+                            PdfObject length = stream.get(PdfName.LENGTH);
+                            if (length != null && length.isIndirect()) {
+                                int n = ((PRIndirectReference)length).getNumber();
+                                length = n < xrefObj.size() ? (PdfObject)xrefObj.get(n) : null;
+                            }
+                            checkPRStreamLength(stream, length, p.tokens);
+                        }
+                        return null;
+                    }
+                });
+            }
+            invokeInOrder(pool, tasks);
         }
-        readDecryptedDocObj();
-        if (objStmMark != null) {
-            for (Iterator i = objStmMark.entrySet().iterator(); i.hasNext();) {
-                Map.Entry entry = (Map.Entry)i.next();
-                int n = ((Integer)entry.getKey()).intValue();
-                IntHashtable h = (IntHashtable)entry.getValue();
-                readObjStm((PRStream)xrefObj.get(n), h);
-                xrefObj.set(n, null);
+        finally {
+            pool.shutdown();
+            for (int c = 0; c < chunks; ++c) {
+                if (parsers[c] != null) {
+                    try {
+                        parsers[c].tokens.close();
+                    }
+                    catch (IOException e) {
+                        // empty on purpose
+                    }
+                }
             }
-            objStmMark = null;
         }
-        xref = null;
+    }
+
+    /**
+     * Runs the tasks and waits for all of them. If any failed, throws the
+     * exception of the first one that failed, in the order given.
+     */
+    static void invokeInOrder(ExecutorService pool, List tasks) throws IOException {
+        List results;
+        try {
+            results = pool.invokeAll(tasks);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        for (int k = 0; k < results.size(); ++k)
+            getResult((Future)results.get(k));
+    }
+
+    /**
+     * Waits for a task and gets its result, throwing what it threw.
+     * @param future the task
+     * @return the result
+     */
+    static Object getResult(Future future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if (t instanceof IOException)
+                throw (IOException)t;
+            if (t instanceof RuntimeException)
+                throw (RuntimeException)t;
+            if (t instanceof Error)
+                throw (Error)t;
+            throw new ExceptionConverter((Exception)t);
+        }
+    }
+
+    /**
+     * Gets how many threads a reader may use to parse a document. This is the
+     * value given to <CODE>setThreads()</CODE>, else the value of the
+     * <CODE>pdftk.threads</CODE> system property, else the number of processors.
+     * One thread parses the way readers always have.
+     * @return the number of threads, at least 1
+     */
+    public static int getThreads() {
+        if (threads > 0)
+            return threads;
+        try {
+            String value = System.getProperty(THREADS_PROPERTY);
+            if (value != null && Integer.parseInt(value.trim()) > 0)
+                return Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {}
+        catch (SecurityException e) {}
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Sets how many threads readers may use to parse documents.
+     * @param n the number of threads, or 0 to go back to the default
+     */
+    public static void setThreads(int n) {
+        threads = Math.max(n, 0);
     }
 
     private void checkPRStreamLength(PRStream stream) throws IOException {
-        int fileLength = tokens.length();
-        int start = stream.getOffset();
+        PdfObject length = stream.get(PdfName.LENGTH);
+        PdfObject obj = getPdfObjectRelease(length);
+        if (partial && length != null && length.isIndirect()) {
+            // removeUnusedObjects() may have dropped the length object since
+            // this stream was last read
+            if (obj != null && obj.type() == PdfObject.NUMBER)
+                partialStreamLengths.put(stream.getObjNum(), ((PdfNumber)obj).intValue());
+            else if (partialStreamLengths.containsKey(stream.getObjNum()))
+                obj = new PdfNumber(partialStreamLengths.get(stream.getObjNum()));
+        }
+        checkPRStreamLength(stream, obj, tokens);
+    }
+
+    /**
+     * Checks the stream's /Length against the file, working it out from the
+     * position of <CODE>endstream</CODE> when it doesn't fit.
+     * @param stream the stream
+     * @param obj the resolved /Length
+     * @param tokens the tokeniser to read the file with
+     */
+    private void checkPRStreamLength(PRStream stream, PdfObject obj, PRTokeniser tokens) throws IOException {
+        long fileLength = tokens.length();
+        long start = stream.getOffset();
         boolean calc = false;
         int streamLength = 0;
-        PdfObject obj = getPdfObjectRelease(stream.get(PdfName.LENGTH));
         if (obj != null && obj.type() == PdfObject.NUMBER) {
             streamLength = ((PdfNumber)obj).intValue();
             if (streamLength + start > fileLength - 20)
@@ -1143,14 +1971,13 @@ public class PdfReader implements PdfViewerPreferences {
         else
             calc = true;
         if (calc) {
-            byte tline[] = new byte[16];
-            tokens.seek(start);
-            while (true) {
-                int pos = tokens.getFilePointer();
-                if (!tokens.readLineSegment(tline))
-                    break;
+            LineSegmentScanner scanner = new LineSegmentScanner(tokens.getFile(), 16);
+            byte tline[] = scanner.line;
+            scanner.seek(start);
+            while (scanner.next()) {
+                long pos = scanner.pos;
                 if (equalsn(tline, endstream)) {
-                    streamLength = pos - start;
+                    streamLength = (int)(pos - start);
                     break;
                 }
                 if (equalsn(tline, endobj)) {
@@ -1159,7 +1986,7 @@ public class PdfReader implements PdfViewerPreferences {
                     int index = s.indexOf("endstream");
                     if (index >= 0)
                         pos = pos - 16 + index;
-                    streamLength = pos - start;
+                    streamLength = (int)(pos - start);
                     break;
                 }
             }
@@ -1168,45 +1995,51 @@ public class PdfReader implements PdfViewerPreferences {
     }
 
     protected void readObjStm(PRStream stream, IntHashtable map) throws IOException {
+        readObjStm(stream, map, tokens.getFile());
+    }
+
+    /**
+     * Reads the objects of an object stream whose indexes are in
+     * <CODE>map</CODE> into <CODE>xrefObj</CODE>.
+     * @param stream the object stream
+     * @param map the indexes in the stream of the objects to read
+     * @param file the file to read the stream from
+     */
+    private void readObjStm(PRStream stream, IntHashtable map, RandomAccessFileOrArray file) throws IOException {
         int first = stream.getAsNumber(PdfName.FIRST).intValue();
         int n = stream.getAsNumber(PdfName.N).intValue();
-        byte b[] = getStreamBytes(stream, tokens.getFile());
-        PRTokeniser saveTokens = tokens;
-        tokens = new PRTokeniser(b);
-        try {
-            int address[] = new int[n];
-            int objNumber[] = new int[n];
-            boolean ok = true;
-            for (int k = 0; k < n; ++k) {
-                ok = tokens.nextToken();
-                if (!ok)
-                    break;
-                if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
-                    ok = false;
-                    break;
-                }
-                objNumber[k] = tokens.intValue();
-                ok = tokens.nextToken();
-                if (!ok)
-                    break;
-                if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
-                    ok = false;
-                    break;
-                }
-                address[k] = tokens.intValue() + first;
+        byte b[] = getStreamBytes(stream, file);
+        ObjectParser p = newObjStmParser(new PRTokeniser(b));
+        PRTokeniser tokens = p.tokens;
+        int address[] = new int[n];
+        int objNumber[] = new int[n];
+        boolean ok = true;
+        for (int k = 0; k < n; ++k) {
+            ok = tokens.nextToken();
+            if (!ok)
+                break;
+            if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
+                ok = false;
+                break;
             }
+            objNumber[k] = tokens.intValue();
+            ok = tokens.nextToken();
             if (!ok)
-                throw new InvalidPdfException("Error reading ObjStm");
-            for (int k = 0; k < n; ++k) {
-                if (map.containsKey(k)) {
-                    tokens.seek(address[k]);
-                    PdfObject obj = readPRObject();
-                    xrefObj.set(objNumber[k], obj);
-                }
+                break;
+            if (tokens.getTokenType() != PRTokeniser.TK_NUMBER) {
+                ok = false;
+                break;
             }
+            address[k] = tokens.intValue() + first;
         }
-        finally {
-            tokens = saveTokens;
+        if (!ok)
+            throw new InvalidPdfException("Error reading ObjStm");
+        for (int k = 0; k < n; ++k) {
+            if (map.containsKey(k)) {
+                tokens.seek(address[k]);
+                PdfObject obj = p.readPRObject();
+                xrefObj.set(objNumber[k], obj);
+            }
         }
     }
 
@@ -1235,10 +2068,10 @@ public class PdfReader implements PdfViewerPreferences {
         if (size == 0)
             return;
         if (xref == null)
-            xref = new int[size];
+            xref = new long[size];
         else {
             if (xref.length < size) {
-                int xref2[] = new int[size];
+                long xref2[] = new long[size];
                 System.arraycopy(xref, 0, xref2, 0, xref.length);
                 xref = xref2;
             }
@@ -1250,12 +2083,12 @@ public class PdfReader implements PdfViewerPreferences {
         newXrefType = false;
         tokens.seek(tokens.getStartxref());
         tokens.nextToken();
-        if (!tokens.getStringValue().equals("startxref"))
+        if (!tokens.tokenEquals("startxref"))
             throw new InvalidPdfException("startxref not found.");
         tokens.nextToken();
         if (tokens.getTokenType() != PRTokeniser.TK_NUMBER)
             throw new InvalidPdfException("startxref is not followed by a number.");
-        int startxref = tokens.intValue();
+        long startxref = tokens.longValue();
         lastXref = startxref;
         eofPos = tokens.getFilePointer();
         try {
@@ -1273,22 +2106,22 @@ public class PdfReader implements PdfViewerPreferences {
             PdfNumber prev = (PdfNumber)trailer2.get(PdfName.PREV);
             if (prev == null)
                 break;
-            tokens.seek(prev.intValue());
+            tokens.seek(prev.longValue());
             trailer2 = readXrefSection();
         }
     }
 
     protected PdfDictionary readXrefSection() throws IOException {
         tokens.nextValidToken();
-        if (!tokens.getStringValue().equals("xref"))
+        if (!tokens.tokenEquals("xref"))
             tokens.throwError("xref subsection not found");
         int start = 0;
         int end = 0;
-        int pos = 0;
+        long pos = 0;
         int gen = 0;
         while (true) {
             tokens.nextValidToken();
-            if (tokens.getStringValue().equals("trailer"))
+            if (tokens.tokenEquals("trailer"))
                 break;
             if (tokens.getTokenType() != PRTokeniser.TK_NUMBER)
                 tokens.throwError("Object number of the first object in this xref subsection not found");
@@ -1298,9 +2131,9 @@ public class PdfReader implements PdfViewerPreferences {
                 tokens.throwError("Number of entries in this xref subsection not found");
             end = tokens.intValue() + start;
             if (start == 1) { // fix incorrect start number
-                int back = tokens.getFilePointer();
+                long back = tokens.getFilePointer();
                 tokens.nextValidToken();
-                pos = tokens.intValue();
+                pos = tokens.longValue();
                 tokens.nextValidToken();
                 gen = tokens.intValue();
                 if (pos == 0 && gen == PdfWriter.GENERATION_MAX) {
@@ -1312,19 +2145,19 @@ public class PdfReader implements PdfViewerPreferences {
             ensureXrefSize(end * 2);
             for (int k = start; k < end; ++k) {
                 tokens.nextValidToken();
-                pos = tokens.intValue();
+                pos = tokens.longValue();
                 tokens.nextValidToken();
                 gen = tokens.intValue();
                 tokens.nextValidToken();
                 int p = k * 2;
-                if (tokens.getStringValue().equals("n")) {
+                if (tokens.tokenEquals("n")) {
                     if (xref[p] == 0 && xref[p + 1] == 0) {
 //                        if (pos == 0)
 //                            tokens.throwError("File position 0 cross-reference entry in this xref subsection");
                         xref[p] = pos;
                     }
                 }
-                else if (tokens.getStringValue().equals("f")) {
+                else if (tokens.tokenEquals("f")) {
                     if (xref[p] == 0 && xref[p + 1] == 0)
                         xref[p] = -1;
                 }
@@ -1337,7 +2170,7 @@ public class PdfReader implements PdfViewerPreferences {
         ensureXrefSize(xrefSize.intValue() * 2);
         PdfObject xrs = trailer.get(PdfName.XREFSTM);
         if (xrs != null && xrs.isNumber()) {
-            int loc = ((PdfNumber)xrs).intValue();
+            long loc = ((PdfNumber)xrs).longValue();
             try {
                 readXRefStream(loc);
                 newXrefType = true;
@@ -1351,7 +2184,7 @@ public class PdfReader implements PdfViewerPreferences {
         return trailer;
     }
 
-    protected boolean readXRefStream(int ptr) throws IOException {
+    protected boolean readXRefStream(long ptr) throws IOException {
         tokens.seek(ptr);
         int thisStream = 0;
         if (!tokens.nextToken())
@@ -1361,7 +2194,7 @@ public class PdfReader implements PdfViewerPreferences {
         thisStream = tokens.intValue();
         if (!tokens.nextToken() || tokens.getTokenType() != PRTokeniser.TK_NUMBER)
             return false;
-        if (!tokens.nextToken() || !tokens.getStringValue().equals("obj"))
+        if (!tokens.nextToken() || !tokens.tokenEquals("obj"))
             return false;
         PdfObject object = readPRObject();
         PRStream stm = null;
@@ -1387,10 +2220,10 @@ public class PdfReader implements PdfViewerPreferences {
         else
             index = (PdfArray)obj;
         PdfArray w = (PdfArray)stm.get(PdfName.W);
-        int prev = -1;
+        long prev = -1;
         obj = stm.get(PdfName.PREV);
         if (obj != null)
-            prev = ((PdfNumber)obj).intValue();
+            prev = ((PdfNumber)obj).longValue();
         // Each xref pair is a position
         // type 0 -> -1, 0
         // type 1 -> offset, 0
@@ -1399,7 +2232,7 @@ public class PdfReader implements PdfViewerPreferences {
         if (objStmMark == null && !partial)
             objStmMark = new HashMap();
         if (objStmToOffset == null && partial)
-            objStmToOffset = new IntHashtable();
+            objStmToOffset = new LongHashtable();
         byte b[] = getStreamBytes(stm, tokens.getFile());
         int bptr = 0;
         int wc[] = new int[3];
@@ -1416,7 +2249,7 @@ public class PdfReader implements PdfViewerPreferences {
                     for (int k = 0; k < wc[0]; ++k)
                         type = (type << 8) + (b[bptr++] & 0xff);
                 }
-                int field2 = 0;
+                long field2 = 0; // an offset for type 1
                 for (int k = 0; k < wc[1]; ++k)
                     field2 = (field2 << 8) + (b[bptr++] & 0xff);
                 int field3 = 0;
@@ -1435,10 +2268,10 @@ public class PdfReader implements PdfViewerPreferences {
                             xref[base] = field3;
                             xref[base + 1] = field2;
                             if (partial) {
-                                objStmToOffset.put(field2, 0);
+                                objStmToOffset.put((int)field2, 0);
                             }
                             else {
-                                Integer on = new Integer(field2);
+                                Integer on = Integer.valueOf((int)field2);
                                 IntHashtable seq = (IntHashtable)objStmMark.get(on);
                                 if (seq == null) {
                                     seq = new IntHashtable();
@@ -1466,207 +2299,491 @@ public class PdfReader implements PdfViewerPreferences {
     protected void rebuildXref() throws IOException {
         hybridXref = false;
         newXrefType = false;
-        tokens.seek(0);
-        int xr[][] = new int[1024][];
+        int mark = strings.size();
+        int chunks = (int)Math.min(getThreads(), tokens.length() / MIN_BYTES_PER_THREAD);
+        if (chunks > 1) {
+            if (rebuildXrefParallel(chunks))
+                return;
+            while (strings.size() > mark)
+                strings.remove(strings.size() - 1);
+        }
+        rebuildXrefSerial();
+    }
+
+    /** The objects found while rebuilding the xref. */
+    private static class RebuiltXref {
+        long xrPos[] = new long[1024]; // offset of the latest generation of each object
+        int xrGen[] = new int[1024]; // its generation, or -1 if not found
         int top = 0;
+
+        RebuiltXref() {
+            Arrays.fill(xrGen, -1);
+        }
+
+        void add(int num, int gen, long pos) {
+            if (num >= xrPos.length) {
+                int newLength = num * 2;
+                long xrPos2[] = new long[newLength];
+                int xrGen2[] = new int[newLength];
+                System.arraycopy(xrPos, 0, xrPos2, 0, top);
+                System.arraycopy(xrGen, 0, xrGen2, 0, top);
+                Arrays.fill(xrGen2, top, newLength, -1);
+                xrPos = xrPos2;
+                xrGen = xrGen2;
+            }
+            if (num >= top)
+                top = num + 1;
+            if (xrGen[num] < 0 || gen >= xrGen[num]) {
+                xrPos[num] = pos;
+                xrGen[num] = gen;
+            }
+        }
+
+        long[] toXref() {
+            long xref[] = new long[top * 2];
+            for (int k = 0; k < top; ++k) {
+                if (xrGen[k] >= 0)
+                    xref[k * 2] = xrPos[k];
+            }
+            return xref;
+        }
+    }
+
+    /**
+     * Gets the object that a line starts, as <CODE>PRTokeniser.checkObjectStart()</CODE>
+     * does, without tokenising lines that can't hold "obj".
+     */
+    static int[] checkObjectStart(byte line[]) {
+        for (int k = 2; k < line.length; ++k) {
+            if (line[k] == 'j' && line[k - 1] == 'b' && line[k - 2] == 'o')
+                return PRTokeniser.checkObjectStart(line);
+        }
+        return null;
+    }
+
+    /**
+     * Reads the trailer found at <CODE>pos</CODE> while rebuilding the xref,
+     * and keeps it if it has a /Root.
+     * @return where to go on looking for objects
+     */
+    private long readRebuiltTrailer(long pos) throws IOException {
+        tokens.seek(pos);
+        tokens.nextToken();
+        pos = tokens.getFilePointer();
+        try {
+            PdfDictionary dic = (PdfDictionary)readPRObject();
+            if (dic.get(PdfName.ROOT) != null) {
+                trailer = dic;
+                return tokens.getFilePointer();
+            }
+        }
+        catch (Exception e) {
+            // empty on purpose
+        }
+        return pos;
+    }
+
+    private void rebuildXrefSerial() throws IOException {
+        RebuiltXref found = new RebuiltXref();
         trailer = null;
-        byte line[] = new byte[64];
-        for (;;) {
-            int pos = tokens.getFilePointer();
-            if (!tokens.readLineSegment(line))
-                break;
-            if (line[0] == 't') {
-                if (!PdfEncodings.convertToString(line, null).startsWith("trailer"))
-                    continue;
-                tokens.seek(pos);
-                tokens.nextToken();
-                pos = tokens.getFilePointer();
-                try {
-                    PdfDictionary dic = (PdfDictionary)readPRObject();
-                    if (dic.get(PdfName.ROOT) != null)
-                        trailer = dic;
-                    else
-                        tokens.seek(pos);
+        RandomAccessFileOrArray file = tokens.getSafeFile();
+        try {
+            LineSegmentScanner scanner = new LineSegmentScanner(file, 64);
+            byte line[] = scanner.line;
+            while (scanner.next()) {
+                if (line[0] == 't') {
+                    if (scanner.startsWith(trailerKey))
+                        scanner.seek(readRebuiltTrailer(scanner.pos));
                 }
-                catch (Exception e) {
-                    tokens.seek(pos);
+                else if (line[0] >= '0' && line[0] <= '9') {
+                    int obj[] = checkObjectStart(line);
+                    if (obj != null)
+                        found.add(obj[0], obj[1], scanner.pos);
                 }
             }
-            else if (line[0] >= '0' && line[0] <= '9') {
-                int obj[] = PRTokeniser.checkObjectStart(line);
-                if (obj == null)
-                    continue;
-                int num = obj[0];
-                int gen = obj[1];
-                if (num >= xr.length) {
-                    int newLength = num * 2;
-                    int xr2[][] = new int[newLength][];
-                    System.arraycopy(xr, 0, xr2, 0, top);
-                    xr = xr2;
+        }
+        finally {
+            file.close();
+        }
+        if (trailer == null)
+            throw new InvalidPdfException("trailer not found.");
+        xref = found.toXref();
+    }
+
+    /** An object or trailer that a scan of part of the file found. */
+    private static class ScannedLine {
+        static final int OBJECT = 0;
+        static final int TRAILER = 1;
+        /** A line whose reading depends on the line before it. */
+        static final int UNSURE = 2;
+        int kind;
+        /** The start of the segment, or -1 if it starts in the part before. */
+        long pos;
+        long lineStart;
+        int num;
+        int gen;
+    }
+
+    /** What a scan of part of the file found. */
+    private static class ScannedPart {
+        ArrayList lines = new ArrayList();
+        /** Where the first segment of the next part starts, or -1 if in this part or before. */
+        long end = -1;
+    }
+
+    /**
+     * Gets the kind of a line that may hold an object or a trailer, like
+     * rebuildXrefSerial() sees it, or -1 for other lines.
+     * @param scanner the scanner, at the line
+     * @param found where to put the number and generation of an object
+     */
+    private static int scannedKind(LineSegmentScanner scanner, ScannedLine found) {
+        byte line[] = scanner.line;
+        if (line[0] == 't')
+            return scanner.startsWith(trailerKey) ? ScannedLine.TRAILER : -1;
+        if (line[0] < '0' || line[0] > '9')
+            return -1;
+        if (scanner.count == line.length - 1 && dependsOnLastByte(line))
+            return ScannedLine.UNSURE;
+        int obj[] = checkObjectStart(line);
+        if (obj == null)
+            return -1;
+        found.num = obj[0];
+        found.gen = obj[1];
+        return ScannedLine.OBJECT;
+    }
+
+    /**
+     * Checks whether a line one byte short of the buffer starts an object or
+     * not depending on the last byte of the buffer, which is left over from an
+     * earlier line. That byte can only make or break an "obj" before it, as
+     * a 'j', another regular character, or a delimiter or whitespace.
+     */
+    private static boolean dependsOnLastByte(byte line[]) {
+        int n = line.length - 1;
+        byte last = line[n];
+        byte tries[] = {(byte)' ', (byte)'j', (byte)'x'};
+        try {
+            line[n] = tries[0];
+            int obj[] = PRTokeniser.checkObjectStart(line);
+            for (int k = 1; k < tries.length; ++k) {
+                line[n] = tries[k];
+                if (!Arrays.equals(obj, PRTokeniser.checkObjectStart(line)))
+                    return true;
+            }
+            return false;
+        }
+        finally {
+            line[n] = last;
+        }
+    }
+
+    /**
+     * Does the work of rebuildXrefSerial() on several threads. The file is cut
+     * in parts at line ends, which are the same in a scan from the start of the
+     * file and in a scan from the cut. Each part is scanned on its own for
+     * objects and trailers, then the trailers are read in turn, going on line
+     * by line after each, as the scan from the start would. Gives up if a line
+     * can't be read without the lines before it.
+     * @return <CODE>false</CODE> if it gave up
+     */
+    private boolean rebuildXrefParallel(int chunks) throws IOException {
+        final long starts[] = new long[chunks + 1];
+        RandomAccessFileOrArray file = tokens.getSafeFile();
+        try {
+            LineSegmentScanner scanner = new LineSegmentScanner(file, 64);
+            long length = tokens.length();
+            starts[chunks] = length;
+            for (int c = 1; c < chunks; ++c)
+                starts[c] = Math.max(starts[c - 1], scanner.nextLineStart(length * c / chunks));
+        }
+        finally {
+            file.close();
+        }
+        final ScannedPart parts[] = new ScannedPart[chunks];
+        final RandomAccessFileOrArray files[] = new RandomAccessFileOrArray[chunks];
+        ExecutorService pool = Executors.newFixedThreadPool(chunks);
+        try {
+            List tasks = new ArrayList();
+            for (int c = 0; c < chunks; ++c) {
+                final int part = c;
+                files[c] = tokens.getSafeFile();
+                tasks.add(new Callable() {
+                    public Object call() throws IOException {
+                        ScannedPart scanned = new ScannedPart();
+                        LineSegmentScanner scanner = new LineSegmentScanner(files[part], 64);
+                        scanner.seek(starts[part]);
+                        boolean first = true;
+                        while (scanner.next()) {
+                            long pos = first && part > 0 ? -1 : scanner.pos;
+                            first = false;
+                            if (scanner.lineStart >= starts[part + 1]) {
+                                scanned.end = pos;
+                                break;
+                            }
+                            ScannedLine line = new ScannedLine();
+                            line.kind = scannedKind(scanner, line);
+                            if (line.kind < 0)
+                                continue;
+                            line.pos = pos;
+                            line.lineStart = scanner.lineStart;
+                            scanned.lines.add(line);
+                        }
+                        parts[part] = scanned;
+                        return null;
+                    }
+                });
+            }
+            invokeInOrder(pool, tasks);
+        }
+        finally {
+            pool.shutdown();
+            for (int c = 0; c < chunks; ++c) {
+                if (files[c] != null) {
+                    try {
+                        files[c].close();
+                    }
+                    catch (IOException e) {
+                        // empty on purpose
+                    }
                 }
-                if (num >= top)
-                    top = num + 1;
-                if (xr[num] == null || gen >= xr[num][1]) {
-                    obj[0] = pos;
-                    xr[num] = obj;
+            }
+        }
+
+        RebuiltXref found = new RebuiltXref();
+        trailer = null;
+        file = tokens.getSafeFile();
+        try {
+            LineSegmentScanner scanner = new LineSegmentScanner(file, 64);
+            ScannedLine resumed = new ScannedLine();
+            long partStart = 0; // the start of the first segment of the part
+            long readTo = -1; // the lines up to here were read after a trailer
+            for (int c = 0; c < chunks; ++c) {
+                ArrayList lines = parts[c].lines;
+                for (int k = 0; k < lines.size(); ++k) {
+                    ScannedLine line = (ScannedLine)lines.get(k);
+                    if (line.lineStart <= readTo)
+                        continue;
+                    long pos = line.pos < 0 ? partStart : line.pos;
+                    if (line.kind == ScannedLine.UNSURE)
+                        return false;
+                    if (line.kind == ScannedLine.OBJECT) {
+                        found.add(line.num, line.gen, pos);
+                        continue;
+                    }
+                    // go on from the end of the trailer until the next line,
+                    // where the parts were scanned from
+                    long next = readRebuiltTrailer(pos);
+                    while (true) {
+                        readTo = Long.MAX_VALUE;
+                        scanner.seek(next);
+                        if (!scanner.next())
+                            break;
+                        readTo = scanner.lineStart;
+                        int kind = scannedKind(scanner, resumed);
+                        if (kind == ScannedLine.UNSURE)
+                            return false;
+                        if (kind == ScannedLine.OBJECT)
+                            found.add(resumed.num, resumed.gen, scanner.pos);
+                        if (kind != ScannedLine.TRAILER)
+                            break;
+                        next = readRebuiltTrailer(scanner.pos);
+                    }
                 }
+                if (parts[c].end >= 0)
+                    partStart = parts[c].end;
             }
         }
+        finally {
+            file.close();
+        }
         if (trailer == null)
             throw new InvalidPdfException("trailer not found.");
-        xref = new int[top * 2];
-        for (int k = 0; k < top; ++k) {
-            int obj[] = xr[k];
-            if (obj != null)
-                xref[k * 2] = obj[0];
-        }
+        xref = found.toXref();
+        return true;
     }
 
     protected PdfDictionary readDictionary() throws IOException {
-        PdfDictionary dic = new PdfDictionary();
-        while (true) {
-            tokens.nextValidToken();
-            if (tokens.getTokenType() == PRTokeniser.TK_END_DIC)
-                break;
-            if (tokens.getTokenType() != PRTokeniser.TK_NAME)
-                tokens.throwError("Dictionary key is not a name.");
-            PdfName name = new PdfName(tokens.getStringValue(), false);
-            PdfObject obj = readPRObject();
-            int type = obj.type();
-            if (-type == PRTokeniser.TK_END_DIC)
-                tokens.throwError("Unexpected '>>'");
-            if (-type == PRTokeniser.TK_END_ARRAY)
-                tokens.throwError("Unexpected ']'");
-            dic.put(name, obj);
-        }
-        return dic;
+        return syncParser().readDictionary();
     }
 
     protected PdfArray readArray() throws IOException {
-        PdfArray array = new PdfArray();
-        while (true) {
-            PdfObject obj = readPRObject();
-            int type = obj.type();
-            if (-type == PRTokeniser.TK_END_ARRAY)
-                break;
-            if (-type == PRTokeniser.TK_END_DIC)
-                tokens.throwError("Unexpected '>>'");
-            array.add(obj);
-        }
-        return array;
+        return syncParser().readArray();
     }
 
-    // Track how deeply nested the current object is, so
-    // we know when to return an individual null or boolean, or
-    // reuse one of the static ones.
-    private int readDepth = 0;
-
     protected PdfObject readPRObject() throws IOException {
-        tokens.nextValidToken();
-        int type = tokens.getTokenType();
-        switch (type) {
-            case PRTokeniser.TK_START_DIC: {
-                ++readDepth;
-                PdfDictionary dic = readDictionary();
-                --readDepth;
-                int pos = tokens.getFilePointer();
-                // be careful in the trailer. May not be a "next" token.
-                if (tokens.nextToken() && tokens.getStringValue().equals("stream")) {
-					// ssteward - 6/21/10
-					// stream should be followed by a LF or a CRLF, but not just a CR, per the PDF spec.
-					// however, I have encountered a generated PDF (Microsoft Reporting Services 10.0.0.0)
-					// that added a space after "stream" but before the CR; so gobble up unexpected chars
-					// until we find a LF
-					// ssteward - 10/30/12
-					// I have been given a PDF with a stream with a CR but no LF -- I should have foreseen this case;
-                    int ch = tokens.read();
-					/* original code
-                    if (ch != '\n')
-                        ch = tokens.read();
-                    if (ch != '\n')
-                        tokens.backOnePosition(ch);
-					*/
-					// ssteward -- 6/21/10 fix
-					//while (ch != '\n')
-					//	ch = tokens.read();
-					// ssteward -- 10/31/12 fix
-					// eat whitespace until we hit a LF, which is supposed to mark the beginning of the stream;
-					// this logic should work even if there is no w/s padding around the stream data
-					while( PRTokeniser.isWhitespace( ch ) ) {
-						if( ch== '\n' )
-							break;
-						ch= tokens.read();
-					}
-					// PRStream(), below, seems to assume that our position is one before the data; testing for
-					// whitespace catches case where there is a CR no LF used to delim stream data
-					if( !PRTokeniser.isWhitespace( ch ) )
-						tokens.backOnePosition( ch );
+        return syncParser().readPRObject();
+    }
 
-                    PRStream stream = new PRStream(this, tokens.getFilePointer());
-                    stream.putAll(dic);
-                    // crypto handling
-                    stream.setObjNum(objNum, objGen);
+    private ObjectParser syncParser() {
+        parser.tokens = tokens;
+        parser.strings = strings;
+        parser.objNum = objNum;
+        parser.objGen = objGen;
+        return parser;
+    }
 
-                    return stream;
-                }
-                else {
-                    tokens.seek(pos);
-                    return dic;
-                }
+    /**
+     * Parses objects off a tokeniser of its own, so that several threads can
+     * read the same document at once. The reader parses with <CODE>parser</CODE>,
+     * which follows the <CODE>tokens</CODE>, <CODE>strings</CODE>,
+     * <CODE>objNum</CODE> and <CODE>objGen</CODE> fields.
+     */
+    class ObjectParser {
+        PRTokeniser tokens;
+        /** the strings read so far, to be decrypted; may be <CODE>null</CODE> */
+        ArrayList strings;
+        int objNum;
+        int objGen;
+        // Track how deeply nested the current object is, so
+        // we know when to return an individual null or boolean, or
+        // reuse one of the static ones.
+        int readDepth = 0;
+
+        PdfDictionary readDictionary() throws IOException {
+            PdfDictionary dic = new PdfDictionary();
+            while (true) {
+                tokens.nextValidToken();
+                if (tokens.getTokenType() == PRTokeniser.TK_END_DIC)
+                    break;
+                if (tokens.getTokenType() != PRTokeniser.TK_NAME)
+                    tokens.throwError("Dictionary key is not a name.");
+                PdfName name = PdfName.intern(tokens.getTokenBuffer(), tokens.getTokenLength());
+                PdfObject obj = readPRObject();
+                int type = obj.type();
+                if (-type == PRTokeniser.TK_END_DIC)
+                    tokens.throwError("Unexpected '>>'");
+                if (-type == PRTokeniser.TK_END_ARRAY)
+                    tokens.throwError("Unexpected ']'");
+                dic.put(name, obj);
             }
-            case PRTokeniser.TK_START_ARRAY: {
-                ++readDepth;
-                PdfArray arr = readArray();
-                --readDepth;
-                return arr;
+            return dic;
+        }
+
+        PdfArray readArray() throws IOException {
+            PdfArray array = new PdfArray();
+            while (true) {
+                PdfObject obj = readPRObject();
+                int type = obj.type();
+                if (-type == PRTokeniser.TK_END_ARRAY)
+                    break;
+                if (-type == PRTokeniser.TK_END_DIC)
+                    tokens.throwError("Unexpected '>>'");
+                array.add(obj);
             }
-            case PRTokeniser.TK_NUMBER:
-                return new PdfNumber(tokens.getStringValue());
-            case PRTokeniser.TK_STRING:
-				// ssteward: change from String to byte array input to PdfString()
-                //PdfString str = new PdfString(tokens.getStringValue(), null).setHexWriting(tokens.isHexString());
-                PdfString str = new PdfString( PdfEncodings.convertToBytes( tokens.getStringValue(), null) ).setHexWriting(tokens.isHexString());
-                str.setObjNum(objNum, objGen);
-                if (strings != null)
-                    strings.add(str);
-
-                return str;
-            case PRTokeniser.TK_NAME: {
-                PdfName cachedName = (PdfName)PdfName.staticNames.get( tokens.getStringValue() );
-                if (readDepth > 0 && cachedName != null) {
-                    return cachedName;
-                } else {
-                    // an indirect name (how odd...), or a non-standard one
-                    return new PdfName(tokens.getStringValue(), false);
-                }
-            }
-            case PRTokeniser.TK_REF:
-                int num = tokens.getReference();
-                PRIndirectReference ref = new PRIndirectReference(this, num, tokens.getGeneration());
-                return ref;
-            case PRTokeniser.TK_ENDOFFILE:
-                throw new IOException("unexpected.end.of.file");
-            default:
-                String sv = tokens.getStringValue();
-                if ("null".equals(sv)) {
-                    if (readDepth == 0) {
-                        return new PdfNull();
-                    } //else
-                    return PdfNull.PDFNULL;
+            return array;
+        }
+
+        PdfObject readPRObject() throws IOException {
+            tokens.nextValidToken();
+            int type = tokens.getTokenType();
+            switch (type) {
+                case PRTokeniser.TK_START_DIC: {
+                    ++readDepth;
+                    PdfDictionary dic = readDictionary();
+                    --readDepth;
+                    long pos = tokens.getFilePointer();
+                    // be careful in the trailer. May not be a "next" token.
+                    if (tokens.nextToken() && tokens.tokenEquals("stream")) {
+    					// ssteward - 6/21/10
+    					// stream should be followed by a LF or a CRLF, but not just a CR, per the PDF spec.
+    					// however, I have encountered a generated PDF (Microsoft Reporting Services 10.0.0.0)
+    					// that added a space after "stream" but before the CR; so gobble up unexpected chars
+    					// until we find a LF
+    					// ssteward - 10/30/12
+    					// I have been given a PDF with a stream with a CR but no LF -- I should have foreseen this case;
+                        int ch = tokens.read();
+    					/* original code
+                        if (ch != '\n')
+                            ch = tokens.read();
+                        if (ch != '\n')
+                            tokens.backOnePosition(ch);
+    					*/
+    					// ssteward -- 6/21/10 fix
+    					//while (ch != '\n')
+    					//	ch = tokens.read();
+    					// ssteward -- 10/31/12 fix
+    					// eat whitespace until we hit a LF, which is supposed to mark the beginning of the stream;
+    					// this logic should work even if there is no w/s padding around the stream data
+    					while( PRTokeniser.isWhitespace( ch ) ) {
+    						if( ch== '\n' )
+    							break;
+    						ch= tokens.read();
+    					}
+    					// PRStream(), below, seems to assume that our position is one before the data; testing for
+    					// whitespace catches case where there is a CR no LF used to delim stream data
+    					if( !PRTokeniser.isWhitespace( ch ) )
+    						tokens.backOnePosition( ch );
+
+                        PRStream stream = new PRStream(PdfReader.this, tokens.getFilePointer());
+                        stream.putAll(dic);
+                        // crypto handling
+                        stream.setObjNum(objNum, objGen);
+
+                        return stream;
+                    }
+                    else {
+                        tokens.seek(pos);
+                        return dic;
+                    }
                 }
-                else if ("true".equals(sv)) {
-                    if (readDepth == 0) {
-                        return new PdfBoolean( true );
-                    } //else
-                    return PdfBoolean.PDFTRUE;
+                case PRTokeniser.TK_START_ARRAY: {
+                    ++readDepth;
+                    PdfArray arr = readArray();
+                    --readDepth;
+                    return arr;
                 }
-                else if ("false".equals(sv)) {
-                    if (readDepth == 0) {
-                        return new PdfBoolean( false );
-                    } //else
-                    return PdfBoolean.PDFFALSE;
+                case PRTokeniser.TK_NUMBER:
+                    try {
+                        return new PdfNumber(tokens.getTokenBytes(), tokens.doubleValue());
+                    }
+                    catch (NumberFormatException e) {
+                        return new PdfNumber(tokens.getStringValue()); // reports the bad number
+                    }
+                case PRTokeniser.TK_STRING:
+    				// ssteward: change from String to byte array input to PdfString()
+                    //PdfString str = new PdfString(tokens.getStringValue(), null).setHexWriting(tokens.isHexString());
+                    PdfString str = new PdfString( tokens.getTokenBytes() ).setHexWriting(tokens.isHexString());
+                    str.setObjNum(objNum, objGen);
+                    if (strings != null)
+                        strings.add(str);
+
+                    return str;
+                case PRTokeniser.TK_NAME: {
+                    if (readDepth > 0) {
+                        return PdfName.intern(tokens.getTokenBuffer(), tokens.getTokenLength());
+                    } else {
+                        // an indirect name (how odd...), which gets its own indRef
+                        return new PdfName(tokens.getStringValue(), false);
+                    }
                 }
-                return new PdfLiteral(-type, tokens.getStringValue());
+                case PRTokeniser.TK_REF:
+                    int num = tokens.getReference();
+                    PRIndirectReference ref = new PRIndirectReference(PdfReader.this, num, tokens.getGeneration());
+                    return ref;
+                case PRTokeniser.TK_ENDOFFILE:
+                    throw new IOException("unexpected.end.of.file");
+                default:
+                    if (tokens.tokenEquals("null")) {
+                        if (readDepth == 0) {
+                            return new PdfNull();
+                        } //else
+                        return PdfNull.PDFNULL;
+                    }
+                    else if (tokens.tokenEquals("true")) {
+                        if (readDepth == 0) {
+                            return new PdfBoolean( true );
+                        } //else
+                        return PdfBoolean.PDFTRUE;
+                    }
+                    else if (tokens.tokenEquals("false")) {
+                        if (readDepth == 0) {
+                            return new PdfBoolean( false );
+                        } //else
+                        return PdfBoolean.PDFFALSE;
+                    }
+                    return new PdfLiteral(-type, tokens.getStringValue());
+            }
         }
     }
 
@@ -1687,15 +2804,53 @@ public class PdfReader implements PdfViewerPreferences {
      * @return a byte array
      */
     public static byte[] decodePredictor(byte in[], PdfObject dicPar) {
-        if (dicPar == null || !dicPar.isDictionary())
+        int params[] = getPredictorParams(dicPar);
+        if (params == null)
             return in;
+        int bytesPerPixel = params[0];
+        int bytesPerRow = params[1];
+        if (bytesPerPixel < 0 || bytesPerPixel > bytesPerRow) {
+            // a pixel would reach past its row; decode the rows on their own
+            try {
+                return StreamDecoder.readAll(new StreamDecoder.PredictorInputStream(
+                        new ByteArrayInputStream(in), bytesPerPixel, bytesPerRow), in.length);
+            }
+            catch (IOException e) {
+                throw new ExceptionConverter(e);
+            }
+        }
+
+        // Decode the (sub)image row-by-row, in place after copying it once;
+        // each row follows its filter type byte, and a partial row is dropped
+        int rows = in.length / (bytesPerRow + 1);
+        byte out[] = new byte[rows * bytesPerRow];
+        for (int k = 0; k < rows; ++k) {
+            int filter = in[k * (bytesPerRow + 1)] & 0xff;
+            int curr = k * bytesPerRow;
+            System.arraycopy(in, k * (bytesPerRow + 1) + 1, out, curr, bytesPerRow);
+            if (k == 0)
+                decodePredictorRow(filter, out, curr, new byte[bytesPerRow], 0, bytesPerRow, bytesPerPixel);
+            else
+                decodePredictorRow(filter, out, curr, out, curr - bytesPerRow, bytesPerRow, bytesPerPixel);
+        }
+        return out;
+    }
+
+    /** Gets the bytes per pixel and the bytes per row of a PNG predictor.
+     * @param dicPar the decode parameters
+     * @return the bytes per pixel and per row, or <CODE>null</CODE> if there is
+     * no PNG predictor
+     */
+    static int[] getPredictorParams(PdfObject dicPar) {
+        if (dicPar == null || !dicPar.isDictionary())
+            return null;
         PdfDictionary dic = (PdfDictionary)dicPar;
         PdfObject obj = getPdfObject(dic.get(PdfName.PREDICTOR));
         if (obj == null || !obj.isNumber())
-            return in;
+            return null;
         int predictor = ((PdfNumber)obj).intValue();
         if (predictor < 10)
-            return in;
+            return null;
         int width = 1;
         obj = getPdfObject(dic.get(PdfName.COLUMNS));
         if (obj != null && obj.isNumber())
@@ -1708,90 +2863,80 @@ public class PdfReader implements PdfViewerPreferences {
         obj = getPdfObject(dic.get(PdfName.BITSPERCOMPONENT));
         if (obj != null && obj.isNumber())
             bpc = ((PdfNumber)obj).intValue();
-        DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(in));
-        ByteArrayOutputStream fout = new ByteArrayOutputStream(in.length);
-        int bytesPerPixel = colors * bpc / 8;
-        int bytesPerRow = (colors*width*bpc + 7)/8;
-        byte[] curr = new byte[bytesPerRow];
-        byte[] prior = new byte[bytesPerRow];
-
-        // Decode the (sub)image row-by-row
-        while (true) {
-            // Read the filter type byte and a row of data
-            int filter = 0;
-            try {
-                filter = dataStream.read();
-                if (filter < 0) {
-                    return fout.toByteArray();
-                }
-                dataStream.readFully(curr, 0, bytesPerRow);
-            } catch (Exception e) {
-                return fout.toByteArray();
-            }
+        return new int[]{colors * bpc / 8, (colors*width*bpc + 7)/8};
+    }
 
-            switch (filter) {
-                case 0: //PNG_FILTER_NONE
-                    break;
-                case 1: //PNG_FILTER_SUB
-                    for (int i = bytesPerPixel; i < bytesPerRow; i++) {
-                        curr[i] += curr[i - bytesPerPixel];
-                    }
-                    break;
-                case 2: //PNG_FILTER_UP
-                    for (int i = 0; i < bytesPerRow; i++) {
-                        curr[i] += prior[i];
-                    }
-                    break;
-                case 3: //PNG_FILTER_AVERAGE
-                    for (int i = 0; i < bytesPerPixel; i++) {
-                        curr[i] += prior[i] / 2;
-                    }
-                    for (int i = bytesPerPixel; i < bytesPerRow; i++) {
-                        curr[i] += ((curr[i - bytesPerPixel] & 0xff) + (prior[i] & 0xff))/2;
-                    }
-                    break;
-                case 4: //PNG_FILTER_PAETH
-                    for (int i = 0; i < bytesPerPixel; i++) {
-                        curr[i] += prior[i];
-                    }
+    /** Undoes the PNG filter of a row.
+     * @param filter the filter type byte of the row
+     * @param curr the row, decoded in place
+     * @param prior the row before, decoded
+     * @param bytesPerPixel the bytes per pixel
+     */
+    static void decodePredictorRow(int filter, byte curr[], byte prior[], int bytesPerPixel) {
+        decodePredictorRow(filter, curr, 0, prior, 0, curr.length, bytesPerPixel);
+    }
+
+    /** Undoes the PNG filter of a row in an array.
+     * @param filter the filter type byte of the row
+     * @param curr the array of the row, decoded in place
+     * @param c where the row starts in <CODE>curr</CODE>
+     * @param prior the array of the row before, decoded
+     * @param p where the row before starts in <CODE>prior</CODE>
+     * @param bytesPerRow the bytes per row
+     * @param bytesPerPixel the bytes per pixel, from 0 to <CODE>bytesPerRow</CODE>
+     */
+    static void decodePredictorRow(int filter, byte curr[], int c, byte prior[], int p, int bytesPerRow, int bytesPerPixel) {
+        switch (filter) {
+            case 0: //PNG_FILTER_NONE
+                break;
+            case 1: //PNG_FILTER_SUB
+                for (int i = bytesPerPixel; i < bytesPerRow; i++) {
+                    curr[c + i] += curr[c + i - bytesPerPixel];
+                }
+                break;
+            case 2: //PNG_FILTER_UP
+                for (int i = 0; i < bytesPerRow; i++) {
+                    curr[c + i] += prior[p + i];
+                }
+                break;
+            case 3: //PNG_FILTER_AVERAGE
+                for (int i = 0; i < bytesPerPixel; i++) {
+                    curr[c + i] += prior[p + i] / 2;
+                }
+                for (int i = bytesPerPixel; i < bytesPerRow; i++) {
+                    curr[c + i] += ((curr[c + i - bytesPerPixel] & 0xff) + (prior[p + i] & 0xff))/2;
+                }
+                break;
+            case 4: //PNG_FILTER_PAETH
+                for (int i = 0; i < bytesPerPixel; i++) {
+                    curr[c + i] += prior[p + i];
+                }
 
-                    for (int i = bytesPerPixel; i < bytesPerRow; i++) {
-                        int a = curr[i - bytesPerPixel] & 0xff;
-                        int b = prior[i] & 0xff;
-                        int c = prior[i - bytesPerPixel] & 0xff;
+                for (int i = bytesPerPixel; i < bytesPerRow; i++) {
+                    int a = curr[c + i - bytesPerPixel] & 0xff;
+                    int b = prior[p + i] & 0xff;
+                    int d = prior[p + i - bytesPerPixel] & 0xff;
 
-                        int p = a + b - c;
-                        int pa = Math.abs(p - a);
-                        int pb = Math.abs(p - b);
-                        int pc = Math.abs(p - c);
+                    int q = a + b - d;
+                    int pa = Math.abs(q - a);
+                    int pb = Math.abs(q - b);
+                    int pc = Math.abs(q - d);
 
-                        int ret;
+                    int ret;
 
-                        if ((pa <= pb) && (pa <= pc)) {
-                            ret = a;
-                        } else if (pb <= pc) {
-                            ret = b;
-                        } else {
-                            ret = c;
-                        }
-                        curr[i] += (byte)(ret);
+                    if ((pa <= pb) && (pa <= pc)) {
+                        ret = a;
+                    } else if (pb <= pc) {
+                        ret = b;
+                    } else {
+                        ret = d;
                     }
-                    break;
-                default:
-                    // Error -- unknown filter type
-                    throw new RuntimeException("PNG filter unknown.");
-            }
-            try {
-                fout.write(curr);
-            }
-            catch (IOException ioe) {
-                // Never happens
-            }
-
-            // Swap curr and prior
-            byte[] tmp = prior;
-            prior = curr;
-            curr = tmp;
+                    curr[c + i] += (byte)(ret);
+                }
+                break;
+            default:
+                // Error -- unknown filter type
+                throw new RuntimeException("PNG filter unknown.");
         }
     }
 
@@ -1802,23 +2947,11 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the decoded data
      */
     public static byte[] FlateDecode(byte in[], boolean strict) {
-        ByteArrayInputStream stream = new ByteArrayInputStream(in);
-        InflaterInputStream zip = new InflaterInputStream(stream);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        byte b[] = new byte[strict ? 4092 : 1];
         try {
-            int n;
-            while ((n = zip.read(b)) >= 0) {
-                out.write(b, 0, n);
-            }
-            zip.close();
-            out.close();
-            return out.toByteArray();
+            return StreamDecoder.inflate(in, strict);
         }
-        catch (Exception e) {
-            if (strict)
-                return null;
-            return out.toByteArray();
+        catch (IOException e) {
+            return null;
         }
     }
 
@@ -1827,27 +2960,7 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the decoded data
      */
     public static byte[] ASCIIHexDecode(byte in[]) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        boolean first = true;
-        int n1 = 0;
-        for (int k = 0; k < in.length; ++k) {
-            int ch = in[k] & 0xff;
-            if (ch == '>')
-                break;
-            if (PRTokeniser.isWhitespace(ch))
-                continue;
-            int n = PRTokeniser.getHex(ch);
-            if (n == -1)
-                throw new RuntimeException("Illegal character in ASCIIHexDecode.");
-            if (first)
-                n1 = n;
-            else
-                out.write((byte)((n1 << 4) + n));
-            first = !first;
-        }
-        if (!first)
-            out.write((byte)(n1 << 4));
-        return out.toByteArray();
+        return new StreamDecoder.ASCIIHexInputStream(in).decodeAll();
     }
 
     /** Decodes a stream that has the ASCII85Decode filter.
@@ -1855,57 +2968,8 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the decoded data
      */
     public static byte[] ASCII85Decode(byte in[]) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        int state = 0;
-        int chn[] = new int[5];
-        for (int k = 0; k < in.length; ++k) {
-            int ch = in[k] & 0xff;
-            if (ch == '~')
-                break;
-            if (PRTokeniser.isWhitespace(ch))
-                continue;
-            if (ch == 'z' && state == 0) {
-                out.write(0);
-                out.write(0);
-                out.write(0);
-                out.write(0);
-                continue;
-            }
-            if (ch < '!' || ch > 'u')
-                throw new RuntimeException("Illegal character in ASCII85Decode.");
-            chn[state] = ch - '!';
-            ++state;
-            if (state == 5) {
-                state = 0;
-                int r = 0;
-                for (int j = 0; j < 5; ++j)
-                    r = r * 85 + chn[j];
-                out.write((byte)(r >> 24));
-                out.write((byte)(r >> 16));
-                out.write((byte)(r >> 8));
-                out.write((byte)r);
-            }
-        }
-        int r = 0;
-        // We'll ignore the next two lines for the sake of perpetuating broken PDFs
-//        if (state == 1)
-//            throw new RuntimeException("Illegal length in ASCII85Decode.");
-        if (state == 2) {
-            r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85 + 85 * 85 * 85  + 85 * 85 + 85;
-            out.write((byte)(r >> 24));
-        }
-        else if (state == 3) {
-            r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85  + chn[2] * 85 * 85 + 85 * 85 + 85;
-            out.write((byte)(r >> 24));
-            out.write((byte)(r >> 16));
-        }
-        else if (state == 4) {
-            r = chn[0] * 85 * 85 * 85 * 85 + chn[1] * 85 * 85 * 85  + chn[2] * 85 * 85  + chn[3] * 85 + 85;
-            out.write((byte)(r >> 24));
-            out.write((byte)(r >> 16));
-            out.write((byte)(r >> 8));
-        }
-        return out.toByteArray();
+        // We ignore a last group of one digit for the sake of perpetuating broken PDFs
+        return new StreamDecoder.ASCII85InputStream(in).decodeAll();
     }
 
     /** Decodes a stream that has the LZWDecode filter.
@@ -1913,7 +2977,6 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the decoded data
      */
     public static byte[] LZWDecode(byte in[]) {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
 		// ssteward: pdftk 1.44
 		/* uses old Sun code
         LZWDecoder lzw = new LZWDecoder();
@@ -1921,9 +2984,7 @@ public class PdfReader implements PdfViewerPreferences {
 		*/
 		// new Apache Batik code
 		TIFFLZWDecoder tlzw= new TIFFLZWDecoder();
-		tlzw.decode( in, out );
-
-        return out.toByteArray();
+		return tlzw.decode( in );
     }
 
     /** Checks if the document had errors and was rebuilt.
@@ -2104,54 +3165,51 @@ public class PdfReader implements PdfViewerPreferences {
      * @return the stream content
      */
     public static byte[] getStreamBytes(PRStream stream, RandomAccessFileOrArray file) throws IOException {
-        PdfObject filter = getPdfObjectRelease(stream.get(PdfName.FILTER));
-        byte[] b = getStreamBytesRaw(stream, file);
-        ArrayList filters = new ArrayList();
-        if (filter != null) {
-            if (filter.isName())
-                filters.add(filter);
-            else if (filter.isArray())
-                filters = ((PdfArray)filter).getArrayList();
-        }
-        ArrayList dp = new ArrayList();
-        PdfObject dpo = getPdfObjectRelease(stream.get(PdfName.DECODEPARMS));
-        if (dpo == null || (!dpo.isDictionary() && !dpo.isArray()))
-            dpo = getPdfObjectRelease(stream.get(PdfName.DP));
-        if (dpo != null) {
-            if (dpo.isDictionary())
-                dp.add(dpo);
-            else if (dpo.isArray())
-                dp = ((PdfArray)dpo).getArrayList();
-        }
-        String name;
-        for (int j = 0; j < filters.size(); ++j) {
-            name = ((PdfName)getPdfObjectRelease((PdfObject)filters.get(j))).toString();
-            if (name.equals("/FlateDecode") || name.equals("/Fl")) {
-                b = FlateDecode(b);
-                PdfObject dicParam = null;
-                if (j < dp.size()) {
-                    dicParam = (PdfObject)dp.get(j);
-                    b = decodePredictor(b, dicParam);
-                }
-            }
-            else if (name.equals("/ASCIIHexDecode") || name.equals("/AHx"))
-                b = ASCIIHexDecode(b);
-            else if (name.equals("/ASCII85Decode") || name.equals("/A85"))
-                b = ASCII85Decode(b);
-            else if (name.equals("/LZWDecode")) {
-                b = LZWDecode(b);
-                PdfObject dicParam = null;
-                if (j < dp.size()) {
-                    dicParam = (PdfObject)dp.get(j);
-                    b = decodePredictor(b, dicParam);
-                }
-            }
-            else if (name.equals("/Crypt")) {
+        if (!StreamDecoder.hasFilters(stream))
+            return getStreamBytesRaw(stream, file);
+        return StreamDecoder.readAll(StreamDecoder.open(stream, file), StreamDecoder.decodedLengthHint(stream));
+    }
+
+    /** Opens the content of a stream, with the required filters applied while
+     * it is read, so that the whole content is never in memory.
+     * The file must not be used for anything else until the content is read.
+     * @param stream the stream
+     * @param file the location where the stream is
+     * @throws IOException on error
+     * @return the stream content
+     */
+    public static InputStream getStreamInputStream(PRStream stream, RandomAccessFileOrArray file) throws IOException {
+        return StreamDecoder.open(stream, file);
+    }
+
+    /** Opens the content of a stream, with the required filters applied while
+     * it is read. The stream must be closed.
+     * @param stream the stream
+     * @throws IOException on error
+     * @return the stream content
+     */
+    public static InputStream getStreamInputStream(PRStream stream) throws IOException {
+        final RandomAccessFileOrArray rf = stream.getReader().getSafeFile();
+        InputStream in = null;
+        try {
+            rf.reOpen();
+            in = StreamDecoder.open(stream, rf);
+        }
+        finally {
+            if (in == null) {
+                try{rf.close();}catch(Exception e){}
             }
-            else
-                throw new UnsupportedPdfException("The filter " + name + " is not supported.");
         }
-        return b;
+        return new FilterInputStream(in) {
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    rf.close();
+                }
+            }
+        };
     }
 
     /** Get the content from a stream applying the required filters.
@@ -2204,8 +3262,7 @@ public class PdfReader implements PdfViewerPreferences {
                     }
                 }
                 if (!skip) {
-                    decrypt.setHashKey(stream.getObjNum(), stream.getObjGen());
-                    b = decrypt.decryptByteArray(b);
+                    b = decrypt.getObjectKey(stream.getObjNum(), stream.getObjGen()).decryptByteArray(b);
                 }
             }
         }
@@ -2324,7 +3381,7 @@ public class PdfReader implements PdfViewerPreferences {
      * Gets the byte address of the last xref table.
      * @return the byte address of the last xref table
      */
-    public int getLastXref() {
+    public long getLastXref() {
         return lastXref;
     }
 
@@ -2340,7 +3397,7 @@ public class PdfReader implements PdfViewerPreferences {
      * Gets the byte address of the %%EOF marker.
      * @return the byte address of the %%EOF marker
      */
-    public int getEofPos() {
+    public long getEofPos() {
         return eofPos;
     }
 
@@ -2909,6 +3966,12 @@ public class PdfReader implements PdfViewerPreferences {
      * Closes the reader
      */
     public void close() {
+        try {
+            closeStreamFile();
+        }
+        catch (IOException e) {
+            throw new ExceptionConverter(e);
+        }
         if (!partial)
             return;
         try {
@@ -3028,6 +4091,7 @@ public class PdfReader implements PdfViewerPreferences {
                     xref[k * 2] = -1;
                     xref[k * 2 + 1] = 0;
                     xrefObj.set(k, null);
+                    uncachePartialObject(k);
                     ++total;
                 }
             }
@@ -3189,7 +4253,7 @@ public class PdfReader implements PdfViewerPreferences {
      * Getter for property fileLength.
      * @return Value of property fileLength.
      */
-    public int getFileLength() {
+    public long getFileLength() {
         return fileLength;
     }
 
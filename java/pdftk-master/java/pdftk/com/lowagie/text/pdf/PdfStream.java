@@ -247,15 +247,20 @@ public class PdfStream extends PdfDictionary {
         }
         try {
             // compress
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            Deflater deflater = new Deflater(compressionLevel);
-            DeflaterOutputStream zip = new DeflaterOutputStream(stream, deflater);
-            if (streamBytes != null)
-                streamBytes.writeTo(zip);
-            else
-                zip.write(bytes);
-            zip.close();
-            deflater.end();
+            int size = streamBytes != null ? streamBytes.size() : bytes.length;
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(size / 4 + 64);
+            Deflater deflater = FlatePool.getDeflater(compressionLevel);
+            try {
+                DeflaterOutputStream zip = new DeflaterOutputStream(stream, deflater, FlatePool.BUFFER_SIZE);
+                if (streamBytes != null)
+                    streamBytes.writeTo(zip);
+                else
+                    zip.write(bytes);
+                zip.close();
+            }
+            finally {
+                FlatePool.release(deflater, compressionLevel);
+            }
             // update the object
             streamBytes = stream;
             bytes = null;
@@ -326,37 +331,41 @@ public class PdfStream extends PdfDictionary {
             OutputStreamEncryption ose = null;
             OutputStream fout = osc;
             if (crypto != null && !crypto.isEmbeddedFilesOnly())
-                fout = ose = crypto.getEncryptionStream(fout);
+                fout = ose = writer.getObjectKey().getEncryptionStream(fout);
             Deflater deflater = null;
             if (compressed) {
-                deflater = new Deflater(compressionLevel);
+                deflater = FlatePool.getDeflater(compressionLevel);
                 fout = def = new DeflaterOutputStream(fout, deflater, 0x8000);
             }
             
-            byte buf[] = new byte[4192];
-            while (true) {
-                int n = inputStream.read(buf);
-                if (n <= 0)
-                    break;
-                fout.write(buf, 0, n);
-                rawLength += n;
+            try {
+                byte buf[] = new byte[4192];
+                while (true) {
+                    int n = inputStream.read(buf);
+                    if (n <= 0)
+                        break;
+                    fout.write(buf, 0, n);
+                    rawLength += n;
+                }
+                if (def != null)
+                    def.finish();
             }
-            if (def != null) {
-                def.finish();
-                deflater.end();
+            finally {
+                if (deflater != null)
+                    FlatePool.release(deflater, compressionLevel);
             }
             if (ose != null)
                 ose.finish();
-            inputStreamLength = osc.getCounter();
+            inputStreamLength = (int)osc.getCounter();
         }
         else {
             if (crypto != null && !crypto.isEmbeddedFilesOnly()) {
                 byte b[];
                 if (streamBytes != null) {
-                    b = crypto.encryptByteArray(streamBytes.toByteArray());
+                    b = writer.getObjectKey().encryptByteArray(streamBytes.toByteArray());
                 }
                 else {
-                    b = crypto.encryptByteArray(bytes);
+                    b = writer.getObjectKey().encryptByteArray(bytes);
                 }
                 os.write(b);
             }
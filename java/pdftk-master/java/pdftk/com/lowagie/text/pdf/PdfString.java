@@ -174,7 +174,7 @@ public class PdfString extends PdfObject {
         if (writer != null)
             crypto = writer.getEncryption();
         if (crypto != null && !crypto.isEmbeddedFilesOnly())
-            b = crypto.encryptByteArray(b);
+            b = writer.getObjectKey().encryptByteArray(b);
         if (hexWriting) {
             ByteBuffer buf = new ByteBuffer();
             buf.append('<');
@@ -269,8 +269,7 @@ public class PdfString extends PdfObject {
 	    originalBytes= new byte[ bytes.length ];
 	    System.arraycopy( bytes, 0, originalBytes, 0, bytes.length );
 
-            decrypt.setHashKey(objNum, objGen);
-            bytes = decrypt.decryptByteArray(bytes);
+            bytes = decrypt.getObjectKey(objNum, objGen).decryptByteArray(bytes);
 
 	    // reset
 	    value = null;
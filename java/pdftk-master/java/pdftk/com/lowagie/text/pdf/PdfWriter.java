@@ -60,12 +60,20 @@ package pdftk.com.lowagie.text.pdf;
 import java.awt.Color;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 // ssteward omit: import pdftk.com.lowagie.text.DocListener;
 import pdftk.com.lowagie.text.DocWriter;
@@ -113,128 +121,50 @@ public class PdfWriter extends DocWriter {
         // inner classes
         
         /**
-         * <CODE>PdfCrossReference</CODE> is an entry in the PDF Cross-Reference table.
+         * An object that was added to the body but isn't written yet, either
+         * as bytes or as a task that makes them on another thread.
          */
-        
-        static class PdfCrossReference implements Comparable {
-            
-            // membervariables
-            private int type = 0;
-            
-            /**	Byte offset in the PDF file. */
-            private int offset = 0;
-            
-            private int refnum = 0;
-            /**	generation of the object. */
-            private int generation = 0;
-            
-            // constructors
-            /**
-             * Constructs a cross-reference element for a PdfIndirectObject.
-             * @param refnum
-             * @param	offset		byte offset of the object
-             * @param	generation	generationnumber of the object
-             */
-            
-            PdfCrossReference(int refnum, int offset, int generation) {
-                type = 0;
-                this.offset = offset;
-                this.refnum = refnum;
-                this.generation = generation;
-            }
-            
-            /**
-             * Constructs a cross-reference element for a PdfIndirectObject.
-             * @param refnum
-             * @param	offset		byte offset of the object
-             */
+        static class PendingObject {
+            int number;
+            byte bytes[];
+            Future future;
             
-            PdfCrossReference(int refnum, int offset) {
-                type = 1;
-                this.offset = offset;
-                this.refnum = refnum;
-                this.generation = 0;
+            PendingObject(int number, byte bytes[], Future future) {
+                this.number = number;
+                this.bytes = bytes;
+                this.future = future;
             }
-            
-            PdfCrossReference(int type, int refnum, int offset, int generation) {
-                this.type = type;
-                this.offset = offset;
-                this.refnum = refnum;
-                this.generation = generation;
-            }
-            
-            int getRefnum() {
-                return refnum;
-            }
-            
-            /**
-             * Returns the PDF representation of this <CODE>PdfObject</CODE>.
-             * @param os
-             * @throws IOException
-             */
-            
-            public void toPdf(OutputStream os) throws IOException {
-                // This code makes it more difficult to port the lib to JDK1.1.x:
-                // StringBuffer off = new StringBuffer("0000000000").append(offset);
-                // off.delete(0, off.length() - 10);
-                // StringBuffer gen = new StringBuffer("00000").append(generation);
-                // gen.delete(0, gen.length() - 5);
-                // so it was changed into this:
-                String s = "0000000000" + offset;
-                StringBuffer off = new StringBuffer(s.substring(s.length() - 10));
-                s = "00000" + generation;
-                String gen = s.substring(s.length() - 5);
-                if (generation == GENERATION_MAX) {
-                    os.write(getISOBytes(off.append(' ').append(gen).append(" f \n").toString()));
-                }
-                else
-                    os.write(getISOBytes(off.append(' ').append(gen).append(" n \n").toString()));
-            }
-            
-            /**
-             * Writes PDF syntax to the OutputStream
-             * @param midSize
-             * @param os
-             * @throws IOException
-             */
-            public void toPdf(int midSize, OutputStream os) throws IOException {
-                os.write((byte)type);
-                while (--midSize >= 0)
-                    os.write((byte)((offset >>> (8 * midSize)) & 0xff));
-                os.write((byte)((generation >>> 8) & 0xff));
-                os.write((byte)(generation & 0xff));
-            }
-            
-            /**
-             * @see java.lang.Comparable#compareTo(java.lang.Object)
-             */
-            public int compareTo(Object o) {
-                PdfCrossReference other = (PdfCrossReference)o;
-                return (refnum < other.refnum ? -1 : (refnum==other.refnum ? 0 : 1));
-            }
-            
-            /**
-             * @see java.lang.Object#equals(java.lang.Object)
-             */
-            public boolean equals(Object obj) {
-                if (obj instanceof PdfCrossReference) {
-                    PdfCrossReference other = (PdfCrossReference)obj;
-                    return (refnum == other.refnum);
-                }
-                else
-                    return false;
-            }
-            
         }
         
         // membervariables
         
-        /** array containing the cross-reference table of the normal objects. */
-        private TreeSet xrefs = null;
+        /** No entry in the cross-reference table for this object number. */
+        private static final byte NO_ENTRY = -1;
+        /** The number of rows of the cross-reference table written at a time. */
+        private static final int XREF_ROWS = 512;
+        
+        // the cross-reference table, indexed by object number; an entry is
+        // free (type 0), at an offset in the file (type 1), or in an object
+        // stream (type 2)
+        
+        /** The type of each entry, or <CODE>NO_ENTRY</CODE>. */
+        private byte xrefTypes[];
+        /** The byte offset of each object, or the number of its object stream. */
+        private long xrefOffsets[];
+        /** The generation of each object, or its index in its object stream. */
+        private int xrefGenerations[];
+        /** The highest object number with an entry, plus one. */
+        private int xrefEnd = 0;
+        /** The number of entries. */
+        private int xrefCount = 0;
         private int refnum = 0;
         /** the current byteposition in the body. */
-        private int position = 0;
+        private long position = 0;
         private PdfWriter writer = null;
+        /** The objects added but not written yet, in the order they are written. */
+        private ArrayDeque pending = new ArrayDeque();
+        /** The threads that write streams aside; see <CODE>canWriteAside()</CODE>. */
+        private ThreadPoolExecutor pool = null;
         // constructors
         
         /**
@@ -242,8 +172,11 @@ public class PdfWriter extends DocWriter {
          * @param writer
          */
         PdfBody(PdfWriter writer) {
-            xrefs = new TreeSet();
-            xrefs.add(new PdfCrossReference(0, 0, GENERATION_MAX));
+            xrefTypes = new byte[1024];
+            xrefOffsets = new long[1024];
+            xrefGenerations = new int[1024];
+            Arrays.fill(xrefTypes, NO_ENTRY);
+            setXref(0, 0, 0, GENERATION_MAX);
             position = writer.getOs().getCounter();
             refnum = 1;
             this.writer = writer;
@@ -253,17 +186,39 @@ public class PdfWriter extends DocWriter {
             this.refnum = refnum;
         }
         
-        // methods
+        /** Sets the cross-reference entry of an object, replacing any it had. */
+        private void setXref(int refNumber, int type, long offset, int generation) {
+            if (refNumber >= xrefTypes.length) {
+                int n = Math.max(refNumber + 1, 2 * xrefTypes.length);
+                byte types[] = new byte[n];
+                System.arraycopy(xrefTypes, 0, types, 0, xrefTypes.length);
+                Arrays.fill(types, xrefTypes.length, n, NO_ENTRY);
+                long offsets[] = new long[n];
+                System.arraycopy(xrefOffsets, 0, offsets, 0, xrefOffsets.length);
+                int generations[] = new int[n];
+                System.arraycopy(xrefGenerations, 0, generations, 0, xrefGenerations.length);
+                xrefTypes = types;
+                xrefOffsets = offsets;
+                xrefGenerations = generations;
+            }
+            if (xrefTypes[refNumber] == NO_ENTRY)
+                ++xrefCount;
+            xrefTypes[refNumber] = (byte)type;
+            xrefOffsets[refNumber] = offset;
+            xrefGenerations[refNumber] = generation;
+            if (refNumber >= xrefEnd)
+                xrefEnd = refNumber + 1;
+        }
         
-        private static final int OBJSINSTREAM = 200;
+        // methods
         
         private ByteBuffer index = null;
         private ByteBuffer streamObjects = null;
         private int currentObjNum = 0;
         private int numObj = 0;
         
-        private PdfWriter.PdfBody.PdfCrossReference addToObjStm(PdfObject obj, int nObj) throws IOException {
-            if (numObj >= OBJSINSTREAM)
+        private void addToObjStm(PdfObject obj, int nObj) throws IOException {
+            if (numObj >= writer.objectsPerStream)
                 flushObjStm();
             if (index == null) {
                 index = new ByteBuffer();
@@ -279,7 +234,7 @@ public class PdfWriter extends DocWriter {
             writer.crypto = enc;
             streamObjects.append(' ');
             index.append(nObj).append(' ').append(p).append(' ');
-            return new PdfWriter.PdfBody.PdfCrossReference(2, nObj, currentObjNum, idx);
+            setXref(nObj, 2, currentObjNum, idx);
         }
         
         private void flushObjStm() throws IOException {
@@ -331,7 +286,8 @@ public class PdfWriter extends DocWriter {
         
         int getIndirectReferenceNumber() {
             int n = refnum++;
-            xrefs.add(new PdfCrossReference(n, 0, GENERATION_MAX));
+            if (n >= xrefEnd || xrefTypes[n] == NO_ENTRY)
+                setXref(n, 0, 0, GENERATION_MAX);
             return n;
         }
         
@@ -365,28 +321,138 @@ public class PdfWriter extends DocWriter {
         
         PdfIndirectObject add(PdfObject object, int refNumber, boolean inObjStm) throws IOException {
             if (inObjStm && object.canBeInObjStm() && writer.isFullCompression()) {
-                PdfCrossReference pxref = addToObjStm(object, refNumber);
-                PdfIndirectObject indirect = new PdfIndirectObject(refNumber, object, writer);
-                if (!xrefs.add(pxref)) {
-                    xrefs.remove(pxref);
-                    xrefs.add(pxref);
-                }
-                return indirect;
+                addToObjStm(object, refNumber);
+                return new PdfIndirectObject(refNumber, object, writer);
             }
             else {
                 PdfIndirectObject indirect = new PdfIndirectObject(refNumber, object, writer);
-				writer.getOs().write('\n'); // ssteward: for pretty pdf
-                PdfCrossReference pxref = new PdfCrossReference(refNumber, position+ 1); // ssteward: +1 for newline
-                if (!xrefs.add(pxref)) {
-                    xrefs.remove(pxref);
-                    xrefs.add(pxref);
+                if (canWriteAside(object)) {
+                    writeAside(indirect);
+                }
+                else if (!pending.isEmpty() && !object.isStream()) {
+                    // it has to wait for the streams before it, so make
+                    // its bytes now, as if it were written now
+                    ByteBuffer buf = new ByteBuffer();
+                    indirect.writeTo(buf);
+                    pending.addLast(new PendingObject(refNumber, buf.toByteArray(), null));
                 }
-                indirect.writeTo(writer.getOs());
-                position = writer.getOs().getCounter();
+                else {
+                    flushPending();
+                    beginObject(refNumber);
+                    indirect.writeTo(writer.getOs());
+                    position = writer.getOs().getCounter();
+                }
+                writeDone();
                 return indirect;
             }
         }
         
+        /** Starts writing an object: records where it is. */
+        private void beginObject(int refNumber) throws IOException {
+			writer.getOs().write('\n'); // ssteward: for pretty pdf
+            setXref(refNumber, 1, position+ 1, 0); // ssteward: +1 for newline
+        }
+        
+        /**
+         * Checks whether a stream can be decrypted, decoded, compressed and
+         * encrypted on another thread while the objects after it are added.
+         * There must be some of that to do, rather than copying the stream
+         * as it is. Its dictionary must not refer to objects of its reader,
+         * which would be read or numbered on that thread, and it must not be
+         * so long that it is written a block at a time, as its bytes would
+         * be held in memory until their turn.
+         */
+        private boolean canWriteAside(PdfObject object) {
+            if (!(object instanceof PRStream))
+                return false;
+            PRStream stream = (PRStream)object;
+            if (stream.getReader() == null || stream.isWrittenInBlocks() || hasReaderReferences(stream))
+                return false;
+            boolean filter = (writer.filterStreams || writer.compressStreams) && stream.filtersAreKnown();
+            if (!filter && writer.crypto == null && stream.getReader().getDecrypt() == null)
+                return false;
+            return PdfReader.getThreads() > 1;
+        }
+        
+        private static boolean hasReaderReferences(PdfObject obj) {
+            if (obj instanceof PRIndirectReference)
+                return true;
+            if (obj instanceof PdfDictionary) {
+                PdfDictionary dic = (PdfDictionary)obj;
+                for (Iterator i = dic.getKeys().iterator(); i.hasNext(); ) {
+                    if (hasReaderReferences(dic.get((PdfName)i.next())))
+                        return true;
+                }
+            }
+            else if (obj instanceof PdfArray) {
+                ArrayList list = ((PdfArray)obj).getArrayList();
+                for (int k = 0; k < list.size(); ++k) {
+                    if (hasReaderReferences((PdfObject)list.get(k)))
+                        return true;
+                }
+            }
+            return false;
+        }
+        
+        /** Makes the bytes of an object on another thread, and queues them to be written. */
+        private void writeAside(final PdfIndirectObject indirect) throws IOException {
+            if (pool == null) {
+                int threads = PdfReader.getThreads();
+                pool = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "pdftk-writer");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                pool.allowCoreThreadTimeOut(true);
+            }
+            // the object carries its own key, but the writer drops its
+            // encryption for a while when it packs objects into streams
+            final PdfIndirectReference ref = indirect.getIndirectReference();
+            final PdfEncryption crypto = writer.crypto;
+            Future future = pool.submit(new Callable() {
+                public Object call() throws IOException {
+                    writer.threadEncryption.set(crypto);
+                    try {
+                        ByteBuffer buf = new ByteBuffer();
+                        indirect.writeTo(buf);
+                        return buf.toByteArray();
+                    }
+                    finally {
+                        writer.threadEncryption.remove();
+                    }
+                }
+            });
+            pending.addLast(new PendingObject(ref.getNumber(), null, future));
+        }
+        
+        /** Writes the pending objects that are ready, and waits for the oldest if too many are pending. */
+        private void writeDone() throws IOException {
+            int limit = 4 * PdfReader.getThreads();
+            while (!pending.isEmpty()) {
+                PendingObject p = (PendingObject)pending.getFirst();
+                if (p.future != null && !p.future.isDone() && pending.size() <= limit)
+                    break;
+                writePending();
+            }
+        }
+        
+        /** Writes the oldest pending object. */
+        private void writePending() throws IOException {
+            PendingObject p = (PendingObject)pending.removeFirst();
+            byte b[] = p.bytes != null ? p.bytes : (byte[])PdfReader.getResult(p.future);
+            beginObject(p.number);
+            writer.getOs().write(b);
+            position = writer.getOs().getCounter();
+        }
+        
+        /** Writes all the pending objects. */
+        void flushPending() throws IOException {
+            while (!pending.isEmpty())
+                writePending();
+        }
+        
         /**
          * Adds a <CODE>PdfResources</CODE> object to the body.
          *
@@ -419,7 +485,7 @@ public class PdfWriter extends DocWriter {
          * @return		an offset
          */
         
-        int offset() {
+        long offset() {
             return position;
         }
         
@@ -430,7 +496,7 @@ public class PdfWriter extends DocWriter {
          */
         
         int size() {
-            return Math.max(((PdfCrossReference)xrefs.last()).getRefnum() + 1, refnum);
+            return Math.max(xrefEnd, refnum);
         }
         
         /**
@@ -444,86 +510,124 @@ public class PdfWriter extends DocWriter {
          * @throws IOException
          */
         
-        void writeCrossReferenceTable(OutputStream os, PdfIndirectReference root, PdfIndirectReference info, PdfIndirectReference encryption, PdfObject fileID, int prevxref) throws IOException {
+        void writeCrossReferenceTable(OutputStream os, PdfIndirectReference root, PdfIndirectReference info, PdfIndirectReference encryption, PdfObject fileID, long prevxref) throws IOException {
             int refNumber = 0;
+            flushPending();
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
             if (writer.isFullCompression()) {
                 flushObjStm();
                 refNumber = getIndirectReferenceNumber();
-                xrefs.add(new PdfCrossReference(refNumber, position));
+                setXref(refNumber, 1, position, 0);
+                writeCrossReferenceStream(refNumber, root, info, encryption, fileID, prevxref);
+                return;
             }
-            PdfCrossReference entry = (PdfCrossReference)xrefs.first();
-            int first = entry.getRefnum();
-            int len = 0;
-            ArrayList sections = new ArrayList();
-            for (Iterator i = xrefs.iterator(); i.hasNext(); ) {
-                entry = (PdfCrossReference)i.next();
-                if (first + len == entry.getRefnum())
-                    ++len;
-                else {
-                    sections.add(new Integer(first));
-                    sections.add(new Integer(len));
-                    first = entry.getRefnum();
-                    len = 1;
+            os.write(getISOBytes("xref\n"));
+            byte rows[] = new byte[XREF_ROWS * 20];
+            int k = 0;
+            while (k < xrefEnd) {
+                if (xrefTypes[k] == NO_ENTRY) {
+                    ++k;
+                    continue;
                 }
-            }
-            sections.add(new Integer(first));
-            sections.add(new Integer(len));
-            if (writer.isFullCompression()) {
-                int mid = 4;
-                int mask = 0xff000000;
-                for (; mid > 1; --mid) {
-                    if ((mask & position) != 0)
-                        break;
-                    mask >>>= 8;
+                int first = k;
+                while (k < xrefEnd && xrefTypes[k] != NO_ENTRY)
+                    ++k;
+                os.write(getISOBytes(String.valueOf(first)));
+                os.write(getISOBytes(" "));
+                os.write(getISOBytes(String.valueOf(k - first)));
+                os.write('\n');
+                int p = 0;
+                for (int j = first; j < k; ++j) {
+                    formatXrefRow(rows, p, xrefOffsets[j], xrefGenerations[j]);
+                    p += 20;
+                    if (p == rows.length) {
+                        os.write(rows, 0, p);
+                        p = 0;
+                    }
                 }
-                ByteBuffer buf = new ByteBuffer();
-                
-                for (Iterator i = xrefs.iterator(); i.hasNext(); ) {
-                    entry = (PdfCrossReference) i.next();
-                    entry.toPdf(mid, buf);
+                os.write(rows, 0, p);
+            }
+        }
+        
+        /**
+         * Formats a row of the cross-reference table: the offset in ten
+         * digits, the generation in five and whether the object is in use.
+         */
+        private static void formatXrefRow(byte rows[], int p, long offset, int generation) throws IOException {
+            if (offset > 9999999999L) // ssteward: more than ten digits
+                throw new IOException("Object offset " + offset + " too large for a cross-reference table.");
+            for (int k = 9; k >= 0; --k) {
+                rows[p + k] = (byte)('0' + offset % 10);
+                offset /= 10;
+            }
+            rows[p + 10] = ' ';
+            int gen = generation;
+            for (int k = 15; k >= 11; --k) {
+                rows[p + k] = (byte)('0' + gen % 10);
+                gen /= 10;
+            }
+            rows[p + 16] = ' ';
+            rows[p + 17] = (byte)(generation == GENERATION_MAX ? 'f' : 'n');
+            rows[p + 18] = ' ';
+            rows[p + 19] = '\n';
+        }
+        
+        /** Writes the cross-reference table as the stream object <CODE>refNumber</CODE>. */
+        private void writeCrossReferenceStream(int refNumber, PdfIndirectReference root, PdfIndirectReference info, PdfIndirectReference encryption, PdfObject fileID, long prevxref) throws IOException {
+            int mid = 8;
+            long mask = 0xff00000000000000L;
+            for (; mid > 1; --mid) {
+                if ((mask & position) != 0)
+                    break;
+                mask >>>= 8;
+            }
+            byte rows[] = new byte[xrefCount * (mid + 3)];
+            PdfArray idx = new PdfArray();
+            int p = 0;
+            int k = 0;
+            while (k < xrefEnd) {
+                if (xrefTypes[k] == NO_ENTRY) {
+                    ++k;
+                    continue;
                 }
-                PdfStream xr = new PdfStream(buf.toByteArray());
-                buf = null;
-                xr.flateCompress();
-                xr.put(PdfName.SIZE, new PdfNumber(size()));
-                xr.put(PdfName.ROOT, root);
-                if (info != null) {
-                    xr.put(PdfName.INFO, info);
+                int first = k;
+                for (; k < xrefEnd && xrefTypes[k] != NO_ENTRY; ++k) {
+                    rows[p++] = xrefTypes[k];
+                    long offset = xrefOffsets[k];
+                    for (int m = mid - 1; m >= 0; --m)
+                        rows[p++] = (byte)((offset >>> (8 * m)) & 0xff);
+                    int generation = xrefGenerations[k];
+                    rows[p++] = (byte)((generation >>> 8) & 0xff);
+                    rows[p++] = (byte)(generation & 0xff);
                 }
-                if (encryption != null)
-                    xr.put(PdfName.ENCRYPT, encryption);
-                if (fileID != null)
-                    xr.put(PdfName.ID, fileID);
-                xr.put(PdfName.W, new PdfArray(new int[]{1, mid, 2}));
-                xr.put(PdfName.TYPE, PdfName.XREF);
-                PdfArray idx = new PdfArray();
-                for (int k = 0; k < sections.size(); ++k)
-                    idx.add(new PdfNumber(((Integer)sections.get(k)).intValue()));
-                xr.put(PdfName.INDEX, idx);
-                if (prevxref > 0)
-                    xr.put(PdfName.PREV, new PdfNumber(prevxref));
-                PdfEncryption enc = writer.crypto;
-                writer.crypto = null;
-                PdfIndirectObject indirect = new PdfIndirectObject(refNumber, xr, writer);
-                indirect.writeTo(writer.getOs());
-                writer.crypto = enc;
+                idx.add(new PdfNumber(first));
+                idx.add(new PdfNumber(k - first));
             }
-            else {
-                os.write(getISOBytes("xref\n"));
-                Iterator i = xrefs.iterator();
-                for (int k = 0; k < sections.size(); k += 2) {
-                    first = ((Integer)sections.get(k)).intValue();
-                    len = ((Integer)sections.get(k + 1)).intValue();
-                    os.write(getISOBytes(String.valueOf(first)));
-                    os.write(getISOBytes(" "));
-                    os.write(getISOBytes(String.valueOf(len)));
-                    os.write('\n');
-                    while (len-- > 0) {
-                        entry = (PdfCrossReference) i.next();
-                        entry.toPdf(os);
-                    }
-                }
+            PdfStream xr = new PdfStream(rows);
+            rows = null;
+            xr.flateCompress();
+            xr.put(PdfName.SIZE, new PdfNumber(size()));
+            xr.put(PdfName.ROOT, root);
+            if (info != null) {
+                xr.put(PdfName.INFO, info);
             }
+            if (encryption != null)
+                xr.put(PdfName.ENCRYPT, encryption);
+            if (fileID != null)
+                xr.put(PdfName.ID, fileID);
+            xr.put(PdfName.W, new PdfArray(new int[]{1, mid, 2}));
+            xr.put(PdfName.TYPE, PdfName.XREF);
+            xr.put(PdfName.INDEX, idx);
+            if (prevxref > 0)
+                xr.put(PdfName.PREV, new PdfNumber(prevxref));
+            PdfEncryption enc = writer.crypto;
+            writer.crypto = null;
+            PdfIndirectObject indirect = new PdfIndirectObject(refNumber, xr, writer);
+            indirect.writeTo(writer.getOs());
+            writer.crypto = enc;
         }
     }
     
@@ -538,7 +642,7 @@ public class PdfWriter extends DocWriter {
         
         // membervariables
         
-        int offset;
+        long offset;
         
         // constructors
         
@@ -554,7 +658,7 @@ public class PdfWriter extends DocWriter {
          * @param prevxref
          */
         
-        PdfTrailer(int size, int offset, PdfIndirectReference root, PdfIndirectReference info, PdfIndirectReference encryption, PdfObject fileID, int prevxref) {
+        PdfTrailer(int size, long offset, PdfIndirectReference root, PdfIndirectReference info, PdfIndirectReference encryption, PdfObject fileID, long prevxref) {
             this.offset = offset;
             put(PdfName.SIZE, new PdfNumber(size));
             put(PdfName.ROOT, root);
@@ -716,7 +820,7 @@ public class PdfWriter extends DocWriter {
     /** this is the header of a PDF document */
     protected byte[] HEADER = getISOBytes("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3"); // ssteward: dropped trailing \n
 
-    protected int prevxref = 0;
+    protected long prevxref = 0;
     
 	// ssteward: use accessor
     private PdfPages root = null;
@@ -858,6 +962,11 @@ public class PdfWriter extends DocWriter {
      */
     protected boolean fullCompression = false;
     
+    /**
+     * Holds value of property objectsPerStream.
+     */
+    protected int objectsPerStream = 200;
+    
     protected boolean tagged = false;
 
     protected PdfObject fileID = null; // ssteward: allow setting of fileID
@@ -1943,6 +2052,8 @@ public class PdfWriter extends DocWriter {
     public static final int STANDARD_ENCRYPTION_128 = 1;
     /** Type of encryption */
     public static final int ENCRYPTION_AES_128 = 2;
+    /** Type of encryption */
+    public static final int ENCRYPTION_AES_256 = 3;
     /** Mask to separate the encryption type from the encryption mode. */
     static final int ENCRYPTION_MASK = 7;
     /** Add this to the mode to keep the metadata in clear text */
@@ -1989,7 +2100,23 @@ public class PdfWriter extends DocWriter {
 
     protected PdfEncryption crypto = null;
     PdfEncryption getEncryption() {
-        return crypto;
+        PdfEncryption aside = (PdfEncryption)threadEncryption.get();
+        return aside != null ? aside : crypto;
+    }
+
+    /** The <CODE>crypto</CODE> of a stream that is written on another thread. */
+    final ThreadLocal threadEncryption = new ThreadLocal();
+
+    /** The key of the object that each thread is writing. */
+    final ThreadLocal threadObjectKey = new ThreadLocal();
+
+    /**
+     * Gets the key to encrypt the strings and streams of the object that
+     * is being written on this thread.
+     */
+    PdfEncryption.ObjectKey getObjectKey() {
+        PdfEncryption.ObjectKey key = (PdfEncryption.ObjectKey)threadObjectKey.get();
+        return key != null ? key : getEncryption().getObjectKey();
     }
     
     /** Sets the encryption options for this document. The userPassword and the
@@ -2015,7 +2142,7 @@ public class PdfWriter extends DocWriter {
         crypto.setCryptoMode(encryptionType, 0);
         crypto.setupAllKeys(userPassword, ownerPassword, permissions);
     }
-    
+
     /**
      * Sets the encryption options for this document. The userPassword and the
      *  ownerPassword can be null or have zero length. In this case the ownerPassword
@@ -2389,7 +2516,7 @@ public class PdfWriter extends DocWriter {
      * and an idea of the current size is needed.
      * @return the approximate size without fonts or templates
      */    
-    public int getCurrentDocumentSize() {
+    public long getCurrentDocumentSize() {
         return body.offset() + body.size() * 20 + 0x48;
     }
     
@@ -2672,6 +2799,27 @@ public class PdfWriter extends DocWriter {
         defaultColorspace.put(key, cs);
     }
 
+    /**
+     * Gets the most objects put in one object stream when the 1.5
+     * compression is on.
+     * @return the number of objects
+     */
+    public int getObjectsPerStream() {
+        return this.objectsPerStream;
+    }
+    
+    /**
+     * Sets the most objects put in one object stream when the 1.5
+     * compression is on. More objects compress better, fewer make
+     * readers parse less to get at one of them. The default is 200.
+     * @param objectsPerStream the number of objects, from 1 to 65535
+     */
+    public void setObjectsPerStream(int objectsPerStream) {
+        if (objectsPerStream < 1 || objectsPerStream > 65535)
+            throw new IllegalArgumentException("Objects per stream must be from 1 to 65535.");
+        this.objectsPerStream = objectsPerStream;
+    }
+    
     /**
      * Gets the 1.5 compression status.
      * @return <code>true</code> if the 1.5 compression is on
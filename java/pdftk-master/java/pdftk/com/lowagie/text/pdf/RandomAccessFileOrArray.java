@@ -68,8 +68,18 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.ByteArrayOutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 /** An implementation of a RandomAccessFile for input only
  * that accepts a file or a byte array as data source.
+ * <p>
+ * File input is read through a window onto the file, so that
+ * byte-at-a-time callers such as PRTokeniser don't make one system
+ * call per byte. The window is either a page-aligned block read
+ * into the heap (the default) or a read-only mapping of the file;
+ * set the system property <code>pdftk.input</code> to
+ * <code>buffered</code>, <code>mapped</code> or <code>file</code>
+ * (unbuffered, as before) to choose.
  *
  * @author Paulo Soares (psoares@consiste.pt)
  */
@@ -89,6 +99,28 @@ public class RandomAccessFileOrArray implements DataInput {
     
     private int startOffset = 0;
 
+    ////
+    // ssteward, pdftk: file input modes, selected with the
+    // pdftk.input system property when a file is opened
+
+    public static final String INPUT_PROPERTY = "pdftk.input";
+    public static final int INPUT_FILE = 0; // RandomAccessFile, one call per byte
+    public static final int INPUT_BUFFERED = 1; // page-aligned blocks read into the heap
+    public static final int INPUT_MAPPED = 2; // FileChannel.map windows
+
+    static final int BLOCK_SIZE = 1<< 16; // a multiple of the usual page sizes
+    static final long MAP_WINDOW = 1L<< 28; // largest single mapping
+
+    int inputMode = INPUT_FILE; // only used with rf
+
+    // when inputMode isn't INPUT_FILE, the file position is
+    // windowStart+ windowPtr and rf's own file pointer is ignored
+    ByteBuffer window = null;
+    byte block[] = null; // backs window in INPUT_BUFFERED mode
+    long windowStart = 0;
+    int windowPtr = 0;
+    int windowLen = 0;
+
     ////
     //
 
@@ -156,6 +188,7 @@ public class RandomAccessFileOrArray implements DataInput {
 		throw new IOException("Unable to open: " + filename);
 
 	    this.filename = filename; // set only if we're using rf
+	    this.inputMode = getInputMode();
 	}
     }
 
@@ -190,6 +223,7 @@ public class RandomAccessFileOrArray implements DataInput {
 	if( file.filename != null ) {
 	    this.filename = file.filename;
 	    this.rf = null;
+	    this.inputMode = file.inputMode;
 	}
 	else if( file.arrayIn != null ) {
 	    this.arrayIn = file.arrayIn;
@@ -202,6 +236,103 @@ public class RandomAccessFileOrArray implements DataInput {
     ////
     //
 
+    // the mode named by the pdftk.input system property;
+    // unknown names get the default, INPUT_BUFFERED
+    public static int getInputMode() {
+	String mode = null;
+	try {
+	    mode = System.getProperty(INPUT_PROPERTY);
+	}
+	catch (SecurityException e) {}
+
+	if ("file".equals(mode))
+	    return INPUT_FILE;
+	if ("mapped".equals(mode))
+	    return INPUT_MAPPED;
+	return INPUT_BUFFERED;
+    }
+
+    //
+    public int getFileInputMode() {
+	return inputMode;
+    }
+
+    // forget the window; the next read refills it from pos
+    private void resetWindow(long pos) {
+	window = null;
+	windowStart = pos;
+	windowPtr = 0;
+	windowLen = 0;
+    }
+
+    // load the window holding the current position;
+    // return false at end of file
+    private boolean fillWindow() throws IOException {
+	long pos = windowStart + windowPtr;
+	long fileLen = rf.length();
+	if (fileLen <= pos) {
+	    return false;
+	}
+
+	if (inputMode == INPUT_MAPPED) {
+	    long start = pos - (pos % MAP_WINDOW);
+	    long size = Math.min(MAP_WINDOW, fileLen - start);
+	    window = rf.getChannel().map(FileChannel.MapMode.READ_ONLY, start, size);
+	    windowStart = start;
+	    windowLen = (int)size;
+	}
+	else {
+	    if (block == null) {
+		block = new byte[BLOCK_SIZE];
+	    }
+	    long start = pos - (pos % BLOCK_SIZE);
+	    rf.seek(start);
+	    int len = 0;
+	    int nn = 0;
+	    while (len < BLOCK_SIZE && 0 < (nn = rf.read(block, len, BLOCK_SIZE - len))) {
+		len += nn;
+	    }
+	    window = ByteBuffer.wrap(block);
+	    windowStart = start;
+	    windowLen = len;
+	}
+	windowPtr = (int)(pos - windowStart);
+
+	return windowPtr < windowLen;
+    }
+
+    // read from the window, refilling it as needed
+    private int readWindow(byte[] bb, int off, int len) throws IOException {
+	int total = 0;
+	while (0 < len) {
+	    if (windowLen <= windowPtr) {
+		if (inputMode == INPUT_BUFFERED && BLOCK_SIZE <= len) {
+		    // large read; skip the block copy
+		    long pos = windowStart + windowPtr;
+		    rf.seek(pos);
+		    int nn = rf.read(bb, off, len);
+		    if (0 < nn) {
+			total += nn;
+			pos += nn;
+		    }
+		    resetWindow(pos);
+		    break;
+		}
+		if (!fillWindow()) {
+		    break;
+		}
+	    }
+	    int nn = Math.min(len, windowLen - windowPtr);
+	    window.position(windowPtr);
+	    window.get(bb, off, nn);
+	    windowPtr += nn;
+	    off += nn;
+	    len -= nn;
+	    total += nn;
+	}
+	return (total == 0) ? -1 : total;
+    }
+
     //
     private void inputStreamToArray(InputStream is) throws IOException {
         byte bb[] = new byte[8192];
@@ -250,7 +381,12 @@ public class RandomAccessFileOrArray implements DataInput {
 	    clearBack();
         }
         else if (rf != null) {
-	    retVal = rf.read();
+	    if (inputMode == INPUT_FILE) {
+		retVal = rf.read();
+	    }
+	    else if (windowPtr < windowLen || fillWindow()) {
+		retVal = window.get(windowPtr++) & 0xff;
+	    }
 	}
         else if (arrayIn != null &&
 		 0<= arrayInPtr && arrayInPtr< arrayIn.length) {
@@ -284,7 +420,10 @@ public class RandomAccessFileOrArray implements DataInput {
         }
 
         if( rf!= null ) { // use rf
-	    retVal= rf.read( bb, off, len ); // could return -1
+	    if( inputMode== INPUT_FILE )
+		retVal= rf.read( bb, off, len ); // could return -1
+	    else
+		retVal= readWindow( bb, off, len ); // could return -1
         }
 
         else if( arrayIn!= null ) { // use array
@@ -340,6 +479,7 @@ public class RandomAccessFileOrArray implements DataInput {
 	    if (rf == null) {
 		throw new IOException("Unable to reOpen: " + filename);
 	    }
+	    resetWindow(0);
 	}
 	this.seek(0); // calls clearBack()
     }
@@ -362,16 +502,18 @@ public class RandomAccessFileOrArray implements DataInput {
             rf.close();
             rf = null;
         }
+	// a mapping outlives its channel, so let the GC release it
+	resetWindow(0);
 	// preserves this.filename and this.arrayIn
 
 	clearBack();
     }
     
     //
-    public int length() throws IOException {
+    public long length() throws IOException {
         if (filename != null) {
             insureOpen();
-            return (int)rf.length() - startOffset;
+            return rf.length() - startOffset;
         }
         else if (arrayIn != null) {
             return arrayIn.length - startOffset;
@@ -380,11 +522,13 @@ public class RandomAccessFileOrArray implements DataInput {
     }
     
     //
-    public int getFilePointer() throws IOException {
+    public long getFilePointer() throws IOException {
 	insureOpen(); // might call clearBack(), so call first
         int nn = isBack ? 1 : 0;
         if (filename != null) {
-            return (int)rf.getFilePointer() - nn - startOffset;
+	    if (inputMode != INPUT_FILE)
+		return windowStart + windowPtr - nn - startOffset;
+            return rf.getFilePointer() - nn - startOffset;
         }
         else if (arrayIn != null) {
             return arrayInPtr - nn - startOffset;
@@ -392,8 +536,9 @@ public class RandomAccessFileOrArray implements DataInput {
 	return 0; // no data -- shouldn't happen
     }
 
-    //
-    public void seek(int pos) throws IOException {
+    // ssteward, pdftk: file positions are longs, so inputs may exceed 2GB;
+    // arrays are still limited to the range of an int
+    public void seek(long pos) throws IOException {
         pos += startOffset;
 
 	clearBack();
@@ -405,18 +550,25 @@ public class RandomAccessFileOrArray implements DataInput {
 		if (rf == null) {
 		    throw new IOException("Unable to open: " + filename + " in seek()");
 		}
+		resetWindow(0);
+	    }
+	    if (inputMode == INPUT_FILE) {
+		rf.seek(pos);
+	    }
+	    else if (pos < 0) {
+		throw new IOException("Negative seek offset");
+	    }
+	    else if (window != null && windowStart <= pos && pos <= windowStart + windowLen) {
+		windowPtr = (int)(pos - windowStart); // stay in the window
+	    }
+	    else {
+		resetWindow(pos);
 	    }
-            rf.seek(pos);
         }
         else if (arrayIn != null) {
-            arrayInPtr = pos;
+            arrayInPtr = (int)Math.min(pos, Integer.MAX_VALUE);
 	}
     }
-
-    //
-    public void seek(long pos) throws IOException {
-        seek((int)pos);
-    }
     
     //
     public int skipBytes(int nn) throws IOException {
@@ -429,9 +581,17 @@ public class RandomAccessFileOrArray implements DataInput {
 	}
 	// no need for additional isBack logic b/c helper functions already consider it
         
-        int pos = this.getFilePointer(); // considers isBack and startOffset
-        int len = this.length(); // considers startOffset
-        int newpos = pos + nn;
+        return (int)skip(nn);
+    }
+
+    //
+    public long skip(long nn) throws IOException {
+        if (nn <= 0) {
+            return 0;
+        }
+        long pos = this.getFilePointer(); // considers isBack and startOffset
+        long len = this.length(); // considers startOffset
+        long newpos = pos + nn;
         if (newpos > len) {
             newpos = len; // seek(len) ensures that next read() returns -1
         }
@@ -440,9 +600,13 @@ public class RandomAccessFileOrArray implements DataInput {
         return newpos - pos;
     }
 
-    //
-    public long skip(long n) throws IOException {
-        return skipBytes((int)n);
+    // the channel of the file, for copying from it directly, or null
+    // for array data; channel positions don't include startOffset
+    public FileChannel getChannel() throws IOException {
+	if (filename == null)
+	    return null;
+	insureOpen();
+	return rf.getChannel();
     }
 
     //
@@ -708,7 +872,7 @@ public class RandomAccessFileOrArray implements DataInput {
                     break;
                 case '\r':
                     eol = true;
-                    int cur = getFilePointer();
+                    long cur = getFilePointer();
                     if ((read()) != '\n') {
                         seek(cur);
                     }
@@ -62,6 +62,7 @@ public class StandardDecryption {
     protected AESCipher cipher;
     private byte[] key;
     private static final int AES_128 = 4;
+    private static final int AES_256 = 5;
     private boolean aes;
     private boolean initiated;
     private byte[] iv = new byte[16];
@@ -69,7 +70,7 @@ public class StandardDecryption {
 
     /** Creates a new instance of StandardDecryption */
     public StandardDecryption(byte key[], int off, int len, int revision) {
-        aes = revision == AES_128;
+        aes = revision == AES_128 || revision == AES_256;
         if (aes) {
             this.key = new byte[len];
             System.arraycopy(key, off, this.key, 0, len);
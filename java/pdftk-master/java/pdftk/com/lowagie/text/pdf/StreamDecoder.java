@@ -0,0 +1,921 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package pdftk.com.lowagie.text.pdf;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import pdftk.com.lowagie.text.ExceptionConverter;
+import pdftk.com.lowagie.text.exceptions.UnsupportedPdfException;
+
+/**
+ * Decodes the data of a stream while it is read, with one stage for each
+ * filter and predictor, so that the data is never held whole. The stages
+ * give the same bytes as <CODE>PdfReader.FlateDecode()</CODE>,
+ * <CODE>decodePredictor()</CODE>, <CODE>ASCIIHexDecode()</CODE>,
+ * <CODE>ASCII85Decode()</CODE> and <CODE>LZWDecode()</CODE>. A stage that
+ * reaches its end reads the rest of its input, so that the errors of the
+ * stages before it aren't lost.
+ */
+class StreamDecoder {
+
+    static final int BUFFER_SIZE = 8192;
+    /** The longest piece that <CODE>readAll()</CODE> reads into at once. */
+    private static final int MAX_PIECE_SIZE = 1 << 23;
+    /** How many times longer than its raw data a stream's /DL is believed; inflating
+     * deflated data makes it at most about 1032 times longer. */
+    private static final int MAX_DL_RATIO = 1 << 10;
+
+    /** Opens the input of a stage again, from the start. */
+    interface Source {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Gets the filters of a stream.
+     * @param stream the stream
+     * @return the filters, which may be indirect
+     */
+    static ArrayList getFilters(PRStream stream) {
+        PdfObject filter = PdfReader.getPdfObjectRelease(stream.get(PdfName.FILTER));
+        ArrayList filters = new ArrayList();
+        if (filter != null) {
+            if (filter.isName())
+                filters.add(filter);
+            else if (filter.isArray())
+                filters = ((PdfArray)filter).getArrayList();
+        }
+        return filters;
+    }
+
+    /**
+     * Checks whether a stream has filters that decode it.
+     * @param stream the stream
+     * @return <CODE>false</CODE> if the raw data is the decoded data
+     */
+    static boolean hasFilters(PRStream stream) {
+        ArrayList filters = getFilters(stream);
+        for (int j = 0; j < filters.size(); ++j) {
+            String name = ((PdfName)PdfReader.getPdfObjectRelease((PdfObject)filters.get(j))).toString();
+            if (!name.equals("/Crypt"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens the data of a stream as it is in the file, decrypted.
+     * @param stream the stream
+     * @param file the file the stream is in
+     * @return the data
+     */
+    static InputStream openRaw(PRStream stream, RandomAccessFileOrArray file) {
+        if (stream.getOffset() < 0)
+            return new ByteArrayInputStream(stream.getBytes());
+        InputStream in = new WindowInputStream(file, stream.getOffset(), stream.getLength());
+        PdfEncryption decrypt = stream.getReader().getDecrypt();
+        if (decrypt != null && !hasCryptFilter(stream))
+            in = new DecryptInputStream(in, decrypt.getObjectKey(stream.getObjNum(), stream.getObjGen()).getDecryptor());
+        return in;
+    }
+
+    /**
+     * Gives the length of the data of a stream as it is in the file,
+     * decrypted, reading at most its last two AES blocks.
+     * @param stream the stream
+     * @param file the file the stream is in
+     * @return the length, or -1 if it is only known after decrypting the whole stream
+     * @throws IOException on error
+     */
+    static int rawLength(PRStream stream, RandomAccessFileOrArray file) throws IOException {
+        if (stream.getOffset() < 0)
+            return stream.getBytes().length;
+        int length = stream.getLength();
+        PdfEncryption decrypt = stream.getReader().getDecrypt();
+        if (decrypt == null || hasCryptFilter(stream))
+            return length;
+        PdfEncryption.ObjectKey key = decrypt.getObjectKey(stream.getObjNum(), stream.getObjGen());
+        if (key.revision != PdfEncryption.AES_128 && key.revision != PdfEncryption.AES_256)
+            return length;
+        // the data is the initialization vector followed by whole blocks,
+        // the last of them padded; decrypt it with the block before as vector
+        if (length < 32 || length % 16 != 0)
+            return -1;
+        byte tail[] = new byte[32];
+        file.seek(stream.getOffset() + length - tail.length);
+        file.readFully(tail);
+        StandardDecryption decryptor = key.getDecryptor();
+        decryptor.update(tail, 0, tail.length);
+        return length - tail.length + decryptor.finish().length;
+    }
+
+    private static boolean hasCryptFilter(PRStream stream) {
+        ArrayList filters = getFilters(stream);
+        for (int k = 0; k < filters.size(); ++k) {
+            PdfObject obj = PdfReader.getPdfObjectRelease((PdfObject)filters.get(k));
+            if (obj != null && obj.toString().equals("/Crypt"))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens the data of a stream with its filters applied.
+     * @param stream the stream
+     * @param file the file the stream is in
+     * @return the decoded data
+     */
+    static InputStream open(final PRStream stream, final RandomAccessFileOrArray file) throws IOException {
+        final ArrayList filters = getFilters(stream);
+        ArrayList dp = new ArrayList();
+        PdfObject dpo = PdfReader.getPdfObjectRelease(stream.get(PdfName.DECODEPARMS));
+        if (dpo == null || (!dpo.isDictionary() && !dpo.isArray()))
+            dpo = PdfReader.getPdfObjectRelease(stream.get(PdfName.DP));
+        if (dpo != null) {
+            if (dpo.isDictionary())
+                dp.add(dpo);
+            else if (dpo.isArray())
+                dp = ((PdfArray)dpo).getArrayList();
+        }
+        final ArrayList decodeParms = dp;
+        for (int j = 0; j < filters.size(); ++j) {
+            String name = ((PdfName)PdfReader.getPdfObjectRelease((PdfObject)filters.get(j))).toString();
+            if (!isSupported(name))
+                throw new UnsupportedPdfException("The filter " + name + " is not supported.");
+        }
+        int rawLength = stream.getOffset() < 0 ? stream.getBytes().length : stream.getLength();
+        return open(filters, decodeParms, filters.size(), rawLength, new Source() {
+            public InputStream open() throws IOException {
+                return openRaw(stream, file);
+            }
+        });
+    }
+
+    /**
+     * Guesses the length of the decoded data of a stream: its /DL, if it
+     * has one and it isn't out of proportion to the raw data, or else the
+     * length of its raw data as its filters change it: a few times longer
+     * for those that decompress, and shorter for the ASCII filters.
+     * @param stream the stream
+     * @return the length to expect
+     */
+    static int decodedLengthHint(PRStream stream) {
+        long n = stream.getOffset() < 0 ? stream.getBytes().length : stream.getLength();
+        PdfObject dl = PdfReader.getPdfObjectRelease(stream.get(PdfName.DL));
+        if (dl != null && dl.isNumber()) {
+            long l = ((PdfNumber)dl).intValue();
+            if (l > 0)
+                return (int)Math.min(l, Math.min(Math.max(n, 1) * MAX_DL_RATIO, MAX_PIECE_SIZE));
+        }
+        ArrayList filters = getFilters(stream);
+        for (int k = 0; k < filters.size(); ++k) {
+            PdfObject filter = PdfReader.getPdfObjectRelease((PdfObject)filters.get(k));
+            String name = filter != null && filter.isName() ? filter.toString() : "";
+            if (name.equals("/ASCIIHexDecode") || name.equals("/AHx"))
+                n = n / 2 + 1;
+            else if (name.equals("/ASCII85Decode") || name.equals("/A85"))
+                n = n / 5 * 4 + 4;
+            else if (!name.equals("/Crypt"))
+                n = Math.min(n * 4, MAX_PIECE_SIZE);
+        }
+        return (int)Math.min(n, MAX_PIECE_SIZE);
+    }
+
+    private static boolean isSupported(String name) {
+        return name.equals("/FlateDecode") || name.equals("/Fl")
+            || name.equals("/ASCIIHexDecode") || name.equals("/AHx")
+            || name.equals("/ASCII85Decode") || name.equals("/A85")
+            || name.equals("/LZWDecode") || name.equals("/Crypt");
+    }
+
+    /** Opens the raw data with the first <CODE>count</CODE> filters applied. */
+    private static InputStream open(final ArrayList filters, final ArrayList dp, final int count, final int rawLength, final Source raw) throws IOException {
+        if (count == 0)
+            return raw.open();
+        int j = count - 1;
+        InputStream in = open(filters, dp, j, rawLength, raw);
+        String name = ((PdfName)PdfReader.getPdfObjectRelease((PdfObject)filters.get(j))).toString();
+        if (name.equals("/FlateDecode") || name.equals("/Fl")) {
+            in = new FlateInputStream(in, new Source() {
+                public InputStream open() throws IOException {
+                    return StreamDecoder.open(filters, dp, count - 1, rawLength, raw);
+                }
+            }, j == 0 ? rawLength : BUFFER_SIZE, false);
+            if (j < dp.size())
+                in = PredictorInputStream.wrap(in, (PdfObject)dp.get(j));
+        }
+        else if (name.equals("/ASCIIHexDecode") || name.equals("/AHx"))
+            in = new ASCIIHexInputStream(in);
+        else if (name.equals("/ASCII85Decode") || name.equals("/A85"))
+            in = new ASCII85InputStream(in);
+        else if (name.equals("/LZWDecode")) {
+            in = new LZWInputStream(in);
+            if (j < dp.size())
+                in = PredictorInputStream.wrap(in, (PdfObject)dp.get(j));
+        }
+        return in;
+    }
+
+    /**
+     * Reads a stream to its end.
+     * @param in the stream
+     * @return the bytes read
+     */
+    static byte[] readAll(InputStream in) throws IOException {
+        return readAll(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Reads a stream to its end.
+     * @param in the stream
+     * @param sizeHint the length the data is expected to have; if it is
+     * right, the data is read into one array of that length and not copied
+     * @return the bytes read
+     */
+    static byte[] readAll(InputStream in, int sizeHint) throws IOException {
+        // the pieces are joined once at the end, so the data is copied only once
+        ArrayList pieces = new ArrayList();
+        int total = 0;
+        int size = Math.max(1, Math.min(sizeHint, MAX_PIECE_SIZE));
+        int next = -1;
+        while (true) {
+            byte piece[] = new byte[size];
+            int n = 0;
+            if (next >= 0)
+                piece[n++] = (byte)next;
+            while (n < piece.length) {
+                int k = in.read(piece, n, piece.length - n);
+                if (k < 0)
+                    break;
+                n += k;
+            }
+            if (n > 0) {
+                if (n < piece.length) {
+                    byte b[] = new byte[n];
+                    System.arraycopy(piece, 0, b, 0, n);
+                    piece = b;
+                }
+                pieces.add(piece);
+                total += n;
+            }
+            if (n < size)
+                break;
+            // see whether there is more before making another piece
+            next = in.read();
+            if (next < 0)
+                break;
+            if (size < MAX_PIECE_SIZE)
+                size *= 2;
+        }
+        if (pieces.size() == 1)
+            return (byte[])pieces.get(0);
+        byte b[] = new byte[total];
+        int off = 0;
+        for (int k = 0; k < pieces.size(); ++k) {
+            byte piece[] = (byte[])pieces.get(k);
+            System.arraycopy(piece, 0, b, off, piece.length);
+            off += piece.length;
+        }
+        return b;
+    }
+
+    /** Reads a part of a file; reads fail if the file is shorter. */
+    static class WindowInputStream extends InputStream {
+        private RandomAccessFileOrArray file;
+        private long pos;
+        private long end;
+
+        WindowInputStream(RandomAccessFileOrArray file, long offset, int length) {
+            this.file = file;
+            pos = offset;
+            end = offset + Math.max(length, 0);
+        }
+
+        public int read() throws IOException {
+            byte b[] = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte b[], int off, int len) throws IOException {
+            if (pos >= end)
+                return -1;
+            int n = (int)Math.min(len, end - pos);
+            // the file may be read elsewhere between calls
+            if (file.getFilePointer() != pos)
+                file.seek(pos);
+            file.readFully(b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+    /**
+     * The base of the stages that decode their input a piece at a time.
+     * A stage decodes from <CODE>inBuf</CODE>, between <CODE>inPos</CODE> and
+     * <CODE>inLen</CODE>, into <CODE>out</CODE>; a stage made on an array
+     * decodes from the array itself.
+     */
+    static abstract class Stage extends InputStream {
+        protected InputStream in;
+        protected byte inBuf[];
+        protected int inPos = 0;
+        protected int inLen = 0;
+        protected byte out[];
+        protected int outPos = 0;
+        protected int outLen = 0;
+        private boolean done = false;
+
+        Stage(InputStream in, int outSize) {
+            this.in = in;
+            inBuf = new byte[BUFFER_SIZE];
+            out = new byte[outSize];
+        }
+
+        Stage(byte data[], int outSize) {
+            inBuf = data;
+            inLen = data.length;
+            out = new byte[outSize];
+        }
+
+        /**
+         * Decodes some more input into <CODE>out</CODE>.
+         * @return <CODE>false</CODE> at the end of the data
+         */
+        protected abstract boolean decode() throws IOException;
+
+        /**
+         * Reads more input into <CODE>inBuf</CODE> if it is all used.
+         * @return <CODE>false</CODE> at the end of the input
+         */
+        protected boolean fill() throws IOException {
+            while (inPos == inLen) {
+                if (in == null)
+                    return false;
+                inLen = in.read(inBuf, 0, inBuf.length);
+                inPos = 0;
+                if (inLen < 0) {
+                    inLen = 0;
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Gets the next input byte, or -1 at the end of the input. */
+        protected int next() throws IOException {
+            if (inPos == inLen && !fill())
+                return -1;
+            return inBuf[inPos++] & 0xff;
+        }
+
+        public int read() throws IOException {
+            while (outPos == outLen) {
+                if (!more())
+                    return -1;
+            }
+            return out[outPos++] & 0xff;
+        }
+
+        public int read(byte b[], int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            while (outPos == outLen) {
+                if (!more())
+                    return -1;
+            }
+            int n = Math.min(len, outLen - outPos);
+            System.arraycopy(out, outPos, b, off, n);
+            outPos += n;
+            return n;
+        }
+
+        private boolean more() throws IOException {
+            if (done)
+                return false;
+            outPos = 0;
+            outLen = 0;
+            if (decode())
+                return true;
+            done = true;
+            if (in != null)
+                drain(in);
+            return outLen > 0;
+        }
+
+        /**
+         * Decodes all of the input of a stage made on an array, into
+         * <CODE>out</CODE> grown as needed, in place of reading it.
+         * The stage must add to <CODE>out</CODE> rather than replace it.
+         * @return the data
+         */
+        byte[] decodeAll() {
+            try {
+                while (decode()) {
+                    byte b[] = new byte[out.length * 2];
+                    System.arraycopy(out, 0, b, 0, outLen);
+                    out = b;
+                }
+            }
+            catch (IOException e) {
+                // never happens: the input is in memory
+                throw new ExceptionConverter(e);
+            }
+            done = true;
+            if (outLen == out.length)
+                return out;
+            byte b[] = new byte[outLen];
+            System.arraycopy(out, 0, b, 0, outLen);
+            return b;
+        }
+
+        public void close() throws IOException {
+            if (in != null)
+                in.close();
+        }
+    }
+
+    /** Reads a stream to its end and drops what it reads. */
+    static void drain(InputStream in) throws IOException {
+        byte b[] = new byte[BUFFER_SIZE];
+        while (in.read(b, 0, b.length) >= 0)
+            ;
+    }
+
+    /** Decrypts its input. */
+    static class DecryptInputStream extends Stage {
+        private StandardDecryption decryptor;
+        private byte buf[] = new byte[BUFFER_SIZE];
+
+        DecryptInputStream(InputStream in, StandardDecryption decryptor) {
+            super(in, 0);
+            this.decryptor = decryptor;
+        }
+
+        protected boolean decode() throws IOException {
+            while (true) {
+                int n = in.read(buf, 0, buf.length);
+                byte b[] = n < 0 ? decryptor.finish() : decryptor.update(buf, 0, n);
+                if (b != null && b.length > 0) {
+                    out = b;
+                    outLen = b.length;
+                    return true;
+                }
+                if (n < 0)
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * The FlateDecode filter. Like <CODE>PdfReader.FlateDecode()</CODE>, it
+     * gives as much of a corrupted stream as it can: after an error, the
+     * input is opened again, the data read already is skipped, and the rest
+     * is read in pieces half as long each time a piece fails, down to single
+     * bytes. The data before the error is then all read, without reading
+     * the whole stream a byte at a time.
+     */
+    static class FlateInputStream extends InputStream {
+        private Source source;
+        private InputStream in;
+        private Inflater inflater;
+        private byte input[];
+        private boolean strict;
+        private boolean eof = false;
+        private long delivered = 0;
+        /** The longest read since the last error. */
+        private int window = Integer.MAX_VALUE;
+
+        /**
+         * @param in the compressed data
+         * @param source opens the compressed data again
+         * @param inputSize the length of the compressed data, if known
+         * @param strict <CODE>true</CODE> to fail on a corrupted stream rather
+         * than end it at the error
+         */
+        FlateInputStream(InputStream in, Source source, int inputSize, boolean strict) {
+            this.in = in;
+            this.source = source;
+            this.strict = strict;
+            input = new byte[Math.max(1, Math.min(inputSize, BUFFER_SIZE))];
+            inflater = FlatePool.getInflater();
+        }
+
+        public int read() throws IOException {
+            byte b[] = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        public int read(byte b[], int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            while (!eof) {
+                int w = Math.min(len, window);
+                int n;
+                try {
+                    n = inflate(b, off, w);
+                }
+                catch (DataFormatException e) {
+                    if (strict)
+                        throw new ZipException(e.getMessage());
+                    if (w == 1)
+                        end();
+                    else {
+                        window = w / 2;
+                        startOver();
+                    }
+                    continue;
+                }
+                if (n < 0)
+                    end();
+                else {
+                    delivered += n;
+                    return n;
+                }
+            }
+            return -1;
+        }
+
+        /** Inflates into b what it can, reading input as needed; -1 at the end of the data. */
+        private int inflate(byte b[], int off, int len) throws IOException, DataFormatException {
+            while (true) {
+                int n = inflater.inflate(b, off, len);
+                if (n > 0)
+                    return n;
+                if (inflater.finished() || inflater.needsDictionary())
+                    return -1;
+                if (inflater.needsInput()) {
+                    int k = in.read(input, 0, input.length);
+                    if (k < 0) {
+                        if (strict)
+                            throw new EOFException("Unexpected end of ZLIB input stream");
+                        return -1;
+                    }
+                    inflater.setInput(input, 0, k);
+                }
+            }
+        }
+
+        /** Opens the input again and skips the data read already. */
+        private void startOver() throws IOException {
+            try {
+                in.close();
+            }
+            catch (Exception e) {
+                // empty on purpose
+            }
+            in = source.open();
+            inflater.reset();
+            byte skip[] = new byte[BUFFER_SIZE];
+            for (long left = delivered; left > 0; ) {
+                int n;
+                try {
+                    n = inflate(skip, 0, (int)Math.min(skip.length, left));
+                }
+                catch (DataFormatException e) {
+                    n = -1;
+                }
+                if (n < 0) {
+                    end();
+                    return;
+                }
+                left -= n;
+            }
+        }
+
+        private void end() throws IOException {
+            eof = true;
+            releaseInflater();
+            while (in.read(input, 0, input.length) >= 0)
+                ;
+        }
+
+        private void releaseInflater() {
+            if (inflater != null) {
+                FlatePool.release(inflater);
+                inflater = null;
+            }
+        }
+
+        public void close() throws IOException {
+            releaseInflater();
+            in.close();
+        }
+    }
+
+    /**
+     * Inflates data in memory, as <CODE>PdfReader.FlateDecode()</CODE> does.
+     * @param data the compressed data
+     * @param strict <CODE>true</CODE> to fail on a corrupted stream rather
+     * than end it at the error
+     * @return the data
+     * @throws IOException if the stream is corrupted and strict
+     */
+    static byte[] inflate(final byte data[], boolean strict) throws IOException {
+        Source source = new Source() {
+            public InputStream open() {
+                return new ByteArrayInputStream(data);
+            }
+        };
+        InputStream zip = new FlateInputStream(source.open(), source, data.length, strict);
+        try {
+            return readAll(zip, data.length < MAX_PIECE_SIZE / 4 ? data.length * 4 : MAX_PIECE_SIZE);
+        }
+        finally {
+            zip.close();
+        }
+    }
+
+    /** The PNG predictors of the FlateDecode and LZWDecode filters. */
+    static class PredictorInputStream extends Stage {
+        private int bytesPerPixel;
+        private byte prior[];
+
+        /**
+         * Adds the predictor that decode parameters call for, if any.
+         * @param in the data
+         * @param dicPar the decode parameters
+         * @return the predicted data
+         */
+        static InputStream wrap(InputStream in, PdfObject dicPar) {
+            int params[] = PdfReader.getPredictorParams(dicPar);
+            if (params == null)
+                return in;
+            return new PredictorInputStream(in, params[0], params[1]);
+        }
+
+        PredictorInputStream(InputStream in, int bytesPerPixel, int bytesPerRow) {
+            super(in, bytesPerRow);
+            this.bytesPerPixel = bytesPerPixel;
+            prior = new byte[bytesPerRow];
+        }
+
+        protected boolean decode() throws IOException {
+            byte curr[] = prior;
+            prior = out;
+            out = curr;
+            // read the filter type byte and a row of data; a partial row is dropped
+            int filter = next();
+            if (filter < 0)
+                return false;
+            for (int k = 0; k < curr.length; ) {
+                if (!fill())
+                    return false;
+                int n = Math.min(curr.length - k, inLen - inPos);
+                System.arraycopy(inBuf, inPos, curr, k, n);
+                inPos += n;
+                k += n;
+            }
+            PdfReader.decodePredictorRow(filter, curr, prior, bytesPerPixel);
+            outLen = curr.length;
+            // an empty row is no end
+            return true;
+        }
+    }
+
+    // what the bytes are to ASCIIHexDecode and ASCII85Decode, besides digits
+    private static final byte ILLEGAL = -1;
+    private static final byte WHITESPACE = -2;
+    private static final byte END = -3;
+    /** The 'z' of ASCII85Decode. */
+    private static final byte ZEROS = -4;
+
+    /** The value of each byte as a hex digit, or what it is if it isn't one. */
+    private static final byte HEX_VALUES[] = new byte[256];
+    /** The value of each byte as a base-85 digit, or what it is if it isn't one. */
+    private static final byte A85_VALUES[] = new byte[256];
+    /** 85 to the power of 0 to 4. */
+    private static final int A85_POWERS[] = {1, 85, 85 * 85, 85 * 85 * 85, 85 * 85 * 85 * 85};
+    /**
+     * What a final group that lacks n digits adds to its value, as if the
+     * missing digits were 'u': the sum of 85 to the power of 1 to n.
+     */
+    private static final int A85_PADDING[] = {0, 85, 85 * 85 + 85, 85 * 85 * 85 + 85 * 85 + 85};
+
+    static {
+        for (int ch = 0; ch < 256; ++ch) {
+            int n = PRTokeniser.getHex(ch);
+            if (ch == '>')
+                HEX_VALUES[ch] = END;
+            else if (PRTokeniser.isWhitespace(ch))
+                HEX_VALUES[ch] = WHITESPACE;
+            else
+                HEX_VALUES[ch] = n < 0 ? ILLEGAL : (byte)n;
+            if (ch == '~')
+                A85_VALUES[ch] = END;
+            else if (PRTokeniser.isWhitespace(ch))
+                A85_VALUES[ch] = WHITESPACE;
+            else if (ch == 'z')
+                A85_VALUES[ch] = ZEROS;
+            else if (ch < '!' || ch > 'u')
+                A85_VALUES[ch] = ILLEGAL;
+            else
+                A85_VALUES[ch] = (byte)(ch - '!');
+        }
+    }
+
+    /** The ASCIIHexDecode filter. */
+    static class ASCIIHexInputStream extends Stage {
+        ASCIIHexInputStream(InputStream in) {
+            super(in, BUFFER_SIZE);
+        }
+
+        ASCIIHexInputStream(byte data[]) {
+            super(data, data.length / 2 + 1);
+        }
+
+        protected boolean decode() throws IOException {
+            byte out[] = this.out;
+            int outLen = this.outLen;
+            // the first digit of a byte, once it is read
+            int n1 = -1;
+            scan:
+            while (fill()) {
+                byte in[] = inBuf;
+                int end = inLen;
+                for (int pos = inPos; pos < end; ) {
+                    int n = HEX_VALUES[in[pos++] & 0xff];
+                    if (n >= 0) {
+                        if (n1 < 0) {
+                            n1 = n;
+                            continue;
+                        }
+                        out[outLen++] = (byte)((n1 << 4) + n);
+                        n1 = -1;
+                        if (outLen == out.length) {
+                            inPos = pos;
+                            this.outLen = outLen;
+                            return true;
+                        }
+                    }
+                    else if (n == END) {
+                        inPos = pos;
+                        break scan;
+                    }
+                    else if (n == ILLEGAL)
+                        throw new RuntimeException("Illegal character in ASCIIHexDecode.");
+                }
+                inPos = end;
+            }
+            if (n1 >= 0)
+                out[outLen++] = (byte)(n1 << 4);
+            this.outLen = outLen;
+            return false;
+        }
+    }
+
+    /** The ASCII85Decode filter. */
+    static class ASCII85InputStream extends Stage {
+        ASCII85InputStream(InputStream in) {
+            super(in, BUFFER_SIZE);
+        }
+
+        ASCII85InputStream(byte data[]) {
+            super(data, data.length / 5 * 4 + 4);
+        }
+
+        protected boolean decode() throws IOException {
+            byte out[] = this.out;
+            int outLen = this.outLen;
+            // the number of digits of the group read so far, and their value
+            int state = 0;
+            int r = 0;
+            scan:
+            while (fill()) {
+                byte in[] = inBuf;
+                int end = inLen;
+                for (int pos = inPos; pos < end; ) {
+                    if (state == 0 && outLen > out.length - 4) {
+                        inPos = pos;
+                        this.outLen = outLen;
+                        return true;
+                    }
+                    int n = A85_VALUES[in[pos++] & 0xff];
+                    if (n >= 0) {
+                        r = r * 85 + n;
+                        if (++state == 5) {
+                            out[outLen++] = (byte)(r >> 24);
+                            out[outLen++] = (byte)(r >> 16);
+                            out[outLen++] = (byte)(r >> 8);
+                            out[outLen++] = (byte)r;
+                            state = 0;
+                            r = 0;
+                        }
+                    }
+                    else if (n == ZEROS && state == 0) {
+                        out[outLen++] = 0;
+                        out[outLen++] = 0;
+                        out[outLen++] = 0;
+                        out[outLen++] = 0;
+                    }
+                    else if (n == END) {
+                        inPos = pos;
+                        break scan;
+                    }
+                    else if (n != WHITESPACE)
+                        throw new RuntimeException("Illegal character in ASCII85Decode.");
+                }
+                inPos = end;
+            }
+            // a last group of 2 to 4 digits gives 1 to 3 bytes; a single digit is dropped
+            if (state >= 2) {
+                r = r * A85_POWERS[5 - state] + A85_PADDING[5 - state];
+                for (int shift = 24; shift > 32 - 8 * state; shift -= 8)
+                    out[outLen++] = (byte)(r >> shift);
+            }
+            this.outLen = outLen;
+            return false;
+        }
+    }
+
+    /** The LZWDecode filter, with the string table of <CODE>TIFFLZWDecoder</CODE>. */
+    static class LZWInputStream extends Stage {
+        private static final int andTable[] = {511, 1023, 2047, 4095};
+        private TIFFLZWDecoder table = new TIFFLZWDecoder();
+        private int nextData = 0;
+        private int nextBits = 0;
+        private boolean started = false;
+        /** The first two bytes, read to check them. */
+        private int head[] = new int[2];
+        private int headPos = 2;
+
+        LZWInputStream(InputStream in) {
+            // a code gives up to 4096 bytes
+            super(in, BUFFER_SIZE + 4096);
+        }
+
+        protected int next() throws IOException {
+            if (headPos < head.length)
+                return head[headPos++];
+            return super.next();
+        }
+
+        protected boolean decode() throws IOException {
+            if (!started) {
+                started = true;
+                head[0] = super.next();
+                head[1] = head[0] == 0 ? super.next() : 0;
+                if (head[0] < 0 || head[1] < 0)
+                    throw new ArrayIndexOutOfBoundsException("LZWDecode data too short.");
+                if (head[0] == 0x00 && head[1] == 0x01)
+                    throw new UnsupportedOperationException("TIFFLZWDecoder0");
+                // the bytes read are decoded next
+                if (head[0] == 0)
+                    headPos = 0;
+                else {
+                    head[1] = head[0];
+                    headPos = 1;
+                }
+                table.initializeStringTable();
+            }
+            while (outLen < out.length - 4096) {
+                int code = getNextCode();
+                if (code == 257)
+                    return false;
+                outLen += table.decodeCode(code, out, outLen);
+            }
+            return true;
+        }
+
+        // returns the next 9, 10, 11 or 12 bits, or EndOfInformation at the
+        // end of the data, which some strips don't end with
+        private int getNextCode() throws IOException {
+            int bitsToGet = table.bitsToGet;
+            int c = next();
+            if (c < 0)
+                return 257;
+            nextData = (nextData << 8) | c;
+            nextBits += 8;
+            if (nextBits < bitsToGet) {
+                c = next();
+                if (c < 0)
+                    return 257;
+                nextData = (nextData << 8) | c;
+                nextBits += 8;
+            }
+            int code = (nextData >> (nextBits - bitsToGet)) & andTable[bitsToGet - 9];
+            nextBits -= bitsToGet;
+            return code;
+        }
+    }
+}
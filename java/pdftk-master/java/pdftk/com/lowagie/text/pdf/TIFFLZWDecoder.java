@@ -32,18 +32,21 @@ import java.io.IOException;
  */
 public class TIFFLZWDecoder {
 
-    byte[][] stringTable;
+    // The string of a code is the string of its prefix code followed by
+    // its suffix byte, and is length bytes long; the codes below 256 are
+    // single bytes. Strings are written out from their end, back along
+    // the prefixes, so none is ever held on its own.
+    short[] prefix = new short[4096];
+    byte[] suffix = new byte[4096];
+    short[] length = new short[4096];
     byte[] data = null;
-    // ssteward
-    // byte[] uncompData;
-    OutputStream uncompData;
     int tableIndex, bitsToGet = 9;
-    int bytePointer, bitPointer;
-    int dstIndex;
-    // int w, h;
-    // int predictor, samplesPerPixel;
+    int bytePointer;
     int nextData = 0;
     int nextBits = 0;
+    int oldCode = 0;
+    // whether the code before was ClearCode
+    boolean cleared = false;
 
     int[] andTable = {
         511,
@@ -54,21 +57,37 @@ public class TIFFLZWDecoder {
 
     // ssteward: dropped w, predictor, samplesPerPixel because we won't use them
     public TIFFLZWDecoder( /* int w, int predictor, int samplesPerPixel */ ) {
-        // this.w = w;
-        // this.predictor = predictor;
-        // this.samplesPerPixel = samplesPerPixel;
+        for (int i=0; i<256; i++) {
+            suffix[i] = (byte)i;
+            length[i] = 1;
+        }
     }
 
     /**
      * Method to decode LZW compressed data.
      *
      * @param data            The compressed data.
-     * @param uncompData      Array to return the uncompressed data in.
-     * @param h               The number of rows the compressed data contains.
+     * @param uncompData      Stream to write the uncompressed data to.
      */
     // ssteward: replaced byte[] with OutputStream for uncompData and return value
     // dropped input h
     public OutputStream decode(byte[] data, OutputStream uncompData /*, int h */ ) {
+        byte[] b = decode(data);
+        try {
+            uncompData.write(b);
+        }
+        catch (IOException ee) {
+        }
+        return uncompData;
+    }
+
+    /**
+     * Method to decode LZW compressed data.
+     *
+     * @param data            The compressed data.
+     * @return                The uncompressed data.
+     */
+    public byte[] decode(byte[] data) {
 
         if(data[0] == (byte)0x00 && data[1] == (byte)0x01) {
             throw new UnsupportedOperationException("TIFFLZWDecoder0");
@@ -77,140 +96,111 @@ public class TIFFLZWDecoder {
         initializeStringTable();
 
         this.data = data;
-        // this.h = h;
-        this.uncompData = uncompData;
 
         // Initialize pointers
         bytePointer = 0;
-        bitPointer = 0;
-        dstIndex = 0;
-
-
         nextData = 0;
         nextBits = 0;
-
-        int code, oldCode = 0;
-        byte[] string;
-
-        while ( ((code = getNextCode()) != 257) /* && dstIndex != uncompData.length */ ) {
-
-            if (code == 256) {
-
-                initializeStringTable();
-                code = getNextCode();
-
-                if (code == 257) {
-                    break;
-                }
-
-                writeString(stringTable[code]);
-                oldCode = code;
-
-            } else {
-
-                if (code < tableIndex) {
-
-                    string = stringTable[code];
-
-                    writeString(string);
-                    addStringToTable(stringTable[oldCode], string[0]);
-                    oldCode = code;
-
-                } else {
-
-                    string = stringTable[oldCode];
-                    string = composeString(string, string[0]);
-                    writeString(string);
-                    addStringToTable(string);
-                    oldCode = code;
-                }
-
+        oldCode = 0;
+        cleared = false;
+
+        // LZW data often decodes to about three times its length
+        byte[] out = new byte[Math.max(data.length * 3, 8192)];
+        int n = 0;
+        int code;
+
+        while ((code = getNextCode()) != 257) {
+            // a string is shorter than the table is long
+            if (out.length - n <= 4096) {
+                byte[] b = new byte[out.length * 2];
+                System.arraycopy(out, 0, b, 0, n);
+                out = b;
             }
-
+            n += decodeCode(code, out, n);
         }
 
-	/* ssteward
-        // Horizontal Differencing Predictor
-        if (predictor == 2) {
-
-            int count;
-            for (int j = 0; j < h; j++) {
+        byte[] b = new byte[n];
+        System.arraycopy(out, 0, b, 0, n);
+        return b;
+    }
 
-                count = samplesPerPixel * (j * w + 1);
+    /**
+     * Decodes one code other than EndOfInformation.
+     *
+     * @param code  The code.
+     * @param out   Array to write the string of the code in, which has
+     *              room for 4096 bytes at <code>off</code>.
+     * @param off   Where to write the string.
+     * @return      The length of the string written.
+     */
+    int decodeCode(int code, byte[] out, int off) {
+        if (cleared) {
+            // only a single byte can follow ClearCode
+            if (code >= 256) {
+                throw new RuntimeException("Illegal code in LZWDecode.");
+            }
+            cleared = false;
+            out[off] = (byte)code;
+            oldCode = code;
+            return 1;
+        }
 
-                for (int i = samplesPerPixel; i < w * samplesPerPixel; i++) {
+        if (code == 256) {
+            initializeStringTable();
+            cleared = true;
+            return 0;
+        }
 
-                    uncompData[count] += uncompData[count - samplesPerPixel];
-                    count++;
-                }
-            }
+        // a code past the table before leaves nothing to go on
+        if (oldCode >= tableIndex) {
+            throw new RuntimeException("Illegal code in LZWDecode.");
         }
-	*/
 
-        return uncompData;
+        int n;
+        if (code < tableIndex) {
+            n = writeString(code, out, off);
+        } else {
+            // the code being defined: the string before and its first byte
+            n = writeString(oldCode, out, off);
+            out[off + n++] = out[off];
+        }
+        addStringToTable(oldCode, out[off]);
+        oldCode = code;
+        return n;
     }
 
-
     /**
      * Initialize the string table.
      */
     public void initializeStringTable() {
-
-        stringTable = new byte[4096][];
-
-        for (int i=0; i<256; i++) {
-            stringTable[i] = new byte[1];
-            stringTable[i][0] = (byte)i;
-        }
-
         tableIndex = 258;
         bitsToGet = 9;
     }
 
     /**
-     * Write out the string just uncompressed.
-     */
-    public void writeString(byte[] string) {
-	/* ssteward
-        for (int i=0; i<string.length; i++) {
-            uncompData[dstIndex++] = string[i];
-        }
-	*/
-	try {
-	    uncompData.write( string );
-	}
-	catch( IOException ee ) {
-	}
-    }
-
-    /**
-     * Add a new string to the string table.
+     * Write out the string of a code.
+     *
+     * @return the length of the string
      */
-    public void addStringToTable(byte[] oldString, byte newString) {
-        int length = oldString.length;
-        byte[] string = new byte[length + 1];
-        System.arraycopy(oldString, 0, string, 0, length);
-        string[length] = newString;
-
-        // Add this new String to the table
-        stringTable[tableIndex++] = string;
-
-        if (tableIndex == 511) {
-            bitsToGet = 10;
-        } else if (tableIndex == 1023) {
-            bitsToGet = 11;
-        } else if (tableIndex == 2047) {
-            bitsToGet = 12;
+    int writeString(int code, byte[] out, int off) {
+        int n = length[code];
+        for (int i = off + n - 1; i >= off; i--) {
+            out[i] = suffix[code];
+            code = prefix[code];
         }
+        return n;
     }
 
     /**
-     * Add a new string to the string table.
+     * Add a new string to the string table: the string of
+     * <code>oldCode</code> followed by <code>newByte</code>.
      */
-    public void addStringToTable(byte[] string) {
-
-        // Add this new String to the table
-        stringTable[tableIndex++] = string;
+    void addStringToTable(int oldCode, byte newByte) {
+        // past 4096 codes, the data is corrupted
+        prefix[tableIndex] = (short)oldCode;
+        suffix[tableIndex] = newByte;
+        length[tableIndex] = (short)(length[oldCode] + 1);
+        tableIndex++;
 
         if (tableIndex == 511) {
             bitsToGet = 10;
@@ -221,41 +211,29 @@ public class TIFFLZWDecoder {
         }
     }
 
-    /**
-     * Append <code>newString</code> to the end of <code>oldString</code>.
-     */
-    public byte[] composeString(byte[] oldString, byte newString) {
-        int length = oldString.length;
-        byte[] string = new byte[length + 1];
-        System.arraycopy(oldString, 0, string, 0, length);
-        string[length] = newString;
-
-        return string;
-    }
-
     // Returns the next 9, 10, 11 or 12 bits
     public int getNextCode() {
-        // Attempt to get the next code. The exception is caught to make
-        // this robust to cases wherein the EndOfInformation code has been
-        // omitted from a strip. Examples of such cases have been observed
-        // in practice.
-        try {
-            nextData = (nextData << 8) | (data[bytePointer++] & 0xff);
-            nextBits += 8;
+        // Attempt to get the next code. The data running out is taken as
+        // the EndOfInformation code, which has been omitted from a strip
+        // in cases that have been observed in practice.
+        if (bytePointer >= data.length) {
+            return 257;
+        }
+        nextData = (nextData << 8) | (data[bytePointer++] & 0xff);
+        nextBits += 8;
 
-            if (nextBits < bitsToGet) {
-                nextData = (nextData << 8) | (data[bytePointer++] & 0xff);
-                nextBits += 8;
+        if (nextBits < bitsToGet) {
+            if (bytePointer >= data.length) {
+                return 257;
             }
+            nextData = (nextData << 8) | (data[bytePointer++] & 0xff);
+            nextBits += 8;
+        }
 
-            int code =
-                (nextData >> (nextBits - bitsToGet)) & andTable[bitsToGet-9];
-            nextBits -= bitsToGet;
+        int code =
+            (nextData >> (nextBits - bitsToGet)) & andTable[bitsToGet-9];
+        nextBits -= bitsToGet;
 
-            return code;
-        } catch(ArrayIndexOutOfBoundsException e) {
-            // Strip not terminated as expected: return EndOfInformation code.
-            return 257;
-        }
+        return code;
     }
 }
@@ -365,7 +365,7 @@ class TrueTypeFontUnicode extends TrueTypeFont implements Comparator{
             }
             else {
                 RandomAccessFileOrArray r = new RandomAccessFileOrArray(rf);
-                b = new byte[r.length()];
+                b = new byte[(int)r.length()];
                 r.readFully(b);
             }
             int lengths[] = new int[]{b.length};
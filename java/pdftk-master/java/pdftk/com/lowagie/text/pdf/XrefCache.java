@@ -0,0 +1,396 @@
+/*
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Library General Public
+ * License as published by the Free Software Foundation; either
+ * version 2 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Library General Public License for more details.
+ *
+ * You should have received a copy of the GNU Library General Public
+ * License along with this library; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301, USA.
+ */
+
+package pdftk.com.lowagie.text.pdf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import pdftk.com.lowagie.text.ExceptionConverter;
+
+/**
+ * An on-disk cache of the cross-reference tables that readers have resolved,
+ * so that opening the same file again skips reading the xref, or rebuilding
+ * it when the file is broken. There is one entry per file, named after its
+ * path. An entry is only used while the file keeps the size, modification
+ * time and first and last bytes it had when the entry was written; otherwise
+ * it is replaced. Entries that haven't been used for the longest are
+ * removed when the cache outgrows its size limit.
+ */
+public class XrefCache {
+
+    /** The system property with the directory of the default cache. */
+    public static final String DIRECTORY_PROPERTY = "pdftk.xref_cache";
+    /** The system property with the size limit of the default cache, in megabytes. */
+    public static final String LIMIT_PROPERTY = "pdftk.xref_cache_limit";
+    /** The default size limit, in megabytes. */
+    public static final long DEFAULT_LIMIT_MB = 64;
+
+    static final int MAGIC = 0x50445843; // "PDXC"
+    static final int VERSION = 1;
+    static final String SUFFIX = ".xref";
+    /** How many bytes are hashed at each end of the file. */
+    static final int HASHED = 1024;
+
+    private static XrefCache defaultCache = null;
+    private static boolean defaultSet = false;
+
+    private File directory;
+    private long limit;
+
+    /**
+     * Creates a cache in a directory, which is created if need be.
+     * @param directory the directory of the entries
+     * @param limit the size limit of the cache, in bytes
+     */
+    public XrefCache(File directory, long limit) {
+        this.directory = directory;
+        this.limit = limit;
+    }
+
+    /**
+     * Gets the cache that readers use. This is the cache given to
+     * <CODE>setDefault()</CODE>, else a cache in the directory named by the
+     * <CODE>pdftk.xref_cache</CODE> system property, else none.
+     * @return the cache, or <CODE>null</CODE>
+     */
+    public static synchronized XrefCache getDefault() {
+        if (defaultSet)
+            return defaultCache;
+        try {
+            String dir = System.getProperty(DIRECTORY_PROPERTY);
+            if (dir == null || dir.length() == 0)
+                return null;
+            long mb = DEFAULT_LIMIT_MB;
+            String value = System.getProperty(LIMIT_PROPERTY);
+            if (value != null && Long.parseLong(value.trim()) >= 0)
+                mb = Long.parseLong(value.trim());
+            return new XrefCache(new File(dir), mb * 1024 * 1024);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+        catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the cache that readers use.
+     * @param cache the cache, or <CODE>null</CODE> for none
+     */
+    public static synchronized void setDefault(XrefCache cache) {
+        defaultCache = cache;
+        defaultSet = true;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /** What an entry is valid for. */
+    static class Key {
+        String path;
+        long length;
+        long modified;
+        byte hash[];
+
+        boolean matches(Key other) {
+            return path.equals(other.path) && length == other.length
+                && modified == other.modified && Arrays.equals(hash, other.hash);
+        }
+    }
+
+    /**
+     * Gets the key of a file.
+     * @param file the file as the reader sees it
+     * @return the key, or <CODE>null</CODE> if the input isn't a plain file
+     */
+    Key keyFor(RandomAccessFileOrArray file) {
+        if (file.filename == null)
+            return null;
+        RandomAccessFile rf = null;
+        try {
+            File f = new File(file.filename);
+            if (!f.isFile())
+                return null;
+            Key key = new Key();
+            key.path = f.getCanonicalPath();
+            key.modified = f.lastModified();
+            rf = new RandomAccessFile(f, "r");
+            key.length = rf.length();
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte b[] = new byte[(int)Math.min(HASHED, key.length)];
+            rf.readFully(b);
+            md.update(b);
+            rf.seek(key.length - b.length);
+            rf.readFully(b);
+            md.update(b);
+            key.hash = md.digest();
+            return key;
+        }
+        catch (IOException e) {
+            return null;
+        }
+        catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        finally {
+            if (rf != null) {
+                try {
+                    rf.close();
+                }
+                catch (IOException e) {
+                    // empty on purpose
+                }
+            }
+        }
+    }
+
+    private File entryFile(Key key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            byte b[] = md.digest(key.path.getBytes(StandardCharsets.UTF_8));
+            StringBuffer name = new StringBuffer();
+            for (int k = 0; k < b.length; ++k)
+                name.append(Integer.toHexString((b[k] & 0xff) | 0x100).substring(1));
+            return new File(directory, name.append(SUFFIX).toString());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new ExceptionConverter(e);
+        }
+    }
+
+    /**
+     * Gets what was stored for a file. An entry that is stale or can't be
+     * read is removed.
+     * @param key the key of the file
+     * @return the stored bytes, or <CODE>null</CODE>
+     */
+    byte[] get(Key key) {
+        File entry = entryFile(key);
+        if (!entry.isFile())
+            return null;
+        byte data[] = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(new FileInputStream(entry))));
+            if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+                Key stored = new Key();
+                stored.path = in.readUTF();
+                stored.length = in.readLong();
+                stored.modified = in.readLong();
+                stored.hash = new byte[in.readUnsignedByte()];
+                in.readFully(stored.hash);
+                if (stored.matches(key)) {
+                    data = new byte[in.readInt()];
+                    in.readFully(data);
+                }
+            }
+        }
+        catch (IOException e) {
+            data = null;
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    // empty on purpose
+                }
+            }
+        }
+        if (data == null)
+            entry.delete();
+        else
+            entry.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    /**
+     * Stores bytes for a file, replacing what was stored before, then trims
+     * the cache to its size limit.
+     * @param key the key of the file
+     * @param data the bytes
+     */
+    void put(Key key, byte data[]) {
+        File entry = entryFile(key);
+        File tmp = null;
+        try {
+            directory.mkdirs();
+            tmp = File.createTempFile("tmp", SUFFIX + ".part", directory);
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(key.path);
+                out.writeLong(key.length);
+                out.writeLong(key.modified);
+                out.writeByte(key.hash.length);
+                out.write(key.hash);
+                out.writeInt(data.length);
+                out.write(data);
+            }
+            finally {
+                out.close();
+            }
+            // readers in other processes see either the old entry or the new one
+            try {
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e) {
+                Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            tmp = null;
+            trim();
+        }
+        catch (IOException e) {
+            // the cache is only an optimization
+        }
+        catch (SecurityException e) {
+            // the cache is only an optimization
+        }
+        finally {
+            if (tmp != null)
+                tmp.delete();
+        }
+    }
+
+    /**
+     * Removes what was stored for a file.
+     * @param key the key of the file
+     */
+    void remove(Key key) {
+        entryFile(key).delete();
+    }
+
+    /** Removes the least recently used entries until the cache fits its limit. */
+    void trim() {
+        File files[] = directory.listFiles();
+        if (files == null)
+            return;
+        ArrayList entries = new ArrayList();
+        long size = 0;
+        for (int k = 0; k < files.length; ++k) {
+            if (files[k].getName().endsWith(SUFFIX) && files[k].isFile()) {
+                entries.add(files[k]);
+                size += files[k].length();
+            }
+        }
+        if (size <= limit)
+            return;
+        File sorted[] = (File[])entries.toArray(new File[entries.size()]);
+        final long modified[] = new long[sorted.length];
+        Integer order[] = new Integer[sorted.length];
+        for (int k = 0; k < sorted.length; ++k) {
+            modified[k] = sorted[k].lastModified();
+            order[k] = Integer.valueOf(k);
+        }
+        Arrays.sort(order, new Comparator() {
+            public int compare(Object a, Object b) {
+                long ma = modified[((Integer)a).intValue()];
+                long mb = modified[((Integer)b).intValue()];
+                return ma < mb ? -1 : (ma == mb ? 0 : 1);
+            }
+        });
+        for (int k = 0; k < order.length && size > limit; ++k) {
+            File f = sorted[order[k].intValue()];
+            long length = f.length();
+            if (f.delete())
+                size -= length;
+        }
+    }
+
+    /**
+     * Writes a direct object in PDF syntax, so that the reader can parse it
+     * back. Streams are written as their dictionaries.
+     * @param obj the object
+     * @param buf where to write it
+     */
+    static void writeObject(PdfObject obj, ByteBuffer buf) {
+        if (obj == null || obj.isNull()) {
+            buf.append("null");
+        }
+        else if (obj.isIndirect()) {
+            PdfIndirectReference ref = (PdfIndirectReference)obj;
+            buf.append(ref.getNumber()).append(' ').append(ref.getGeneration()).append(" R");
+        }
+        else if (obj.isString()) {
+            PdfString str = (PdfString)obj;
+            byte b[] = str.getOriginalBytes();
+            if (str.isHexWriting()) {
+                buf.append('<');
+                for (int k = 0; k < b.length; ++k)
+                    buf.append(Integer.toHexString((b[k] & 0xff) | 0x100).substring(1));
+                buf.append('>');
+            }
+            else {
+                buf.append('(');
+                for (int k = 0; k < b.length; ++k)
+                    buf.append('\\').append(Integer.toOctalString((b[k] & 0xff) | 0x200).substring(1));
+                buf.append(')');
+            }
+        }
+        else if (obj.isArray()) {
+            ArrayList list = ((PdfArray)obj).getArrayList();
+            buf.append('[');
+            for (int k = 0; k < list.size(); ++k) {
+                writeObject((PdfObject)list.get(k), buf);
+                buf.append(' ');
+            }
+            buf.append(']');
+        }
+        else if (obj.isDictionary() || obj.isStream()) {
+            PdfDictionary dic = (PdfDictionary)obj;
+            buf.append("<<");
+            for (Iterator i = dic.getKeys().iterator(); i.hasNext();) {
+                PdfName name = (PdfName)i.next();
+                buf.append(name.getBytes()).append(' ');
+                writeObject(dic.get(name), buf);
+                buf.append(' ');
+            }
+            buf.append(">>");
+        }
+        else {
+            // names, numbers and booleans
+            buf.append(obj.getBytes());
+        }
+    }
+}
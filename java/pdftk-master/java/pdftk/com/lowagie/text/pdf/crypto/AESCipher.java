@@ -54,57 +54,70 @@
  */
 package pdftk.com.lowagie.text.pdf.crypto;
 
-import org.bouncycastle.crypto.BlockCipher;
-import org.bouncycastle.crypto.engines.AESFastEngine;
-import org.bouncycastle.crypto.modes.CBCBlockCipher;
-import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
-import org.bouncycastle.crypto.params.KeyParameter;
-import org.bouncycastle.crypto.params.ParametersWithIV;
+import java.util.ArrayList;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import pdftk.com.lowagie.text.ExceptionConverter;
 
 /**
  * Creates an AES Cipher with CBC and padding PKCS5/7.
+ * The key may be 128 or 256 bits long. The work is done by the
+ * <CODE>javax.crypto</CODE> provider of the platform, which uses the
+ * AES instructions of the processor where it can.
  * @author Paulo Soares (psoares@consiste.pt)
  */
 public class AESCipher {
-    private PaddedBufferedBlockCipher bp;
+    private Cipher cipher;
+    
+    /**
+     * The ciphers of the calling thread that are done with their stream.
+     * Each object of an encrypted document has its own cipher, and getting
+     * one from the provider takes longer than encrypting a small object.
+     */
+    private static final ThreadLocal idle = new ThreadLocal() {
+        protected Object initialValue() {
+            return new ArrayList();
+        }
+    };
     
     /** Creates a new instance of AESCipher */
     public AESCipher(boolean forEncryption, byte[] key, byte[] iv) {
-        BlockCipher aes = new AESFastEngine();
-        BlockCipher cbc = new CBCBlockCipher(aes);
-        bp = new PaddedBufferedBlockCipher(cbc);
-        KeyParameter kp = new KeyParameter(key);
-        ParametersWithIV piv = new ParametersWithIV(kp, iv);
-        bp.init(forEncryption, piv);
+        try {
+            ArrayList ciphers = (ArrayList)idle.get();
+            if (ciphers.isEmpty())
+                cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            else
+                cipher = (Cipher)ciphers.remove(ciphers.size() - 1);
+            cipher.init(forEncryption ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE,
+                new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+        }
+        catch (Exception e) {
+            throw new ExceptionConverter(e);
+        }
     }
     
     public byte[] update(byte[] inp, int inpOff, int inpLen) {
-        int neededLen = bp.getUpdateOutputSize(inpLen);
-        byte[] outp = null;
-        if (neededLen > 0)
-            outp = new byte[neededLen];
-        else
-            neededLen = 0;
-        bp.processBytes(inp, inpOff, inpLen, outp, 0);
-        return outp;
+        return cipher.update(inp, inpOff, inpLen);
     }
     
+    /** Finishes the stream; the cipher may not be used after this. */
     public byte[] doFinal() {
-        int neededLen = bp.getOutputSize(0);
-        byte[] outp = new byte[neededLen];
-        int n = 0;
+        if (cipher == null)
+            return new byte[0];
         try {
-            n = bp.doFinal(outp, 0);
-        } catch (Exception ex) {
-            return outp;
+            return cipher.doFinal();
+        }
+        catch (Exception ex) {
+            // a truncated or badly padded stream; keep what was decrypted
+            return new byte[0];
         }
-        if (n != outp.length) {
-            byte[] outp2 = new byte[n];
-            System.arraycopy(outp, 0, outp2, 0, n);
-            return outp2;
+        finally {
+            ((ArrayList)idle.get()).add(cipher);
+            cipher = null;
         }
-        else
-            return outp;
     }
     
 }
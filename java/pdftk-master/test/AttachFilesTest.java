@@ -1,9 +1,11 @@
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.io.IOException;
+import java.util.Random;
 
 import com.gitlab.pdftk_java.pdftk;
 
@@ -37,4 +39,47 @@ public class AttachFilesTest extends BlackBox {
     String attachedData = slurp(tmpDirectory.getRoot().getPath()+"/blank.tex");
     assertEquals(expectedData, attachedData);
   }
+
+  @Test
+  public void unpack_large_binary_file() throws IOException {
+    // larger than the buffers of the decoder, and partly compressible
+    byte[] expectedData = new byte[3000000];
+    new Random(1).nextBytes(expectedData);
+    for (int i = 0; i < expectedData.length; i += 2) {
+      expectedData[i] = (byte) (i / 1000);
+    }
+    String attachment = tmpDirectory.getRoot().getPath()+"/data.bin";
+    Files.write(Paths.get(attachment), expectedData);
+    String output = tmpDirectory.getRoot().getPath()+"/output.pdf";
+    pdftk("test/files/blank.pdf", "attach_files", attachment, "output", output);
+    String unpacked = tmpDirectory.newFolder("unpacked").getPath();
+    pdftk(output, "unpack_files", "output", unpacked);
+    byte[] attachedData = slurpBytes(unpacked+"/data.bin");
+    assertArrayEquals(expectedData, attachedData);
+  }
+
+  @Test
+  public void large_attachment_through_encryption_and_filters() throws IOException {
+    // long enough to be written a block at a time
+    byte[] expectedData = new byte[3000000];
+    new Random(2).nextBytes(expectedData);
+    for (int i = 0; i < expectedData.length; i += 3) {
+      expectedData[i] = (byte) (i / 1000);
+    }
+    String attachment = tmpDirectory.getRoot().getPath()+"/data.bin";
+    Files.write(Paths.get(attachment), expectedData);
+    String output = tmpDirectory.getRoot().getPath()+"/output.pdf";
+    String encrypted = tmpDirectory.getRoot().getPath()+"/encrypted.pdf";
+    String reencrypted = tmpDirectory.getRoot().getPath()+"/reencrypted.pdf";
+    String decrypted = tmpDirectory.getRoot().getPath()+"/decrypted.pdf";
+    pdftk("test/files/blank.pdf", "attach_files", attachment, "output", output);
+    pdftk(output, "output", encrypted, "encrypt_aes256", "user_pw", "foo", "uncompress");
+    pdftk(encrypted, "input_pw", "foo", "output", reencrypted,
+          "encrypt_128bit", "user_pw", "bar", "compress");
+    pdftk(reencrypted, "input_pw", "bar", "output", decrypted);
+    String unpacked = tmpDirectory.newFolder("unpacked").getPath();
+    pdftk(decrypted, "unpack_files", "output", unpacked);
+    byte[] attachedData = slurpBytes(unpacked+"/data.bin");
+    assertArrayEquals(expectedData, attachedData);
+  }
 };
@@ -0,0 +1,32 @@
+import java.util.Arrays;
+
+// Minimal timing harness for the *Bench programs in this directory.
+// These are not unit tests (the test runner only picks up *Test
+// classes); run them by hand against a large PDF, e.g.
+//
+//   java -cp build/classes:build/test InputBench big.pdf 5
+public class Bench {
+  public interface Task {
+    void run() throws Exception;
+  }
+
+  // Run task reps times after one warm-up run and print the fastest
+  // and the median wall time.
+  public static void time(String label, int reps, Task task) throws Exception {
+    task.run();
+    long[] times = new long[reps];
+    for (int i = 0; i < reps; ++i) {
+      long start = System.nanoTime();
+      task.run();
+      times[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(times);
+    System.out.printf(
+        "%-32s min %9.2f ms  median %9.2f ms%n",
+        label, times[0] / 1e6, times[reps / 2] / 1e6);
+  }
+
+  public static int reps(String[] args, int index, int fallback) {
+    return (index < args.length) ? Integer.parseInt(args[index]) : fallback;
+  }
+};
@@ -1,8 +1,18 @@
+import static org.junit.Assert.assertEquals;
+
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import com.gitlab.pdftk_java.pdftk;
+import pdftk.com.lowagie.text.pdf.PdfArray;
+import pdftk.com.lowagie.text.pdf.PdfName;
+import pdftk.com.lowagie.text.pdf.PdfObject;
+import pdftk.com.lowagie.text.pdf.PdfReader;
 
 public class BurstTest extends BlackBox {
   @Test
@@ -10,4 +20,84 @@ public class BurstTest extends BlackBox {
     String pattern = tmpDirectory.getRoot().getPath() + "/page%04d.pdf";
     pdftk("test/files/issue18.pdf", "burst", "output", pattern);
   }
+
+  @Test
+  public void burst_on_threads_matches_burst() throws IOException {
+    File sequential = tmpDirectory.newFolder("sequential");
+    File parallel = tmpDirectory.newFolder("parallel");
+    PdfReader.setThreads(1);
+    try {
+      pdftk("test/files/refs.pdf", "burst", "output", sequential.getPath() + "/page%04d.pdf");
+      PdfReader.setThreads(4);
+      pdftk("test/files/refs.pdf", "burst", "output", parallel.getPath() + "/page%04d.pdf");
+    } finally {
+      PdfReader.setThreads(0);
+    }
+    String[] pages = sequential.list();
+    assertEquals(pages.length, parallel.list().length);
+    for (String page : pages) {
+      if (page.endsWith(".pdf")) {
+        assertPdfEqualsAsPS(slurpBytes(sequential.getPath() + "/" + page),
+                            slurpBytes(parallel.getPath() + "/" + page));
+      }
+    }
+  }
+
+  @Test
+  public void burst_encrypted_on_threads_matches_burst() throws IOException {
+    File encrypted = new File(tmpDirectory.getRoot(), "encrypted.pdf");
+    pdftk("test/files/refs.pdf", "output", encrypted.getPath(), "user_pw", "bar");
+    File sequential = tmpDirectory.newFolder("sequential");
+    File parallel = tmpDirectory.newFolder("parallel");
+    PdfReader.setThreads(1);
+    try {
+      pdftk(encrypted.getPath(), "input_pw", "bar",
+            "burst", "output", sequential.getPath() + "/page%04d.pdf");
+      PdfReader.setThreads(4);
+      pdftk(encrypted.getPath(), "input_pw", "bar",
+            "burst", "output", parallel.getPath() + "/page%04d.pdf");
+    } finally {
+      PdfReader.setThreads(0);
+    }
+    String[] pages = sequential.list();
+    assertEquals(pages.length, parallel.list().length);
+    for (String page : pages) {
+      if (page.endsWith(".pdf")) {
+        assertPdfEqualsAsPS(slurpBytes(sequential.getPath() + "/" + page),
+                            slurpBytes(parallel.getPath() + "/" + page));
+      }
+    }
+  }
+
+  @Test
+  public void burst_encrypted_pages_have_own_keys() throws IOException {
+    File many = new File(tmpDirectory.getRoot(), "many.pdf");
+    ArrayList<String> args = new ArrayList<String>(Arrays.asList("A=test/files/blank.pdf", "cat"));
+    for (int k = 0; k < 100; ++k) {
+      args.add("A");
+    }
+    args.add("output");
+    args.add(many.getPath());
+    pdftk(args.toArray(new String[0]));
+
+    File pages = tmpDirectory.newFolder("pages");
+    String pattern = pages.getPath() + "/page%04d.pdf";
+    PdfReader.setThreads(8);
+    try {
+      pdftk(many.getPath(), "burst", "output", pattern, "user_pw", "bar");
+    } finally {
+      PdfReader.setThreads(0);
+    }
+    HashSet<String> ids = new HashSet<String>();
+    for (int page = 1; page <= 300; ++page) {
+      PdfReader reader = new PdfReader(String.format(pattern, page), "bar".getBytes());
+      ids.add(Arrays.toString(fileId(reader)));
+    }
+    assertEquals(300, ids.size());
+  }
+
+  static byte[] fileId(PdfReader reader) {
+    PdfArray id = (PdfArray) reader.getTrailer().get(PdfName.ID);
+    return ((PdfObject) id.getArrayList().get(0)).getBytes();
+  }
 };
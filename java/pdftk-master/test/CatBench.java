@@ -0,0 +1,104 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import com.gitlab.pdftk_java.pdftk;
+
+// Time cat of a scan, and report how many bytes the current thread
+// allocates for it. The scan is one page per image of random bytes,
+// which cat copies without changing them. The PDF is written first.
+//
+// usage: CatBench in.pdf out.pdf [megabytes] [reps]
+public class CatBench {
+  static final int IMAGE_SIZE = 1 << 20;
+
+  static class CountingOutputStream extends BufferedOutputStream {
+    long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+      super(out, 1 << 16);
+    }
+
+    void write(CharSequence s) throws IOException {
+      write(s.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      super.write(b, off, len);
+      count += len;
+    }
+  }
+
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  static void cat(String input, String output) {
+    if (pdftk.main_noexit(new String[] {input, "cat", "output", output}) != 0) {
+      throw new RuntimeException("cat failed");
+    }
+  }
+
+  static void writeScan(String filename, int pages) throws IOException {
+    Random random = new Random(pages);
+    byte[] image = new byte[IMAGE_SIZE];
+    int objects = 3 + 3 * pages;
+    long[] offsets = new long[objects];
+    try (CountingOutputStream out = new CountingOutputStream(new FileOutputStream(filename))) {
+      out.write("%PDF-1.4\n");
+      offsets[1] = out.count;
+      out.write("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+      offsets[2] = out.count;
+      StringBuilder sb = new StringBuilder("2 0 obj\n<< /Type /Pages /Count ");
+      sb.append(pages).append(" /Kids [");
+      for (int p = 0; p < pages; ++p) {
+        sb.append(3 + 3 * p).append(" 0 R ");
+      }
+      out.write(sb.append("] >>\nendobj\n"));
+      for (int p = 0; p < pages; ++p) {
+        int page = 3 + 3 * p;
+        String content = "q 612 0 0 792 0 0 cm /Im0 Do Q";
+        offsets[page] = out.count;
+        out.write(page + " 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792]"
+                  + " /Resources << /XObject << /Im0 " + (page + 2) + " 0 R >> >>"
+                  + " /Contents " + (page + 1) + " 0 R >>\nendobj\n");
+        offsets[page + 1] = out.count;
+        out.write((page + 1) + " 0 obj\n<< /Length " + content.length() + " >>\nstream\n"
+                  + content + "\nendstream\nendobj\n");
+        random.nextBytes(image);
+        offsets[page + 2] = out.count;
+        out.write((page + 2) + " 0 obj\n<< /Type /XObject /Subtype /Image /Width 1024"
+                  + " /Height 1024 /BitsPerComponent 8 /ColorSpace /DeviceGray"
+                  + " /Length " + IMAGE_SIZE + " >>\nstream\n");
+        out.write(image, 0, image.length);
+        out.write("\nendstream\nendobj\n");
+      }
+      long xref = out.count;
+      StringBuilder table = new StringBuilder("xref\n0 " + objects + "\n0000000000 65535 f \n");
+      for (int i = 1; i < objects; ++i) {
+        table.append(String.format("%010d 00000 n \n", offsets[i]));
+      }
+      out.write(table);
+      out.write("trailer\n<< /Size " + objects + " /Root 1 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String input = args[0];
+    final String output = args[1];
+    int pages = Bench.reps(args, 2, 256);
+    int reps = Bench.reps(args, 3, 3);
+
+    writeScan(input, pages);
+    long before = allocated();
+    cat(input, output);
+    System.out.printf("cat: %.1f MB allocated%n", (allocated() - before) / 1e6);
+    Bench.time("cat, " + pages + " MB of images", reps, () -> cat(input, output));
+  }
+};
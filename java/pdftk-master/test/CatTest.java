@@ -1,3 +1,6 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 import java.io.IOException;
 
@@ -38,4 +41,21 @@ public class CatTest extends BlackBox {
     byte[] actual = getPdf("test/files/blank.pdf", "cat", "1-1east", "output", "-");
     assertPdfEqualsAsPS(expected, actual);
   }
+
+  @Test
+  public void cat_compress_objects() {
+    byte[] expected = getPdf("test/files/blank.pdf", "cat", "output", "-");
+    byte[] actual = getPdf("test/files/blank.pdf", "cat", "output", "-", "compress_objects");
+    assertEquals("%PDF-1.5", new String(actual, 0, 8));
+    assertPdfEqualsAsPS(expected, actual);
+  }
+
+  @Test
+  public void cat_dedup_objects() {
+    byte[] expected = getPdf("test/files/blank.pdf", "test/files/blank.pdf", "cat", "output", "-");
+    byte[] actual =
+        getPdf("test/files/blank.pdf", "test/files/blank.pdf", "cat", "output", "-", "dedup_objects");
+    assertTrue(actual.length < expected.length);
+    assertPdfEqualsAsPS(expected, actual);
+  }
 };
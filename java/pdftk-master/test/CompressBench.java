@@ -0,0 +1,28 @@
+import com.gitlab.pdftk_java.pdftk;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time compress and uncompress of a PDF with one or more threads. With
+// more than one, streams are compressed on other threads while the
+// objects after them are written.
+//
+// usage: CompressBench in.pdf out.pdf [reps] [max threads]
+public class CompressBench {
+  static void run(String input, String output, String operation) {
+    if (pdftk.main_noexit(new String[] {input, "output", output, operation}) != 0) {
+      throw new RuntimeException(operation + " failed");
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String input = args[0];
+    final String output = args[1];
+    int reps = Bench.reps(args, 2, 5);
+    int maxThreads = Bench.reps(args, 3, Runtime.getRuntime().availableProcessors());
+
+    for (int n = 1; n <= maxThreads; n *= 2) {
+      PdfReader.setThreads(n);
+      Bench.time("uncompress, " + n + " thread(s)", reps, () -> run(input, output, "uncompress"));
+      Bench.time("compress, " + n + " thread(s)", reps, () -> run(input, output, "compress"));
+    }
+  }
+};
@@ -0,0 +1,71 @@
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.regex.Pattern;
+
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+public class CompressTest extends BlackBox {
+  // document IDs and dates, which change from run to run
+  static final Pattern IDS_AND_DATES =
+    Pattern.compile("/(ModDate|CreationDate)\\s*(\\((\\\\.|[^\\\\)])*\\)|<[0-9a-fA-F]*>)"
+                    + "|/ID\\s*\\[[^\\]]*\\]");
+
+  static byte[] withoutIdsAndDates(byte[] pdf) {
+    String s = new String(pdf, StandardCharsets.ISO_8859_1);
+    return IDS_AND_DATES.matcher(s).replaceAll("").getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  byte[] getPdfOnThreads(int threads, String... args) {
+    PdfReader.setThreads(threads);
+    try {
+      return getPdf(args);
+    } finally {
+      PdfReader.setThreads(0);
+    }
+  }
+
+  void assertSameOnThreads(String... args) {
+    assertArrayEquals(withoutIdsAndDates(getPdfOnThreads(1, args)),
+                      withoutIdsAndDates(getPdfOnThreads(4, args)));
+  }
+
+  @Test
+  public void compress_is_same_on_threads() {
+    assertSameOnThreads("test/files/blank.pdf", "output", "-", "compress");
+  }
+
+  @Test
+  public void uncompress_is_same_on_threads() {
+    assertSameOnThreads("test/files/blank.pdf", "output", "-", "uncompress");
+  }
+
+  @Test
+  public void decrypting_is_same_on_threads() throws IOException {
+    File encrypted = new File(tmpDirectory.getRoot(), "encrypted.pdf");
+    pdftk("test/files/blank.pdf", "output", encrypted.getPath(), "user_pw", "bar");
+    assertSameOnThreads(encrypted.getPath(), "input_pw", "bar", "output", "-", "compress");
+  }
+
+  // Each run encrypts with a key of its own, so compare what the outputs
+  // decrypt to.
+  @Test
+  public void encrypting_is_same_on_threads() throws IOException {
+    File[] encrypted = new File[2];
+    byte[][] decrypted = new byte[2][];
+    for (int k = 0; k < 2; ++k) {
+      encrypted[k] = new File(tmpDirectory.getRoot(), "encrypted" + k + ".pdf");
+      Files.write(encrypted[k].toPath(),
+                  getPdfOnThreads(k == 0 ? 1 : 4, "test/files/blank.pdf", "output", "-",
+                                  "compress", "user_pw", "bar"));
+      decrypted[k] = withoutIdsAndDates(
+        getPdfOnThreads(1, encrypted[k].getPath(), "input_pw", "bar", "output", "-"));
+    }
+    assertArrayEquals(decrypted[0], decrypted[1]);
+  }
+};
@@ -0,0 +1,105 @@
+import com.gitlab.pdftk_java.pdftk;
+import java.util.Random;
+import org.bouncycastle.crypto.engines.AESFastEngine;
+import org.bouncycastle.crypto.modes.CBCBlockCipher;
+import org.bouncycastle.crypto.paddings.PaddedBufferedBlockCipher;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import pdftk.com.lowagie.text.pdf.PdfEncryption;
+import pdftk.com.lowagie.text.pdf.PdfWriter;
+import pdftk.com.lowagie.text.pdf.crypto.AESCipher;
+import pdftk.com.lowagie.text.pdf.crypto.ARCFOUREncryption;
+
+// Time the ciphers of PDF encryption, first on their own, then with the
+// key of each object derived from the global key as a writer does, and
+// last as pdftk encrypting and decrypting a whole PDF. AES-128 runs both
+// through BouncyCastle, as it used to, and through javax.crypto, which
+// uses the AES instructions of the processor where it can.
+//
+// usage: CryptoBench in.pdf out.pdf [reps] [MB]
+public class CryptoBench {
+  static byte[] random(int len) {
+    byte[] b = new byte[len];
+    new Random(len).nextBytes(b);
+    return b;
+  }
+
+  static void rc4(byte[] key, byte[] data) {
+    ARCFOUREncryption rc4 = new ARCFOUREncryption();
+    rc4.prepareARCFOURKey(key);
+    rc4.encryptARCFOUR(data, 0, data.length, new byte[data.length], 0);
+  }
+
+  static void bouncycastle(byte[] key, byte[] data) throws Exception {
+    PaddedBufferedBlockCipher aes =
+        new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+    aes.init(true, new ParametersWithIV(new KeyParameter(key), new byte[16]));
+    byte[] out = new byte[aes.getOutputSize(data.length)];
+    int n = aes.processBytes(data, 0, data.length, out, 0);
+    aes.doFinal(out, n);
+  }
+
+  static void jce(byte[] key, byte[] data) {
+    AESCipher aes = new AESCipher(true, key, new byte[16]);
+    aes.update(data, 0, data.length);
+    aes.doFinal();
+  }
+
+  // encrypt objects of size bytes, in all mb megabytes, each with its own key
+  static void objects(int type, int size, int mb) {
+    PdfEncryption crypto = new PdfEncryption();
+    crypto.setCryptoMode(type, 0);
+    crypto.setupAllKeys("user".getBytes(), "owner".getBytes(), 0);
+    byte[] data = random(size);
+    for (int n = 1; n <= (mb << 20) / size; ++n) {
+      crypto.getObjectKey(n, 0).encryptByteArray(data);
+    }
+  }
+
+  static void run(String... args) {
+    if (pdftk.main_noexit(args) != 0) {
+      throw new RuntimeException(String.join(" ", args) + " failed");
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String input = args[0];
+    final String output = args[1];
+    int reps = Bench.reps(args, 2, 5);
+    final int mb = Bench.reps(args, 3, 64);
+
+    final byte[] data = random(mb << 20);
+    final byte[] key128 = random(16);
+    final byte[] key256 = random(32);
+    Bench.time("RC4-128, " + mb + " MB", reps, () -> rc4(key128, data));
+    Bench.time("AES-128 BouncyCastle, " + mb + " MB", reps, () -> bouncycastle(key128, data));
+    Bench.time("AES-128 JCE, " + mb + " MB", reps, () -> jce(key128, data));
+    Bench.time("AES-256 JCE, " + mb + " MB", reps, () -> jce(key256, data));
+
+    for (final int size : new int[] {256, 16384}) {
+      Bench.time(
+          "RC4-128 objects of " + size,
+          reps,
+          () -> objects(PdfWriter.STANDARD_ENCRYPTION_128, size, mb));
+      Bench.time(
+          "AES-128 objects of " + size,
+          reps,
+          () -> objects(PdfWriter.ENCRYPTION_AES_128, size, mb));
+      Bench.time(
+          "AES-256 objects of " + size,
+          reps,
+          () -> objects(PdfWriter.ENCRYPTION_AES_256, size, mb));
+    }
+
+    for (final String strength : new String[] {"encrypt_128bit", "encrypt_aes256"}) {
+      Bench.time(
+          "pdftk " + strength,
+          reps,
+          () -> run(input, "output", output, strength, "user_pw", "user"));
+      Bench.time(
+          "pdftk decrypt " + strength,
+          reps,
+          () -> run(output, "input_pw", "user", "output", output + ".decrypted.pdf"));
+    }
+  }
+};
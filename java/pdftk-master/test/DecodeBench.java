@@ -0,0 +1,56 @@
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import pdftk.com.lowagie.text.pdf.PRStream;
+import pdftk.com.lowagie.text.pdf.PdfObject;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time decoding every stream of a PDF, into arrays and as streams, and
+// report how many bytes the current thread allocates for each.
+//
+// usage: DecodeBench file.pdf [reps]
+public class DecodeBench {
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  static long decode(PdfReader reader, boolean streaming) throws Exception {
+    long total = 0;
+    byte[] buf = new byte[65536];
+    for (int i = 1; i < reader.getXrefSize(); ++i) {
+      PdfObject obj = reader.getPdfObject(i);
+      if (obj == null || !obj.isStream()) {
+        continue;
+      }
+      if (streaming) {
+        try (InputStream in = PdfReader.getStreamInputStream((PRStream) obj)) {
+          int n;
+          while ((n = in.read(buf)) >= 0) {
+            total += n;
+          }
+        }
+      } else {
+        total += PdfReader.getStreamBytes((PRStream) obj).length;
+      }
+    }
+    return total;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String filename = args[0];
+    int reps = Bench.reps(args, 1, 5);
+    final PdfReader reader = new PdfReader(filename);
+
+    for (final boolean streaming : new boolean[] {false, true}) {
+      String label = streaming ? "getStreamInputStream" : "getStreamBytes";
+      long before = allocated();
+      long total = decode(reader, streaming);
+      System.out.printf(
+          "%s: %.1f MB decoded, %.1f MB allocated%n",
+          label, total / 1e6, (allocated() - before) / 1e6);
+      Bench.time(label, reps, () -> decode(reader, streaming));
+    }
+    reader.close();
+  }
+};
@@ -0,0 +1,56 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import pdftk.com.lowagie.text.pdf.PdfReader;
+import pdftk.com.lowagie.text.pdf.PdfWriter;
+
+public class EncryptTest extends BlackBox {
+  @Test
+  public void aes256_opens_with_either_password() throws IOException {
+    byte[] output = getPdf("test/files/blank.pdf", "cat", "output", "-",
+                           "encrypt_aes256", "owner_pw", "foo", "user_pw", "bar");
+    PdfReader owner = new PdfReader(output, "foo".getBytes());
+    assertTrue(owner.isEncrypted());
+    assertTrue(owner.isOpenedWithFullPermissions());
+    assertEquals(PdfWriter.ENCRYPTION_AES_256, owner.getCryptoMode());
+    assertEquals(PdfWriter.VERSION_1_7, owner.getPdfVersion());
+    assertEquals(3, owner.getNumberOfPages());
+    PdfReader user = new PdfReader(output, "bar".getBytes());
+    assertFalse(user.isOpenedWithFullPermissions());
+    assertEquals(3, user.getNumberOfPages());
+    try {
+      new PdfReader(output, "baz".getBytes());
+      fail("opened with a wrong password");
+    } catch (IOException e) {
+    }
+  }
+
+  @Test
+  public void aes256_decrypts_to_input() throws IOException {
+    File encrypted = new File(tmpDirectory.getRoot(), "encrypted.pdf");
+    pdftk("test/files/blank.pdf", "output", encrypted.getPath(),
+          "encrypt_aes256", "user_pw", "bar", "compress_objects");
+    byte[] expected = getPdf("test/files/blank.pdf", "output", "-");
+    byte[] actual = getPdf(encrypted.getPath(), "input_pw", "bar", "output", "-");
+    assertPdfEqualsAsPS(expected, actual);
+  }
+
+  @Test
+  public void aes256_burst_with_object_streams_is_pdf_1_7() throws IOException {
+    String pattern = tmpDirectory.getRoot().getPath() + "/page%04d.pdf";
+    pdftk("test/files/blank.pdf", "burst", "output", pattern,
+          "encrypt_aes256", "user_pw", "bar", "compress_objects");
+    for (int page = 1; page <= 3; ++page) {
+      PdfReader reader = new PdfReader(String.format(pattern, page), "bar".getBytes());
+      assertEquals(PdfWriter.ENCRYPTION_AES_256, reader.getCryptoMode());
+      assertEquals(PdfWriter.VERSION_1_7, reader.getPdfVersion());
+    }
+  }
+};
@@ -0,0 +1,182 @@
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Random;
+import pdftk.com.lowagie.text.pdf.PRStream;
+import pdftk.com.lowagie.text.pdf.PdfDictionary;
+import pdftk.com.lowagie.text.pdf.PdfName;
+import pdftk.com.lowagie.text.pdf.PdfNumber;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time the ASCIIHexDecode, ASCII85Decode and LZWDecode filters and the PNG
+// predictors on a few MB of data, both on a whole array and as a stream is
+// read, and report how many bytes the current thread allocates for each
+// MB decoded.
+//
+// usage: FilterBench [reps] [MB]
+public class FilterBench {
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // text with some repetition, for LZW to find
+  static byte[] text(Random random, int len) {
+    byte[] b = new byte[len];
+    for (int k = 0; k < len; ++k) {
+      b[k] = (byte) (random.nextInt(4) == 0 ? ' ' : 'a' + random.nextInt(8));
+    }
+    return b;
+  }
+
+  static byte[] hex(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int k = 0; k < data.length; ++k) {
+      out.write(Character.forDigit((data[k] >> 4) & 0xf, 16));
+      out.write(Character.forDigit(data[k] & 0xf, 16));
+      if (k % 32 == 31) {
+        out.write('\n');
+      }
+    }
+    out.write('>');
+    return out.toByteArray();
+  }
+
+  static byte[] ascii85(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int k = 0; k < data.length; k += 4) {
+      int n = Math.min(4, data.length - k);
+      long r = 0;
+      for (int j = 0; j < 4; ++j) {
+        r = (r << 8) | (j < n ? data[k + j] & 0xff : 0);
+      }
+      if (r == 0 && n == 4) {
+        out.write('z');
+        continue;
+      }
+      byte[] group = new byte[5];
+      for (int j = 4; j >= 0; --j) {
+        group[j] = (byte) ('!' + r % 85);
+        r /= 85;
+      }
+      out.write(group, 0, n + 1);
+      if (k % 64 == 60) {
+        out.write('\n');
+      }
+    }
+    out.write('~');
+    out.write('>');
+    return out.toByteArray();
+  }
+
+  // LZW with the early change of PDF, clearing the table when it is full
+  static byte[] lzw(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    HashMap<Integer, Integer> table = new HashMap<>();
+    long bits = 0;
+    int count = 0;
+    int next = 258;
+    int width = 9;
+    int[] codes = new int[data.length + 2];
+    int[] widths = new int[data.length + 2];
+    int n = 0;
+    codes[n] = 256;
+    widths[n++] = width;
+    int w = data[0] & 0xff;
+    for (int k = 1; k < data.length; ++k) {
+      int c = data[k] & 0xff;
+      Integer code = table.get((w << 8) | c);
+      if (code != null) {
+        w = code;
+        continue;
+      }
+      codes[n] = w;
+      widths[n++] = width;
+      table.put((w << 8) | c, next++);
+      if (next == 512 || next == 1024 || next == 2048) {
+        ++width;
+      } else if (next == 4094) {
+        codes[n] = 256;
+        widths[n++] = width;
+        table.clear();
+        next = 258;
+        width = 9;
+      }
+      w = c;
+    }
+    codes[n] = w;
+    widths[n++] = width;
+    codes[n] = 257;
+    widths[n++] = width;
+    for (int k = 0; k < n; ++k) {
+      bits = (bits << widths[k]) | codes[k];
+      count += widths[k];
+      while (count >= 8) {
+        out.write((int) (bits >> (count - 8)));
+        count -= 8;
+      }
+    }
+    if (count > 0) {
+      out.write((int) (bits << (8 - count)));
+    }
+    return out.toByteArray();
+  }
+
+  // rows of 3-byte pixels, each row with a filter type byte
+  static byte[] predicted(Random random, byte[] data, int bytesPerRow) {
+    int rows = data.length / bytesPerRow;
+    byte[] b = new byte[rows * (bytesPerRow + 1)];
+    for (int k = 0; k < rows; ++k) {
+      b[k * (bytesPerRow + 1)] = (byte) random.nextInt(5);
+      System.arraycopy(data, k * bytesPerRow, b, k * (bytesPerRow + 1) + 1, bytesPerRow);
+    }
+    return b;
+  }
+
+  static PRStream stream(byte[] data, PdfName filter) {
+    PRStream stream = new PRStream((PdfReader) null, new byte[0]);
+    stream.setData(data, false);
+    stream.put(PdfName.FILTER, filter);
+    return stream;
+  }
+
+  static void report(String label, int mb, Bench.Task task) throws Exception {
+    long before = allocated();
+    task.run();
+    System.out.printf("%s: %.0f bytes allocated per MB%n", label,
+        (allocated() - before) / (double) mb);
+  }
+
+  static void run(String label, int reps, int mb, Bench.Task task) throws Exception {
+    report(label, mb, task);
+    Bench.time(label, reps, task);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int reps = Bench.reps(args, 0, 5);
+    final int mb = Bench.reps(args, 1, 4);
+
+    Random random = new Random(1);
+    byte[] data = text(random, mb << 20);
+    final byte[] hex = hex(data);
+    final byte[] ascii85 = ascii85(data);
+    final byte[] lzw = lzw(data);
+    final byte[] png = predicted(random, data, 3 * 600);
+    final PdfDictionary parms = new PdfDictionary();
+    parms.put(PdfName.PREDICTOR, new PdfNumber(15));
+    parms.put(PdfName.COLORS, new PdfNumber(3));
+    parms.put(PdfName.COLUMNS, new PdfNumber(600));
+
+    final PRStream hexStream = stream(hex, PdfName.ASCIIHEXDECODE);
+    final PRStream ascii85Stream = stream(ascii85, PdfName.ASCII85DECODE);
+    final PRStream lzwStream = stream(lzw, PdfName.LZWDECODE);
+
+    run("ASCIIHexDecode array", reps, mb, () -> PdfReader.ASCIIHexDecode(hex));
+    run("ASCIIHexDecode stream", reps, mb, () -> PdfReader.getStreamBytes(hexStream, null));
+    run("ASCII85Decode array", reps, mb, () -> PdfReader.ASCII85Decode(ascii85));
+    run("ASCII85Decode stream", reps, mb, () -> PdfReader.getStreamBytes(ascii85Stream, null));
+    run("LZWDecode array", reps, mb, () -> PdfReader.LZWDecode(lzw));
+    run("LZWDecode stream", reps, mb, () -> PdfReader.getStreamBytes(lzwStream, null));
+    run("PNG predictors array", reps, mb, () -> PdfReader.decodePredictor(png, parms));
+  }
+};
@@ -0,0 +1,71 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import pdftk.com.lowagie.text.pdf.PRStream;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time inflating and deflating many small streams, as in a PDF with a
+// content stream on each of 100,000 pages, and report how many bytes the
+// current thread allocates for each stream.
+//
+// usage: FlateBench [reps] [streams]
+public class FlateBench {
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  // something like the text operators of a page, a few KB long
+  static byte[] content(Random random) {
+    StringBuilder s = new StringBuilder();
+    int lines = 20 + random.nextInt(80);
+    for (int k = 0; k < lines; ++k) {
+      s.append("BT /F1 ").append(8 + random.nextInt(6)).append(" Tf ");
+      s.append(random.nextInt(600)).append(' ').append(random.nextInt(800)).append(" Td (");
+      for (int c = 10 + random.nextInt(50); c > 0; --c) {
+        s.append((char) ('a' + random.nextInt(26)));
+      }
+      s.append(") Tj ET\n");
+    }
+    return s.toString().getBytes();
+  }
+
+  static void inflate(byte[][] compressed) {
+    for (byte[] data : compressed) {
+      PdfReader.FlateDecode(data);
+    }
+  }
+
+  static void deflate(byte[][] plain) {
+    PRStream stream = new PRStream((PdfReader) null, new byte[0]);
+    for (byte[] data : plain) {
+      stream.setData(data, true);
+    }
+  }
+
+  static void report(String label, int count, Bench.Task task) throws Exception {
+    long before = allocated();
+    task.run();
+    System.out.printf("%s: %.0f bytes allocated per stream%n", label,
+        (allocated() - before) / (double) count);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int reps = Bench.reps(args, 0, 5);
+    int count = Bench.reps(args, 1, 100000);
+
+    Random random = new Random(1);
+    final byte[][] plain = new byte[count][];
+    final byte[][] compressed = new byte[count][];
+    PRStream stream = new PRStream((PdfReader) null, new byte[0]);
+    for (int k = 0; k < count; ++k) {
+      plain[k] = content(random);
+      stream.setData(plain[k], true);
+      compressed[k] = stream.getBytes();
+    }
+
+    report("inflate", count, () -> inflate(compressed));
+    Bench.time("inflate " + count + " streams", reps, () -> inflate(compressed));
+    report("deflate", count, () -> deflate(plain));
+    Bench.time("deflate " + count + " streams", reps, () -> deflate(plain));
+  }
+};
@@ -0,0 +1,24 @@
+import pdftk.com.lowagie.text.pdf.PdfReader;
+import pdftk.com.lowagie.text.pdf.RandomAccessFileOrArray;
+
+// Time opening and parsing a PDF with each file input mode.
+//
+// usage: InputBench file.pdf [reps]
+public class InputBench {
+  public static void main(String[] args) throws Exception {
+    final String filename = args[0];
+    int reps = Bench.reps(args, 1, 5);
+
+    for (String mode : new String[] {"file", "buffered", "mapped"}) {
+      System.setProperty(RandomAccessFileOrArray.INPUT_PROPERTY, mode);
+      Bench.time(
+          "open " + mode,
+          reps,
+          () -> {
+            PdfReader reader = new PdfReader(filename);
+            reader.getNumberOfPages();
+            reader.close();
+          });
+    }
+  }
+};
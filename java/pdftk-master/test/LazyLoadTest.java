@@ -0,0 +1,161 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+public class LazyLoadTest extends BlackBox {
+  // Write a PDF with the given number of one-line pages,
+  // a hundred pages per intermediate page tree node.
+  void writeManyPages(File file, int pages) throws IOException {
+    int groups = (pages + 99) / 100;
+    int firstGroup = 3, firstPage = firstGroup + groups;
+    int size = firstPage + 2 * pages;
+    long[] offsets = new long[size];
+    try (OutputStream out = new FileOutputStream(file)) {
+      long pos = 0;
+      StringBuilder sb = new StringBuilder("%PDF-1.4\n");
+      offsets[1] = sb.length();
+      sb.append("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+      offsets[2] = sb.length();
+      sb.append("2 0 obj\n<< /Type /Pages /Count ").append(pages)
+        .append(" /MediaBox [0 0 612 792] /Kids [");
+      for (int g = 0; g < groups; ++g) {
+        sb.append(firstGroup + g).append(" 0 R ");
+      }
+      sb.append("] >>\nendobj\n");
+      for (int g = 0; g < groups; ++g) {
+        int n = Math.min(100, pages - 100 * g);
+        offsets[firstGroup + g] = pos + sb.length();
+        sb.append(firstGroup + g).append(" 0 obj\n<< /Type /Pages /Parent 2 0 R /Count ")
+          .append(n).append(" /Kids [");
+        for (int k = 0; k < n; ++k) {
+          sb.append(firstPage + 2 * (100 * g + k)).append(" 0 R ");
+        }
+        sb.append("] >>\nendobj\n");
+      }
+      for (int p = 0; p < pages; ++p) {
+        int page = firstPage + 2 * p;
+        String content = "BT /F1 24 Tf 72 700 Td (Page " + (p + 1) + ") Tj ET";
+        offsets[page] = pos + sb.length();
+        sb.append(page).append(" 0 obj\n<< /Type /Page /Parent ")
+          .append(firstGroup + p / 100).append(" 0 R /Resources << /Font << /F1 << ")
+          .append("/Type /Font /Subtype /Type1 /BaseFont /Helvetica >> >> >> /Contents ")
+          .append(page + 1).append(" 0 R >>\nendobj\n");
+        offsets[page + 1] = pos + sb.length();
+        sb.append(page + 1).append(" 0 obj\n<< /Length ").append(content.length())
+          .append(" >>\nstream\n").append(content).append("\nendstream\nendobj\n");
+        if (sb.length() > 0x10000) {
+          out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+          pos += sb.length();
+          sb.setLength(0);
+        }
+      }
+      long xref = pos + sb.length();
+      sb.append("xref\n0 ").append(size).append("\n0000000000 65535 f \n");
+      for (int k = 1; k < size; ++k) {
+        sb.append(String.format("%010d 00000 n \n", offsets[k]));
+      }
+      sb.append("trailer\n<< /Size ").append(size).append(" /Root 1 0 R >>\nstartxref\n")
+        .append(xref).append("\n%%EOF\n");
+      out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  // Run pdftk in its own JVM, so that we can cap its heap.
+  int pdftkWithHeap(String heap, String... args) throws Exception {
+    String[] command = new String[5 + args.length];
+    command[0] = new File(System.getProperty("java.home"), "bin/java").getPath();
+    command[1] = "-Xmx" + heap;
+    command[2] = "-cp";
+    command[3] = System.getProperty("java.class.path");
+    command[4] = "com.gitlab.pdftk_java.pdftk";
+    System.arraycopy(args, 0, command, 5, args.length);
+    return new ProcessBuilder(command).inheritIO().start().waitFor();
+  }
+
+  @Test
+  public void lazy_cat_of_few_pages_fits_small_heap() throws Exception {
+    File input = tmpDirectory.newFile("many.pdf");
+    File output = new File(tmpDirectory.getRoot(), "few.pdf");
+    writeManyPages(input, 50000);
+    assertEquals(0, pdftkWithHeap("16m", input.getPath(),
+                                  "cat", "3-5", "7east",
+                                  "output", output.getPath(),
+                                  "lazy_load", "cache_limit", "1"));
+    PdfReader reader = new PdfReader(output.getPath());
+    assertEquals(4, reader.getNumberOfPages());
+    assertEquals(90, reader.getPageRotation(4));
+  }
+
+  @Test
+  public void lazy_cat_of_many_inputs_fits_small_heap() throws Exception {
+    File input = tmpDirectory.newFile("some.pdf");
+    File output = new File(tmpDirectory.getRoot(), "all.pdf");
+    writeManyPages(input, 500);
+    String[] args = new String[60 + 6];
+    for (int k = 0; k < 60; ++k) {
+      args[k] = input.getPath();
+    }
+    System.arraycopy(new String[] {"cat", "output", output.getPath(),
+                                   "lazy_load", "cache_limit", "0"},
+                     0, args, 60, 6);
+    assertEquals(0, pdftkWithHeap("32m", args));
+    PdfReader reader = new PdfReader(output.getPath());
+    assertEquals(30000, reader.getNumberOfPages());
+  }
+
+  @Test
+  public void lazy_cat_of_thousands_of_inputs_fits_small_heap() throws Exception {
+    File input = tmpDirectory.newFile("tiny.pdf");
+    File output = new File(tmpDirectory.getRoot(), "all.pdf");
+    writeManyPages(input, 20);
+    String[] args = new String[2000 + 6];
+    for (int k = 0; k < 2000; ++k) {
+      args[k] = input.getPath();
+    }
+    System.arraycopy(new String[] {"cat", "output", output.getPath(),
+                                   "lazy_load", "cache_limit", "0"},
+                     0, args, 2000, 6);
+    assertEquals(0, pdftkWithHeap("16m", args));
+    PdfReader reader = new PdfReader(output.getPath());
+    assertEquals(40000, reader.getNumberOfPages());
+  }
+
+  @Test
+  public void lazy_cat_of_repeated_inputs_matches_cat() {
+    byte[] expected = getPdf("A=test/files/refs.pdf", "B=test/files/blank.pdf",
+                             "cat", "A", "B", "A1", "output", "-");
+    byte[] actual = getPdf("A=test/files/refs.pdf", "B=test/files/blank.pdf",
+                           "cat", "A", "B", "A1", "output", "-", "lazy_load");
+    assertPdfEqualsAsPS(expected, actual);
+  }
+
+  @Test
+  public void lazy_cat_matches_cat() {
+    byte[] expected = getPdf("test/files/refs.pdf", "cat", "output", "-");
+    byte[] actual = getPdf("test/files/refs.pdf", "cat", "output", "-", "lazy_load");
+    assertPdfEqualsAsPS(expected, actual);
+  }
+
+  @Test
+  public void lazy_cat_from_stdin() throws IOException {
+    InputStream stdin = System.in;
+    byte[] output;
+    System.setIn(new ByteArrayInputStream(slurpBytes("test/files/blank.pdf")));
+    try {
+      output = getPdf("-", "cat", "output", "-", "lazy_load");
+    } finally {
+      System.setIn(stdin);
+    }
+    assertEquals(3, new PdfReader(output).getNumberOfPages());
+  }
+};
@@ -0,0 +1,35 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Report the heap that an open PDF keeps, and time opening it. Most of
+// the keys and values of the dictionaries of a large file are the same
+// few names, so this shows what sharing them saves.
+//
+// usage: NameBench file.pdf [reps]
+public class NameBench {
+  static long used() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; ++i) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String filename = args[0];
+    int reps = Bench.reps(args, 1, 5);
+    PdfReader.setThreads(1);
+
+    long before = used();
+    PdfReader reader = new PdfReader(filename);
+    long retained = used() - before;
+    System.out.printf(
+        "%d pages, %.1f MB retained by the reader%n", reader.getNumberOfPages(), retained / 1e6);
+    reader.close();
+    reader = null;
+
+    Bench.time("open", reps, () -> new PdfReader(filename).close());
+  }
+};
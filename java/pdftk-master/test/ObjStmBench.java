@@ -0,0 +1,145 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time opening a PDF whose objects are packed in compressed object
+// streams, with one or more threads. The PDF is written first: one
+// page per object stream, together with a few of the page's property
+// dictionaries, and a cross-reference stream.
+//
+// usage: ObjStmBench out.pdf [object streams] [reps] [max threads]
+public class ObjStmBench {
+  static final int PROPERTIES = 31;
+
+  static byte[] latin1(CharSequence s) {
+    return s.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  static byte[] deflate(byte[] data) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+      out.write(data);
+    }
+    return bytes.toByteArray();
+  }
+
+  static void writeObjStms(String filename, int streams) throws IOException {
+    int perStream = 1 + PROPERTIES;
+    int first = 4;
+    int xrefNum = first + streams * (1 + perStream);
+    int size = xrefNum + 1;
+    long[] offsets = new long[size];
+    try (OutputStream out = new FileOutputStream(filename)) {
+      long pos = 0;
+      StringBuilder sb = new StringBuilder("%PDF-1.5\n");
+      offsets[1] = sb.length();
+      sb.append("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+      offsets[2] = sb.length();
+      sb.append("2 0 obj\n<< /Type /Pages /Count ").append(streams)
+        .append(" /MediaBox [0 0 612 792] /Kids [");
+      for (int s = 0; s < streams; ++s) {
+        sb.append(first + s * (1 + perStream) + 1).append(" 0 R ");
+      }
+      sb.append("] >>\nendobj\n");
+      String content = "BT /F1 24 Tf 72 700 Td (Hello) Tj ET";
+      offsets[3] = sb.length();
+      sb.append("3 0 obj\n<< /Length ").append(content.length()).append(" >>\nstream\n")
+        .append(content).append("\nendstream\nendobj\n");
+      out.write(latin1(sb));
+      pos += sb.length();
+
+      for (int s = 0; s < streams; ++s) {
+        int stm = first + s * (1 + perStream);
+        StringBuilder index = new StringBuilder();
+        StringBuilder objects = new StringBuilder();
+        for (int k = 0; k < perStream; ++k) {
+          int num = stm + 1 + k;
+          index.append(num).append(' ').append(objects.length()).append(' ');
+          if (k == 0) {
+            objects.append("<< /Type /Page /Parent 2 0 R /Contents 3 0 R /Resources << ")
+              .append("/Font << /F1 << /Type /Font /Subtype /Type1 /BaseFont /Helvetica >> >> ")
+              .append("/Properties <<");
+            for (int j = 1; j < perStream; ++j) {
+              objects.append(" /P").append(j).append(' ').append(num + j).append(" 0 R");
+            }
+            objects.append(" >> >> >>\n");
+          }
+          else {
+            objects.append("<< /Type /OCMD /Name (Layer ").append(s).append('.').append(k)
+              .append(") /Order [").append(k).append(" 1.5 true null] >>\n");
+          }
+        }
+        index.append('\n');
+        byte[] data = deflate(latin1(index.toString() + objects));
+        offsets[stm] = pos;
+        byte[] head = latin1(stm + " 0 obj\n<< /Type /ObjStm /N " + perStream + " /First "
+                             + index.length() + " /Filter /FlateDecode /Length " + data.length
+                             + " >>\nstream\n");
+        byte[] tail = latin1("\nendstream\nendobj\n");
+        out.write(head);
+        out.write(data);
+        out.write(tail);
+        pos += head.length + data.length + tail.length;
+      }
+
+      // type, 8-byte offset or object stream number, 2-byte index
+      ByteArrayOutputStream xref = new ByteArrayOutputStream();
+      offsets[xrefNum] = pos;
+      for (int num = 0; num < size; ++num) {
+        int stm = (num >= first && num < xrefNum) ? first + (num - first) / (1 + perStream) * (1 + perStream) : -1;
+        long field2;
+        int type, field3 = 0;
+        if (num == 0) {
+          type = 0;
+          field2 = 0;
+          field3 = 65535;
+        }
+        else if (stm == -1 || num == stm) {
+          type = 1;
+          field2 = offsets[num];
+        }
+        else {
+          type = 2;
+          field2 = stm;
+          field3 = num - stm - 1;
+        }
+        xref.write(type);
+        for (int b = 7; b >= 0; --b) {
+          xref.write((int)(field2 >>> (8 * b)));
+        }
+        xref.write(field3 >> 8);
+        xref.write(field3);
+      }
+      byte[] data = deflate(xref.toByteArray());
+      out.write(latin1(xrefNum + " 0 obj\n<< /Type /XRef /Size " + size + " /W [1 8 2] /Root 1 0 R"
+                       + " /Filter /FlateDecode /Length " + data.length + " >>\nstream\n"));
+      out.write(data);
+      out.write(latin1("\nendstream\nendobj\nstartxref\n" + pos + "\n%%EOF\n"));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String filename = args[0];
+    int streams = Bench.reps(args, 1, 10000);
+    int reps = Bench.reps(args, 2, 5);
+    int maxThreads = Bench.reps(args, 3, Runtime.getRuntime().availableProcessors());
+
+    writeObjStms(filename, streams);
+    for (int n = 1; n <= maxThreads; n *= 2) {
+      PdfReader.setThreads(n);
+      Bench.time(
+          "open, " + n + " thread(s)",
+          reps,
+          () -> {
+            PdfReader reader = new PdfReader(filename);
+            reader.getNumberOfPages();
+            reader.close();
+          });
+    }
+  }
+};
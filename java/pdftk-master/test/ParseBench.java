@@ -0,0 +1,24 @@
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time opening and parsing a PDF with one or more parser threads.
+//
+// usage: ParseBench file.pdf [reps] [max threads]
+public class ParseBench {
+  public static void main(String[] args) throws Exception {
+    final String filename = args[0];
+    int reps = Bench.reps(args, 1, 5);
+    int maxThreads = Bench.reps(args, 2, Runtime.getRuntime().availableProcessors());
+
+    for (int n = 1; n <= maxThreads; n *= 2) {
+      PdfReader.setThreads(n);
+      Bench.time(
+          "open, " + n + " thread(s)",
+          reps,
+          () -> {
+            PdfReader reader = new PdfReader(filename);
+            reader.getNumberOfPages();
+            reader.close();
+          });
+    }
+  }
+};
@@ -0,0 +1,52 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.gitlab.pdftk_java.pdftk;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+public class PipelineTest extends BlackBox {
+  @Test
+  public void pipeline_matches_separate_runs() throws IOException {
+    File first = new File(tmpDirectory.getRoot(), "first.pdf");
+    pdftk("A=test/files/refs.pdf", "B=test/files/blank.pdf", "cat", "A", "B",
+          "output", first.getPath());
+    byte[] expected = getPdf(first.getPath(), "rotate", "1east", "output", "-");
+    byte[] actual = getPdf("A=test/files/refs.pdf", "B=test/files/blank.pdf", "cat", "A", "B",
+                           "then", "rotate", "1east", "output", "-");
+    assertPdfEqualsAsPS(expected, actual);
+  }
+
+  @Test
+  public void later_stages_read_previous() throws IOException {
+    byte[] output = getPdf("test/files/blank.pdf", "cat", "1", "1east",
+                           "then", "A=PREVIOUS", "B=test/files/blank.pdf", "cat", "B", "A",
+                           "then", "cat", "end-1",
+                           "output", "-");
+    PdfReader reader = new PdfReader(output);
+    assertEquals(5, reader.getNumberOfPages());
+    assertEquals(90, reader.getPageRotation(1));
+    assertEquals(0, reader.getPageRotation(5));
+  }
+
+  @Test
+  public void only_last_stage_has_output() {
+    assertEquals(1, pdftk.main_noexit(new String[] {
+          "test/files/blank.pdf", "cat", "output", "-", "then", "cat", "output", "-"}));
+    assertEquals(1, pdftk.main_noexit(new String[] {
+          "test/files/blank.pdf", "dump_data", "then", "cat", "output", "-"}));
+  }
+
+  @Test
+  public void then_can_be_a_password() throws IOException {
+    byte[] output = getPdf("test/files/blank.pdf", "cat", "1",
+                           "then", "cat", "output", "-", "owner_pw", "then");
+    PdfReader reader = new PdfReader(output, "then".getBytes());
+    assertTrue(reader.isEncrypted());
+    assertEquals(1, reader.getNumberOfPages());
+  }
+};
@@ -0,0 +1,73 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time opening a damaged scan, with one or more threads. The PDF is
+// written first: one page per image of random bytes, each with a wrong
+// /Length, and a startxref that points nowhere, so that readers have to
+// rebuild the xref and look for the end of every stream.
+//
+// usage: RepairBench out.pdf [megabytes] [reps] [max threads]
+public class RepairBench {
+  static final int IMAGE_SIZE = 1 << 20;
+
+  static byte[] latin1(CharSequence s) {
+    return s.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  static void writeDamagedScan(String filename, int pages) throws IOException {
+    Random random = new Random(pages);
+    byte[] image = new byte[IMAGE_SIZE];
+    try (OutputStream out = new FileOutputStream(filename)) {
+      StringBuilder sb = new StringBuilder("%PDF-1.4\n");
+      sb.append("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+      sb.append("2 0 obj\n<< /Type /Pages /Count ").append(pages).append(" /Kids [");
+      for (int p = 0; p < pages; ++p) {
+        sb.append(3 + 3 * p).append(" 0 R ");
+      }
+      sb.append("] >>\nendobj\n");
+      out.write(latin1(sb));
+      for (int p = 0; p < pages; ++p) {
+        int page = 3 + 3 * p;
+        String content = "q 612 0 0 792 0 0 cm /Im0 Do Q";
+        out.write(latin1(page + " 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792]"
+                         + " /Resources << /XObject << /Im0 " + (page + 2) + " 0 R >> >>"
+                         + " /Contents " + (page + 1) + " 0 R >>\nendobj\n"
+                         + (page + 1) + " 0 obj\n<< /Length " + content.length() + " >>\nstream\n"
+                         + content + "\nendstream\nendobj\n"));
+        random.nextBytes(image);
+        out.write(latin1((page + 2) + " 0 obj\n<< /Type /XObject /Subtype /Image /Width 1024"
+                         + " /Height 1024 /BitsPerComponent 8 /ColorSpace /DeviceGray"
+                         + " /Length " + (IMAGE_SIZE / 2) + " >>\nstream\n"));
+        out.write(image);
+        out.write(latin1("\nendstream\nendobj\n"));
+      }
+      out.write(latin1("trailer\n<< /Size " + (3 + 3 * pages) + " /Root 1 0 R >>\n"
+                       + "startxref\n12345\n%%EOF\n"));
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String filename = args[0];
+    int pages = Bench.reps(args, 1, 256);
+    int reps = Bench.reps(args, 2, 3);
+    int maxThreads = Bench.reps(args, 3, Runtime.getRuntime().availableProcessors());
+
+    writeDamagedScan(filename, pages);
+    for (int n = 1; n <= maxThreads; n *= 2) {
+      PdfReader.setThreads(n);
+      Bench.time(
+          "open, " + n + " thread(s)",
+          reps,
+          () -> {
+            PdfReader reader = new PdfReader(filename);
+            reader.getNumberOfPages();
+            reader.close();
+          });
+    }
+  }
+};
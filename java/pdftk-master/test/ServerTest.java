@@ -0,0 +1,146 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.gitlab.pdftk_java.server;
+
+public class ServerTest extends BlackBox {
+  @Test
+  public void job_output_matches_command_line() {
+    byte[] expected = getPdf("test/files/blank.pdf", "dump_data");
+    server.Job job = server.run("test/files/blank.pdf", "dump_data");
+    assertEquals(0, job.exit_code());
+    assertArrayEquals(expected, job.stdout());
+  }
+
+  @Test
+  public void jobs_capture_output_after_system_out_changes() {
+    byte[] expected = getPdf("test/files/blank.pdf", "dump_data");
+    PrintStream stdout = System.out;
+    try {
+      assertArrayEquals(expected, server.run("test/files/blank.pdf", "dump_data").stdout());
+      ByteArrayOutputStream elsewhere = new ByteArrayOutputStream();
+      System.setOut(new PrintStream(elsewhere));
+      assertArrayEquals(expected, server.run("test/files/blank.pdf", "dump_data").stdout());
+      assertEquals(0, elsewhere.size());
+    } finally {
+      System.setOut(stdout);
+    }
+  }
+
+  @Test
+  public void job_errors_are_captured() {
+    server.Job job = server.run("test/files/missing.pdf", "cat", "output", "-");
+    assertEquals(1, job.exit_code());
+    assertEquals(0, job.stdout().length);
+    String stderr = new String(job.stderr(), StandardCharsets.UTF_8);
+    assertTrue(stderr.contains("test/files/missing.pdf"));
+  }
+
+  @Test
+  public void concurrent_jobs_get_their_own_output() throws IOException {
+    StringBuilder requests = new StringBuilder();
+    for (int k = 0; k < 20; ++k) {
+      if (k % 2 == 0) {
+        requests.append("ok").append(k).append("\ttest/files/blank.pdf\tdump_data\n");
+      } else {
+        requests.append("bad").append(k).append("\ttest/files/missing.pdf\tdump_data\n");
+      }
+    }
+    ByteArrayOutputStream replies = new ByteArrayOutputStream();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      server.serve(new ByteArrayInputStream(requests.toString().getBytes(StandardCharsets.UTF_8)),
+                   replies, pool);
+    } finally {
+      pool.shutdown();
+    }
+    String dump = new String(getPdf("test/files/blank.pdf", "dump_data"), StandardCharsets.UTF_8)
+      .replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    String[] lines = new String(replies.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertEquals(20, lines.length);
+    for (String line : lines) {
+      String[] fields = line.split("\t", -1);
+      assertEquals(4, fields.length);
+      if (fields[0].startsWith("ok")) {
+        assertEquals("0", fields[1]);
+        assertEquals(dump, fields[2]);
+        assertEquals("", fields[3]);
+      } else {
+        assertEquals("1", fields[1]);
+        assertEquals("", fields[2]);
+        assertTrue(fields[3].contains("missing.pdf"));
+      }
+    }
+  }
+
+  // the reply to one dump_data job, sent after the given first line
+  String reply(int port, String first) throws IOException {
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.getOutputStream().write(
+          (first + "\nj\ttest/files/blank.pdf\tdump_data\n").getBytes(StandardCharsets.UTF_8));
+      socket.shutdownOutput();
+      InputStream in = socket.getInputStream();
+      ByteArrayOutputStream reply = new ByteArrayOutputStream();
+      byte[] buf = new byte[4096];
+      for (int n; (n = in.read(buf)) >= 0; ) {
+        reply.write(buf, 0, n);
+      }
+      return new String(reply.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  public void connections_need_the_secret() throws Exception {
+    File secretFile = new File(tmpDirectory.getRoot(), "secret");
+    Process process =
+        new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                "com.gitlab.pdftk_java.pdftk",
+                "--server",
+                "0",
+                secretFile.getPath())
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    try {
+      int port =
+          Integer.parseInt(
+              new BufferedReader(
+                      new InputStreamReader(process.getInputStream(), StandardCharsets.US_ASCII))
+                  .readLine());
+      assertEquals(
+          EnumSet.of(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE),
+          Files.getPosixFilePermissions(secretFile.toPath()));
+      String secret = new String(Files.readAllBytes(secretFile.toPath()), StandardCharsets.US_ASCII);
+
+      assertEquals("", reply(port, "wrong"));
+      assertEquals("", reply(port, ""));
+      assertTrue(reply(port, secret).startsWith("j\t0\tInfo"));
+    } finally {
+      process.destroy();
+      process.waitFor();
+    }
+    assertFalse(secretFile.exists());
+  }
+};
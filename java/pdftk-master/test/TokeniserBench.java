@@ -0,0 +1,61 @@
+import java.lang.management.ManagementFactory;
+
+import pdftk.com.lowagie.text.exceptions.InvalidPdfException;
+import pdftk.com.lowagie.text.pdf.PRTokeniser;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+import pdftk.com.lowagie.text.pdf.RandomAccessFileOrArray;
+
+// Time tokenising a whole PDF and opening it, and report how many
+// bytes the current thread allocates per token and per open.
+//
+// usage: TokeniserBench file.pdf [reps]
+public class TokeniserBench {
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  static long tokenise(String filename) throws Exception {
+    PRTokeniser tokens = new PRTokeniser(new RandomAccessFileOrArray(filename));
+    long count = 0;
+    try {
+      while (true) {
+        try {
+          if (!tokens.nextToken()) {
+            break;
+          }
+        } catch (InvalidPdfException e) {
+          continue; // binary stream data
+        }
+        ++count;
+        if (tokens.getTokenType() == PRTokeniser.TK_NUMBER) {
+          try {
+            tokens.doubleValue();
+          } catch (NumberFormatException e) {
+            // binary stream data
+          }
+        }
+      }
+    } finally {
+      tokens.close();
+    }
+    return count;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String filename = args[0];
+    int reps = Bench.reps(args, 1, 5);
+    PdfReader.setThreads(1);
+
+    long before = allocated();
+    long count = tokenise(filename);
+    long bytes = allocated() - before;
+    System.out.printf("%d tokens, %.1f bytes allocated per token%n", count, (double) bytes / count);
+    Bench.time("tokenise", reps, () -> tokenise(filename));
+
+    before = allocated();
+    new PdfReader(filename).close();
+    System.out.printf("open: %.1f MB allocated%n", (allocated() - before) / 1e6);
+    Bench.time("open", reps, () -> new PdfReader(filename).close());
+  }
+};
@@ -0,0 +1,64 @@
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import pdftk.com.lowagie.text.Document;
+import pdftk.com.lowagie.text.pdf.PdfCopy;
+import pdftk.com.lowagie.text.pdf.PdfNumber;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+
+// Time writing the cross-reference table of a PDF with many objects,
+// and report how many bytes the current thread allocates for it. The
+// output is the first page of in.pdf and that many numbers, added
+// straight to the body before the document is closed, so closing it
+// mostly writes the table. With compress, the numbers go in object
+// streams and the table is a stream.
+//
+// usage: XrefBench in.pdf [objects] [reps] [compress]
+public class XrefBench {
+  static final OutputStream NULL_OUTPUT =
+      new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+      };
+
+  static long allocated() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public static void main(String[] args) throws Exception {
+    PdfReader reader = new PdfReader(args[0]);
+    int objects = Bench.reps(args, 1, 1000000);
+    int reps = Bench.reps(args, 2, 5);
+    boolean compress = args.length > 3 && args[3].equals("compress");
+
+    // the first run is a warm-up
+    long[] times = new long[reps + 1];
+    long bytes = 0;
+    for (int i = 0; i <= reps; ++i) {
+      Document document = new Document();
+      PdfCopy writer = new PdfCopy(document, NULL_OUTPUT);
+      if (compress) {
+        writer.setFullCompression();
+      }
+      document.open();
+      writer.addPage(writer.getImportedPage(reader, 1));
+      for (int k = 0; k < objects; ++k) {
+        writer.addToBody(new PdfNumber(k));
+      }
+      long before = allocated();
+      long start = System.nanoTime();
+      document.close();
+      times[i] = System.nanoTime() - start;
+      bytes = allocated() - before;
+    }
+    Arrays.sort(times, 1, reps + 1);
+    System.out.printf(
+        "xref of %d objects: min %.2f ms  median %.2f ms  %.1f MB allocated%n",
+        objects, times[1] / 1e6, times[1 + reps / 2] / 1e6, bytes / 1e6);
+  }
+};
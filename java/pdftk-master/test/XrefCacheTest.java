@@ -0,0 +1,183 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import pdftk.com.lowagie.text.pdf.PdfName;
+import pdftk.com.lowagie.text.pdf.PdfReader;
+import pdftk.com.lowagie.text.pdf.RandomAccessFileOrArray;
+import pdftk.com.lowagie.text.pdf.XrefCache;
+
+public class XrefCacheTest extends BlackBox {
+  // Write a PDF with the given number of pages and no usable xref,
+  // so that readers have to rebuild it.
+  void writeBrokenPdf(File file, int pages) throws IOException {
+    StringBuilder sb = new StringBuilder("%PDF-1.4\n");
+    sb.append("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+    sb.append("2 0 obj\n<< /Type /Pages /Count ").append(pages)
+      .append(" /MediaBox [0 0 612 792] /Kids [");
+    for (int p = 0; p < pages; ++p) {
+      sb.append(3 + p).append(" 0 R ");
+    }
+    sb.append("] >>\nendobj\n");
+    for (int p = 0; p < pages; ++p) {
+      sb.append(3 + p).append(" 0 obj\n<< /Type /Page /Parent 2 0 R >>\nendobj\n");
+    }
+    sb.append("trailer\n<< /Size ").append(3 + pages).append(" /Root 1 0 R")
+      .append(" /ID [<0123456789abcdef> (x\\(y\\)z)] >>\nstartxref\n1\n%%EOF\n");
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  // Write a broken PDF of 3 pages whose objects start after the given
+  // number of lines of junk, with the rest of the junk after them, so that
+  // it has the same length, start and end however much junk comes first.
+  void writeShiftedPdf(File file, int before, int lines) throws IOException {
+    StringBuilder junk = new StringBuilder();
+    for (int k = 0; k < 99; ++k) {
+      junk.append('x');
+    }
+    junk.append('\n');
+    StringBuilder sb = new StringBuilder("%PDF-1.4\n");
+    for (int k = 0; k < 20; ++k) {
+      sb.append("%").append(junk);
+    }
+    for (int k = 0; k < before; ++k) {
+      sb.append(junk);
+    }
+    sb.append("1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+    sb.append("2 0 obj\n<< /Type /Pages /Count 3 /MediaBox [0 0 612 792]")
+      .append(" /Kids [3 0 R 4 0 R 5 0 R] >>\nendobj\n");
+    for (int p = 3; p < 6; ++p) {
+      sb.append(p).append(" 0 obj\n<< /Type /Page /Parent 2 0 R >>\nendobj\n");
+    }
+    for (int k = before; k < lines; ++k) {
+      sb.append(junk);
+    }
+    for (int k = 0; k < 20; ++k) {
+      sb.append("%").append(junk);
+    }
+    sb.append("trailer\n<< /Size 6 /Root 1 0 R >>\nstartxref\n1\n%%EOF\n");
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  File[] entries(File dir) {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(".xref"));
+    return files == null ? new File[0] : files;
+  }
+
+  @After
+  public void noCache() {
+    XrefCache.setDefault(null);
+  }
+
+  @Test
+  public void cached_xref_is_reused() throws Exception {
+    File input = tmpDirectory.newFile("broken.pdf");
+    File dir = new File(tmpDirectory.getRoot(), "cache");
+    writeBrokenPdf(input, 3);
+    XrefCache.setDefault(new XrefCache(dir, 1 << 20));
+
+    PdfReader reader = new PdfReader(input.getPath());
+    assertEquals(3, reader.getNumberOfPages());
+    assertTrue(reader.isRebuilt());
+    reader.close();
+    assertEquals(1, entries(dir).length);
+
+    reader = new PdfReader(input.getPath());
+    assertEquals(3, reader.getNumberOfPages());
+    assertTrue(reader.isRebuilt());
+    assertEquals("x(y)z", reader.getTrailer().getAsArray(PdfName.ID)
+                 .getAsString(1).toString());
+    reader.close();
+  }
+
+  @Test
+  public void changed_file_replaces_entry() throws Exception {
+    File input = tmpDirectory.newFile("broken.pdf");
+    File dir = new File(tmpDirectory.getRoot(), "cache");
+    writeBrokenPdf(input, 3);
+    XrefCache.setDefault(new XrefCache(dir, 1 << 20));
+    new PdfReader(input.getPath()).close();
+    byte[] before = Files.readAllBytes(entries(dir)[0].toPath());
+
+    writeBrokenPdf(input, 5);
+    PdfReader reader = new PdfReader(input.getPath());
+    assertEquals(5, reader.getNumberOfPages());
+    reader.close();
+    assertEquals(1, entries(dir).length);
+    assertTrue(before.length != Files.readAllBytes(entries(dir)[0].toPath()).length);
+  }
+
+  @Test
+  public void corrupt_entry_is_ignored() throws Exception {
+    File input = tmpDirectory.newFile("broken.pdf");
+    File dir = new File(tmpDirectory.getRoot(), "cache");
+    writeBrokenPdf(input, 3);
+    XrefCache.setDefault(new XrefCache(dir, 1 << 20));
+    new PdfReader(input.getPath()).close();
+    Files.write(entries(dir)[0].toPath(), "garbage".getBytes(StandardCharsets.ISO_8859_1));
+
+    PdfReader reader = new PdfReader(input.getPath());
+    assertEquals(3, reader.getNumberOfPages());
+    reader.close();
+  }
+
+  @Test
+  public void cache_keeps_to_its_limit() throws Exception {
+    File dir = new File(tmpDirectory.getRoot(), "cache");
+    XrefCache.setDefault(new XrefCache(dir, 0));
+    for (int k = 0; k < 3; ++k) {
+      File input = tmpDirectory.newFile("broken" + k + ".pdf");
+      writeBrokenPdf(input, 2);
+      new PdfReader(input.getPath()).close();
+    }
+    assertEquals(0, entries(dir).length);
+  }
+
+  @Test
+  public void cat_with_cache_matches_cat() throws Exception {
+    File input = tmpDirectory.newFile("broken.pdf");
+    writeBrokenPdf(input, 3);
+    byte[] expected = getPdf(input.getPath(), "cat", "output", "-");
+    XrefCache.setDefault(new XrefCache(new File(tmpDirectory.getRoot(), "cache"), 1 << 20));
+    getPdf(input.getPath(), "cat", "output", "-");
+    byte[] actual = getPdf(input.getPath(), "cat", "output", "-");
+    assertPdfEqualsAsPS(expected, actual);
+  }
+
+  @Test
+  public void stale_entry_falls_back_to_reading_file() throws Exception {
+    File input = tmpDirectory.newFile("broken.pdf");
+    File dir = new File(tmpDirectory.getRoot(), "cache");
+    writeShiftedPdf(input, 0, 5);
+    long modified = input.lastModified();
+    XrefCache.setDefault(new XrefCache(dir, 1 << 20));
+    new PdfReader(input.getPath()).close();
+    assertEquals(1, entries(dir).length);
+
+    // same key, but the objects have moved
+    writeShiftedPdf(input, 5, 5);
+    input.setLastModified(modified);
+    PdfReader reader = new PdfReader(input.getPath());
+    assertEquals(3, reader.getNumberOfPages());
+    reader.close();
+
+    writeShiftedPdf(input, 2, 5);
+    input.setLastModified(modified);
+    reader = new PdfReader(new RandomAccessFileOrArray(input.getPath()), null);
+    assertEquals(3, reader.getNumberOfPages());
+    reader.close();
+  }
+};